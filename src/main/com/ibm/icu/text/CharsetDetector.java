@@ -178,6 +178,18 @@ public class CharsetDetector {
      *
      */
     public CharsetMatch[] detectAll() {
+        return detectAll(Integer.MAX_VALUE);
+    }
+
+    /**
+     *  Same as {@link #detectAll()}, except that the remaining recognizers are not
+     *  run once a match with at least the specified confidence has been found.
+     *
+     * @param decisiveConfidence the confidence, from 0 to 100, past which the
+     *        detection stops
+     * @return An array of CharsetMatch objects representing possibly matching charsets.
+     */
+    public CharsetMatch[] detectAll(int decisiveConfidence) {
         ArrayList<CharsetMatch> matches = new ArrayList<>();
         
         MungeInput();  // Strip html markup, collect byte stats.
@@ -191,6 +203,9 @@ public class CharsetDetector {
                 CharsetMatch m = rcInfo.recognizer.match(this);
                 if (m != null) {
                     matches.add(m);
+                    if (m.getConfidence() >= decisiveConfidence) {
+                        break;
+                    }
                 }
             }
         }
@@ -347,6 +347,21 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
 
         return in;
     }
+
+    /**
+     * Returns an <code>InputStream</code> that reads this file's contents from the beginning over several connections
+     * at once, <code>null</code> if this file's protocol cannot do so, in which case {@link #getInputStream()} should
+     * be used instead. This is the preferred way of reading a whole remote file, e.g. when it is copied.
+     *
+     * <p>This implementation returns <code>null</code>: file implementations that can read a file over several
+     * connections should override it.</p>
+     *
+     * @return an <code>InputStream</code> to read this file's contents, <code>null</code> if not supported
+     * @throws IOException if this file cannot be read or is a folder.
+     */
+    public InputStream getParallelInputStream() throws IOException {
+        return null;
+    }
 	
 
     /**
@@ -397,6 +412,24 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
         }
     }
 
+    /**
+     * Same as {@link #copyStream(InputStream, boolean, long)}, the stream reading the contents of the given file from
+     * the beginning. Implementations that resume interrupted transfers use it to tell whether a previous transfer was
+     * made from the same file.
+     *
+     * <p>This implementation ignores the source file and calls {@link #copyStream(InputStream, boolean, long)}.</p>
+     *
+     * @param in the InputStream to read from
+     * @param append if true, data written to the OutputStream will be appended to the end of this file. If false, any
+     * existing data will be overwritten.
+     * @param length length of the stream before EOF is reached, <code>-1</code> if unknown.
+     * @param sourceFile the file that the stream reads, <code>null</code> if unknown
+     * @throws FileTransferException if something went wrong while reading from the InputStream or writing to this file
+     */
+    public void copyStream(InputStream in, boolean append, long length, AbstractFile sourceFile) throws FileTransferException {
+        copyStream(in, append, length);
+    }
+
     /**
      * Copies this file to a specified destination file, overwriting the destination if it exists. If this file is a
      * directory, any file or directory it contains will also be copied.
@@ -555,6 +588,26 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
     }
 
 
+    /**
+     * Lists the children files that this file contains page by page, handing each page to the given listener as soon
+     * as it has been listed. For this operation to be successful, this file must be 'browsable', i.e.
+     * {@link #isBrowsable()} must return <code>true</code>.
+     *
+     * <p>This default implementation hands the files returned by {@link #ls()} in a single page. This method should be
+     * overridden by filesystems whose listings are paginated, so that large folders can be displayed before they have
+     * been fully listed.</p>
+     *
+     * @param listener the listener that receives the pages of children
+     * @throws IOException if this operation is not possible (file is not browsable), if an error occurred or if the
+     * listener stopped the listing.
+     * @throws UnsupportedFileOperationException if this method relies on a file operation that is not supported
+     * or not implemented by the underlying filesystem.
+     */
+    public void lsInPages(ListingListener listener) throws IOException {
+        listener.childrenListed(ls());
+    }
+
+
     /**
      * Changes this file's permissions to the specified permissions int.
      * The permissions int should be constructed using the permission types and accesses defined in
@@ -1242,7 +1295,7 @@ public abstract class AbstractFile implements FileAttributes, PermissionTypes, P
             }
 
             try {
-                destFile.copyStream(in, false, sourceFile.getSize());
+                destFile.copyStream(in, false, sourceFile.getSize(), sourceFile);
             } finally {
                 // Close stream even if copyStream() threw an IOException
                 try {
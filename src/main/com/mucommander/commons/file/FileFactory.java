@@ -21,6 +21,7 @@ package com.mucommander.commons.file;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.mucommander.commons.file.impl.avrdude.AvrdudeProtocolProvider;
 import org.slf4j.Logger;
@@ -85,7 +86,7 @@ public class FileFactory {
     private static final Logger LOGGER = LoggerFactory.getLogger(FileFactory.class);
 
     /** All registered protocol providers. */
-    private static Map<String, ProtocolProvider> protocolProviders = new Hashtable<>();
+    private static Map<String, ProtocolProvider> protocolProviders = new ConcurrentHashMap<>();
 
     /** Local file provider to avoid hashtable lookups (faster). */
     private static ProtocolProvider localFileProvider;
@@ -94,10 +95,30 @@ public class FileFactory {
     private static List<ArchiveFormatProvider> archiveFormatProvidersV = new Vector<>();
 
     /** Array of registered FileProtocolMapping instances, for quicker access */
-    private static ArchiveFormatProvider[] archiveFormatProviders;
+    private static volatile ArchiveFormatProvider[] archiveFormatProviders;
 
     /** Contains a FilePool instance for each registered scheme */
-    private static final Map<String, FilePool> FILE_POOL_MAP = new HashMap<>();
+    private static final Map<String, FilePool> FILE_POOL_MAP = new ConcurrentHashMap<>();
+
+    /** Maximum number of folder paths kept in {@link #ARCHIVE_FREE_FOLDERS} */
+    private static final int MAX_ARCHIVE_FREE_FOLDERS = 4096;
+
+    /**
+     * Folder paths (prefixed with their path separator) none of whose filenames looks like an archive, so that
+     * resolving the files they contain doesn't require testing each filename of the path against every archive format.
+     * Cleared when archive formats are registered or unregistered.
+     */
+    private static final Set<String> ARCHIVE_FREE_FOLDERS = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /** Maximum number of folder URLs kept in {@link #ARCHIVE_ANCESTORS} */
+    private static final int MAX_ARCHIVE_ANCESTORS = 4096;
+
+    /**
+     * Deepest archive containing each folder that is inside an archive, by folder URL, so that resolving the files the
+     * folder contains doesn't require walking the path and looking up every archive along it. Archives are weakly
+     * referenced. Cleared when archive formats are registered or unregistered.
+     */
+    private static final FilePool ARCHIVE_ANCESTORS = new FilePool();
 
     /** System temp directory */
     private static final AbstractFile TEMP_DIRECTORY;
@@ -198,9 +219,7 @@ public class FileFactory {
         protocol = protocol.toLowerCase();
 
         // create raw and archive file pools
-        synchronized (FILE_POOL_MAP) {
-            FILE_POOL_MAP.put(protocol, new FilePool());
-        }
+        FILE_POOL_MAP.put(protocol, new FilePool());
 
         // Special case for local file provider.
         // Note that the local file provider is also added to the provider hashtable.
@@ -221,9 +240,7 @@ public class FileFactory {
         protocol = protocol.toLowerCase();
 
         // Remove raw and archive file pools
-        synchronized (FILE_POOL_MAP) {
-            FILE_POOL_MAP.remove(protocol);
-        }
+        FILE_POOL_MAP.remove(protocol);
 
         // Special case for local file provider
         if (protocol.equals(FileProtocols.FILE)) {
@@ -301,8 +318,12 @@ public class FileFactory {
      * Updates the <code>ArchiveFormatProvider</code> array to reflect the contents of the Vector.
      */
     private static void updateArchiveFormatProviderArray() {
-        archiveFormatProviders = new ArchiveFormatProvider[archiveFormatProvidersV.size()];
-        archiveFormatProvidersV.toArray(archiveFormatProviders);
+        ArchiveFormatProvider providers[] = new ArchiveFormatProvider[archiveFormatProvidersV.size()];
+        archiveFormatProvidersV.toArray(providers);
+        archiveFormatProviders = providers;
+        // Filenames that didn't look like archives may now do so, and vice versa
+        ARCHIVE_FREE_FOLDERS.clear();
+        ARCHIVE_ANCESTORS.clear();
     }
 
     /**
@@ -314,11 +335,12 @@ public class FileFactory {
      * @return the first <code>ArchiveFormatProvider</code> that matches the specified filename, <code>null</code> if there is none
      */
     public static ArchiveFormatProvider getArchiveFormatProvider(String filename) {
-        if (filename == null || archiveFormatProviders == null) {
+        ArchiveFormatProvider providers[] = archiveFormatProviders;
+        if (filename == null || providers == null) {
             return null;
         }
 
-        for (ArchiveFormatProvider provider : archiveFormatProviders) {
+        for (ArchiveFormatProvider provider : providers) {
             if (provider.getFilenameFilter().accept(filename))
                 return provider;
         }
@@ -483,59 +505,96 @@ public class FileFactory {
 
         String pathSeparator = fileURL.getPathSeparator();
 
-        PathTokenizer pt = new PathTokenizer(filePath, pathSeparator, false);
-
         AbstractFile currentFile = null;
         boolean lastFileResolved = false;
+        String currentPath;
+
+        // Fast path: the parent folder's path is known not to contain any archive and the filename is not an archive
+        // itself, the file can be created without examining the rest of the path
+        int filenamePos = getFilenamePosition(filePath, pathSeparator);
+        String parentFolderKey = pathSeparator + filePath.substring(0, filenamePos);
+        FileURL parentFolderURL = null;
+        AbstractFile archiveAncestor;
+        if (ARCHIVE_FREE_FOLDERS.contains(parentFolderKey) && !isArchiveFilename(getFilename(filePath, filenamePos, pathSeparator))) {
+            currentPath = filePath;
+        } else if (ARCHIVE_ANCESTORS.size() > 0
+                && (archiveAncestor = ARCHIVE_ANCESTORS.get(parentFolderURL = getParentFolderURL(fileURL, filePath, filenamePos))) != null
+                && !isArchiveFilename(getFilename(filePath, filenamePos, pathSeparator))) {
+            // The parent folder is inside a known archive, the file is resolved from it as an entry
+            currentFile = archiveAncestor;
+            currentPath = filePath;
+        } else {
+            PathTokenizer pt = new PathTokenizer(filePath, pathSeparator, false);
+            boolean parentArchiveFree = true;
+            // Deepest archive containing the parent folder
+            AbstractFile parentArchive = null;
+
+            // Extract every filename from the path from left to right and for each of them, see if it looks like an archive.
+            // If it does, create the appropriate protocol file and wrap it with an archive file.
+            while (pt.hasMoreFilenames()) {
+                String filename = pt.nextFilename();
+                if (!pt.hasMoreFilenames()) {
+                    parentArchive = currentFile;
+                }
+                // Test if the filename's extension looks like a supported archive format...
+                // Note that the archive can also be a directory with an archive extension.
+                if (isArchiveFilename(filename)) {
+                    parentArchiveFree &= !pt.hasMoreFilenames();
+                    // Remove trailing separator of file, some file protocols such as SFTP don't like trailing separators.
+                    // On the contrary, directories without a trailing slash are fine.
+                    String archivePath = PathUtils.removeTrailingSeparator(pt.getCurrentPath(), pathSeparator);
+
+                    // Test if current file is an archive and if it is, create an archive entry file instead of a raw
+                    // protocol file
+                    if (currentFile == null || !currentFile.isArchive()) {
+                        // create a fresh FileURL with the current path
+                        FileURL clonedURL = (FileURL)fileURL.clone();
+                        clonedURL.setPath(archivePath);
+
+                        // Look for a cached file instance before creating a new one
+                        currentFile = filePool.get(clonedURL);
+                        if (currentFile == null) {
+                            currentFile = wrapArchive(createRawFile(clonedURL, authenticator, instantiationParams));
+                            // Add the intermediate file instance to the cache
+                            filePool.put(clonedURL, currentFile);
+                        }
 
-        // Extract every filename from the path from left to right and for each of them, see if it looks like an archive.
-        // If it does, create the appropriate protocol file and wrap it with an archive file.
-        while (pt.hasMoreFilenames()) {
-            // Test if the filename's extension looks like a supported archive format...
-            // Note that the archive can also be a directory with an archive extension.
-            if (isArchiveFilename(pt.nextFilename())) {
-                // Remove trailing separator of file, some file protocols such as SFTP don't like trailing separators.
-                // On the contrary, directories without a trailing slash are fine.
-                String currentPath = PathUtils.removeTrailingSeparator(pt.getCurrentPath(), pathSeparator);
-
-                // Test if current file is an archive and if it is, create an archive entry file instead of a raw
-                // protocol file
-                if (currentFile == null || !currentFile.isArchive()) {
-                    // create a fresh FileURL with the current path
-                    FileURL clonedURL = (FileURL)fileURL.clone();
-                    clonedURL.setPath(currentPath);
-
-                    // Look for a cached file instance before creating a new one
-                    currentFile = filePool.get(clonedURL);
-                    if (currentFile == null) {
-                        currentFile = wrapArchive(createRawFile(clonedURL, authenticator, instantiationParams));
-                        // Add the intermediate file instance to the cache
-                        filePool.put(clonedURL, currentFile);
-                    }
-
-                    lastFileResolved = true;
-                } else {          // currentFile is an AbstractArchiveFile
-                    // Note: wrapArchive() is already called by AbstractArchiveFile#createArchiveEntryFile()
-                    AbstractFile tempEntryFile = ((AbstractArchiveFile)currentFile).getArchiveEntryFile(PathUtils.removeLeadingSeparator(currentPath.substring(currentFile.getURL().getPath().length(), currentPath.length()), pathSeparator));
-                    if (tempEntryFile.isArchive()) {
-                        currentFile = tempEntryFile;
                         lastFileResolved = true;
-                    } else {
-                        lastFileResolved = false;
+                    } else {          // currentFile is an AbstractArchiveFile
+                        // Note: wrapArchive() is already called by AbstractArchiveFile#createArchiveEntryFile()
+                        AbstractFile tempEntryFile = ((AbstractArchiveFile)currentFile).getArchiveEntryFile(PathUtils.removeLeadingSeparator(archivePath.substring(currentFile.getURL().getPath().length(), archivePath.length()), pathSeparator));
+                        if (tempEntryFile.isArchive()) {
+                            currentFile = tempEntryFile;
+                            lastFileResolved = true;
+                        } else {
+                            lastFileResolved = false;
+                        }
+                        // Note: don't cache the entry file
                     }
-                    // Note: don't cache the entry file
+                } else {
+                    lastFileResolved = false;
+                }
+            }
+
+            // Note: DON'T strip out the trailing separator, as this would cause problems with root resources
+            currentPath = pt.getCurrentPath();
+
+            if (parentArchiveFree) {
+                if (ARCHIVE_FREE_FOLDERS.size() >= MAX_ARCHIVE_FREE_FOLDERS) {
+                    ARCHIVE_FREE_FOLDERS.clear();
+                }
+                ARCHIVE_FREE_FOLDERS.add(parentFolderKey);
+            } else if (parentArchive != null && parentArchive.isArchive()) {
+                if (ARCHIVE_ANCESTORS.size() >= MAX_ARCHIVE_ANCESTORS) {
+                    ARCHIVE_ANCESTORS.clear();
                 }
-            } else {
-                lastFileResolved = false;
+                ARCHIVE_ANCESTORS.put(parentFolderURL == null ? getParentFolderURL(fileURL, filePath, filenamePos) : parentFolderURL, parentArchive);
             }
         }
 
         // create last file if it hasn't been already (if the last filename was not an archive), same routine as above
         // except that it doesn't wrap the file with an archive file
         if (!lastFileResolved) {
-            // Note: DON'T strip out the trailing separator, as this would cause problems with root resources
-            String currentPath = pt.getCurrentPath();
-
             if (currentFile == null || !currentFile.isArchive()) {
                 FileURL clonedURL = (FileURL)fileURL.clone();
                 clonedURL.setPath(currentPath);
@@ -557,6 +616,47 @@ public class FileFactory {
         return currentFile;
     }
 
+    /**
+     * Returns the URL of the parent folder of the given file, whose path (as adjusted for Windows local paths) has its
+     * last filename at the given position.
+     */
+    private static FileURL getParentFolderURL(FileURL fileURL, String filePath, int filenamePos) {
+        String urlPath = fileURL.getPath();
+        FileURL parentFolderURL = (FileURL)fileURL.clone();
+        parentFolderURL.setPath(urlPath.substring(0, urlPath.length() - filePath.length() + filenamePos));
+        return parentFolderURL;
+    }
+
+    /**
+     * Returns the position of the last filename of the given path, trailing separators are ignored.
+     */
+    private static int getFilenamePosition(String path, String separators) {
+        int pos = getFilenameEnd(path, separators);
+        while (pos > 0 && separators.indexOf(path.charAt(pos - 1)) < 0) {
+            pos--;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the position following the last filename of the given path, that is the position of its trailing
+     * separators if it has any.
+     */
+    private static int getFilenameEnd(String path, String separators) {
+        int end = path.length();
+        while (end > 0 && separators.indexOf(path.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the last filename of the given path, which starts at the given position.
+     */
+    private static String getFilename(String path, int filenamePos, String separators) {
+        return path.substring(filenamePos, getFilenameEnd(path, separators));
+    }
+
     private static AbstractFile createRawFile(FileURL fileURL, Authenticator authenticator, Object... instantiationParams) throws IOException {
         String scheme = fileURL.getScheme().toLowerCase();
 
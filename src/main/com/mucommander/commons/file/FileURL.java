@@ -117,13 +117,21 @@ public class FileURL implements Cloneable {
     /** Query part, null if this URL has none */
     private String query;
 
-    /** Properties, null if none have been set thus far */
+    /**
+     * Properties, null if none have been set thus far. The map is never modified once assigned, setting a property
+     * replaces it with a modified copy, so that it can be shared with clones, parents and children.
+     */
     private Map<String, String> properties;
     /** Credentials (login and password parts), null if this URL has none */
     private Credentials credentials;
 
     /** Caches the value returned by #hashCode() for as long as this instance is not modified */
     private int hashCode;
+    /** Caches the parent URL for as long as this instance is not modified, never modified itself : #getParent() returns clones of it */
+    private FileURL parentURL;
+
+    /** True if paths are case-sensitive on the current OS */
+    private static final boolean CASE_SENSITIVE_PATHS = !(OsFamily.WINDOWS.isCurrent() || OsFamily.OS_2.isCurrent());
 
     /** Default handler for schemes that do not have a specific handler */
     private static final SchemeHandler DEFAULT_HANDLER = new DefaultSchemeHandler();
@@ -188,6 +196,7 @@ public class FileURL implements Cloneable {
      */
     private void urlModified() {
         hashCode = 0;
+        parentURL = null;
     }
 
     /**
@@ -262,6 +271,8 @@ public class FileURL implements Cloneable {
      */
     public void setHandler(SchemeHandler handler) {
         this.handler = handler;
+
+        urlModified();
     }
 
     /**
@@ -577,10 +588,18 @@ public class FileURL implements Cloneable {
      *
      * <p>Note: this method returns a new FileURL instance every time it is called, and all mutable fields of this FileURL
      * are cloned. Therefore, the returned URL can be safely modified without any risk of side effects.
+     * The parent's path is resolved only once for as long as this URL is not modified.
      *
      * @return this URL's parent, <code>null</code> if it doesn't have one.
      */
     public FileURL getParent() {
+        if (parentURL == null) {
+            parentURL = createParent();
+        }
+        return parentURL == null ? null : (FileURL)parentURL.clone();
+    }
+
+    private FileURL createParent() {
         // If path equals '/', url has no parent
         if (!(path.equals("/") || path.isEmpty())) {
             String separator = getPathSeparator();
@@ -603,9 +622,8 @@ public class FileURL implements Cloneable {
                 // Note: Credentials are immutable.
                 parentURL.credentials = credentials;
 
-                // Copy properties to parent (if any)
-                if (properties != null)
-                    parentURL.properties = new HashMap<>(properties);
+                // Share properties with parent (if any), they are never modified in place
+                shareProperties(parentURL);
 
                 return parentURL;
             }
@@ -615,6 +633,34 @@ public class FileURL implements Cloneable {
     }
 
 
+    /**
+     * Returns the URL of the child of this URL with the given filename. The child has the same handler, scheme, host,
+     * port, query, credentials and properties as this URL, its path is this URL's path followed by the filename.
+     *
+     * <p>This is equivalent to cloning this URL and setting the child's path with {@link #setPath(String)}, but the
+     * filename doesn't have to be extracted back from the path. This method is the preferred way to create the URLs
+     * of the files returned by {@link AbstractFile#ls()}.
+     *
+     * @param filename the child's filename, which must not contain any path separator
+     * @return the URL of the child of this URL with the given filename
+     */
+    public FileURL getChild(String filename) {
+        String separator = getPathSeparator();
+        FileURL childURL = new FileURL(handler);
+
+        childURL.scheme = scheme;
+        childURL.host = host;
+        childURL.port = port;
+        childURL.path = path.endsWith(separator) ? path + filename : path + separator + filename;
+        childURL.filename = filename;
+        childURL.query = query;
+        childURL.credentials = credentials;  // Note: Credentials are immutable.
+        shareProperties(childURL);
+
+        return childURL;
+    }
+
+
     /**
      * Returns the authentication realm corresponding to this URL, i.e. the base location throughout which credentials
      * can be used. Any property contained by the specified FileURL will be carried over in the returned FileURL.
@@ -689,16 +735,15 @@ public class FileURL implements Cloneable {
      * @see #getProperty(String)
      */
     public void setProperty(String name, String value) {
-        // create the property map only when a property is set for the first time
-        if (properties == null) {
-            properties = new HashMap<>();
-        }
-
+        // The map may be used by other instances, modify a copy of it. The map is created only when a property is set
+        // for the first time.
+        Map<String, String> newProperties = properties == null ? new HashMap<>() : new HashMap<>(properties);
         if (value == null) {
-            properties.remove(name);
+            newProperties.remove(name);
         } else {
-            properties.put(name, value);
+            newProperties.put(name, value);
         }
+        properties = newProperties;
 
         urlModified();
     }
@@ -710,8 +755,9 @@ public class FileURL implements Cloneable {
      * @return an <code>Enumeration</code> of all property names this FileURL contains
      */
     public Set<String> getPropertyNames() {
-        return properties == null ? new HashSet<>() : properties.keySet();
-        }
+        // Return a copy, the map may be replaced or shared with other instances
+        return properties == null ? new HashSet<>() : new HashSet<>(properties.keySet());
+    }
 
     /**
      * Copy the properties of the given FileURL into this FileURL.
@@ -719,15 +765,17 @@ public class FileURL implements Cloneable {
      * @param url FileURL instance whose properties should be imported into this one.
      */
     public void importProperties(FileURL url) {
-        // Slight optimization to avoid creating an enumeration if the FileURL doesn't have any property
-        if (url.properties == null) {
+        Map<String, String> importedProperties = url.properties;
+        if (importedProperties == null) {
             return;
         }
 
-        Set<String> propertyKeys = url.getPropertyNames();
-        for (String key : propertyKeys) {
-            setProperty(key, url.getProperty(key));
-        }
+        // Copy this URL's properties once rather than once per imported property
+        Map<String, String> newProperties = properties == null ? new HashMap<>() : new HashMap<>(properties);
+        newProperties.putAll(importedProperties);
+        properties = newProperties;
+
+        urlModified();
     }
 
     /**
@@ -885,25 +933,25 @@ public class FileURL implements Cloneable {
      * @return <code>true</code> if the path of this URL and the given URL are equal
      */
     public boolean pathEquals(FileURL url) {
-    	boolean isCaseSensitiveOS = !(OsFamily.getCurrent().equals(OsFamily.WINDOWS) || OsFamily.getCurrent().equals(OsFamily.OS_2));
-    	
-        String path1 = isCaseSensitiveOS ? this.getPath() : this.getPath().toLowerCase();
-        String path2 = isCaseSensitiveOS ? url.getPath() : url.getPath().toLowerCase();
+        String path1 = this.path;
+        String path2 = url.path;
+        int len1 = path1.length();
+        int len2 = path2.length();
 
-        if (path1.equals(path2))
+        if (len1 == len2 && path1.regionMatches(!CASE_SENSITIVE_PATHS, 0, path2, 0, len1))
             return true;
 
         String separator = getPathSeparator();
 
         if (separator.equals(url.getPathSeparator())) {
             int separatorLen = separator.length();
-            int len1 = path1.length();
-            int len2 = path2.length();
 
             // If the difference between the 2 strings is just a trailing path separator, we consider the paths as equal
-            if (Math.abs(len1-len2) == separatorLen && (len1 > len2 ? path1.startsWith(path2) : path2.startsWith(path1))) {
-                String diff = len1>len2 ? path1.substring(len1-separatorLen) : path2.substring(len2-separatorLen);
-                return separator.equals(diff);
+            if (Math.abs(len1-len2) == separatorLen) {
+                String longPath = len1 > len2 ? path1 : path2;
+                String shortPath = len1 > len2 ? path2 : path1;
+                return longPath.regionMatches(!CASE_SENSITIVE_PATHS, 0, shortPath, 0, shortPath.length())
+                    && longPath.startsWith(separator, shortPath.length());
             }
         }
 
@@ -983,16 +1031,23 @@ public class FileURL implements Cloneable {
         clonedURL.credentials = credentials;  // Note: Credentials are immutable.
 
         // Mutable fields
-        if (properties != null) {    // Copy properties (if any)
-            clonedURL.properties = new HashMap<>(properties);
-        }
+        shareProperties(clonedURL);
 
         // Caches
         clonedURL.hashCode = hashCode;
+        clonedURL.parentURL = parentURL;
 
         return clonedURL;
     }
 
+    /**
+     * Makes the given URL use the same properties as this one. Only the given URL is modified: the properties map is
+     * never modified in place, so it can be shared without copying it or marking this URL.
+     */
+    private void shareProperties(FileURL url) {
+        url.properties = properties;
+    }
+
     /**
      * This method is equivalent to calling {@link #equals(Object, boolean, boolean)} with credentials and properties
      * comparisons enabled.
@@ -1038,6 +1093,11 @@ public class FileURL implements Cloneable {
 
         FileURL url = (FileURL)o;
 
+        // Hash codes take all the compared parts into account, compare them if they're already known. Paths are hashed
+        // case-sensitively, so this can only be done where paths are compared case-sensitively.
+        if (CASE_SENSITIVE_PATHS && compareCredentials && compareProperties && hashCode != 0 && url.hashCode != 0 && hashCode != url.hashCode)
+            return false;
+
         return pathEquals(url)      // Compare the path first as it is the most likely to be different
             && schemeEquals(url)
             && hostEquals(url)
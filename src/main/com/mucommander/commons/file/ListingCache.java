@@ -0,0 +1,385 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.file.filter.FileFilter;
+import com.mucommander.commons.file.filter.FilenameFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Predicate;
+
+/**
+ * A size-bounded cache of folder listings, shared by all the components that list folders (file tables, folders tree,
+ * location auto-completion...) so that a folder browsed by several of them is listed only once.
+ *
+ * <p>Listings are keyed by the folder's {@link FileURL} and are considered valid as long as:
+ * <ul>
+ *   <li>their time-to-live, which can be set for each protocol with {@link #setTimeToLive(String, long)}, has not
+ *   expired</li>
+ *   <li>the date of the folder hasn't changed since it was listed</li>
+ * </ul>
+ * Listings of a folder that is being listed by another thread are not performed twice : the second caller waits for
+ * the first listing to complete and shares its result.</p>
+ *
+ * <p>The cache doesn't know about the changes made to the files, components that modify a folder should call
+ * {@link #invalidate(AbstractFile)} or {@link #invalidate(Predicate)} to have it listed again.</p>
+ */
+public class ListingCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListingCache.class);
+
+    /** Default number of milliseconds during which a listing is valid */
+    public static final long DEFAULT_TIME_TO_LIVE = 10000;
+
+    /** Number of milliseconds during which a local listing is valid : local folder dates are reliable */
+    public static final long LOCAL_TIME_TO_LIVE = 60000;
+
+    /** Maximum number of cached listings */
+    public static final int MAX_FOLDERS = 256;
+
+    /** Maximum number of files summed over all cached listings */
+    public static final int MAX_FILES = 100000;
+
+    /** Time-to-live of listings, per protocol */
+    private static final Map<String, Long> timeToLives = new HashMap<>();
+
+    /** Cached listings, in access order */
+    private static final LinkedHashMap<FileURL, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Listings being performed */
+    private static final Map<FileURL, PendingListing> pendingListings = new HashMap<>();
+
+    /** Number of files summed over all cached listings */
+    private static int nbCachedFiles;
+
+    static {
+        setTimeToLive(FileProtocols.FILE, LOCAL_TIME_TO_LIVE);
+    }
+
+    /**
+     * A folder's children, as listed at a given time.
+     */
+    private static class Listing {
+        private final AbstractFile folder;
+        private final AbstractFile children[];
+        private final long folderDate;
+        private final long expirationDate;
+
+        private Listing(AbstractFile folder, AbstractFile children[], long folderDate, long expirationDate) {
+            this.folder = folder;
+            this.children = children;
+            this.folderDate = folderDate;
+            this.expirationDate = expirationDate;
+        }
+
+        private boolean isValid(AbstractFile folder) {
+            return System.currentTimeMillis() < expirationDate && folder.getDate() == folderDate;
+        }
+    }
+
+    /**
+     * A listing being performed by a thread, whose result is shared with the threads that need the same folder.
+     */
+    private static class PendingListing {
+        private final FutureTask<Listing> task;
+
+        /** True if the listing was stopped by the page listener of the thread performing it, rather than by the
+         * file system: the other threads should list the folder again */
+        private volatile boolean stoppedByListener;
+
+        private PendingListing(AbstractFile folder, ListingListener pageListener, long timeToLive) {
+            ListingListener listener = pageListener == null ? null : page -> {
+                try {
+                    pageListener.childrenListed(page);
+                } catch (IOException | RuntimeException e) {
+                    stoppedByListener = true;
+                    throw e;
+                }
+            };
+            task = new FutureTask<>(() -> {
+                long folderDate = folder.getDate();
+                AbstractFile children[] = ls(folder, listener);
+                return new Listing(folder, children, folderDate, System.currentTimeMillis() + timeToLive);
+            });
+        }
+    }
+
+
+    private ListingCache() {
+    }
+
+    /**
+     * Sets the number of milliseconds during which the listings of the given protocol are valid.
+     * A value of <code>0</code> disables caching for this protocol.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     * @param timeToLive a number of milliseconds
+     */
+    public static synchronized void setTimeToLive(String protocol, long timeToLive) {
+        timeToLives.put(protocol.toLowerCase(), timeToLive);
+    }
+
+    /**
+     * Returns the number of milliseconds during which the listings of the given protocol are valid.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     * @return a number of milliseconds, <code>0</code> if caching is disabled for this protocol
+     */
+    public static synchronized long getTimeToLive(String protocol) {
+        Long timeToLive = timeToLives.get(protocol.toLowerCase());
+        return timeToLive == null ? DEFAULT_TIME_TO_LIVE : timeToLive;
+    }
+
+    /**
+     * Returns the children of the given folder, from the cache if a valid listing is available, by calling
+     * {@link AbstractFile#ls()} otherwise.
+     *
+     * @param folder the folder to list
+     * @return the children of the folder, in a new array that can be modified by the caller
+     * @throws IOException if the folder could not be listed
+     */
+    public static AbstractFile[] ls(AbstractFile folder) throws IOException {
+        return getListing(folder).children.clone();
+    }
+
+    /**
+     * Returns the children of the given folder that match the given filter, from the cache if a valid listing is
+     * available, by calling {@link AbstractFile#ls()} otherwise.
+     *
+     * @param folder the folder to list
+     * @param filter the filter to apply to the children, may be <code>null</code>
+     * @return the children of the folder, in a new array that can be modified by the caller
+     * @throws IOException if the folder could not be listed
+     */
+    public static AbstractFile[] ls(AbstractFile folder, FileFilter filter) throws IOException {
+        AbstractFile children[] = getListing(folder).children;
+        return filter == null ? children.clone() : filter.filter(children);
+    }
+
+    /**
+     * Returns the children of the given folder whose name match the given filter, from the cache if a valid listing
+     * is available, by calling {@link AbstractFile#ls()} otherwise.
+     *
+     * @param folder the folder to list
+     * @param filter the filter to apply to the children's names, may be <code>null</code>
+     * @return the children of the folder, in a new array that can be modified by the caller
+     * @throws IOException if the folder could not be listed
+     */
+    public static AbstractFile[] ls(AbstractFile folder, FilenameFilter filter) throws IOException {
+        AbstractFile children[] = getListing(folder).children;
+        return filter == null ? children.clone() : filter.filter(children);
+    }
+
+    /**
+     * Lists the children of the given folder that match the given filter page by page. If a valid listing is cached or
+     * if the folder is being listed by another thread, its children are handed to the listener in a single page.
+     * Otherwise, the folder is listed with {@link AbstractFile#lsInPages(ListingListener)}, each page being handed
+     * to the listener as soon as it has been listed, and the complete listing is cached.
+     *
+     * @param folder the folder to list
+     * @param filter the filter to apply to the children, may be <code>null</code>
+     * @param listener the listener that receives the pages of children, at least once
+     * @throws IOException if the folder could not be listed or if the listener stopped the listing
+     */
+    public static void lsInPages(AbstractFile folder, FileFilter filter, ListingListener listener) throws IOException {
+        boolean pagesHanded[] = new boolean[1];
+        Listing listing = getListing(folder, children -> {
+            pagesHanded[0] = true;
+            listener.childrenListed(filter == null ? children.clone() : filter.filter(children));
+        });
+        if (!pagesHanded[0]) {
+            listener.childrenListed(filter == null ? listing.children.clone() : filter.filter(listing.children));
+        }
+    }
+
+    /**
+     * Removes the listing of the given folder from the cache.
+     *
+     * @param folder a folder
+     */
+    public static synchronized void invalidate(AbstractFile folder) {
+        FileURL url = folder.getURL();
+        remove(url);
+        pendingListings.remove(url);
+    }
+
+    /**
+     * Removes the listings of the folders that match the given predicate from the cache.
+     *
+     * @param predicate returns <code>true</code> for the folders whose listing should be removed
+     */
+    public static void invalidate(Predicate<AbstractFile> predicate) {
+        AbstractFile folders[];
+        synchronized (ListingCache.class) {
+            folders = new AbstractFile[listings.size()];
+            int i = 0;
+            for (Listing listing : listings.values()) {
+                folders[i++] = listing.folder;
+            }
+        }
+        // The predicate may be slow, don't hold the lock while calling it
+        for (AbstractFile folder : folders) {
+            if (predicate.test(folder)) {
+                invalidate(folder);
+            }
+        }
+    }
+
+    /**
+     * Removes all the listings from the cache.
+     */
+    public static synchronized void clear() {
+        listings.clear();
+        pendingListings.clear();
+        nbCachedFiles = 0;
+    }
+
+    /**
+     * Returns the number of cached listings.
+     *
+     * @return the number of cached listings
+     */
+    public static synchronized int size() {
+        return listings.size();
+    }
+
+
+    private static Listing getListing(AbstractFile folder) throws IOException {
+        return getListing(folder, null);
+    }
+
+    /**
+     * Returns the listing of the given folder. If the folder has to be listed by the calling thread and
+     * <code>pageListener</code> is not <code>null</code>, the folder is listed page by page and each page is handed
+     * to the listener.
+     */
+    private static Listing getListing(AbstractFile folder, ListingListener pageListener) throws IOException {
+        FileURL url = folder.getURL();
+        long timeToLive = getTimeToLive(url.getScheme());
+        if (timeToLive <= 0) {
+            return new Listing(folder, ls(folder, pageListener), 0, 0);
+        }
+
+        while (true) {
+            PendingListing pending;
+            boolean owner = false;
+            synchronized (ListingCache.class) {
+                Listing listing = listings.get(url);
+                if (listing != null) {
+                    if (listing.isValid(folder)) {
+                        return listing;
+                    }
+                    remove(url);
+                }
+                pending = pendingListings.get(url);
+                if (pending == null) {
+                    pending = new PendingListing(folder, pageListener, timeToLive);
+                    pendingListings.put(url, pending);
+                    owner = true;
+                }
+            }
+
+            if (owner) {
+                pending.task.run();
+            }
+            try {
+                Listing listing = pending.task.get();
+                if (owner) {
+                    synchronized (ListingCache.class) {
+                        // Don't cache the listing if the folder has been invalidated in the meantime
+                        if (pendingListings.get(url) == pending) {
+                            put(url, listing);
+                        }
+                    }
+                }
+                return listing;
+            } catch (ExecutionException e) {
+                if (!owner && pending.stoppedByListener) {
+                    // The failure concerns only the thread that performed the listing, list the folder again
+                    synchronized (ListingCache.class) {
+                        pendingListings.remove(url, pending);
+                    }
+                    continue;
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException)cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } finally {
+                if (owner) {
+                    synchronized (ListingCache.class) {
+                        pendingListings.remove(url, pending);
+                    }
+                }
+            }
+        }
+    }
+
+    private static AbstractFile[] ls(AbstractFile folder, ListingListener pageListener) throws IOException {
+        if (pageListener == null) {
+            return folder.ls();
+        }
+        List<AbstractFile> children = new ArrayList<>();
+        folder.lsInPages(page -> {
+            Collections.addAll(children, page);
+            pageListener.childrenListed(page);
+        });
+        return children.toArray(new AbstractFile[children.size()]);
+    }
+
+    private static void put(FileURL url, Listing listing) {
+        if (listing.children.length > MAX_FILES) {
+            return;
+        }
+        remove(url);
+        listings.put(url, listing);
+        nbCachedFiles += listing.children.length;
+        // Evict the least recently used listings
+        Iterator<Listing> iterator = listings.values().iterator();
+        while (listings.size() > MAX_FOLDERS || nbCachedFiles > MAX_FILES) {
+            Listing eldest = iterator.next();
+            iterator.remove();
+            nbCachedFiles -= eldest.children.length;
+        }
+        LOGGER.trace("cached listing of " + url + ", " + listings.size() + " listings, " + nbCachedFiles + " files");
+    }
+
+    private static void remove(FileURL url) {
+        Listing listing = listings.remove(url);
+        if (listing != null) {
+            nbCachedFiles -= listing.children.length;
+        }
+    }
+}
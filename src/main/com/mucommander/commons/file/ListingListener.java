@@ -0,0 +1,37 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import java.io.IOException;
+
+/**
+ * Receives the children of a folder page by page, as they are listed by {@link AbstractFile#lsInPages(ListingListener)}.
+ * Filesystems whose listings are paginated (S3, HDFS...) hand each page as soon as it has been received, so that
+ * the first files of a large folder can be displayed or processed before the folder has been fully listed.
+ */
+public interface ListingListener {
+
+    /**
+     * Called each time a page of children has been listed. Pages are handed in order, by the thread that lists the
+     * folder; they don't overlap.
+     *
+     * @param children the children listed in this page, may be empty
+     * @throws IOException to stop the listing, which is then rethrown by {@link AbstractFile#lsInPages(ListingListener)}
+     */
+    void childrenListed(AbstractFile children[]) throws IOException;
+}
@@ -0,0 +1,269 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lists folders ahead of a recursive operation (copy, delete, search...) that walks a folder tree depth-first: each
+ * time a folder is listed with {@link #ls(AbstractFile)}, its subfolders are queued to be listed in the background, so
+ * that on high-latency filesystems the listings of the next folders are under way or done by the time the operation
+ * reaches them.
+ *
+ * <p>The number of listings performed concurrently is bounded, and can be set for each protocol with
+ * {@link #setMaxRequests(String, int)}. Prefetching is disabled for protocols whose listings are fast, local
+ * folders in particular. The number of listings that have been prefetched but not requested yet is bounded as well,
+ * so that the memory used by a prefetcher doesn't depend on the size of the folder tree.</p>
+ *
+ * <p>The most recently queued folders are listed first, which matches the order in which a depth-first traversal
+ * requests them.</p>
+ */
+public class ListingPrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListingPrefetcher.class);
+
+    /** Default maximum number of concurrent listings of remote protocols */
+    public static final int DEFAULT_MAX_REQUESTS = 4;
+
+    /** Maximum number of listings prefetched but not requested yet, including the ones being performed */
+    public static final int MAX_PREFETCHED_LISTINGS = 256;
+
+    /** Maximum number of concurrent listings, per protocol */
+    private static final Map<String, Integer> maxRequests = new HashMap<>();
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Listing prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        for (String protocol : new String[] {FileProtocols.S3, FileProtocols.HDFS, FileProtocols.SFTP, FileProtocols.FTP, FileProtocols.SMB}) {
+            setMaxRequests(protocol, DEFAULT_MAX_REQUESTS);
+        }
+    }
+
+    /** Maximum number of concurrent listings of this prefetcher */
+    private final int maxConcurrentRequests;
+
+    /** Folders waiting to be listed, the most recently queued first */
+    private final LinkedList<AbstractFile> queuedFolders = new LinkedList<>();
+
+    /** URLs of the folders in {@link #queuedFolders} */
+    private final Set<FileURL> queuedURLs = new HashSet<>();
+
+    /** Listings being performed or performed but not requested yet */
+    private final Map<FileURL, PrefetchedListing> listings = new HashMap<>();
+
+    /** Number of listings being performed */
+    private int nbRequests;
+
+    private boolean closed;
+
+    /**
+     * The listing of a folder, performed in the background.
+     */
+    private static class PrefetchedListing {
+        private AbstractFile children[];
+        private IOException error;
+        private boolean done;
+    }
+
+
+    /**
+     * Creates a prefetcher for folders of the given protocol.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     */
+    public ListingPrefetcher(String protocol) {
+        this(getMaxRequests(protocol));
+    }
+
+    /**
+     * Creates a prefetcher that performs at most the given number of listings concurrently.
+     *
+     * @param maxConcurrentRequests a number of listings, <code>0</code> to disable prefetching
+     */
+    public ListingPrefetcher(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Sets the maximum number of listings of folders of the given protocol that a prefetcher performs concurrently.
+     * A value of <code>0</code> disables prefetching for this protocol.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     * @param nbRequests a number of listings
+     */
+    public static synchronized void setMaxRequests(String protocol, int nbRequests) {
+        maxRequests.put(protocol.toLowerCase(), nbRequests);
+    }
+
+    /**
+     * Returns the maximum number of listings of folders of the given protocol that a prefetcher performs concurrently.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     * @return a number of listings, <code>0</code> if prefetching is disabled for this protocol
+     */
+    public static synchronized int getMaxRequests(String protocol) {
+        Integer nbRequests = maxRequests.get(protocol.toLowerCase());
+        return nbRequests == null ? 0 : nbRequests;
+    }
+
+    /**
+     * Returns the children of the given folder, from the listing prefetched in the background if there is one,
+     * waiting for it to complete if needed, by calling {@link AbstractFile#ls()} otherwise. The subfolders of the
+     * given folder are then queued to be prefetched, symbolic links excluded.
+     *
+     * @param folder the folder to list
+     * @return the children of the folder
+     * @throws IOException if the folder could not be listed
+     */
+    public AbstractFile[] ls(AbstractFile folder) throws IOException {
+        if (maxConcurrentRequests <= 0) {
+            return folder.ls();
+        }
+
+        FileURL url = folder.getURL();
+        PrefetchedListing listing;
+        synchronized (this) {
+            listing = listings.get(url);
+            // Not queued anymore, it is listed below
+            queuedURLs.remove(url);
+            if (listing != null) {
+                try {
+                    while (!listing.done) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } finally {
+                    listings.remove(url);
+                    schedule();
+                }
+            }
+        }
+
+        AbstractFile children[];
+        if (listing == null) {
+            children = folder.ls();
+        } else if (listing.error != null) {
+            throw listing.error;
+        } else {
+            children = listing.children;
+        }
+
+        prefetch(children);
+        return children;
+    }
+
+    /**
+     * Stops prefetching listings. Listings that are being performed complete but their result is discarded.
+     */
+    public synchronized void close() {
+        closed = true;
+        queuedFolders.clear();
+        queuedURLs.clear();
+        listings.clear();
+        notifyAll();
+    }
+
+    /**
+     * Queues the subfolders among the given files to be listed, ahead of the folders queued before them.
+     */
+    private void prefetch(AbstractFile files[]) {
+        // Determining whether a file is a folder may require I/O, don't hold the lock while doing it
+        List<AbstractFile> folders = new ArrayList<>();
+        for (AbstractFile file : files) {
+            if (file.isDirectory() && !file.isSymlink()) {
+                folders.add(file);
+            }
+        }
+        if (folders.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            for (int i = folders.size() - 1; i >= 0; i--) {
+                AbstractFile folder = folders.get(i);
+                if (queuedURLs.add(folder.getURL())) {
+                    queuedFolders.addFirst(folder);
+                }
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Starts listing queued folders, within the limits on the number of concurrent and prefetched listings.
+     * Must be called with the lock held.
+     */
+    private void schedule() {
+        while (!closed && nbRequests < maxConcurrentRequests && listings.size() < MAX_PREFETCHED_LISTINGS && !queuedFolders.isEmpty()) {
+            AbstractFile folder = queuedFolders.removeFirst();
+            FileURL url = folder.getURL();
+            // Folders that have been listed by ls() in the meantime have been removed from the set
+            if (!queuedURLs.remove(url) || listings.containsKey(url)) {
+                continue;
+            }
+            PrefetchedListing listing = new PrefetchedListing();
+            listings.put(url, listing);
+            nbRequests++;
+            EXECUTOR.execute(() -> list(folder, listing));
+        }
+    }
+
+    private void list(AbstractFile folder, PrefetchedListing listing) {
+        AbstractFile children[] = null;
+        IOException error = null;
+        try {
+            children = folder.ls();
+        } catch (IOException e) {
+            LOGGER.debug("Could not prefetch the listing of " + folder.getURL(), e);
+            error = e;
+        } catch (RuntimeException e) {
+            LOGGER.info("Could not prefetch the listing of " + folder.getURL(), e);
+            error = new IOException(e);
+        }
+
+        synchronized (this) {
+            listing.children = children;
+            listing.error = error;
+            listing.done = true;
+            nbRequests--;
+            schedule();
+            notifyAll();
+        }
+    }
+}
@@ -63,6 +63,9 @@ public abstract class ConnectionHandler {
     /** Default keep alive period (-1, keep alive disabled) */
     private final static long DEFAULT_KEEP_ALIVE_PERIOD = -1;
 
+    /** The pool this ConnectionHandler belongs to, null if it was not created by ConnectionPool */
+    ConnectionPool.Pool pool;
+
 
     /**
      * Creates a new ConnectionHandler for the given server URL using the Credentials included in the URL (potentially
@@ -146,7 +149,7 @@ public abstract class ConnectionHandler {
             isLocked = false;
         }
 
-        ConnectionPool.notifyConnectionHandlerLockReleased();
+        ConnectionPool.notifyConnectionHandlerLockReleased(this);
 
         return true;
     }
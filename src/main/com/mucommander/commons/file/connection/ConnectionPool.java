@@ -18,119 +18,152 @@
 
 package com.mucommander.commons.file.connection;
 
+import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mucommander.commons.file.Credentials;
 import com.mucommander.commons.file.FileURL;
 
 
 /**
+ * Pools the {@link ConnectionHandler} instances used by the file protocols that maintain connections to a server.
+ *
+ * <p>Connection handlers are pooled per realm/credentials combination, each pool having its own lock so that
+ * threads working on different servers never contend. The number of connections of a pool is bounded by a maximum
+ * that can be set for each protocol with {@link #setMaxConnections(String, int)}. When all the connections of a pool
+ * are busy, threads wait for one to be released in the order in which they requested it, for up to
+ * {@link #getAcquireTimeout()} milliseconds.</p>
+ *
+ * <p>A pool can be {@link #prewarm(ConnectionHandlerFactory, FileURL) pre-warmed} up to the minimum number of
+ * connections set for the protocol with {@link #setMinConnections(String, int)}, so that the connections needed by
+ * concurrent operations on a folder that has just been opened are established in the background.</p>
+ *
+ * <p>Connections are monitored by a scheduled task which keeps them alive and closes them after the inactivity
+ * periods specified by their handler. Closing connections and keeping them alive is performed on a shared thread
+ * pool, as these operations may block.</p>
+ *
  * @see com.mucommander.commons.file.connection.ConnectionHandler
  * @author Maxence Bernard
  */
-public class ConnectionPool implements Runnable {
+public class ConnectionPool {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
 
-    /** Singleton instance */
-    private static ConnectionPool instance = new ConnectionPool();
-
-    /** List of registered ConnectionHandler */
-    private final static List<ConnectionHandler> connectionHandlers = new ArrayList<>();
+    /** Default maximum number of simultaneous connections per realm/credentials combo */
+    public final static int DEFAULT_MAX_CONNECTIONS = 4;
 
-    /** The thread that monitors connections, null if there currently is no registered ConnectionHandler */
-    private static Thread monitorThread;
+    /** Default number of connections per realm/credentials combo established by {@link #prewarm(ConnectionHandlerFactory, FileURL)} */
+    public final static int DEFAULT_MIN_CONNECTIONS = 2;
 
-    /** Controls how of often the thread monitor checks connections */
-    private final static int MONITOR_SLEEP_PERIOD = 1000;
+    /** Default number of milliseconds to wait for a connection to be released */
+    public final static long DEFAULT_ACQUIRE_TIMEOUT = 30000;
 
-    /** Maximum number of simultaneous connections per realm/credentials combo */
-    private final static int MAX_CONNECTIONS_PER_REALM = 4;
+    /** Controls how of often connections are monitored */
+    private final static int MONITOR_PERIOD = 1000;
 
+    /** Pools, per realm/credentials combo */
+    private final static ConcurrentMap<FileURL, Pool> pools = new ConcurrentHashMap<>();
 
-    public static ConnectionHandler getConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
-        FileURL realm = url.getRealm();
-
-        while(true) {
-            synchronized(connectionHandlers) {      // Ensures that monitor thread is not currently changing the list while we access it
-                Credentials urlCredentials = url.getCredentials();
-                int matchingConnHandlers = 0;
-
-                // Try and find an appropriate existing ConnectionHandler
-                for (ConnectionHandler connHandler : connectionHandlers) {
-                	// ConnectionHandler must match the realm and credentials and must not be locked
-                	if (connHandler.equals(realm, urlCredentials)) {
-                		matchingConnHandlers++;
-                		synchronized(connHandler) {     // Ensures that lock remains unchanged while we access/update it
-                			if (!connHandler.isLocked()) {
-                				// Try to acquire lock if a lock was requested
-                				if(!acquireLock || connHandler.acquireLock()) {
-                					LOGGER.info("returning ConnectionHandler {}, realm = {}", connHandler, realm);
-
-                					// Update last activity timestamp to now
-                					connHandler.updateLastActivityTimestamp();
-
-                					return connHandler;
-                				}
-                			}
-                		}
-                	}
-                    
-                    if (matchingConnHandlers == MAX_CONNECTIONS_PER_REALM) {
-                        LOGGER.info("Maximum number of connection per realm reached, waiting for one to be removed or released...");
-                        try {
-                            // Wait for a ConnectionHandler to be released or removed from the pool
-                            final int timeout = 5000;
-                            long t0 = System.currentTimeMillis();
-                            connectionHandlers.wait(timeout);      // relinquishes the lock on connectionHandlers
-                            if (System.currentTimeMillis() - t0 > timeout) {
-                                throw new InterruptedIOException();
-                            }
-                            break;
-                        } catch(InterruptedException e) {
-                            LOGGER.info("Interrupted while waiting on a connection for {}", url, e);
-                            throw new InterruptedIOException();
-                        }
-                    }
-                }
+    /** Maximum number of connections, per protocol */
+    private final static Map<String, Integer> maxConnections = new HashMap<>();
 
-                if (matchingConnHandlers == MAX_CONNECTIONS_PER_REALM) {
-                    continue;
-                }
+    /** Number of connections established by pre-warming, per protocol */
+    private final static Map<String, Integer> minConnections = new HashMap<>();
 
-                // No suitable ConnectionHandler found, create a new one
-                ConnectionHandler connHandler = connectionHandlerFactory.createConnectionHandler(url);
+    /** Number of milliseconds to wait for a connection to be released */
+    private static volatile long acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
 
-                // Acquire lock if a lock was requested
-                if (acquireLock) {
-                    connHandler.acquireLock();
-                }
+    /** Runs the monitor task */
+    private final static ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, createThreadFactory("ConnectionPool monitor"));
 
-                LOGGER.info("adding new ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
+    /** Closes, keeps alive and pre-warms connections, as these operations may block */
+    private final static ExecutorService connectionExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), createThreadFactory("ConnectionPool worker"));
 
-                // Insert new ConnectionHandler at first position as if it has more chances to be accessed again soon
-                connectionHandlers.add(0, connHandler);// insertElementAt(connHandler, 0);
+    /** The scheduled monitor task, null if there currently is no pooled ConnectionHandler */
+    private static ScheduledFuture<?> monitorTask;
 
-                // Start monitor thread if it is not currently running (if there previously was no registered ConnectionHandler)
-                if (monitorThread == null) {
-                    LOGGER.info("starting monitor thread");
-                    monitorThread = new Thread(instance);
-                    monitorThread.start();
-                }
 
-                // Update last activity timestamp to now
-                connHandler.updateLastActivityTimestamp();
+    /**
+     * Returns a ConnectionHandler for the given location, reusing an idle one of the location's realm if there is one,
+     * creating a new one with the given factory if the maximum number of connections of the realm hasn't been reached
+     * yet. Otherwise, this method waits for a ConnectionHandler of the realm to be released or closed.
+     *
+     * <p>The returned ConnectionHandler is locked if <code>acquireLock</code> is <code>true</code>, it must then be
+     * released by calling {@link ConnectionHandler#releaseLock()} once it is not used anymore.</p>
+     *
+     * @param connectionHandlerFactory creates the ConnectionHandler if a new one is needed
+     * @param url the location to connect to
+     * @param acquireLock <code>true</code> to lock the returned ConnectionHandler
+     * @return a ConnectionHandler for the given location
+     * @throws InterruptedIOException if the calling thread was interrupted or if no ConnectionHandler was released
+     * within {@link #getAcquireTimeout()} milliseconds
+     */
+    public static ConnectionHandler getConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
+        while (true) {
+            ConnectionHandler connHandler = getPool(url).acquire(connectionHandlerFactory, url, acquireLock);
+            // Null if the pool has been removed in the meantime
+            if (connHandler != null) {
+                return connHandler;
+            }
+        }
+    }
 
+    /**
+     * Returns a locked ConnectionHandler for the given location if one can be obtained without waiting, that is if one
+     * of the realm's connections is idle or if the maximum number of connections hasn't been reached yet. This method
+     * is meant for optional background work (read-ahead, pre-fetching...) that should neither wait for a connection
+     * nor delay the threads that are waiting for one.
+     *
+     * @param connectionHandlerFactory creates the ConnectionHandler if a new one is needed
+     * @param url the location to connect to
+     * @return a locked ConnectionHandler for the given location, <code>null</code> if none is available
+     */
+    public static ConnectionHandler tryGetConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url) {
+        while (true) {
+            Pool pool = getPool(url);
+            ConnectionHandler connHandler = pool.tryAcquireNow(connectionHandlerFactory, url);
+            if (connHandler != null || !pool.removed) {
                 return connHandler;
             }
         }
     }
 
+    /**
+     * Establishes in the background, if they don't exist yet, the connections to the given location's realm up to the
+     * minimum number of connections of its protocol. This method returns immediately.
+     *
+     * <p>This method is typically called after a remote folder has been listed, so that the operations that follow
+     * (fetching attributes, transfers...) don't have to wait for connections to be established.</p>
+     *
+     * @param connectionHandlerFactory creates the ConnectionHandler instances
+     * @param url a location on the realm to connect to
+     */
+    public static void prewarm(ConnectionHandlerFactory connectionHandlerFactory, FileURL url) {
+        Pool pool = getPool(url);
+        int nbMissing = pool.getNbMissingConnections(getMinConnections(url.getScheme()));
+        for (int i = 0; i < nbMissing; i++) {
+            connectionExecutor.execute(() -> getPool(url).prewarm(connectionHandlerFactory, url));
+        }
+    }
 
     /**
      * Returns a list of registered ConnectionHandler instances. As the name of this method implies, the returned
@@ -140,24 +173,137 @@ public class ConnectionPool implements Runnable {
      * @return a list of registered ConnectionHandler instances
      */
     public static List<ConnectionHandler> getConnectionHandlersSnapshot() {
-        return new ArrayList<>(connectionHandlers);
+        List<ConnectionHandler> connectionHandlers = new ArrayList<>();
+        for (Pool pool : pools.values()) {
+            pool.addConnectionHandlers(connectionHandlers);
+        }
+        return connectionHandlers;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the connections to each realm/credentials combo.
+     *
+     * @return the statistics of the connections to each realm/credentials combo
+     */
+    public static List<Statistics> getStatistics() {
+        List<Statistics> statistics = new ArrayList<>();
+        for (Pool pool : pools.values()) {
+            statistics.add(pool.getStatistics());
+        }
+        return statistics;
+    }
+
+    /**
+     * Sets the maximum number of simultaneous connections to a realm/credentials combo of the given protocol.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     * @param nbConnections a number of connections, at least 1
+     */
+    public static void setMaxConnections(String protocol, int nbConnections) {
+        synchronized (maxConnections) {
+            maxConnections.put(protocol.toLowerCase(), Math.max(1, nbConnections));
+        }
+        // Waiting threads may now be able to create a connection
+        for (Pool pool : pools.values()) {
+            pool.signalWaiters();
+        }
+    }
+
+    /**
+     * Returns the maximum number of simultaneous connections to a realm/credentials combo of the given protocol.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     * @return a number of connections, {@link #DEFAULT_MAX_CONNECTIONS} if it hasn't been set for this protocol
+     */
+    public static int getMaxConnections(String protocol) {
+        synchronized (maxConnections) {
+            Integer nbConnections = maxConnections.get(protocol.toLowerCase());
+            return nbConnections == null ? DEFAULT_MAX_CONNECTIONS : nbConnections;
+        }
+    }
+
+    /**
+     * Sets the number of connections to a realm/credentials combo of the given protocol that are established by
+     * {@link #prewarm(ConnectionHandlerFactory, FileURL)}. Connections are still closed after their inactivity period,
+     * this only controls pre-warming. A value of <code>0</code> disables pre-warming for this protocol.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     * @param nbConnections a number of connections
+     */
+    public static void setMinConnections(String protocol, int nbConnections) {
+        synchronized (minConnections) {
+            minConnections.put(protocol.toLowerCase(), Math.max(0, nbConnections));
+        }
+    }
+
+    /**
+     * Returns the number of connections to a realm/credentials combo of the given protocol that are established by
+     * {@link #prewarm(ConnectionHandlerFactory, FileURL)}, never more than the maximum number of connections.
+     *
+     * @param protocol a protocol, as returned by {@link FileURL#getScheme()}
+     * @return a number of connections, {@link #DEFAULT_MIN_CONNECTIONS} if it hasn't been set for this protocol
+     */
+    public static int getMinConnections(String protocol) {
+        Integer nbConnections;
+        synchronized (minConnections) {
+            nbConnections = minConnections.get(protocol.toLowerCase());
+        }
+        return Math.min(nbConnections == null ? DEFAULT_MIN_CONNECTIONS : nbConnections, getMaxConnections(protocol));
+    }
+
+    /**
+     * Sets the number of milliseconds to wait for a connection to be released when all the connections to a realm
+     * are busy, after which {@link #getConnectionHandler(ConnectionHandlerFactory, FileURL, boolean)} gives up.
+     *
+     * @param timeout a number of milliseconds
+     */
+    public static void setAcquireTimeout(long timeout) {
+        acquireTimeout = timeout;
+    }
+
+    /**
+     * Returns the number of milliseconds to wait for a connection to be released when all the connections to a realm
+     * are busy.
+     *
+     * @return a number of milliseconds, {@link #DEFAULT_ACQUIRE_TIMEOUT} by default
+     */
+    public static long getAcquireTimeout() {
+        return acquireTimeout;
     }
-    
-//    /**
-//     * Returns the ConnectionHandler instance located at the given position in the list.
-//     */
-//    private static ConnectionHandler getConnectionHandlerAt(int i) {
-//        return connectionHandlers.get(i);
-//    }
 
     /**
-     * Called by {@link ConnectionHandler#releaseLock()} to notify the <code>ConnectionHandler</code> that a
-     * <code>ConnectionHandler</code> has been released.
+     * Called by {@link ConnectionHandler#releaseLock()} to notify the pool of the <code>ConnectionHandler</code> that
+     * it has been released.
      */
-    static void notifyConnectionHandlerLockReleased() {
-        synchronized (connectionHandlers) {
-            // Notify any thread waiting for a ConnectionHandler to be released
-            connectionHandlers.notify();
+    static void notifyConnectionHandlerLockReleased(ConnectionHandler connHandler) {
+        Pool pool = connHandler.pool;
+        if (pool != null) {
+            pool.signalWaiters();
+        }
+    }
+
+
+    private static Pool getPool(FileURL url) {
+        FileURL key = url.getRealm();
+        key.setCredentials(url.getCredentials());
+        Pool pool = pools.get(key);
+        if (pool == null) {
+            Pool newPool = new Pool(key);
+            pool = pools.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Starts the monitor task if it is not currently running.
+     */
+    private static synchronized void startMonitor() {
+        if (monitorTask == null) {
+            LOGGER.info("starting monitor task");
+            monitorTask = scheduler.scheduleWithFixedDelay(ConnectionPool::monitor, MONITOR_PERIOD, MONITOR_PERIOD, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -167,134 +313,455 @@ public class ConnectionPool implements Runnable {
      *   <li>keeps connections alive
      *   <li>closes and removes connections that have expired
      * </ul>
+     * The monitor task stops itself when there are no more connections.
      */
-    public void run() {
+    private static void monitor() {
+        long now = System.currentTimeMillis();
+        boolean hasConnections = false;
+        for (Pool pool : pools.values()) {
+            if (pool.monitor(now)) {
+                hasConnections = true;
+            } else {
+                // Don't keep the pools of all the realms ever visited
+                pool.removeIfEmpty();
+            }
+        }
 
-        while (monitorThread != null) {        // Thread will be interrupted by CloseConnectionThread if there are no more ConnectionHandler
-            long now = System.currentTimeMillis();
+        if (!hasConnections) {
+            synchronized (ConnectionPool.class) {
+                // Check again now that new connections can't start the monitor concurrently. Pool locks must not be
+                // acquired here as pools call startMonitor() while holding them.
+                for (Pool pool : pools.values()) {
+                    if (pool.hasConnections()) {
+                        return;
+                    }
+                }
+                LOGGER.info("No more ConnectionHandler, stopping monitor task");
+                monitorTask.cancel(false);
+                monitorTask = null;
+            }
+        }
+    }
 
-            synchronized(connectionHandlers) {      // Ensures that getConnectionHandler is not currently changing the list while we access it
-                for (Iterator<ConnectionHandler> it = connectionHandlers.iterator(); it.hasNext();) {
-                    final ConnectionHandler connHandler = it.next();
-                //for (ConnectionHandler connHandler : connectionHandlers) {
+    private static ThreadFactory createThreadFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
-                    synchronized(connHandler) {     // Ensures that no one is trying to acquire a lock on the connection while we access it
-                        // Do not touch ConnectionHandler if it is currently locked
-                        if (connHandler.isLocked()) {
-                            continue;
-                        }
 
-                        // Remove ConnectionHandler instance from the list of registered ConnectionHandler
-                        // if it is not connected
-                        if (!connHandler.isConnected()) {
-                            LOGGER.info("Removing unconnected ConnectionHandler {}", connHandler);
+    /**
+     * The connections to a realm/credentials combo, and the threads waiting for one of them.
+     */
+    static class Pool {
 
-                            //connectionHandlers.remove(connHandler);
-                            it.remove();
-                            // Notify any thread waiting for a ConnectionHandler to be released
-                            connectionHandlers.notify();
+        private final FileURL realm;
 
-                            continue;       // Skips close on inactivity and keep alive checks
-                        }
+        /** Pooled ConnectionHandler instances, the most recently created first */
+        private final List<ConnectionHandler> connectionHandlers = new ArrayList<>();
 
-                        long lastUsed = connHandler.getLastActivityTimestamp();
+        /** Threads waiting for a ConnectionHandler, in arrival order */
+        private final Deque<Thread> waiters = new ArrayDeque<>();
 
-                        // If time-to-live has been reached without any connection activity, remove ConnectionHandler
-                        // from the list of registered ConnectionHandler and close the connection in a separate thread
-                        long closePeriod = connHandler.getCloseOnInactivityPeriod();
-                        if (closePeriod != -1 && now - lastUsed > closePeriod*1000) {
-                            LOGGER.info("Removing timed-out ConnectionHandler {}",connHandler);
+        /** Number of pooled ConnectionHandler instances, can be read without holding the pool's lock */
+        private volatile int nbConnections;
 
-                            //connectionHandlers.remove(connHandler);
-                            it.remove();
-                            // Notify any thread waiting for a ConnectionHandler to be released
-                            connectionHandlers.notify();
+        /** True once the pool has been removed from the pools map, a new pool must then be used */
+        private volatile boolean removed;
 
-                            // Close connection in a separate thread as it could lock this thread
-                            new CloseConnectionThread(connHandler).start();
+        private long nbAcquisitions;
+        private long nbWaits;
+        private long totalAcquireTime;
+        private long maxAcquireTime;
 
-                            continue;       // Skips keep alive check
-                        }
+        private Pool(FileURL realm) {
+            this.realm = realm;
+        }
 
-                        // If keep-alive period has been reached without any connection activity or a keep alive,
-                        // keep connection alive in a separate thread
-                        long keepAlivePeriod = connHandler.getKeepAlivePeriod();
-                        if (keepAlivePeriod!=-1 && now-Math.max(lastUsed, connHandler.getLastKeepAliveTimestamp())>keepAlivePeriod*1000) {
-                            // Update last keep alive timestamp to now
-                            connHandler.updateLastKeepAliveTimestamp();
+        private ConnectionHandler acquire(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
+            long t0 = System.nanoTime();
+            ConnectionHandler connHandler;
+            synchronized (this) {
+                if (removed) {
+                    return null;
+                }
+                // Don't overtake the threads that are already waiting
+                connHandler = waiters.isEmpty() ? tryAcquire(connectionHandlerFactory, url, acquireLock) : null;
+                if (connHandler == null) {
+                    connHandler = waitAndAcquire(connectionHandlerFactory, url, acquireLock, t0);
+                }
+                long acquireTime = System.nanoTime() - t0;
+                nbAcquisitions++;
+                totalAcquireTime += acquireTime;
+                maxAcquireTime = Math.max(maxAcquireTime, acquireTime);
+            }
+            // Update last activity timestamp to now
+            connHandler.updateLastActivityTimestamp();
+            return connHandler;
+        }
 
-                            // Keep connection alive in a separate thread as it could lock this thread
-                            new KeepAliveConnectionThread(connHandler).start();
-                        }
+        private ConnectionHandler tryAcquireNow(ConnectionHandlerFactory connectionHandlerFactory, FileURL url) {
+            ConnectionHandler connHandler;
+            synchronized (this) {
+                if (removed || !waiters.isEmpty()) {
+                    return null;
+                }
+                connHandler = tryAcquire(connectionHandlerFactory, url, true);
+                if (connHandler == null) {
+                    return null;
+                }
+                nbAcquisitions++;
+            }
+            connHandler.updateLastActivityTimestamp();
+            return connHandler;
+        }
+
+        /**
+         * Returns an idle ConnectionHandler, or a new one if the maximum number of connections hasn't been reached,
+         * <code>null</code> if all the connections are busy.
+         */
+        private ConnectionHandler tryAcquire(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) {
+            // Try and find an appropriate existing ConnectionHandler
+            for (ConnectionHandler connHandler : connectionHandlers) {
+                synchronized (connHandler) {     // Ensures that lock remains unchanged while we access/update it
+                    if (!connHandler.isLocked() && (!acquireLock || connHandler.acquireLock())) {
+                        LOGGER.info("returning ConnectionHandler {}, realm = {}", connHandler, realm);
+                        return connHandler;
                     }
                 }
+            }
+
+            if (connectionHandlers.size() >= getMaxConnections(realm.getScheme())) {
+                return null;
+            }
+
+            // No suitable ConnectionHandler found, create a new one
+            return addConnectionHandler(connectionHandlerFactory, url, acquireLock);
+        }
+
+        /**
+         * Creates a new ConnectionHandler and adds it to the pool.
+         */
+        private ConnectionHandler addConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) {
+            ConnectionHandler connHandler = connectionHandlerFactory.createConnectionHandler(url);
+            connHandler.pool = this;
+
+            // Acquire lock if a lock was requested
+            if (acquireLock) {
+                connHandler.acquireLock();
+            }
+
+            LOGGER.info("adding new ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
 
-                // Stop monitor thread if there are no more ConnectionHandler
-                if (connectionHandlers.size() == 0) {
-                    LOGGER.info("No more ConnectionHandler, stopping monitor thread");
-                    monitorThread = null;
+            // Insert new ConnectionHandler at first position as if it has more chances to be accessed again soon
+            connectionHandlers.add(0, connHandler);
+            nbConnections = connectionHandlers.size();
+            startMonitor();
+
+            return connHandler;
+        }
+
+        /**
+         * Waits until the calling thread is the first in line and a ConnectionHandler is available.
+         */
+        private ConnectionHandler waitAndAcquire(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock, long t0) throws InterruptedIOException {
+            LOGGER.info("Maximum number of connection per realm reached, waiting for one to be removed or released...");
+            Thread thread = Thread.currentThread();
+            waiters.addLast(thread);
+            nbWaits++;
+            long deadline = t0 + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+            try {
+                while (true) {
+                    if (waiters.peekFirst() == thread) {
+                        ConnectionHandler connHandler = tryAcquire(connectionHandlerFactory, url, acquireLock);
+                        if (connHandler != null) {
+                            return connHandler;
+                        }
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new InterruptedIOException("Timed out waiting for a connection to " + realm);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
                 }
+            } catch (InterruptedException e) {
+                LOGGER.info("Interrupted while waiting on a connection for " + url, e);
+                thread.interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                waiters.remove(thread);
+                // Let the next waiter check whether a connection is available
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wakes the waiting threads up so that the first in line checks whether a connection is available.
+         */
+        private synchronized void signalWaiters() {
+            if (!waiters.isEmpty()) {
+                notifyAll();
             }
+        }
 
-            // Sleep for MONITOR_SLEEP_PERIOD milliseconds, minus the processing time of this loop
+        private synchronized int getNbMissingConnections(int minConnections) {
+            return Math.max(0, minConnections - connectionHandlers.size());
+        }
+
+        /**
+         * Creates and connects a new ConnectionHandler if the pool is idle and the minimum number of connections
+         * hasn't been reached. Idle connections are not reused: they already count towards the minimum.
+         */
+        private void prewarm(ConnectionHandlerFactory connectionHandlerFactory, FileURL url) {
             try {
-                Thread.sleep(Math.max(0, MONITOR_SLEEP_PERIOD-(System.currentTimeMillis()-now)));
-            } catch(InterruptedException e) {
-                // Will loop again
+                ConnectionHandler connHandler;
+                synchronized (this) {
+                    // Don't compete with the threads that need a connection now
+                    if (removed || !waiters.isEmpty() || getNbMissingConnections(getMinConnections(realm.getScheme())) <= 0) {
+                        return;
+                    }
+                    connHandler = addConnectionHandler(connectionHandlerFactory, url, true);
+                }
+                try {
+                    connHandler.checkConnection();
+                    LOGGER.info("pre-warmed connection {}", connHandler);
+                } catch (IOException e) {
+                    LOGGER.info("Could not pre-warm connection to " + realm, e);
+                } finally {
+                    connHandler.updateLastActivityTimestamp();
+                    connHandler.releaseLock();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.info("Could not pre-warm connection to " + realm, e);
             }
         }
-    }
 
+        /**
+         * Removes the connections that are not connected anymore or have expired, and keeps alive the ones that need
+         * it. Returns <code>true</code> if the pool still has connections.
+         */
+        private synchronized boolean monitor(long now) {
+            boolean removed = false;
+            for (Iterator<ConnectionHandler> it = connectionHandlers.iterator(); it.hasNext();) {
+                final ConnectionHandler connHandler = it.next();
+
+                synchronized (connHandler) {     // Ensures that no one is trying to acquire a lock on the connection while we access it
+                    // Do not touch ConnectionHandler if it is currently locked
+                    if (connHandler.isLocked()) {
+                        continue;
+                    }
+
+                    // Remove ConnectionHandler instance from the pool if it is not connected
+                    if (!connHandler.isConnected()) {
+                        LOGGER.info("Removing unconnected ConnectionHandler {}", connHandler);
+                        it.remove();
+                        removed = true;
+                        continue;       // Skips close on inactivity and keep alive checks
+                    }
+
+                    long lastUsed = connHandler.getLastActivityTimestamp();
+
+                    // If time-to-live has been reached without any connection activity, remove ConnectionHandler
+                    // from the pool and close the connection in the background
+                    long closePeriod = connHandler.getCloseOnInactivityPeriod();
+                    if (closePeriod != -1 && now - lastUsed > closePeriod * 1000) {
+                        LOGGER.info("Removing timed-out ConnectionHandler {}", connHandler);
+                        it.remove();
+                        removed = true;
+
+                        // Close connection in the background as it could block this thread
+                        connectionExecutor.execute(() -> closeConnection(connHandler));
+                        continue;       // Skips keep alive check
+                    }
+
+                    // If keep-alive period has been reached without any connection activity or a keep alive,
+                    // keep connection alive in the background
+                    long keepAlivePeriod = connHandler.getKeepAlivePeriod();
+                    if (keepAlivePeriod != -1 && now - Math.max(lastUsed, connHandler.getLastKeepAliveTimestamp()) > keepAlivePeriod * 1000) {
+                        // Update last keep alive timestamp to now
+                        connHandler.updateLastKeepAliveTimestamp();
+
+                        // Keep connection alive in the background as it could block this thread
+                        connectionExecutor.execute(() -> keepAlive(connHandler));
+                    }
+                }
+            }
+
+            if (removed) {
+                nbConnections = connectionHandlers.size();
+                // A thread waiting for a ConnectionHandler may now create one
+                signalWaiters();
+            }
+
+            return !connectionHandlers.isEmpty();
+        }
+
+        private boolean hasConnections() {
+            return nbConnections > 0;
+        }
+
+        /**
+         * Removes this pool from the pools map if it has neither connections nor waiting threads.
+         */
+        private synchronized void removeIfEmpty() {
+            if (connectionHandlers.isEmpty() && waiters.isEmpty()) {
+                removed = true;
+                pools.remove(realm, this);
+            }
+        }
+
+        private synchronized void addConnectionHandlers(List<ConnectionHandler> list) {
+            list.addAll(connectionHandlers);
+        }
+
+        private synchronized Statistics getStatistics() {
+            int nbLocked = 0;
+            for (ConnectionHandler connHandler : connectionHandlers) {
+                if (connHandler.isLocked()) {
+                    nbLocked++;
+                }
+            }
+            return new Statistics(realm, connectionHandlers.size(), nbLocked, waiters.size(), nbAcquisitions, nbWaits,
+                    nbAcquisitions == 0 ? 0 : totalAcquireTime / nbAcquisitions, maxAcquireTime);
+        }
+    }
 
     /**
-     * Closes a specified ConnectionHandler's connection in a separate thread and removes the ConnectionHandler from
-     * the list of registered ConnectionHandler instances.
+     * Closes a ConnectionHandler's connection, only if it is connected.
      */
-    private static class CloseConnectionThread extends Thread {
+    private static void closeConnection(ConnectionHandler connHandler) {
+        if (connHandler.isConnected()) {
+            LOGGER.info("Closing connection held by {}", connHandler);
+            connHandler.closeConnection();
+        }
+    }
 
-        private ConnectionHandler connHandler;
+    /**
+     * Keeps alive a ConnectionHandler's connection. If the connection is not currently active,
+     * {@link com.mucommander.commons.file.connection.ConnectionHandler#keepAlive()} will not be called.
+     */
+    private static void keepAlive(ConnectionHandler connHandler) {
+        LOGGER.info("keeping connection alive: {}", connHandler);
 
-        private CloseConnectionThread(ConnectionHandler connHandler) {
-            this.connHandler = connHandler;
-        }
+        synchronized (connHandler) {
+            // Ensures that lock was not grabbed in the meantime
+            if (connHandler.isLocked()) {
+                return;
+            }
 
-        @Override
-        public void run() {
-            // Try to close connection, only if it is connected
-            if(connHandler.isConnected()) {
-                LOGGER.info("Closing connection held by {}", connHandler);
-                connHandler.closeConnection();
+            // Keep alive connection, only if it is connected
+            if (connHandler.isConnected()) {
+                connHandler.keepAlive();
             }
         }
     }
 
 
     /**
-     * Keeps alive a specified ConnectionHandler's connection in a separate thread. If the connection is not currently
-     * active, {@link com.mucommander.commons.file.connection.ConnectionHandler#keepAlive()} will not be called.
+     * A snapshot of the statistics of the connections to a realm/credentials combo.
      */
-    private static class KeepAliveConnectionThread extends Thread {
+    public static class Statistics {
+        private final FileURL realm;
+        private final int nbConnections;
+        private final int nbBusyConnections;
+        private final int nbWaiters;
+        private final long nbAcquisitions;
+        private final long nbWaits;
+        private final long averageAcquireTime;
+        private final long maxAcquireTime;
+
+        private Statistics(FileURL realm, int nbConnections, int nbBusyConnections, int nbWaiters, long nbAcquisitions,
+                           long nbWaits, long averageAcquireTime, long maxAcquireTime) {
+            this.realm = realm;
+            this.nbConnections = nbConnections;
+            this.nbBusyConnections = nbBusyConnections;
+            this.nbWaiters = nbWaiters;
+            this.nbAcquisitions = nbAcquisitions;
+            this.nbWaits = nbWaits;
+            this.averageAcquireTime = averageAcquireTime;
+            this.maxAcquireTime = maxAcquireTime;
+        }
 
-        private final ConnectionHandler connHandler;
+        /**
+         * Returns the realm of the connections, with the credentials used to connect to it.
+         *
+         * @return the realm of the connections
+         */
+        public FileURL getRealm() {
+            return (FileURL)realm.clone();
+        }
 
-        private KeepAliveConnectionThread(ConnectionHandler connHandler) {
-            this.connHandler = connHandler;
+        /**
+         * Returns the number of pooled connections.
+         *
+         * @return the number of pooled connections
+         */
+        public int getNbConnections() {
+            return nbConnections;
         }
 
-        @Override
-        public void run() {
-            LOGGER.info("keeping connection alive: {}", connHandler);
+        /**
+         * Returns the number of pooled connections that are currently locked.
+         *
+         * @return the number of pooled connections that are currently locked
+         */
+        public int getNbBusyConnections() {
+            return nbBusyConnections;
+        }
+
+        /**
+         * Returns the number of threads waiting for a connection to be released.
+         *
+         * @return the length of the wait queue
+         */
+        public int getNbWaiters() {
+            return nbWaiters;
+        }
 
-            synchronized(connHandler) {
-                // Ensures that lock was not grabbed in the meantime
-                if(connHandler.isLocked())
-                    return;
+        /**
+         * Returns the number of connections handed out by the pool since it was created.
+         *
+         * @return the number of connections handed out by the pool
+         */
+        public long getNbAcquisitions() {
+            return nbAcquisitions;
+        }
 
-                // Keep alive connection, only if it is connected
-                if(connHandler.isConnected())
-                    connHandler.keepAlive();
-            }
+        /**
+         * Returns the number of times a thread had to wait for a connection to be released.
+         *
+         * @return the number of times a thread had to wait for a connection
+         */
+        public long getNbWaits() {
+            return nbWaits;
+        }
+
+        /**
+         * Returns the average time it took to obtain a connection from the pool, in nanoseconds.
+         *
+         * @return the average acquire latency, in nanoseconds
+         */
+        public long getAverageAcquireTime() {
+            return averageAcquireTime;
         }
-    }
 
+        /**
+         * Returns the longest time it took to obtain a connection from the pool, in nanoseconds.
+         *
+         * @return the maximum acquire latency, in nanoseconds
+         */
+        public long getMaxAcquireTime() {
+            return maxAcquireTime;
+        }
+
+        @Override
+        public String toString() {
+            return realm + ": " + nbConnections + " connections (" + nbBusyConnections + " busy), " + nbWaiters
+                    + " waiters, " + nbAcquisitions + " acquisitions (" + nbWaits + " waited), average "
+                    + TimeUnit.NANOSECONDS.toMicros(averageAcquireTime) + " us, max "
+                    + TimeUnit.NANOSECONDS.toMicros(maxAcquireTime) + " us";
+        }
+    }
 }
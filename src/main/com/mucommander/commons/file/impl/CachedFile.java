@@ -22,6 +22,7 @@ package com.mucommander.commons.file.impl;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.FileProtocols;
+import com.mucommander.commons.file.ListingListener;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.file.impl.local.LocalFile;
@@ -97,9 +98,11 @@ public class CachedFile extends ProxyFile {
     private static final int RECURSE_INSTANCES_MASK = 1 << 29;
 
     /**
-     * All boolean values stored here as bits
+     * All boolean values stored here as bits. The field is volatile and only updated by {@link #updateBitmask(int, int)}
+     * so that attributes can be fetched concurrently (e.g. in the background while the file is displayed): a cached
+     * value is always written before its set-flag.
      */
-    private int bitmask;
+    private volatile int bitmask;
 
     ///////////////////
     // Cached values //
@@ -224,22 +227,18 @@ public class CachedFile extends ProxyFile {
             try {
                 int ba = (Integer) M_GET_BOOLEAN_ATTRIBUTES.invoke(FS, file.getUnderlyingFileObject());
 
+                int values = 0;
                 if ((ba & BA_DIRECTORY) != 0) {
-                    bitmask |= DIRECTORY_VALUE_MASK;
-                } else {
-                    bitmask &= ~DIRECTORY_VALUE_MASK;
+                    values |= DIRECTORY_VALUE_MASK;
                 }
                 if ((ba & BA_EXISTS) != 0) {
-                    bitmask |= EXISTS_VALUE_MASK;
-                } else {
-                    bitmask &= ~EXISTS_VALUE_MASK;
+                    values |= EXISTS_VALUE_MASK;
                 }
                 if ((ba & BA_HIDDEN) != 0) {
-                    bitmask |= HIDDEN_VALUE_MASK;
-                } else {
-                    bitmask &= ~HIDDEN_VALUE_MASK;
-            }
-                bitmask |= DIRECTORY_SET_MASK | HIDDEN_SET_MASK | EXISTS_SET_MASK;
+                    values |= HIDDEN_VALUE_MASK;
+                }
+                updateBitmask(DIRECTORY_SET_MASK | HIDDEN_SET_MASK | EXISTS_SET_MASK | values,
+                        (DIRECTORY_VALUE_MASK | EXISTS_VALUE_MASK | HIDDEN_VALUE_MASK) & ~values);
             } catch(Exception e) {
                 LOGGER.info("Could not retrieve file attributes for {}", file, e);
             }
@@ -247,6 +246,26 @@ public class CachedFile extends ProxyFile {
     }
 
 
+    /**
+     * Sets then clears the given bits of the bitmask. Synchronized so that concurrent updates of different
+     * attributes do not overwrite each other.
+     */
+    private synchronized void updateBitmask(int setBits, int clearBits) {
+        bitmask = (bitmask | setBits) & ~clearBits;
+    }
+
+    /**
+     * Stores the value of a boolean attribute and marks it as set.
+     */
+    private void setBooleanValue(int setMask, int valueMask, boolean value) {
+        if (value) {
+            updateBitmask(setMask | valueMask, 0);
+        } else {
+            updateBitmask(setMask, valueMask);
+        }
+    }
+
+
     ////////////////////////////////////////////////////
     // Overridden methods to cache their return value //
     ////////////////////////////////////////////////////
@@ -255,7 +274,7 @@ public class CachedFile extends ProxyFile {
     public long getSize() {
         if ((bitmask & SIZE_SET_MASK) == 0) {
             getSize = file.getSize();
-            bitmask |= SIZE_SET_MASK;
+            updateBitmask(SIZE_SET_MASK, 0);
         }
         return getSize;
     }
@@ -264,7 +283,7 @@ public class CachedFile extends ProxyFile {
     public long getDate() {
         if ((bitmask & DATE_SET_MASK) == 0) {
             getDate = file.getDate();
-            bitmask |= DATE_SET_MASK;
+            updateBitmask(DATE_SET_MASK, 0);
         }
         return getDate;
     }
@@ -272,12 +291,7 @@ public class CachedFile extends ProxyFile {
     @Override
     public boolean isSymlink() {
         if ((bitmask & SYMLINK_SET_MASK) == 0) {
-            if (file.isSymlink()) {
-                bitmask |= SYMLINK_VALUE_MASK;
-            } else {
-                bitmask &= ~SYMLINK_VALUE_MASK;
-            }
-            bitmask |= SYMLINK_SET_MASK;
+            setBooleanValue(SYMLINK_SET_MASK, SYMLINK_VALUE_MASK, file.isSymlink());
         }
         return (bitmask & SYMLINK_VALUE_MASK) != 0;
     }
@@ -290,12 +304,7 @@ public class CachedFile extends ProxyFile {
             }
         // Note: getFileAttributes() might fail to retrieve file attributes, so we need to test isDirectorySet again
             if ((bitmask & DIRECTORY_SET_MASK) == 0) {
-                if (file.isDirectory()) {
-                    bitmask |= DIRECTORY_VALUE_MASK;
-                } else {
-                    bitmask &= ~DIRECTORY_VALUE_MASK;
-                }
-                bitmask |= DIRECTORY_SET_MASK;
+                setBooleanValue(DIRECTORY_SET_MASK, DIRECTORY_VALUE_MASK, file.isDirectory());
             }
         }
         return (bitmask & DIRECTORY_VALUE_MASK) != 0;
@@ -304,12 +313,7 @@ public class CachedFile extends ProxyFile {
     @Override
     public boolean isArchive() {
         if ((bitmask & ARCHIVE_SET_MASK) == 0) {
-            if (file.isArchive()) {
-                bitmask |= ARCHIVE_VALUE_MASK;
-            } else {
-                bitmask &= ~ARCHIVE_VALUE_MASK;
-            }
-            bitmask |= ARCHIVE_SET_MASK;
+            setBooleanValue(ARCHIVE_SET_MASK, ARCHIVE_VALUE_MASK, file.isArchive());
         }
         return (bitmask & ARCHIVE_VALUE_MASK) != 0;
     }
@@ -322,12 +326,7 @@ public class CachedFile extends ProxyFile {
             }
         // Note: getFileAttributes() might fail to retrieve file attributes, so we need to test isDirectorySet again
             if ((bitmask & HIDDEN_SET_MASK) == 0) {
-                if (file.isHidden()) {
-                    bitmask |= HIDDEN_VALUE_MASK;
-                } else {
-                    bitmask &= ~HIDDEN_VALUE_MASK;
-                }
-                bitmask |= HIDDEN_SET_MASK;
+                setBooleanValue(HIDDEN_SET_MASK, HIDDEN_VALUE_MASK, file.isHidden());
             }
         }
         return (bitmask & HIDDEN_VALUE_MASK) != 0;
@@ -336,12 +335,7 @@ public class CachedFile extends ProxyFile {
     @Override
     public boolean isExecutable() {
         if ((bitmask & EXECUTABLE_SET_MASK) == 0) {
-            if (file.isExecutable()) {
-                bitmask |= EXECUTABLE_VALUE_MASK;
-            } else {
-                bitmask &= ~EXECUTABLE_VALUE_MASK;
-            }
-            bitmask |= EXECUTABLE_SET_MASK;
+            setBooleanValue(EXECUTABLE_SET_MASK, EXECUTABLE_VALUE_MASK, file.isExecutable());
         }
         return (bitmask & EXECUTABLE_VALUE_MASK) != 0;
     }
@@ -350,7 +344,7 @@ public class CachedFile extends ProxyFile {
     public String getAbsolutePath() {
         if ((bitmask & ABSOLUTE_PATH_SET_MASK) == 0) {
             getAbsolutePath = file.getAbsolutePath();
-            bitmask |= ABSOLUTE_PATH_SET_MASK;
+            updateBitmask(ABSOLUTE_PATH_SET_MASK, 0);
         }
         return getAbsolutePath;
     }
@@ -359,7 +353,7 @@ public class CachedFile extends ProxyFile {
     public String getCanonicalPath() {
         if ((bitmask & CANONICAL_PATH_SET_MASK) == 0) {
             getCanonicalPath = file.getCanonicalPath();
-            bitmask |= CANONICAL_PATH_SET_MASK;
+            updateBitmask(CANONICAL_PATH_SET_MASK, 0);
         }
         return getCanonicalPath;
     }
@@ -368,7 +362,7 @@ public class CachedFile extends ProxyFile {
     public String getExtension() {
         if ((bitmask & EXTENSION_SET_MASK) == 0) {
             getExtension = file.getExtension();
-            bitmask |= EXTENSION_SET_MASK;
+            updateBitmask(EXTENSION_SET_MASK, 0);
         }
         return getExtension;
     }
@@ -377,7 +371,7 @@ public class CachedFile extends ProxyFile {
     public String getName() {
         if ((bitmask & NAME_SET_MASK) == 0) {
             getName = file.getName();
-            bitmask |= NAME_SET_MASK;
+            updateBitmask(NAME_SET_MASK, 0);
         }
         return getName;
     }
@@ -386,7 +380,7 @@ public class CachedFile extends ProxyFile {
     public long getFreeSpace() throws IOException {
         if ((bitmask & FREE_SPACE_SET_MASK) == 0) {
             getFreeSpace = file.getFreeSpace();
-            bitmask |= FREE_SPACE_SET_MASK;
+            updateBitmask(FREE_SPACE_SET_MASK, 0);
         }
         return getFreeSpace;
     }
@@ -395,7 +389,7 @@ public class CachedFile extends ProxyFile {
     public long getTotalSpace() throws IOException {
         if ((bitmask & TOTAL_SPACE_SET_MASK) == 0) {
             getTotalSpace = file.getTotalSpace();
-            bitmask |= TOTAL_SPACE_SET_MASK;
+            updateBitmask(TOTAL_SPACE_SET_MASK, 0);
         }
         return getTotalSpace;
     }
@@ -408,12 +402,7 @@ public class CachedFile extends ProxyFile {
             }
         // Note: getFileAttributes() might fail to retrieve file attributes, so we need to test isDirectorySet again
             if ((bitmask & EXISTS_SET_MASK) == 0) {
-                if (file.exists()) {
-                    bitmask |= EXISTS_VALUE_MASK;
-                } else {
-                    bitmask &= ~EXISTS_VALUE_MASK;
-                }
-                bitmask |= EXISTS_SET_MASK;
+                setBooleanValue(EXISTS_SET_MASK, EXISTS_VALUE_MASK, file.exists());
             }
         }
         return (bitmask & EXISTS_VALUE_MASK) != 0;
@@ -423,7 +412,7 @@ public class CachedFile extends ProxyFile {
     public FilePermissions getPermissions() {
         if ((bitmask & PERMISSIONS_SET_MASK) == 0) {
             getPermissions = file.getPermissions();
-            bitmask |= PERMISSIONS_SET_MASK;
+            updateBitmask(PERMISSIONS_SET_MASK, 0);
         }
         return getPermissions;
     }
@@ -432,7 +421,7 @@ public class CachedFile extends ProxyFile {
     public String getPermissionsString() {
         if ((bitmask & PERMISSIONS_STRING_SET_MASK) == 0) {
             getPermissionsString = file.getPermissionsString();
-            bitmask |= PERMISSIONS_STRING_SET_MASK;
+            updateBitmask(PERMISSIONS_STRING_SET_MASK, 0);
         }
         return getPermissionsString;
     }
@@ -441,7 +430,7 @@ public class CachedFile extends ProxyFile {
     public String getOwner() {
         if ((bitmask & OWNER_SET_MASK) == 0) {
             getOwner = file.getOwner();
-            bitmask |= OWNER_SET_MASK;
+            updateBitmask(OWNER_SET_MASK, 0);
         }
         return getOwner;
     }
@@ -450,7 +439,7 @@ public class CachedFile extends ProxyFile {
     public String getGroup() {
         if ((bitmask & GROUP_SET_MASK) == 0) {
             getGroup = file.getGroup();
-            bitmask |= GROUP_SET_MASK;
+            updateBitmask(GROUP_SET_MASK, 0);
         }
         return getGroup;
     }
@@ -458,12 +447,7 @@ public class CachedFile extends ProxyFile {
     @Override
     public boolean isRoot() {
         if ((bitmask & IS_ROOT_SET_MASK) == 0) {
-            if (file.isRoot()) {
-                bitmask |= IS_ROOT_VALUE_MASK;
-            } else {
-                bitmask &= ~IS_ROOT_VALUE_MASK;
-            }
-            bitmask |= IS_ROOT_SET_MASK;
+            setBooleanValue(IS_ROOT_SET_MASK, IS_ROOT_VALUE_MASK, file.isRoot());
         }
         return (bitmask & IS_ROOT_VALUE_MASK) != 0;
     }
@@ -472,12 +456,13 @@ public class CachedFile extends ProxyFile {
     @Override
     public AbstractFile getParent() {
         if ((bitmask & PARENT_SET_MASK) == 0) {
-            getParent = file.getParent();
+            AbstractFile parent = file.getParent();
             // create a CachedFile instance around the file if recursion is enabled
-            if ((bitmask & RECURSE_INSTANCES_MASK) != 0 && getParent != null) {
-                getParent = new CachedFile(getParent, true);
+            if ((bitmask & RECURSE_INSTANCES_MASK) != 0 && parent != null) {
+                parent = new CachedFile(parent, true);
             }
-            bitmask |= PARENT_SET_MASK;
+            getParent = parent;
+            updateBitmask(PARENT_SET_MASK, 0);
         }
         return getParent;
     }
@@ -485,12 +470,13 @@ public class CachedFile extends ProxyFile {
     @Override
     public AbstractFile getRoot() {
         if ((bitmask & GET_ROOT_SET_MASK) == 0) {
-            getRoot = file.getRoot();
+            AbstractFile root = file.getRoot();
             // create a CachedFile instance around the file if recursion is enabled
             if ((bitmask & RECURSE_INSTANCES_MASK) != 0) {
-                getRoot = new CachedFile(getRoot, true);
+                root = new CachedFile(root, true);
             }
-            bitmask |= GET_ROOT_SET_MASK;
+            getRoot = root;
+            updateBitmask(GET_ROOT_SET_MASK, 0);
         }
         return getRoot;
     }
@@ -498,18 +484,19 @@ public class CachedFile extends ProxyFile {
     @Override
     public AbstractFile getCanonicalFile() {
         if ((bitmask & CANONICAL_FILE_SET_MASK) == 0) {
-            getCanonicalFile = file.getCanonicalFile();
+            AbstractFile canonicalFile = file.getCanonicalFile();
             // create a CachedFile instance around the file if recursion is enabled
             if ((bitmask & RECURSE_INSTANCES_MASK) != 0) {
                 // AbstractFile#getCanonicalFile() may return 'this' if the file is not a symlink. In that case,
                 // no need to create a new CachedFile, simply use this one. 
-                if (getCanonicalFile == file) {
-                    getCanonicalFile = this;
+                if (canonicalFile == file) {
+                    canonicalFile = this;
                 } else {
-                    getCanonicalFile = new CachedFile(getCanonicalFile, true);
-            }
+                    canonicalFile = new CachedFile(canonicalFile, true);
+                }
             }
-            bitmask |= CANONICAL_FILE_SET_MASK;
+            getCanonicalFile = canonicalFile;
+            updateBitmask(CANONICAL_FILE_SET_MASK, 0);
         }
         return getCanonicalFile;
     }
@@ -565,4 +552,13 @@ public class CachedFile extends ProxyFile {
         return files;
     }
 
+    @Override
+    public void lsInPages(ListingListener listener) throws IOException {
+        if ((bitmask & RECURSE_INSTANCES_MASK) != 0) {
+            file.lsInPages(children -> listener.childrenListed(createCachedFiles(children)));
+        } else {
+            file.lsInPages(listener);
+        }
+    }
+
 }
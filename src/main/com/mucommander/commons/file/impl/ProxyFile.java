@@ -340,11 +340,21 @@ public abstract class ProxyFile extends AbstractFile {
         return file.getInputStream(offset);
     }
 
+    @Override
+    public InputStream getParallelInputStream() throws IOException {
+        return file.getParallelInputStream();
+    }
+
     @Override
     public void copyStream(InputStream in, boolean append, long length) throws FileTransferException {
         file.copyStream(in, append, length);
     }
 
+    @Override
+    public void copyStream(InputStream in, boolean append, long length, AbstractFile sourceFile) throws FileTransferException {
+        file.copyStream(in, append, length, sourceFile);
+    }
+
     @Override
     public AbstractFile[] ls(FileFilter filter) throws IOException {
         return file.ls(filter);
@@ -355,6 +365,11 @@ public abstract class ProxyFile extends AbstractFile {
         return file.ls(filter);
     }
 
+    @Override
+    public void lsInPages(ListingListener listener) throws IOException {
+        file.lsInPages(listener);
+    }
+
     @Override
     public void mkfile() throws IOException {
         file.mkfile();
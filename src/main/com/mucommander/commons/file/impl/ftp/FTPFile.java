@@ -151,10 +151,10 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
 
     private org.apache.commons.net.ftp.FTPFile getFTPFile(FileURL fileURL) throws IOException {
-        // Todo: this method is very ineffective as it lists the parent directory to retrieve the information about the
-        // requested file to workaround the fact that FTPClient#listFiles follows directories.
-        // => Use the MLST command if supported by the server (use FEAT command to find out if it is supported).
-        // See http://tools.ietf.org/html/draft-ietf-ftpext-mlst-16
+        // The information about the requested file is retrieved, in order of preference:
+        // - from a recent listing of the parent directory, if there is one in the cache
+        // - with the MLST command, if the server supports it (see RFC 3659)
+        // - by listing the parent directory, to workaround the fact that FTPClient#listFiles follows directories
         FileURL parentURL = fileURL.getParent();
         LOGGER.trace("fileURL={} parent={}", fileURL, parentURL);
 
@@ -162,18 +162,39 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         if (parentURL == null) {
             return createFTPFile("/", true);
         } else {
-            FTPConnectionHandler connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
-            org.apache.commons.net.ftp.FTPFile files[];
-            try {
-                // Makes sure the connection is started, if not starts it
-                connHandler.checkConnection();
+            org.apache.commons.net.ftp.FTPFile files[] = FTPListingCache.get(parentURL);
+            if (files == null) {
+                FTPConnectionHandler connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
+                try {
+                    // Makes sure the connection is started, if not starts it
+                    connHandler.checkConnection();
+
+                    if (connHandler.mlsxSupported) {
+                        org.apache.commons.net.ftp.FTPFile file = connHandler.ftpClient.mlistFile(fileURL.getPath());
+                        if (file != null) {
+                            // The name returned by MLST is the file's path
+                            file.setName(fileURL.getFilename());
+                            fixMLSxSymlink(file);
+                            return file;
+                        }
+                        if (!connHandler.checkMLSxReply() && connHandler.mlsxSupported
+                                && FTPReply.isNegativePermanent(connHandler.ftpClient.getReplyCode())) {
+                            // File doesn't exist
+                            return null;
+                        }
+                    }
 
-                // List files contained by this file's parent in order to retrieve the FTPFile instance corresponding
-                // to this file
-                files = listFiles(connHandler, parentURL.getPath());
-            } finally {
-                // Release the lock on the ConnectionHandler
-                connHandler.releaseLock();
+                    // List files contained by this file's parent in order to retrieve the FTPFile instance corresponding
+                    // to this file
+                    files = listFiles(connHandler, parentURL);
+                } catch (IOException e) {
+                    // Checks if the IOException corresponds to a socket error and in that case, closes the connection
+                    connHandler.checkSocketException(e);
+                    throw e;
+                } finally {
+                    // Release the lock on the ConnectionHandler
+                    connHandler.releaseLock();
+                }
             }
 
             // File doesn't exist
@@ -184,7 +205,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             // Find the file in the parent folder's contents
             String wantedName = fileURL.getFilename();
             for (org.apache.commons.net.ftp.FTPFile f : files) {
-                if (f.getName().equalsIgnoreCase(wantedName)) {
+                if (f != null && f.getName().equalsIgnoreCase(wantedName)) {
                     return f;
                 }
             }
@@ -206,20 +227,47 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
 
     /**
-     * Lists and returns the contents of the given path on the server using the given connection handler.
-     * The directory contents is listed by issuing a CWD followed by a LIST so after this method is called, the current
-     * working directory is left to the specified path.
+     * Lists and returns the contents of the given directory on the server using the given connection handler, and
+     * caches them in the {@link FTPListingCache}.
+     * The directory contents is listed with the MLSD command if the server supports it. Otherwise, it is listed by
+     * issuing a CWD followed by a LIST so after this method is called, the current working directory is left to the
+     * specified path.
      *
      * @param connHandler the connection handler to use for communicating with the server
-     * @param absPath absolute path to the directory to list
+     * @param folderURL URL of the directory to list
      * @return the directory's contents. The returned array may be empty but never null. The array may contain null
      * individual entries as FTPClient#listFiles's Javadoc mentions.
      * @throws IOException if an error occurred while communicating with the server
      * @throws AuthException if the user is not allowed to access this directory
      */
+    private static org.apache.commons.net.ftp.FTPFile[] listFiles(FTPConnectionHandler connHandler, FileURL folderURL) throws IOException {
+        org.apache.commons.net.ftp.FTPFile files[] = listFiles(connHandler, folderURL.getPath());
+        FTPListingCache.put(folderURL, files);
+        return files;
+    }
+
     private static org.apache.commons.net.ftp.FTPFile[] listFiles(FTPConnectionHandler connHandler, String absPath) throws IOException {
         org.apache.commons.net.ftp.FTPFile files[];
         try {
+            if (connHandler.mlsxSupported) {
+                // MLSD takes the path as an argument, and returns the attributes in a standard format
+                files = connHandler.ftpClient.mlistDir(absPath);
+                if (connHandler.checkMLSxReply()) {
+                    for (int i = 0; i < files.length; i++) {
+                        if (files[i] == null) {
+                            continue;
+                        }
+                        if (isListedDirectoryEntry(files[i])) {
+                            // Entry of the listed directory itself or of its parent
+                            files[i] = null;
+                        } else {
+                            fixMLSxSymlink(files[i]);
+                        }
+                    }
+                    return files;
+                }
+            }
+
             // Important: the folder is listed by changing the current working directory using the CWD command and then
             // issuing a LIST to list the current directory, instead of issuing a LIST with the path as an argument.
             // So we're sending:
@@ -263,6 +311,44 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
     }
 
 
+    /**
+     * Returns <code>true</code> if the given entry returned by the MLSD command is the one of the listed directory
+     * itself or of its parent, which commons-net types as any other directory.
+     */
+    private static boolean isListedDirectoryEntry(org.apache.commons.net.ftp.FTPFile file) {
+        String facts = file.getRawListing();
+        if (facts == null) {
+            return false;
+        }
+        facts = facts.toLowerCase();
+        return facts.startsWith("type=cdir;") || facts.startsWith("type=pdir;")
+                || facts.contains(";type=cdir;") || facts.contains(";type=pdir;");
+    }
+
+    /**
+     * Types the given entry returned by the MLSD or MLST command as a symbolic link if the server gave the target of
+     * the link, as Pure-FTPd does with the <code>type=OS.unix=slink:target;</code> fact. commons-net types such entries
+     * as unknown.
+     */
+    private static void fixMLSxSymlink(org.apache.commons.net.ftp.FTPFile file) {
+        String facts = file.getRawListing();
+        if (facts == null) {
+            return;
+        }
+        String slinkFact = "type=os.unix=slink:";
+        int targetStart = facts.toLowerCase().indexOf(slinkFact);
+        if (targetStart == -1) {
+            return;
+        }
+        targetStart += slinkFact.length();
+        int targetEnd = facts.indexOf(';', targetStart);
+        if (targetEnd > targetStart) {
+            file.setType(org.apache.commons.net.ftp.FTPFile.SYMBOLIC_LINK_TYPE);
+            file.setLink(facts.substring(targetStart, targetEnd));
+        }
+    }
+
+
     /////////////////////////////////////////////
     // ConnectionHandlerFactory implementation //
     /////////////////////////////////////////////
@@ -348,6 +434,9 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
             throw e;
         } finally {
+            // The file may have been modified even if the command failed
+            FTPListingCache.invalidate(fileURL);
+
             // Release the lock on the ConnectionHandler
             if (connHandler != null) {
                 connHandler.releaseLock();
@@ -535,6 +624,9 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             // Re-throw IOException
             throw e;
         } finally {
+            // The file may have been modified even if the command failed
+            FTPListingCache.invalidate(fileURL);
+
             // Release the lock on the ConnectionHandler
             connHandler.releaseLock();
         }
@@ -550,12 +642,15 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             // Makes sure the connection is started, if not starts it
             connHandler.checkConnection();
 
-            files = listFiles(connHandler, absPath);
+            files = listFiles(connHandler, fileURL);
         } finally {
             // Release the lock on the ConnectionHandler
             connHandler.releaseLock();
         }
 
+        // Establish the connections that concurrent operations on the children will need
+        ConnectionPool.prewarm(this, fileURL);
+
         if (files == null || files.length == 0) {
             return new AbstractFile[]{};
         }
@@ -563,11 +658,6 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         AbstractFile children[] = new AbstractFile[files.length];
         int nbFiles = files.length;
         int fileCount = 0;
-        String parentPath = fileURL.getPath();
-        if (!parentPath.endsWith(SEPARATOR)) {
-            parentPath += SEPARATOR;
-        }
-
         for (org.apache.commons.net.ftp.FTPFile file1 : files) {
             if (file1 == null) {
                 continue;
@@ -578,9 +668,8 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
                 continue;
             }
 
-            // Note: properties and credentials are cloned for every children's url
-            FileURL childURL = (FileURL) fileURL.clone();
-            childURL.setPath(parentPath + childName);
+            // Note: properties and credentials are shared by the children's urls
+            FileURL childURL = fileURL.getChild(childName);
 
             // Discard '.' and '..' files
             if (childName.equals(".") || childName.equals("..")) {
@@ -622,6 +711,9 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             // Re-throw IOException
             throw e;
         } finally {
+            // The file may have been modified even if the command failed
+            FTPListingCache.invalidate(fileURL);
+
             // Release the lock on the ConnectionHandler
             connHandler.releaseLock();
         }
@@ -729,6 +821,9 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
             throw e;
         } finally {
+            // The file may have been modified even if the command failed
+            FTPListingCache.invalidate(fileURL);
+
             // Release the lock on the ConnectionHandler
             if (connHandler != null) {
                 connHandler.releaseLock();
@@ -737,14 +832,73 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
     }
 
     /**
-     * Implementation notes: always throws an {@link UnsupportedFileOperationException}.
-     *
-     * @throws UnsupportedFileOperationException always
+     * Implementation notes: the file is copied by the server with the <code>SITE CPFR</code> and <code>SITE CPTO</code>
+     * commands, which are provided by ProFTPD's <code>mod_copy</code> module. This works for regular files located on
+     * the same host and accessed with the same login. If the server doesn't support these commands, this method
+     * throws an <code>IOException</code> and they are not sent over the same connection again.
      */
     @Override
-    @UnsupportedFileOperation
-    public void copyRemotelyTo(AbstractFile destFile) throws UnsupportedFileOperationException {
-        throw new UnsupportedFileOperationException(FileOperation.COPY_REMOTELY);
+    public void copyRemotelyTo(AbstractFile destFile) throws IOException {
+        // Throw an exception if the file cannot be copied to the specified destination
+        checkCopyRemotelyPrerequisites(destFile, false, false);
+
+        // The copy runs on the server, with this file's account: both files must be on the same server and account
+        FileURL destURL = destFile.getURL();
+        if (isDirectory() || !fileURL.portEquals(destURL) || !fileURL.credentialsEquals(destURL)) {
+            throw new IOException();
+        }
+
+        FTPConnectionHandler connHandler = null;
+        try {
+            // Retrieve a ConnectionHandler and lock it
+            connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
+
+            // Throw an IOException if we know the 'SITE CPFR' command is not supported by the server
+            if (!connHandler.copyCommandsSupported) {
+                throw new IOException();
+            }
+
+            // Makes sure the connection is started, if not starts it
+            connHandler.checkConnection();
+
+            LOGGER.info("sending SITE CPFR {}", absPath);
+            int replyCode = connHandler.ftpClient.site("CPFR " + absPath);
+            LOGGER.info("server reply: {}", connHandler.ftpClient.getReplyString());
+            if (!FTPReply.isPositiveIntermediate(replyCode)) {
+                // If server reported that the command is not supported, mark it in the ConnectionHandler so that
+                // we don't try it anymore
+                if (replyCode == FTPReply.UNRECOGNIZED_COMMAND
+                        || replyCode == FTPReply.COMMAND_NOT_IMPLEMENTED
+                        || replyCode == FTPReply.COMMAND_NOT_IMPLEMENTED_FOR_PARAMETER) {
+
+                    LOGGER.info("marking CPFR and CPTO commands as unsupported");
+                    connHandler.copyCommandsSupported = false;
+                }
+
+                throw new IOException();
+            }
+
+            LOGGER.info("sending SITE CPTO {}", destFile.getURL().getPath());
+            replyCode = connHandler.ftpClient.site("CPTO " + destFile.getURL().getPath());
+            LOGGER.info("server reply: {}", connHandler.ftpClient.getReplyString());
+            if (!FTPReply.isPositiveCompletion(replyCode)) {
+                throw new IOException();
+            }
+        } catch(IOException e) {
+            // Checks if the IOException corresponds to a socket error and in that case, closes the connection
+            if(connHandler!=null)
+                connHandler.checkSocketException(e);
+
+            throw e;
+        } finally {
+            // The destination may have been modified even if the command failed
+            FTPListingCache.invalidate(destFile.getURL());
+
+            // Release the lock on the ConnectionHandler
+            if (connHandler!=null) {
+                connHandler.releaseLock();
+            }
+        }
     }
     
     /**
@@ -772,6 +926,10 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
             throw e;
         } finally {
+            // The files may have been modified even if the command failed
+            FTPListingCache.invalidate(fileURL);
+            FTPListingCache.invalidate(destFile.getURL());
+
             // Release the lock on the ConnectionHandler
             if (connHandler!=null) {
                 connHandler.releaseLock();
@@ -1100,6 +1258,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             }
             // we need to refresh the file after update
             // otherwise the file size for archives will be show incorrect etc.
+            FTPListingCache.invalidate(fileURL);
             FTPFile.this.file = getFTPFile(getURL());
             // force to refresh folder pane with this file
             FolderChangeMonitor.addFileToRefresh(getAbsolutePath());
@@ -1120,6 +1279,9 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
                 // Re-throw IOException
                 throw e;
             } finally {
+                // The listing made above may have been cached before the transfer was complete
+                FTPListingCache.invalidate(fileURL);
+
                 // Release the lock on the ConnectionHandler
                 connHandler.releaseLock();
             }
@@ -1153,6 +1315,13 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         /** False if SITE CHMOD command is not supported by the remote server (once tried and failed) */
         private boolean chmodCommandSupported = true;
 
+        /** False if SITE CPFR and SITE CPTO commands are not supported by the remote server (once tried and failed) */
+        private boolean copyCommandsSupported = true;
+
+        /** True if the MLSD and MLST commands are supported by the remote server: advertised in the reply to FEAT, and
+         * not rejected since */
+        private boolean mlsxSupported;
+
         /** Controls how ofter should keepAlive() be called by ConnectionPool */
         private final static long KEEP_ALIVE_PERIOD = 60;
 
@@ -1245,6 +1414,29 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         }
 
 
+        /**
+         * Checks the reply to an MLSD or MLST command. If the server replied that the command is not supported,
+         * {@link #mlsxSupported} is cleared so that LIST is used from then on.
+         *
+         * @return <code>true</code> if the command succeeded
+         */
+        private boolean checkMLSxReply() {
+            int replyCode = ftpClient.getReplyCode();
+            if (FTPReply.isPositiveCompletion(replyCode)) {
+                return true;
+            }
+
+            if (replyCode == FTPReply.UNRECOGNIZED_COMMAND
+                    || replyCode == FTPReply.COMMAND_NOT_IMPLEMENTED
+                    || replyCode == FTPReply.COMMAND_NOT_IMPLEMENTED_FOR_PARAMETER
+                    || replyCode == FTPReply.SYNTAX_ERROR_IN_ARGUMENTS) {
+                LOGGER.info("marking MLSD and MLST commands as unsupported, server reply: {}", ftpClient.getReplyString());
+                mlsxSupported = false;
+            }
+            return false;
+        }
+
+
         /**
          * Checks if the given IOException corresponds to a low-level socket exception, and if that is the case,
          * closes the connection so that {@link #isConnected()} returns false.
@@ -1337,6 +1529,11 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 	                    ftpClient.sendCommand("OPTS UTF8 ON");
 	                }
 
+	                // Use MLSD and MLST (RFC 3659) rather than LIST if the server supports them: the attributes they
+	                // return have a standard format, and a single file can be looked up without listing its parent
+	                mlsxSupported = ftpClient.hasFeature("MLST");
+	                LOGGER.info("mlsxSupported={}", mlsxSupported);
+
 	                break;
 	            } catch(IOException e) {
                     // Attempt to retry if the connection failed, or if the server reply corresponds to a temporary error.
@@ -0,0 +1,156 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.ftp;
+
+import com.mucommander.commons.file.FileURL;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A short-lived cache of the folder listings returned by FTP servers, used to resolve the attributes of a file from
+ * the listing of its parent without listing the parent again, for instance when the files of a folder that has just
+ * been listed are resolved one by one.
+ *
+ * <p>Listings are keyed by the folder's URL, including the login, so that they are shared by all the pooled
+ * connections to the same server and account. They expire after {@link #getTimeToLive()} milliseconds, and are
+ * removed by {@link #invalidate(FileURL)} when a file is modified through {@link com.mucommander.commons.file.impl.ftp.FTPFile}.</p>
+ */
+class FTPListingCache {
+
+    /** Default number of milliseconds during which a listing is valid */
+    final static long DEFAULT_TIME_TO_LIVE = 10000;
+
+    /** Maximum number of cached listings */
+    final static int MAX_LISTINGS = 64;
+
+    private static long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    /** Cached listings, in access order */
+    private final static LinkedHashMap<String, Listing> listings = new LinkedHashMap<String, Listing>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+            return size() > MAX_LISTINGS;
+        }
+    };
+
+    /**
+     * A folder's contents, as listed at a given time.
+     */
+    private static class Listing {
+        private final FTPFile files[];
+        private final long expirationDate;
+
+        private Listing(FTPFile files[], long expirationDate) {
+            this.files = files;
+            this.expirationDate = expirationDate;
+        }
+    }
+
+
+    private FTPListingCache() {
+    }
+
+    /**
+     * Sets the number of milliseconds during which listings are valid, <code>0</code> to disable caching.
+     *
+     * @param timeToLive a number of milliseconds
+     */
+    static synchronized void setTimeToLive(long timeToLive) {
+        FTPListingCache.timeToLive = timeToLive;
+        if (timeToLive <= 0) {
+            listings.clear();
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds during which listings are valid, <code>0</code> if caching is disabled.
+     *
+     * @return a number of milliseconds
+     */
+    static synchronized long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Returns the cached contents of the given folder, <code>null</code> if there is no valid listing of it.
+     *
+     * @param folderURL URL of the folder
+     * @return the contents of the folder, <code>null</code> if they are not cached
+     */
+    static synchronized FTPFile[] get(FileURL folderURL) {
+        String key = getKey(folderURL);
+        Listing listing = listings.get(key);
+        if (listing == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= listing.expirationDate) {
+            listings.remove(key);
+            return null;
+        }
+        return listing.files;
+    }
+
+    /**
+     * Caches the contents of the given folder, as they have just been listed.
+     *
+     * @param folderURL URL of the folder
+     * @param files contents of the folder, as returned by the server
+     */
+    static synchronized void put(FileURL folderURL, FTPFile files[]) {
+        if (timeToLive > 0) {
+            listings.put(getKey(folderURL), new Listing(files, System.currentTimeMillis() + timeToLive));
+        }
+    }
+
+    /**
+     * Removes the listings that a modification of the given file makes obsolete: the listing of its parent, its own
+     * listing and the listings of its descendants, if it is a folder.
+     *
+     * @param url URL of the modified file
+     */
+    static synchronized void invalidate(FileURL url) {
+        FileURL parentURL = url.getParent();
+        if (parentURL != null) {
+            listings.remove(getKey(parentURL));
+        }
+
+        String key = getKey(url);
+        String descendantPrefix = key + "/";
+        for (Iterator<String> i = listings.keySet().iterator(); i.hasNext(); ) {
+            String listingKey = i.next();
+            if (listingKey.equals(key) || listingKey.startsWith(descendantPrefix)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all listings.
+     */
+    static synchronized void clear() {
+        listings.clear();
+    }
+
+    private static String getKey(FileURL url) {
+        String key = url.toString(true, true);
+        return key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+    }
+}
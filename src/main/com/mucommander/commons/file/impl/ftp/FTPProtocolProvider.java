@@ -67,6 +67,28 @@ public class FTPProtocolProvider implements ProtocolProvider {
         return forceHiddenFilesListing;
     }
 
+    /**
+     * Sets the number of milliseconds during which the folder listings returned by FTP servers are reused to resolve
+     * the files they contain, instead of querying the server again. A value of <code>0</code> disables this cache.
+     * The listings are discarded when a file is modified through an {@link FTPFile}, but not when it is modified by
+     * another client of the server.
+     *
+     * @param timeToLive a number of milliseconds
+     */
+    public static void setListingCacheTimeToLive(long timeToLive) {
+        FTPListingCache.setTimeToLive(timeToLive);
+    }
+
+    /**
+     * Returns the number of milliseconds during which the folder listings returned by FTP servers are reused.
+     *
+     * @return a number of milliseconds, <code>0</code> if the cache is disabled
+     * @see #setListingCacheTimeToLive(long)
+     */
+    public static long getListingCacheTimeToLive() {
+        return FTPListingCache.getTimeToLive();
+    }
+
 
     /////////////////////////////////////
     // ProtocolProvider Implementation //
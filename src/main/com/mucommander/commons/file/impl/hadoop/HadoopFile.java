@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * This abstact class provides access to the Hadoop virtual filesystem, which, like the muCommander file API, provides a
@@ -61,6 +62,9 @@ public abstract class HadoopFile extends ProtocolFile {
     /** True if this file is currently being written */
     private boolean isWriting;
 
+    /** Maximum number of children handed at once by {@link #lsInPages(ListingListener)} */
+    private final static int LISTING_PAGE_SIZE = 1000;
+
     /** Default Hadoop Configuration, whose values are fetched from XML configuration files. */
     protected final static Configuration DEFAULT_CONFIGURATION = new Configuration();
     
@@ -389,17 +393,13 @@ public abstract class HadoopFile extends ProtocolFile {
 
         int nbChildren = statuses==null?0:statuses.length;
         AbstractFile[] children = new AbstractFile[nbChildren];
-        String parentPath = fileURL.getPath();
-        if(!parentPath.endsWith("/"))
-            parentPath += "/";
         FileURL childURL;
         FileStatus childStatus;
 
         for(int i=0; i<nbChildren; i++) {
             childStatus = statuses[i];
 
-            childURL = (FileURL)fileURL.clone();
-            childURL.setPath(parentPath + childStatus.getPath().getName());
+            childURL = fileURL.getChild(childStatus.getPath().getName());
 
             children[i] = FileFactory.getFile(childURL, this, fs, childStatus);
         }
@@ -407,6 +407,31 @@ public abstract class HadoopFile extends ProtocolFile {
         return children;
     }
 
+    /**
+     * Lists this folder with {@link FileSystem#listLocatedStatus(Path)}, which filesystems such as HDFS implement by
+     * fetching the children a batch at a time rather than all at once.
+     */
+    @Override
+    public void lsInPages(ListingListener listener) throws IOException {
+        if(!exists() || !isDirectory())
+            throw new IOException();
+
+        RemoteIterator<LocatedFileStatus> statuses = fs.listLocatedStatus(path);
+        AbstractFile[] page = new AbstractFile[LISTING_PAGE_SIZE];
+        int nbChildren = 0;
+        while(statuses.hasNext()) {
+            FileStatus childStatus = statuses.next();
+            page[nbChildren++] = FileFactory.getFile(fileURL.getChild(childStatus.getPath().getName()), this, fs, childStatus);
+            if(nbChildren==LISTING_PAGE_SIZE) {
+                listener.childrenListed(page);
+                page = new AbstractFile[LISTING_PAGE_SIZE];
+                nbChildren = 0;
+            }
+        }
+        if(nbChildren>0)
+            listener.childrenListed(Arrays.copyOf(page, nbChildren));
+    }
+
     @Override
     public void changePermissions(int permissions) throws IOException, UnsupportedFileOperationException {
        fs.setPermission(path, new FsPermission((short)permissions));
@@ -31,6 +31,8 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -90,6 +92,9 @@ public class HTTPFile extends ProtocolFile {
     /** True if file has been resolved on the remote HTTP server, either successfully or unsuccessfully */
     private boolean fileResolved;
 
+    /** True if the server advertised that it serves byte ranges of this file, when it was resolved */
+    private boolean acceptRanges;
+
     private boolean parentValSet;
     protected AbstractFile parent;
 	
@@ -108,6 +113,22 @@ public class HTTPFile extends ProtocolFile {
     /** Matches HTML and XHTML attribute key/value pairs, where the value is surrounded by Double Quotes */
     private final static Pattern linkAttributePatternDQ = Pattern.compile("(src|href|SRC|HREF)=\\\".*?\\\"");
 
+    /** Minimum size of the files that are downloaded in segments */
+    private static long segmentedThreshold = 8 * 1024 * 1024;
+
+    /** Size of the segments of the files that are downloaded in segments */
+    private static int segmentSize = 4 * 1024 * 1024;
+
+    /** Number of segments downloaded concurrently, 1 to disable segmented downloads */
+    private static int segmentStreams = 4;
+
+    /** Runs the requests of segmented downloads */
+    final static ExecutorService DOWNLOAD_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "HTTP download");
+        thread.setDaemon(true);
+        return thread;
+    });
+
 
     protected HTTPFile(FileURL fileURL) throws IOException {
         // TODO: optimize this
@@ -201,7 +222,9 @@ public class HTTPFile extends ProtocolFile {
             attributes.setDate(date);
 
             // Resolve size with content-length header (-1 if not available)
-            attributes.setSize(conn.getContentLength());
+            attributes.setSize(conn.getContentLengthLong());
+
+            acceptRanges = "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges"));
 
             // Test if content is HTML
             String contentType = conn.getContentType();
@@ -272,6 +295,88 @@ public class HTTPFile extends ProtocolFile {
         }
     }
 
+    /**
+     * Sets how large files are downloaded by {@link HTTPSegmentedDownload}: if the server serves byte ranges, files
+     * are split into segments that are downloaded concurrently, each with a ranged GET request of its own, and written
+     * in place in the destination file.
+     *
+     * @param threshold minimum size of the files that are downloaded in segments, in bytes
+     * @param size size of the segments, in bytes
+     * @param nbStreams number of segments downloaded concurrently, <code>1</code> disables segmented downloads
+     */
+    public static void setSegmentedDownloads(long threshold, int size, int nbStreams) {
+        segmentedThreshold = threshold;
+        segmentSize = Math.max(1, size);
+        segmentStreams = Math.max(1, nbStreams);
+    }
+
+    /**
+     * Returns the minimum size of the files that are downloaded in segments, in bytes.
+     *
+     * @return the minimum size of the files that are downloaded in segments, in bytes
+     */
+    public static long getSegmentedThreshold() {
+        return segmentedThreshold;
+    }
+
+    /**
+     * Returns the size of the segments of the files that are downloaded in segments, in bytes.
+     *
+     * @return the size of the segments, in bytes
+     */
+    public static int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Returns the number of segments downloaded concurrently, <code>1</code> if segmented downloads are disabled.
+     *
+     * @return the number of segments downloaded concurrently
+     */
+    public static int getSegmentStreams() {
+        return segmentStreams;
+    }
+
+    /**
+     * Returns <code>true</code> if this file should be downloaded with a {@link HTTPSegmentedDownload}: its size is
+     * known and above the threshold, and the server advertises that it serves byte ranges of it.
+     *
+     * @return <code>true</code> if this file should be downloaded in segments
+     * @see #setSegmentedDownloads(long, int, int)
+     */
+    public boolean isSegmentedDownload() {
+        checkResolveFile();
+
+        long size = attributes.getSize();
+        return acceptRanges && segmentStreams > 1 && size >= segmentedThreshold && size > segmentSize;
+    }
+
+    /**
+     * Sends a GET request for the given byte range of this file and returns the connection, once the server has
+     * confirmed that it returns the range.
+     *
+     * @param start offset of the first byte of the range
+     * @param end offset of the last byte of the range
+     * @return the connection, whose input stream returns the range
+     * @throws IOException if the request failed or if the server returned something else than the range
+     */
+    HttpURLConnection openRange(long start, long end) throws IOException {
+        HttpURLConnection conn = getHttpURLConnection(this.url);
+        conn.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        try {
+            conn.connect();
+
+            checkHTTPResponse(conn);
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server did not return range " + start + "-" + end + " of " + url);
+            }
+            return conn;
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
     private void checkResolveFile() {
         if (resolve && !fileResolved) {
             try {
@@ -0,0 +1,333 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.http;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.ByteCounter;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.RandomAccessOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Downloads an {@link HTTPFile} to a destination file in segments: the file is split into byte ranges of a fixed size
+ * that are requested concurrently, over several keep-alive connections, and written in place in the destination with
+ * positional writes.
+ *
+ * <p>A segment whose request fails is requested again from the point where it stopped, up to
+ * {@link #MAX_SEGMENT_ATTEMPTS} times. If the download fails anyway or is cancelled, the segments that have been
+ * completed are remembered: the next download of the same file to the same destination only requests the missing
+ * segments, provided the file and the destination haven't changed in the meantime.</p>
+ *
+ * @see HTTPFile#setSegmentedDownloads(long, int, int)
+ */
+public class HTTPSegmentedDownload {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HTTPSegmentedDownload.class);
+
+    /** Number of attempts made to download a segment before giving up */
+    public final static int MAX_SEGMENT_ATTEMPTS = 3;
+
+    /** Size of the buffers segments are read into before being written */
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    /** Segments completed by the downloads that failed, by source, destination, length, date and segment size */
+    private final static Map<String, BitSet> PENDING_DOWNLOADS = Collections.synchronizedMap(new HashMap<>());
+
+    private final HTTPFile source;
+    private final AbstractFile destination;
+    private final long length;
+    private final int segmentSize;
+    private final int nbSegments;
+    private final String downloadKey;
+
+    /** Segments that have been completely written */
+    private BitSet completedSegments;
+    /** Index of the next segment to look at when claiming one */
+    private int nextSegment;
+    /** Number of workers that are still running */
+    private int nbWorkers;
+    /** Connections being read, disconnected when the download is cancelled */
+    private final Set<HttpURLConnection> connections = new HashSet<>();
+
+    private RandomAccessOutputStream out;
+    private ByteCounter byteCounter;
+    private FileTransferException error;
+    private boolean paused;
+    private boolean cancelled;
+
+
+    /**
+     * Creates a download of the given file to the given destination, which must support random writes.
+     *
+     * @param source the file to download, for which {@link HTTPFile#isSegmentedDownload()} returns <code>true</code>
+     * @param destination the file to write to
+     */
+    public HTTPSegmentedDownload(HTTPFile source, AbstractFile destination) {
+        this.source = source;
+        this.destination = destination;
+        this.length = source.getSize();
+        this.segmentSize = HTTPFile.getSegmentSize();
+        this.nbSegments = (int)((length + segmentSize - 1) / segmentSize);
+        this.downloadKey = source.getURL().toString(false) + "|" + destination.getURL().toString(false) + "|" + length
+                + "|" + source.getDate() + "|" + segmentSize;
+    }
+
+    /**
+     * Downloads the file, returning once all segments have been written or the download has failed.
+     *
+     * @param byteCounter counts the bytes downloaded by this method
+     * @param skippedByteCounter counts the bytes of the segments completed by a previous download, which are not
+     * downloaded again
+     * @throws FileTransferException if the download failed or was cancelled
+     */
+    public void download(ByteCounter byteCounter, ByteCounter skippedByteCounter) throws FileTransferException {
+        this.byteCounter = byteCounter;
+
+        BitSet pendingSegments = PENDING_DOWNLOADS.remove(downloadKey);
+        boolean resume = pendingSegments != null && destination.exists() && destination.getSize() == length;
+        completedSegments = resume ? pendingSegments : new BitSet(nbSegments);
+        if (resume) {
+            LOGGER.info("Resuming download of " + source.getURL() + ", " + completedSegments.cardinality() + " segments of " + nbSegments + " done");
+            long completedBytes = (long)completedSegments.cardinality() * segmentSize;
+            if (completedSegments.get(nbSegments - 1)) {
+                // The last segment may be shorter
+                completedBytes -= (long)nbSegments * segmentSize - length;
+            }
+            skippedByteCounter.add(completedBytes);
+            byteCounter.add(completedBytes);
+        }
+
+        try {
+            out = destination.getRandomAccessOutputStream();
+            if (!resume) {
+                out.setLength(length);
+            }
+        } catch (IOException e) {
+            LOGGER.info("Could not open " + destination.getURL(), e);
+            throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
+        }
+
+        boolean interrupted = false;
+        try {
+            synchronized (this) {
+                nbWorkers = Math.min(HTTPFile.getSegmentStreams(), nbSegments - completedSegments.cardinality());
+                for (int i = 0; i < nbWorkers; i++) {
+                    HTTPFile.DOWNLOAD_EXECUTOR.execute(this::downloadSegments);
+                }
+                // Wait for the workers to stop, even if interrupted, so that the destination is not written anymore
+                while (nbWorkers > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        cancel();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.info("Could not close " + destination.getURL(), e);
+                failed(new FileTransferException(FileTransferException.CLOSING_DESTINATION));
+            }
+        }
+
+        synchronized (this) {
+            if (cancelled && error == null) {
+                error = new FileTransferException(FileTransferException.READING_SOURCE);
+            }
+            if (error != null) {
+                PENDING_DOWNLOADS.put(downloadKey, completedSegments);
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Pauses or resumes the download: while paused, the workers stop between two writes.
+     *
+     * @param paused <code>true</code> to pause the download, <code>false</code> to resume it
+     */
+    public synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+        notifyAll();
+    }
+
+    /**
+     * Cancels the download: the connections being read are closed, and {@link #download(ByteCounter, ByteCounter)}
+     * fails once the workers have stopped.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        for (HttpURLConnection conn : connections) {
+            conn.disconnect();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the index of the next segment that the calling worker should download, <code>-1</code> if it should
+     * stop.
+     */
+    private synchronized int claimSegment() throws InterruptedException {
+        waitWhilePaused();
+        if (cancelled || error != null) {
+            return -1;
+        }
+        int segment = completedSegments.nextClearBit(nextSegment);
+        if (segment >= nbSegments) {
+            return -1;
+        }
+        nextSegment = segment + 1;
+        return segment;
+    }
+
+    private synchronized void waitWhilePaused() throws InterruptedException {
+        while (paused && !cancelled) {
+            wait();
+        }
+    }
+
+    private synchronized void segmentCompleted(int segment) {
+        completedSegments.set(segment);
+    }
+
+    private synchronized void failed(FileTransferException e) {
+        if (error == null) {
+            error = e;
+        }
+        notifyAll();
+    }
+
+    private synchronized void workerStopped() {
+        nbWorkers--;
+        notifyAll();
+    }
+
+    /**
+     * Downloads segments until there are none left.
+     */
+    private void downloadSegments() {
+        byte buffer[] = new byte[BUFFER_SIZE];
+        try {
+            int segment;
+            while ((segment = claimSegment()) != -1) {
+                downloadSegment(segment, buffer);
+            }
+        } catch (InterruptedException e) {
+            cancel();
+        } catch (FileTransferException e) {
+            failed(e);
+        } finally {
+            workerStopped();
+        }
+    }
+
+    /**
+     * Downloads the given segment, requesting the rest of it again if a request fails.
+     */
+    private void downloadSegment(int segment, byte buffer[]) throws FileTransferException, InterruptedException {
+        long start = (long)segment * segmentSize;
+        long end = Math.min(start + segmentSize, length);
+        long position = start;
+        for (int attempt = 1; ; attempt++) {
+            HttpURLConnection conn;
+            try {
+                conn = source.openRange(position, end - 1);
+            } catch (IOException e) {
+                if (attempt >= MAX_SEGMENT_ATTEMPTS || isCancelled()) {
+                    LOGGER.info("Could not download segment " + segment + " of " + source.getURL(), e);
+                    throw new FileTransferException(FileTransferException.READING_SOURCE);
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                connections.add(conn);
+            }
+            try (InputStream in = conn.getInputStream()) {
+                while (position < end) {
+                    int nbRead = in.read(buffer, 0, (int)Math.min(buffer.length, end - position));
+                    if (nbRead == -1) {
+                        throw new IOException("Unexpected end of segment " + segment + " of " + source.getURL());
+                    }
+                    write(position, buffer, nbRead);
+                    position += nbRead;
+                    byteCounter.add(nbRead);
+                    waitWhilePaused();
+                }
+                segmentCompleted(segment);
+                // Reading the response to the end leaves the connection open for the next request
+                return;
+            } catch (IOException e) {
+                if (attempt >= MAX_SEGMENT_ATTEMPTS || isCancelled() || e instanceof WriteException) {
+                    LOGGER.info("Could not download segment " + segment + " of " + source.getURL(), e);
+                    throw new FileTransferException(e instanceof WriteException
+                            ? FileTransferException.WRITING_DESTINATION : FileTransferException.READING_SOURCE);
+                }
+                LOGGER.debug("Retrying segment " + segment + " of " + source.getURL() + " at " + position, e);
+            } finally {
+                synchronized (this) {
+                    connections.remove(conn);
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Writes the given bytes at the given position of the destination.
+     */
+    private void write(long position, byte buffer[], int nbBytes) throws WriteException {
+        try {
+            synchronized (out) {
+                out.seek(position);
+                out.write(buffer, 0, nbBytes);
+            }
+        } catch (IOException e) {
+            throw new WriteException(e);
+        }
+    }
+
+    /**
+     * Thrown when writing to the destination failed, which is not worth retrying.
+     */
+    private static class WriteException extends IOException {
+        private WriteException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -1098,11 +1098,9 @@ public class LocalFile extends ProtocolFile {
         AbstractFile children[] = new AbstractFile[nbFiles];
 
         for(int i=0; i<nbFiles; i++) {
-            // Clone the FileURL of this file and set the child's path, this is more efficient than creating a new
-            // FileURL instance from scratch.
-            FileURL childURL = (FileURL)fileURL.clone();
-
-			childURL.setPath(absPath+SEPARATOR+files[i].getName());
+            // Derive the child's FileURL from this file's, this is more efficient than creating a new FileURL
+            // instance from scratch.
+            FileURL childURL = fileURL.getChild(files[i].getName());
 
             // Retrieves an AbstractFile (LocalFile or AbstractArchiveFile) instance that's potentially already in
             // the cache, reuse this file as the file's parent, and the already-created java.io.File instance.
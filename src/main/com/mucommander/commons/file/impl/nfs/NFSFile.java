@@ -400,14 +400,10 @@ public class NFSFile extends ProtocolFile {
 
         AbstractFile children[] = new AbstractFile[names.length];
         FileURL childURL;
-        String baseURLPath = fileURL.getPath();
-        if(!baseURLPath.endsWith("/"))
-            baseURLPath += SEPARATOR;
 
         for(int i=0; i<names.length; i++) {
-            // Clone this file's URL with the connection properties and set the child file's path
-            childURL = (FileURL)fileURL.clone();
-            childURL.setPath(baseURLPath+names[i]);
+            // Derive the child file's URL from this file's, with the connection properties
+            childURL = fileURL.getChild(names[i]);
 
             // create the child NFSFile using this file as a parent
             children[i] = FileFactory.getFile(childURL, this);
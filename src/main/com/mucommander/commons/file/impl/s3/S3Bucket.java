@@ -90,6 +90,11 @@ public class S3Bucket extends S3File {
         return listObjects(bucketName, "", this);
     }
 
+    @Override
+    public void lsInPages(ListingListener listener) throws IOException {
+        listObjects(bucketName, "", this, listener);
+    }
+
     @Override
     public void delete() throws IOException {
         try {
@@ -29,7 +29,11 @@ import org.jets3t.service.S3ServiceException;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Super class of {@link S3Root}, {@link S3Bucket} and {@link S3Object}.
@@ -73,15 +77,43 @@ public abstract class S3File extends ProtocolFile {
     }
     
     protected AbstractFile[] listObjects(String bucketName, String prefix, S3File parent) throws IOException {
-        try {
-            S3ObjectsChunk chunk = service.listObjectsChunked(bucketName, prefix, "/", Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE, null, true);
+        final List<AbstractFile> children = new ArrayList<>();
+        listObjects(bucketName, prefix, parent, page -> Collections.addAll(children, page));
+
+        return children.toArray(new AbstractFile[children.size()]);
+    }
+
+    /**
+     * Lists the objects and common prefixes under the given prefix one chunk at a time, handing the files of each
+     * chunk to the given listener before the next chunk is requested.
+     *
+     * @param bucketName name of the bucket to list
+     * @param prefix prefix of the objects to list, ending with a '/' unless it is empty
+     * @param parent parent of the listed files
+     * @param listener receives the files of each chunk
+     * @throws IOException if the prefix doesn't exist, if a chunk couldn't be listed or if the listener stopped the
+     * listing
+     */
+    protected void listObjects(String bucketName, String prefix, S3File parent, ListingListener listener) throws IOException {
+        String priorLastKey = null;
+        boolean firstChunk = true;
+        do {
+            S3ObjectsChunk chunk;
+            try {
+                chunk = service.listObjectsChunked(bucketName, prefix, "/", Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE, priorLastKey, false);
+            }
+            catch(S3ServiceException e) {
+                throw getIOException(e);
+            }
             org.jets3t.service.model.S3Object objects[] = chunk.getObjects();
             String[] commonPrefixes = chunk.getCommonPrefixes();
 
-            if(objects.length==0 && !prefix.equals("")) {
+            // The object corresponding to the prefix itself sorts first, hence is part of the first chunk
+            if(firstChunk && objects.length==0 && !prefix.equals("")) {
                 // This happens only when the directory does not exist
                 throw new IOException();
             }
+            firstChunk = false;
 
             AbstractFile[] children = new AbstractFile[objects.length+commonPrefixes.length];
             FileURL childURL;
@@ -115,20 +147,13 @@ public abstract class S3File extends ProtocolFile {
             }
 
             // Trim the array if an object was discarded.
-            // Note: Having to recreate an array sucks (puts pressure on the GC), but I haven't found a reliable way
-            // to know in advance whether the prefix will appear in the results or not.
             if(i<children.length) {
-                AbstractFile[] childrenTrimmed = new AbstractFile[i];
-                System.arraycopy(children, 0, childrenTrimmed, 0, i);
-
-                return childrenTrimmed;
+                children = Arrays.copyOf(children, i);
             }
 
-            return children;
-        }
-        catch(S3ServiceException e) {
-            throw getIOException(e);
-        }
+            listener.childrenListed(children);
+            priorLastKey = chunk.getPriorLastKey();
+        } while(priorLastKey!=null);
     }
 
 
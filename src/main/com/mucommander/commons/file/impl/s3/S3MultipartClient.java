@@ -0,0 +1,369 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.s3;
+
+import org.jets3t.service.Constants;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.security.AWSCredentials;
+import org.jets3t.service.utils.ServiceUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Performs the multipart upload requests, which JetS3t 0.7.2 doesn't know about, on behalf of an
+ * <code>S3Service</code>: an object is uploaded in parts that can be sent concurrently and re-sent individually, and
+ * that are assembled by the server once they have all been uploaded. The parts can also be copied by the server from
+ * ranges of existing objects.
+ *
+ * <p>Requests are sent to the same endpoint and signed with the same credentials as the service's own requests.</p>
+ *
+ * @see S3Object#copyStream(java.io.InputStream, boolean, long)
+ * @see S3Object#copyRemotelyTo(com.mucommander.commons.file.AbstractFile)
+ */
+class S3MultipartClient {
+
+    private final S3Service service;
+
+    S3MultipartClient(S3Service service) {
+        this.service = service;
+    }
+
+    /**
+     * Starts a multipart upload of the given object.
+     *
+     * @param bucketName name of the bucket
+     * @param objectKey key of the object to upload
+     * @return the ID of the upload, to pass to the other methods
+     * @throws S3ServiceException if the request failed
+     */
+    String initiateMultipartUpload(String bucketName, String objectKey) throws S3ServiceException {
+        HttpURLConnection conn = performRequest("POST", bucketName, objectKey, "uploads", null, null, null, 200);
+        try {
+            String uploadId = getText(parseResponse(conn).getDocumentElement(), "UploadId");
+            if (uploadId == null) {
+                throw new S3ServiceException("No upload ID returned for " + objectKey);
+            }
+            return uploadId;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Uploads a part of an object. A part that has already been uploaded is replaced.
+     *
+     * @param bucketName name of the bucket
+     * @param objectKey key of the uploaded object
+     * @param uploadId ID of the upload
+     * @param partNumber number of the part, starting at 1
+     * @param data buffer that holds the contents of the part
+     * @param length length of the part, the number of bytes of the buffer that are sent
+     * @return the ETag of the part, to pass to {@link #completeMultipartUpload(String, String, String, SortedMap)}
+     * @throws S3ServiceException if the request failed
+     */
+    String uploadPart(String bucketName, String objectKey, String uploadId, int partNumber, byte data[], int length) throws S3ServiceException {
+        HttpURLConnection conn = performRequest("PUT", bucketName, objectKey, "partNumber=" + partNumber + "&uploadId=" + encode(uploadId), null, null, "application/octet-stream", data, length, 200);
+        try {
+            String etag = conn.getHeaderField("ETag");
+            if (etag == null) {
+                throw new S3ServiceException("No ETag returned for part " + partNumber + " of " + objectKey);
+            }
+            return etag;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Uploads a part of an object by having the server copy a range of another object. A part that has already been
+     * uploaded is replaced.
+     *
+     * @param bucketName name of the bucket
+     * @param objectKey key of the uploaded object
+     * @param uploadId ID of the upload
+     * @param partNumber number of the part, starting at 1
+     * @param sourceBucketName name of the bucket of the copied object
+     * @param sourceObjectKey key of the copied object
+     * @param start position of the first byte of the copied range
+     * @param end position of the last byte of the copied range, inclusive
+     * @return the ETag of the part, to pass to {@link #completeMultipartUpload(String, String, String, SortedMap)}
+     * @throws S3ServiceException if the request failed
+     */
+    String uploadPartCopy(String bucketName, String objectKey, String uploadId, int partNumber, String sourceBucketName, String sourceObjectKey, long start, long end) throws S3ServiceException {
+        SortedMap<String, String> amzHeaders = new TreeMap<>();
+        amzHeaders.put("x-amz-copy-source", "/" + sourceBucketName + "/" + encode(sourceObjectKey).replace("+", "%20").replace("%2F", "/"));
+        amzHeaders.put("x-amz-copy-source-range", "bytes=" + start + "-" + end);
+
+        HttpURLConnection conn = performRequest("PUT", bucketName, objectKey, "partNumber=" + partNumber + "&uploadId=" + encode(uploadId), null, amzHeaders, null, new byte[0], 0, 200);
+        try {
+            // The copy may fail after the response status has been sent, in which case the body holds the error
+            Element result = parseResponse(conn).getDocumentElement();
+            String etag = getText(result, "ETag");
+            if ("Error".equals(result.getTagName()) || etag == null) {
+                throw new S3ServiceException("Could not copy part " + partNumber + " of " + objectKey + ": " + getText(result, "Message"));
+            }
+            return etag;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Returns the parts of an object that have been uploaded so far, by part number.
+     *
+     * @param bucketName name of the bucket
+     * @param objectKey key of the uploaded object
+     * @param uploadId ID of the upload
+     * @param sizes if not <code>null</code>, receives the size of the uploaded parts, by part number
+     * @return the ETags of the uploaded parts, by part number
+     * @throws S3ServiceException if the request failed, for instance because the upload doesn't exist anymore
+     */
+    SortedMap<Integer, String> listParts(String bucketName, String objectKey, String uploadId, Map<Integer, Long> sizes) throws S3ServiceException {
+        SortedMap<Integer, String> etags = new TreeMap<>();
+        String marker = null;
+        do {
+            String parameters = marker == null ? null : "part-number-marker=" + encode(marker);
+            HttpURLConnection conn = performRequest("GET", bucketName, objectKey, "uploadId=" + encode(uploadId), parameters, null, null, 200);
+            try {
+                Element result = parseResponse(conn).getDocumentElement();
+                NodeList parts = result.getElementsByTagName("Part");
+                for (int i = 0; i < parts.getLength(); i++) {
+                    Element part = (Element)parts.item(i);
+                    int partNumber = Integer.parseInt(getText(part, "PartNumber"));
+                    etags.put(partNumber, getText(part, "ETag"));
+                    if (sizes != null) {
+                        sizes.put(partNumber, Long.parseLong(getText(part, "Size")));
+                    }
+                }
+                marker = "true".equals(getText(result, "IsTruncated")) ? getText(result, "NextPartNumberMarker") : null;
+            } catch (NumberFormatException e) {
+                throw new S3ServiceException("Invalid part list for " + objectKey, e);
+            } finally {
+                conn.disconnect();
+            }
+        } while (marker != null);
+
+        return etags;
+    }
+
+    /**
+     * Completes a multipart upload: the object is assembled from the given parts and replaces any existing object
+     * with the same key.
+     *
+     * @param bucketName name of the bucket
+     * @param objectKey key of the uploaded object
+     * @param uploadId ID of the upload
+     * @param etags ETags of the parts that make up the object, by part number
+     * @throws S3ServiceException if the request failed
+     */
+    void completeMultipartUpload(String bucketName, String objectKey, String uploadId, SortedMap<Integer, String> etags) throws S3ServiceException {
+        StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+        for (Map.Entry<Integer, String> etag : etags.entrySet()) {
+            body.append("<Part><PartNumber>").append(etag.getKey()).append("</PartNumber><ETag>")
+                    .append(etag.getValue().replace("&", "&amp;").replace("\"", "&quot;"))
+                    .append("</ETag></Part>");
+        }
+        body.append("</CompleteMultipartUpload>");
+
+        HttpURLConnection conn = performRequest("POST", bucketName, objectKey, "uploadId=" + encode(uploadId), null, "application/xml", getBytes(body.toString()), 200);
+        try {
+            // The request may fail after the response status has been sent, in which case the body holds the error
+            Element result = parseResponse(conn).getDocumentElement();
+            if ("Error".equals(result.getTagName())) {
+                throw new S3ServiceException("Could not complete upload of " + objectKey + ": " + getText(result, "Message"));
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Aborts a multipart upload: the parts that have been uploaded are deleted.
+     *
+     * @param bucketName name of the bucket
+     * @param objectKey key of the uploaded object
+     * @param uploadId ID of the upload
+     * @throws S3ServiceException if the request failed
+     */
+    void abortMultipartUpload(String bucketName, String objectKey, String uploadId) throws S3ServiceException {
+        performRequest("DELETE", bucketName, objectKey, "uploadId=" + encode(uploadId), null, null, null, 204).disconnect();
+    }
+
+    /**
+     * Sends a signed request for the given object and returns the connection, once the response status has been
+     * received.
+     *
+     * @see #performRequest(String, String, String, String, String, SortedMap, String, byte[], int, int)
+     */
+    private HttpURLConnection performRequest(String method, String bucketName, String objectKey, String subResources, String parameters, String contentType, byte body[], int expectedStatus) throws S3ServiceException {
+        return performRequest(method, bucketName, objectKey, subResources, parameters, null, contentType, body, body == null ? 0 : body.length, expectedStatus);
+    }
+
+    /**
+     * Sends a signed request for the given object and returns the connection, once the response status has been
+     * received.
+     *
+     * @param method HTTP method of the request
+     * @param bucketName name of the bucket
+     * @param objectKey key of the object
+     * @param subResources the sub-resources of the query string, which are part of the signed resource
+     * @param parameters the other parameters of the query string, <code>null</code> if there are none
+     * @param amzHeaders the <code>x-amz-</code> headers of the request, which are signed, by lower-case name.
+     * <code>null</code> if there are none.
+     * @param contentType type of the request body, <code>null</code> if there is none
+     * @param body buffer that holds the request body, <code>null</code> if there is none
+     * @param bodyLength length of the request body, the number of bytes of the buffer that are sent
+     * @param expectedStatus the status of a successful response
+     * @return the connection, which the caller must disconnect once the response has been read
+     * @throws S3ServiceException if the request failed or if the response status is not the expected one
+     */
+    private HttpURLConnection performRequest(String method, String bucketName, String objectKey, String subResources, String parameters, SortedMap<String, String> amzHeaders, String contentType, byte body[], int bodyLength, int expectedStatus) throws S3ServiceException {
+        boolean disableDnsBuckets = service.getJetS3tProperties().getBoolProperty("s3service.disable-dns-buckets", false);
+        String host = S3Service.generateS3HostnameForBucket(bucketName, disableDnsBuckets);
+        String encodedKey = encode(objectKey).replace("+", "%20").replace("%2F", "/");
+        String path = host.equals(Constants.S3_HOSTNAME) ? "/" + bucketName + "/" + encodedKey : "/" + encodedKey;
+        // The canonical resource includes the bucket name, even if it is part of the host name
+        String resource = "/" + bucketName + "/" + encodedKey + "?" + subResources;
+
+        String scheme;
+        int port;
+        if (service.isHttpsOnly()) {
+            scheme = "https";
+            port = service.getJetS3tProperties().getIntProperty("s3service.s3-endpoint-https-port", 443);
+        } else {
+            scheme = "http";
+            port = service.getJetS3tProperties().getIntProperty("s3service.s3-endpoint-http-port", 80);
+        }
+
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection)new URL(scheme, host, port, path + "?" + subResources + (parameters == null ? "" : "&" + parameters)).openConnection();
+            conn.setRequestMethod(method);
+
+            String date = ServiceUtils.formatRfc822Date(service.getCurrentTimeWithOffset());
+            conn.setRequestProperty("Date", date);
+            if (contentType != null) {
+                conn.setRequestProperty("Content-Type", contentType);
+            }
+            StringBuilder canonicalAmzHeaders = new StringBuilder();
+            if (amzHeaders != null) {
+                for (Map.Entry<String, String> header : amzHeaders.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                    canonicalAmzHeaders.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+                }
+            }
+            AWSCredentials credentials = service.getAWSCredentials();
+            if (credentials != null) {
+                String stringToSign = method + "\n\n" + (contentType == null ? "" : contentType) + "\n" + date + "\n" + canonicalAmzHeaders + resource;
+                conn.setRequestProperty("Authorization", "AWS " + credentials.getAccessKey() + ":"
+                        + ServiceUtils.signWithHmacSha1(credentials.getSecretKey(), stringToSign));
+            }
+
+            if (body != null) {
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(bodyLength);
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(body, 0, bodyLength);
+                }
+            }
+
+            int status = conn.getResponseCode();
+            if (status != expectedStatus) {
+                S3ServiceException e = new S3ServiceException(method + " " + path + " failed: " + getErrorMessage(conn));
+                e.setResponseCode(status);
+                conn.disconnect();
+                throw e;
+            }
+            return conn;
+        } catch (IOException e) {
+            if (conn != null) {
+                conn.disconnect();
+            }
+            throw new S3ServiceException(method + " " + path + " failed", e);
+        }
+    }
+
+    /**
+     * Returns the message of the error returned by the server, or the response status line if there is none.
+     */
+    private static String getErrorMessage(HttpURLConnection conn) throws IOException {
+        InputStream in = conn.getErrorStream();
+        if (in != null) {
+            try {
+                String message = getText(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in).getDocumentElement(), "Message");
+                if (message != null) {
+                    return message;
+                }
+            } catch (SAXException | ParserConfigurationException e) {
+                // Not an S3 error document
+            } finally {
+                in.close();
+            }
+        }
+        return conn.getResponseCode() + " " + conn.getResponseMessage();
+    }
+
+    private static Document parseResponse(HttpURLConnection conn) throws S3ServiceException {
+        try (InputStream in = conn.getInputStream()) {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            throw new S3ServiceException("Invalid response to " + conn.getRequestMethod() + " " + conn.getURL().getPath(), e);
+        }
+    }
+
+    /**
+     * Returns the text of the first descendant of the given element with the given name, <code>null</code> if there
+     * is none.
+     */
+    private static String getText(Element element, String name) {
+        NodeList nodes = element.getElementsByTagName(name);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent().trim();
+    }
+
+    private static String encode(String s) throws S3ServiceException {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new S3ServiceException("UTF-8 not supported", e);
+        }
+    }
+
+    private static byte[] getBytes(String s) throws S3ServiceException {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new S3ServiceException("UTF-8 not supported", e);
+        }
+    }
+}
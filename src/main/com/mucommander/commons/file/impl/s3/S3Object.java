@@ -32,7 +32,24 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /**
  * <code>S3Object</code> represents an Amazon S3 object.
@@ -52,6 +69,31 @@ public class S3Object extends S3File {
     /** Default permissions for S3 objects */
     private final static FilePermissions DEFAULT_PERMISSIONS = new SimpleFilePermissions(384);   // rw-------
 
+    /** Minimum size of the objects that are transferred in several parts */
+    private static long multipartThreshold = 16 * 1024 * 1024;
+
+    /** Size of the parts of the objects that are transferred in several parts */
+    private static int multipartPartSize = 8 * 1024 * 1024;
+
+    /** Number of parts transferred concurrently, 1 to disable multipart transfers */
+    private static int multipartStreams = 4;
+
+    /** Maximum number of parts of a multipart upload */
+    private final static int MAX_PARTS = 10000;
+
+    /** Number of attempts made to upload a part before giving up */
+    private final static int MAX_PART_ATTEMPTS = 3;
+
+    /** IDs of the multipart uploads that failed and can be resumed, by bucket, key, length, part size and source file */
+    private final static Map<String, String> PENDING_UPLOADS = Collections.synchronizedMap(new HashMap<>());
+
+    /** Runs the requests of multipart transfers */
+    final static ExecutorService TRANSFER_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "S3 transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
 
     protected S3Object(FileURL url, S3Service service, String bucketName) throws AuthException {
         super(url, service);
@@ -78,6 +120,79 @@ public class S3Object extends S3File {
         return wantTrailingSeparator?addTrailingSeparator(objectKey):removeTrailingSeparator(objectKey);
     }
 
+    /**
+     * Sets how large objects are transferred by {@link #getParallelInputStream()},
+     * {@link #copyStream(InputStream, boolean, long)} and {@link #copyRemotelyTo(AbstractFile)}. Downloads are split
+     * into ranged GET requests, uploads into the parts of a multipart upload and copies into parts that the server
+     * copies from ranges of the source object, several parts being transferred concurrently.
+     *
+     * <p>If a multipart upload of a known source file fails, the parts that have been uploaded are kept on the server:
+     * the next upload of the same file to the same object, by this process, resumes after the last part that was
+     * completed and that matches the file. Uploads that are never resumed are left on the server until a lifecycle rule
+     * of the bucket removes them.</p>
+     *
+     * @param threshold minimum size of the objects that are transferred in several parts, in bytes
+     * @param partSize size of the parts, in bytes. Amazon S3 requires parts of at least 5 MB, except for the last one.
+     * @param nbStreams number of parts transferred concurrently, <code>1</code> disables multipart transfers
+     */
+    public static void setMultipartTransfers(long threshold, int partSize, int nbStreams) {
+        multipartThreshold = threshold;
+        multipartPartSize = Math.max(1, partSize);
+        multipartStreams = Math.max(1, nbStreams);
+    }
+
+    /**
+     * Returns the minimum size of the objects that are transferred in several parts, in bytes.
+     *
+     * @return the minimum size of the objects that are transferred in several parts, in bytes
+     */
+    public static long getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    /**
+     * Returns the size of the parts of the objects that are transferred in several parts, in bytes.
+     *
+     * @return the size of the parts of the objects that are transferred in several parts, in bytes
+     */
+    public static int getMultipartPartSize() {
+        return multipartPartSize;
+    }
+
+    /**
+     * Returns the number of parts transferred concurrently, <code>1</code> if multipart transfers are disabled.
+     *
+     * @return the number of parts transferred concurrently
+     */
+    public static int getMultipartStreams() {
+        return multipartStreams;
+    }
+
+    /**
+     * Returns <code>true</code> if an object of the given size should be transferred in several parts.
+     */
+    private static boolean isMultipartTransfer(long size) {
+        return multipartStreams > 1 && size >= multipartThreshold && size > multipartPartSize;
+    }
+
+    /**
+     * Returns an <code>InputStream</code> to read the contents of this object from the beginning. If the object is
+     * large enough, it is read with several ranged GET requests at once: this is the preferred way of reading a whole
+     * object.
+     *
+     * @return an <code>InputStream</code> to read the contents of this object
+     * @throws IOException if the object could not be read
+     * @see #setMultipartTransfers(long, int, int)
+     */
+    @Override
+    public InputStream getParallelInputStream() throws IOException {
+        long size = getSize();
+        if (!isMultipartTransfer(size)) {
+            return getInputStream();
+        }
+        return new S3ParallelInputStream(service, fileURL, bucketName, getObjectKey(false), size, multipartPartSize, multipartStreams);
+    }
+
     /**
      * Uploads the object contained in the given input stream to S3 by performing a 'PUT Object' request.
      * The input stream is always closed, whether the operation failed or succeeded.
@@ -113,6 +228,340 @@ public class S3Object extends S3File {
     }
 
 
+    /**
+     * Uploads the object contained in the given input stream to S3 with a multipart upload, several parts being
+     * uploaded concurrently. Parts that fail are retried; if the upload fails anyway and the source file is known, it
+     * is kept on the server so that the next attempt resumes after the last part that was completed. Otherwise, it is
+     * aborted. The input stream is always closed, whether the operation failed or succeeded.
+     *
+     * @param in the stream that contains the object to be uploaded
+     * @param objectLength length of the object
+     * @param sourceFile the file that the stream reads, <code>null</code> if unknown
+     * @throws FileTransferException if an error occurred during the transfer
+     */
+    private void putMultipartObject(InputStream in, long objectLength, AbstractFile sourceFile) throws FileTransferException {
+        S3MultipartClient multipartClient = new S3MultipartClient(service);
+        String objectKey = getObjectKey(false);
+        // Make the parts larger if the object would otherwise have more parts than allowed
+        int partSize = (int)Math.max(multipartPartSize, (objectLength + MAX_PARTS - 1) / MAX_PARTS);
+        int nbParts = (int)((objectLength + partSize - 1) / partSize);
+        // Uploads are only resumed from the same version of the same file
+        String uploadKey = sourceFile == null ? null
+                : bucketName + "/" + objectKey + "/" + objectLength + "/" + partSize + "/" + sourceFile.getURL() + "/" + sourceFile.getDate();
+
+        final SortedMap<Integer, String> etags = Collections.synchronizedSortedMap(new TreeMap<>());
+        List<Future<?>> uploads = new ArrayList<>();
+        Semaphore nbFreeStreams = new Semaphore(multipartStreams);
+        String uploadId = null;
+        boolean completed = false;
+        try {
+            uploadId = uploadKey == null ? null : PENDING_UPLOADS.get(uploadKey);
+            Map<Integer, String> uploadedEtags = Collections.emptyMap();
+            if (uploadId != null) {
+                uploadedEtags = getUploadedParts(multipartClient, uploadId, objectKey, objectLength, partSize);
+                if (uploadedEtags == null) {
+                    PENDING_UPLOADS.remove(uploadKey);
+                    uploadId = null;
+                    uploadedEtags = Collections.emptyMap();
+                } else {
+                    LOGGER.info("Resuming upload of " + fileURL + ", " + uploadedEtags.size() + " parts uploaded");
+                }
+            }
+            if (uploadId == null) {
+                uploadId = multipartClient.initiateMultipartUpload(bucketName, objectKey);
+                if (uploadKey != null) {
+                    PENDING_UPLOADS.put(uploadKey, uploadId);
+                }
+            }
+
+            final String id = uploadId;
+            // Buffers of the parts that have been uploaded, reused for the next parts so that no more than one buffer
+            // per stream is allocated
+            final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+            for (int partNumber = 1; partNumber <= nbParts; partNumber++) {
+                // Wait for a part to be uploaded if too many are in progress, before reading the next one
+                nbFreeStreams.acquire();
+                byte buffer[] = freeBuffers.poll();
+                final byte data[] = buffer == null ? new byte[(int)getPartSize(1, objectLength, partSize)] : buffer;
+                final int length = (int)getPartSize(partNumber, objectLength, partSize);
+                boolean submitted = false;
+                try {
+                    checkUploads(uploads);
+                    try {
+                        StreamUtils.readFully(in, data, 0, length);
+                    } catch (IOException e) {
+                        throw new FileTransferException(FileTransferException.READING_SOURCE);
+                    }
+
+                    // Parts uploaded by a previous attempt are only reused if they hold the same bytes as the source
+                    String uploadedEtag = uploadedEtags.get(partNumber);
+                    if (uploadedEtag != null && isEtagOf(uploadedEtag, data, length)) {
+                        etags.put(partNumber, uploadedEtag);
+                        continue;
+                    }
+
+                    final int number = partNumber;
+                    uploads.add(TRANSFER_EXECUTOR.submit(() -> {
+                        try {
+                            etags.put(number, uploadPart(multipartClient, id, objectKey, number, data, length));
+                            return null;
+                        } finally {
+                            freeBuffers.add(data);
+                            nbFreeStreams.release();
+                        }
+                    }));
+                    submitted = true;
+                } finally {
+                    if (!submitted) {
+                        freeBuffers.add(data);
+                        nbFreeStreams.release();
+                    }
+                }
+            }
+
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+
+            multipartClient.completeMultipartUpload(bucketName, objectKey, uploadId, etags);
+            completed = true;
+            if (uploadKey != null) {
+                PENDING_UPLOADS.remove(uploadKey);
+            }
+
+            // Update local file attributes
+            atts.setAttributes(service.getObjectDetails(bucketName, objectKey, null, null, null, null));
+            atts.setExists(true);
+            atts.updateExpirationDate();
+        }
+        catch(S3ServiceException e) {
+            LOGGER.info("Failed to upload " + fileURL, e);
+            throw new FileTransferException(FileTransferException.WRITING_DESTINATION);
+        }
+        catch(ExecutionException e) {
+            LOGGER.info("Failed to upload " + fileURL, e.getCause());
+            throw new FileTransferException(FileTransferException.WRITING_DESTINATION);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileTransferException(FileTransferException.WRITING_DESTINATION);
+        }
+        finally {
+            // Don't leave parts being uploaded after a failure, they would be sent again by the next attempt anyway
+            for (Future<?> upload : uploads) {
+                upload.cancel(false);
+            }
+
+            // Uploads that can't be resumed would only keep costing storage
+            if (uploadId != null && !completed && uploadKey == null) {
+                try {
+                    multipartClient.abortMultipartUpload(bucketName, objectKey, uploadId);
+                } catch (S3ServiceException e) {
+                    LOGGER.info("Could not abort upload of " + fileURL, e);
+                }
+            }
+
+            // Close the InputStream, no matter what
+            try {
+                in.close();
+            }
+            catch(IOException e) {
+                // Do not re-throw the exception to prevent exceptions caught in the catch block from being replaced
+            }
+        }
+    }
+
+    /**
+     * Uploads the object contained in the given input stream, in several parts if it is large enough. The input stream is always closed, whether the operation failed or succeeded.
+     *
+     * @param in the stream that contains the object to be uploaded
+     * @param objectLength length of the object
+     * @param sourceFile the file that the stream reads, <code>null</code> if unknown
+     * @throws FileTransferException if an error occurred during the transfer
+     */
+    private void uploadObject(InputStream in, long objectLength, AbstractFile sourceFile) throws FileTransferException {
+        if (isMultipartTransfer(objectLength)) {
+            putMultipartObject(in, objectLength, sourceFile);
+        } else {
+            putObject(in, objectLength);
+        }
+    }
+
+    /**
+     * Throws the exception that made one of the given part uploads fail, if any.
+     */
+    private static void checkUploads(List<Future<?>> uploads) throws ExecutionException, InterruptedException {
+        for (Future<?> upload : uploads) {
+            if (upload.isDone()) {
+                upload.get();
+            }
+        }
+    }
+
+    /**
+     * Copies this object to the given one with a multipart upload which parts are copied by the server from ranges of
+     * this object, several at a time. Unlike a plain copy, this works with objects larger than 5 GB. The upload is
+     * aborted if the copy fails.
+     */
+    private void copyMultipartObject(S3Object destObjectFile, long objectLength) throws IOException {
+        S3MultipartClient multipartClient = new S3MultipartClient(service);
+        String sourceKey = getObjectKey(false);
+        String destKey = destObjectFile.getObjectKey(false);
+        // Make the parts larger if the object would otherwise have more parts than allowed
+        int partSize = (int)Math.max(multipartPartSize, (objectLength + MAX_PARTS - 1) / MAX_PARTS);
+        int nbParts = (int)((objectLength + partSize - 1) / partSize);
+
+        final SortedMap<Integer, String> etags = Collections.synchronizedSortedMap(new TreeMap<>());
+        List<Future<?>> copies = new ArrayList<>();
+        Semaphore nbFreeStreams = new Semaphore(multipartStreams);
+        String uploadId = null;
+        boolean completed = false;
+        try {
+            uploadId = multipartClient.initiateMultipartUpload(destObjectFile.bucketName, destKey);
+
+            final String id = uploadId;
+            for (int partNumber = 1; partNumber <= nbParts; partNumber++) {
+                final long start = (long)(partNumber - 1) * partSize;
+                final long end = Math.min(start + partSize, objectLength) - 1;
+
+                // Wait for a part to be copied if too many are in progress
+                nbFreeStreams.acquire();
+                checkUploads(copies);
+                final int number = partNumber;
+                copies.add(TRANSFER_EXECUTOR.submit(() -> {
+                    try {
+                        etags.put(number, copyPart(multipartClient, destObjectFile.bucketName, destKey, id, number, sourceKey, start, end));
+                        return null;
+                    } finally {
+                        nbFreeStreams.release();
+                    }
+                }));
+            }
+
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+
+            multipartClient.completeMultipartUpload(destObjectFile.bucketName, destKey, uploadId, etags);
+            completed = true;
+
+            // Update destination file attributes
+            destObjectFile.atts.setAttributes(service.getObjectDetails(destObjectFile.bucketName, destKey, null, null, null, null));
+            destObjectFile.atts.setExists(true);
+            destObjectFile.atts.updateExpirationDate();
+        }
+        catch(S3ServiceException e) {
+            throw getIOException(e);
+        }
+        catch(ExecutionException e) {
+            if (e.getCause() instanceof S3ServiceException) {
+                throw getIOException((S3ServiceException)e.getCause());
+            }
+            throw new IOException(e.getCause());
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        finally {
+            for (Future<?> copy : copies) {
+                copy.cancel(false);
+            }
+
+            // Unlike uploads, copies are not resumed: don't leave the copied parts on the server
+            if (uploadId != null && !completed) {
+                try {
+                    multipartClient.abortMultipartUpload(destObjectFile.bucketName, destKey, uploadId);
+                } catch (S3ServiceException e) {
+                    LOGGER.info("Could not abort copy of " + fileURL + " to " + destObjectFile.fileURL, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a part of a multipart copy, retrying it if it fails.
+     */
+    private String copyPart(S3MultipartClient multipartClient, String destBucketName, String destKey, String uploadId, int partNumber, String sourceKey, long start, long end) throws S3ServiceException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return multipartClient.uploadPartCopy(destBucketName, destKey, uploadId, partNumber, bucketName, sourceKey, start, end);
+            } catch (S3ServiceException e) {
+                if (attempt >= MAX_PART_ATTEMPTS) {
+                    throw e;
+                }
+                LOGGER.debug("Failed to copy part " + partNumber + " of " + fileURL + ", retrying", e);
+            }
+        }
+    }
+
+    /**
+     * Uploads a part of a multipart upload, retrying it if it fails.
+     */
+    private String uploadPart(S3MultipartClient multipartClient, String uploadId, String objectKey, int partNumber, byte data[], int length) throws S3ServiceException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return multipartClient.uploadPart(bucketName, objectKey, uploadId, partNumber, data, length);
+            } catch (S3ServiceException e) {
+                if (attempt >= MAX_PART_ATTEMPTS) {
+                    throw e;
+                }
+                LOGGER.debug("Failed to upload part " + partNumber + " of " + fileURL + ", retrying", e);
+            }
+        }
+    }
+
+    /**
+     * Lists the parts of a pending multipart upload and returns the ETags of the parts that have been completed and
+     * have the expected size, <code>null</code> if the upload can't be resumed.
+     */
+    private Map<Integer, String> getUploadedParts(S3MultipartClient multipartClient, String uploadId, String objectKey, long objectLength, int partSize) {
+        try {
+            Map<Integer, Long> sizes = new HashMap<>();
+            Map<Integer, String> etags = new HashMap<>();
+            for (Map.Entry<Integer, String> uploadedEtag : multipartClient.listParts(bucketName, objectKey, uploadId, sizes).entrySet()) {
+                int partNumber = uploadedEtag.getKey();
+                if (sizes.get(partNumber) == getPartSize(partNumber, objectLength, partSize)) {
+                    etags.put(partNumber, uploadedEtag.getValue());
+                }
+            }
+            return etags;
+        } catch (S3ServiceException e) {
+            // The upload has been completed or aborted in the meantime
+            LOGGER.info("Cannot resume upload of " + fileURL, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given ETag of a part is the MD5 of the first <code>length</code> given bytes.
+     */
+    private static boolean isEtagOf(String etag, byte data[], int length) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always available
+            throw new IllegalStateException(e);
+        }
+        // The ETag of a part is the quoted hexadecimal MD5 of its bytes
+        md5.update(data, 0, length);
+        return etag.replace("\"", "").equalsIgnoreCase(toHex(md5.digest()));
+    }
+
+    private static long getPartSize(int partNumber, long objectLength, int partSize) {
+        return Math.min(partSize, objectLength - (long)(partNumber - 1) * partSize);
+    }
+
+    private static String toHex(byte bytes[]) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+
     ///////////////////////////
     // S3File implementation //
     ///////////////////////////
@@ -142,6 +591,11 @@ public class S3Object extends S3File {
         return listObjects(bucketName, getObjectKey(true), this);
     }
 
+    @Override
+    public void lsInPages(ListingListener listener) throws IOException {
+        listObjects(bucketName, getObjectKey(true), this, listener);
+    }
+
     @Override
     public void mkdir() throws IOException {
         if(exists())
@@ -206,6 +660,14 @@ public class S3Object extends S3File {
 //                throw new IOException();
 
             boolean isDirectory = isDirectory();
+
+            // Large objects are copied in parts, which is the only way to copy objects larger than 5 GB
+            long size = getSize();
+            if (!isDirectory && (size > MAX_OBJECT_SIZE || isMultipartTransfer(size))) {
+                copyMultipartObject(destObjectFile, size);
+                return;
+            }
+
             org.jets3t.service.model.S3Object destObject = new org.jets3t.service.model.S3Object(destObjectFile.getObjectKey(isDirectory));
 
             destObject.addAllMetadata(
@@ -329,6 +791,11 @@ public class S3Object extends S3File {
 
     @Override
     public void copyStream(InputStream in, boolean append, long length) throws FileTransferException {
+        copyStream(in, append, length, null);
+    }
+
+    @Override
+    public void copyStream(InputStream in, boolean append, long length, AbstractFile sourceFile) throws FileTransferException {
         if (append) {
 //            throw new UnsupportedFileOperationException(FileOperation.APPEND_FILE);
             throw new FileTransferException(FileTransferException.READING_SOURCE);
@@ -339,7 +806,7 @@ public class S3Object extends S3File {
         // If the length is known, we can upload the object directly without having to go through the tedious process
         // of copying the stream to a temporary file.
         if(length>=0) {
-            putObject(in, length);
+            uploadObject(in, length, sourceFile);
         }
         else {
             // Copy the stream to a temporary file so that we can know the object's length, which has to be declared
@@ -374,7 +841,7 @@ public class S3Object extends S3File {
                     throw new FileTransferException(FileTransferException.OPENING_SOURCE);
                 }
 
-                putObject(tempIn, tempFile.getSize());
+                uploadObject(tempIn, tempFile.getSize(), sourceFile);
             }
             finally {
                 // Delete the temporary file, no matter what.
@@ -0,0 +1,78 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.s3;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.ParallelInputStream;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that reads an S3 object with several ranged GET requests at once, one for each part of the object.
+ *
+ * @see S3Object#getParallelInputStream()
+ */
+class S3ParallelInputStream extends ParallelInputStream {
+
+    private final S3Service service;
+    private final FileURL url;
+    private final String bucketName;
+    private final String objectKey;
+
+    S3ParallelInputStream(S3Service service, FileURL url, String bucketName, String objectKey, long length, int partSize, int nbStreams) {
+        super(url, length, partSize, nbStreams);
+        this.service = service;
+        this.url = url;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        start(S3Object.TRANSFER_EXECUTOR);
+    }
+
+    @Override
+    protected PartReader openPartReader() {
+        return new PartReader() {
+            @Override
+            public int read(long offset, byte b[], int off, int len) throws IOException {
+                InputStream in;
+                try {
+                    in = service.getObject(bucketName, objectKey, null, null, null, null, offset, offset + len - 1).getDataInputStream();
+                } catch (S3ServiceException e) {
+                    throw S3File.getIOException(e, url);
+                }
+                try {
+                    // Read the whole range, so that a part takes a single request
+                    int nbRead = 0;
+                    int n;
+                    while (nbRead < len && (n = in.read(b, off + nbRead, len - nbRead)) != -1) {
+                        nbRead += n;
+                    }
+                    return nbRead == 0 ? -1 : nbRead;
+                } finally {
+                    in.close();
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
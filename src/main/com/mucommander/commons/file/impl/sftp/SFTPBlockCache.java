@@ -0,0 +1,279 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.sftp;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.connection.ConnectionPool;
+import com.sshtools.j2ssh.sftp.SftpFile;
+import com.sshtools.j2ssh.sftp.SftpFileInputStream;
+import com.sshtools.j2ssh.sftp.SftpSubsystemClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads an SFTP file by blocks of a fixed size, keeping the most recently used blocks in memory and reading ahead
+ * the blocks that follow when the file is read sequentially.
+ *
+ * <p>J2SSH performs one read request at a time per SFTP channel. Blocks are read ahead by background workers that
+ * use connections of their own, so that several read requests are in flight while the blocks read previously are
+ * being consumed. Workers only use idle pooled connections (or create new ones if the pool has room for them): if
+ * there are none, blocks are simply read on demand. Reading ahead stops as soon as the file is accessed
+ * non-sequentially, the blocks that were being read are kept in the cache.</p>
+ *
+ * <p>Only full blocks are cached, so that a file that grows while it is read is never seen truncated.</p>
+ */
+class SFTPBlockCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SFTPBlockCache.class);
+
+    private final FileURL url;
+
+    /** Reads the blocks that haven't been read ahead, using the connection held by the stream */
+    private final SftpFileInputStream in;
+
+    private final int blockSize;
+
+    /** Number of blocks read ahead of the block being read */
+    private final int nbReadAheadBlocks;
+
+    /** Maximum number of workers reading blocks ahead */
+    private final int maxWorkers;
+
+    /** Recently read blocks, in access order */
+    private final LinkedHashMap<Long, byte[]> blocks;
+
+    /** Blocks being read by the workers */
+    private final Set<Long> pendingBlocks = new HashSet<>();
+
+    /** Index of the last block that was requested, -1 if none has been yet */
+    private long lastBlock = -1;
+
+    /** Blocks from this one (inclusive) to readAheadEnd (exclusive) should be read ahead */
+    private long readAheadStart;
+    private long readAheadEnd;
+
+    /** Number of workers that are currently running */
+    private int nbWorkers;
+
+    private boolean closed;
+
+
+    /**
+     * Creates a new cache for the given file.
+     *
+     * @param url location of the file
+     * @param in a stream on the file, used to read the blocks that are not read ahead
+     * @param blockSize size of the blocks
+     * @param nbReadAheadBlocks number of blocks to read ahead of the block being read, <code>0</code> to disable read-ahead
+     * @param nbCachedBlocks maximum number of blocks kept in memory, at least <code>nbReadAheadBlocks + 1</code>
+     * @param maxWorkers maximum number of connections used to read blocks ahead
+     */
+    SFTPBlockCache(FileURL url, SftpFileInputStream in, int blockSize, int nbReadAheadBlocks, int nbCachedBlocks, int maxWorkers) {
+        this.url = url;
+        this.in = in;
+        this.blockSize = blockSize;
+        this.nbReadAheadBlocks = nbReadAheadBlocks;
+        this.maxWorkers = maxWorkers;
+
+        final int maxBlocks = Math.max(nbCachedBlocks, nbReadAheadBlocks + 1);
+        blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > maxBlocks;
+            }
+        };
+    }
+
+    /**
+     * Returns the size of the blocks.
+     *
+     * @return the size of the blocks, in bytes
+     */
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the contents of the given block. The returned array is shorter than the block size if the end of the
+     * file has been reached, empty if the block is beyond the end of the file. It must not be modified.
+     *
+     * @param index the index of the block, i.e. its offset divided by the block size
+     * @return the contents of the block
+     * @throws IOException if the block could not be read
+     */
+    byte[] getBlock(long index) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+
+            // Read ahead only when the file is read sequentially, a seek cancels the blocks that haven't been started
+            if (index == lastBlock + 1) {
+                readAheadStart = index + 1;
+                readAheadEnd = index + 1 + nbReadAheadBlocks;
+                startWorkers();
+            } else if (index != lastBlock) {
+                readAheadStart = readAheadEnd = 0;
+            }
+            lastBlock = index;
+
+            try {
+                while (pendingBlocks.contains(index)) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            byte block[] = blocks.get(index);
+            if (block != null) {
+                return block;
+            }
+        }
+
+        byte block[] = readBlock(in, index);
+        if (block.length == blockSize) {
+            synchronized (this) {
+                blocks.put(index, block);
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Stops reading ahead and frees the cached blocks. The stream that was passed to the constructor is not closed.
+     */
+    synchronized void close() {
+        closed = true;
+        readAheadStart = readAheadEnd = 0;
+        blocks.clear();
+        notifyAll();
+    }
+
+    private byte[] readBlock(SftpFileInputStream in, long index) throws IOException {
+        byte block[] = new byte[blockSize];
+        int length = 0;
+        int nbRead;
+        // SftpFileInputStream reads at most one SFTP packet at a time
+        in.setPosition(index * blockSize);
+        while (length < blockSize && (nbRead = in.read(block, length, blockSize - length)) > 0) {
+            length += nbRead;
+        }
+        return length < blockSize ? Arrays.copyOf(block, length) : block;
+    }
+
+    /**
+     * Starts workers if there are blocks to read ahead and fewer workers than blocks to read.
+     */
+    private void startWorkers() {
+        int nbBlocksToRead = 0;
+        for (long index = readAheadStart; index < readAheadEnd; index++) {
+            if (!blocks.containsKey(index) && !pendingBlocks.contains(index)) {
+                nbBlocksToRead++;
+            }
+        }
+        while (nbWorkers < maxWorkers && nbWorkers < nbBlocksToRead) {
+            nbWorkers++;
+            SFTPFile.TRANSFER_EXECUTOR.execute(this::readAhead);
+        }
+    }
+
+    /**
+     * Returns the index of the next block that the calling worker should read, <code>-1</code> if there are none.
+     */
+    private synchronized long claimBlock() {
+        if (!closed) {
+            for (long index = readAheadStart; index < readAheadEnd; index++) {
+                if (!blocks.containsKey(index) && !pendingBlocks.contains(index)) {
+                    pendingBlocks.add(index);
+                    return index;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private synchronized void blockRead(long index, byte block[]) {
+        pendingBlocks.remove(index);
+        // Partial blocks are not cached, they would hide the data appended to the file
+        if (block != null && block.length == blockSize && !closed) {
+            blocks.put(index, block);
+        } else if (block != null && block.length < blockSize) {
+            // The end of the file has been reached, don't read further
+            readAheadEnd = Math.min(readAheadEnd, index);
+        }
+        notifyAll();
+    }
+
+    private synchronized void workerStopped() {
+        nbWorkers--;
+    }
+
+    /**
+     * Reads blocks ahead until there are none left to read, using an idle connection.
+     */
+    private void readAhead() {
+        SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.tryGetConnectionHandler(SFTPFile.CONN_HANDLER_FACTORY, url);
+        if (connHandler == null) {
+            // No idle connection, blocks will be read on demand
+            workerStopped();
+            return;
+        }
+
+        SftpFileInputStream workerIn = null;
+        long index = -1;
+        try {
+            // Makes sure the connection is started, if not starts it
+            connHandler.checkConnection();
+
+            SftpFile sftpFile = connHandler.sftpSubsystem.openFile(url.getPath(), SftpSubsystemClient.OPEN_READ);
+            workerIn = new SftpFileInputStream(sftpFile);
+
+            while ((index = claimBlock()) != -1) {
+                blockRead(index, readBlock(workerIn, index));
+                index = -1;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Error while reading ahead " + url, e);
+            if (index != -1) {
+                // The block will be read on demand
+                blockRead(index, null);
+            }
+        } finally {
+            if (workerIn != null) {
+                try {
+                    // Closes the file handle
+                    workerIn.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Error while closing " + url, e);
+                }
+            }
+            // Release the lock on the ConnectionHandler
+            connHandler.releaseLock();
+            workerStopped();
+        }
+    }
+}
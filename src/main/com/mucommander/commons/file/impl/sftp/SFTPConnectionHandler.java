@@ -26,6 +26,7 @@ import com.mucommander.commons.file.connection.ConnectionHandler;
 import com.sshtools.j2ssh.SftpClient;
 import com.sshtools.j2ssh.SshClient;
 import com.sshtools.j2ssh.authentication.*;
+import com.sshtools.j2ssh.session.SessionChannelClient;
 import com.sshtools.j2ssh.sftp.SftpSubsystemClient;
 import com.sshtools.j2ssh.transport.IgnoreHostKeyVerification;
 import com.sshtools.j2ssh.transport.publickey.InvalidSshKeyException;
@@ -34,8 +35,11 @@ import com.sshtools.j2ssh.transport.publickey.SshPrivateKeyFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.List;
 
 /**
@@ -50,6 +54,9 @@ class SFTPConnectionHandler extends ConnectionHandler {
     SftpClient sftpClient;
     SftpSubsystemClient sftpSubsystem;
 
+    /** False once the server has refused to execute a command, or is known to run something else instead */
+    boolean commandsSupported = true;
+
     /** 'Password' SSH authentication method */
     private final static String PASSWORD_AUTH_METHOD = "password";
 
@@ -59,6 +66,9 @@ class SFTPConnectionHandler extends ConnectionHandler {
     /** 'Public key' SSH authentication method, not supported at the moment */
     private final static String PUBLIC_KEY_AUTH_METHOD = "publickey";
 
+    /** Maximum amount of time to wait for the exit status of a command once its output has been read, in milliseconds */
+    private final static long EXIT_STATUS_TIMEOUT = 5000;
+
 
     SFTPConnectionHandler(FileURL location) {
         super(location);
@@ -244,4 +254,63 @@ class SFTPConnectionHandler extends ConnectionHandler {
         // maintain connections open without limit.
     }
 
+
+    /**
+     * Executes the given command on the server, in a session channel of its own, and returns its standard output once
+     * it has completed successfully. The command gets no input.
+     *
+     * @param command the command to execute, interpreted by the user's shell
+     * @return the standard output of the command
+     * @throws IOException if the command could not be executed or if its exit status is not 0
+     */
+    String executeCommand(String command) throws IOException {
+        if (!commandsSupported) {
+            throw new IOException("Commands cannot be executed on " + realm);
+        }
+
+        SessionChannelClient session = sshClient.openSessionChannel();
+        if (session == null) {
+            LOGGER.info("marking commands as unsupported, the server refused to open a session");
+            commandsSupported = false;
+            throw new IOException("Could not open a session on " + realm);
+        }
+        try {
+            if (!session.executeCommand(command)) {
+                LOGGER.info("marking commands as unsupported, the server refused to execute {}", command);
+                commandsSupported = false;
+                throw new IOException("Could not execute " + command);
+            }
+            session.setLocalEOF();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream in = session.getInputStream();
+            byte buffer[] = new byte[1024];
+            int nbRead;
+            while ((nbRead = in.read(buffer)) != -1) {
+                output.write(buffer, 0, nbRead);
+            }
+
+            // The exit status may follow the end of the output
+            long deadline = System.currentTimeMillis() + EXIT_STATUS_TIMEOUT;
+            while (session.getExitCode() == null && !session.isClosed() && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+
+            // A command that fails doesn't tell anything about the commands that can be executed
+            Integer exitCode = session.getExitCode();
+            if (exitCode == null || exitCode != 0) {
+                throw new IOException(command + " failed, exit status: " + exitCode);
+            }
+
+            return output.toString("UTF-8");
+        } finally {
+            session.close();
+        }
+    }
+
 }
@@ -35,6 +35,8 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -83,8 +85,39 @@ public class SFTPFile extends ProtocolFile {
     /** Period of time during which file attributes are cached, before being fetched again from the server. */
     private static long attributeCachingPeriod = 60000;
 
+    /** Minimum size of the files that are transferred over several connections */
+    private static long parallelTransferThreshold = 8 * 1024 * 1024;
+
+    /** Size of the parts of the files that are transferred over several connections */
+    private static int parallelTransferPartSize = 1024 * 1024;
+
+    /** Number of connections used to transfer a large file, 1 to disable parallel transfers */
+    private static int parallelTransferStreams = 4;
+
+    /** Size of the blocks in which files are read by random access and offset streams */
+    private static int readAheadBlockSize = 64 * 1024;
+
+    /** Number of blocks read ahead when a file is read sequentially, 0 to disable read-ahead */
+    private static int readAheadBlocks = 8;
+
+    /** Maximum number of connections used to read blocks ahead */
+    private static int readAheadStreams = 2;
+
+    /** Number of blocks kept in memory by each random access and offset stream */
+    private final static int CACHED_BLOCKS = 32;
+
+    /** Printed by the command that copies files on the server once the copy has succeeded */
+    private final static String COPY_DONE_MARKER = "trolcommander-copy-done";
+
     /** a SFTPConnectionHandlerFactory instance */
-    private final static SFTPConnectionHandlerFactory CONN_HANDLER_FACTORY = new SFTPConnectionHandlerFactory();
+    final static SFTPConnectionHandlerFactory CONN_HANDLER_FACTORY = new SFTPConnectionHandlerFactory();
+
+    /** Runs the workers of parallel transfers */
+    final static ExecutorService TRANSFER_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "SFTP transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /** Name of the property that holds the path to a private key. This property is optional; if it is set, private key
      * authentication is used. */
@@ -130,6 +163,119 @@ public class SFTPFile extends ProtocolFile {
         attributeCachingPeriod = period;
     }
 
+    /**
+     * Sets how large files are transferred over several connections at once by {@link #getParallelInputStream()} and
+     * {@link #copyStream(InputStream, boolean, long)}. Each connection transfers parts of the file of the given size,
+     * which are reassembled in order. Parallel transfers are faster than single-stream ones on high-latency links, as
+     * each stream's throughput is limited by the SFTP window and the round-trip time.
+     *
+     * @param threshold minimum size of the files that are transferred over several connections, in bytes
+     * @param partSize size of the parts that are transferred concurrently, in bytes
+     * @param nbStreams number of connections used to transfer a file, <code>1</code> disables parallel transfers
+     */
+    public static void setParallelTransfers(long threshold, int partSize, int nbStreams) {
+        parallelTransferThreshold = threshold;
+        parallelTransferPartSize = Math.max(1, partSize);
+        parallelTransferStreams = Math.max(1, nbStreams);
+    }
+
+    /**
+     * Returns the minimum size of the files that are transferred over several connections, in bytes.
+     *
+     * @return the minimum size of the files that are transferred over several connections, in bytes
+     */
+    public static long getParallelTransferThreshold() {
+        return parallelTransferThreshold;
+    }
+
+    /**
+     * Returns the size of the parts of the files that are transferred over several connections, in bytes.
+     *
+     * @return the size of the parts of the files that are transferred over several connections, in bytes
+     */
+    public static int getParallelTransferPartSize() {
+        return parallelTransferPartSize;
+    }
+
+    /**
+     * Returns the number of connections used to transfer a large file, <code>1</code> if parallel transfers are
+     * disabled.
+     *
+     * @return the number of connections used to transfer a large file
+     */
+    public static int getParallelTransferStreams() {
+        return parallelTransferStreams;
+    }
+
+    /**
+     * Sets how the streams returned by {@link #getRandomAccessInputStream()} and {@link #getInputStream(long)} read the
+     * file. Files are read by blocks of the given size, the most recently read blocks being kept in memory so that
+     * seeking back doesn't require a new read request. When a file is read sequentially, the next blocks are read ahead
+     * over idle connections, so that several read requests are in flight at once.
+     *
+     * @param blockSize size of the blocks, in bytes
+     * @param nbBlocks number of blocks to read ahead, <code>0</code> disables read-ahead
+     * @param nbStreams maximum number of connections used to read blocks ahead
+     */
+    public static void setReadAhead(int blockSize, int nbBlocks, int nbStreams) {
+        readAheadBlockSize = Math.max(1, blockSize);
+        readAheadBlocks = Math.max(0, nbBlocks);
+        readAheadStreams = Math.max(1, nbStreams);
+    }
+
+    /**
+     * Returns the size of the blocks in which files are read by random access and offset streams, in bytes.
+     *
+     * @return the size of the blocks in which files are read by random access and offset streams, in bytes
+     */
+    public static int getReadAheadBlockSize() {
+        return readAheadBlockSize;
+    }
+
+    /**
+     * Returns the number of blocks read ahead when a file is read sequentially, <code>0</code> if read-ahead is
+     * disabled.
+     *
+     * @return the number of blocks read ahead when a file is read sequentially
+     */
+    public static int getReadAheadBlocks() {
+        return readAheadBlocks;
+    }
+
+    /**
+     * Returns the maximum number of connections used to read blocks ahead.
+     *
+     * @return the maximum number of connections used to read blocks ahead
+     */
+    public static int getReadAheadStreams() {
+        return readAheadStreams;
+    }
+
+    /**
+     * Returns <code>true</code> if a file of the given size should be transferred over several connections.
+     */
+    private static boolean isParallelTransfer(long size) {
+        return parallelTransferStreams > 1 && size >= parallelTransferThreshold && size > parallelTransferPartSize;
+    }
+
+    /**
+     * Returns an <code>InputStream</code> to read the contents of this file from the beginning. If the file is large
+     * enough, it is read over several connections at once: this is the preferred way of reading a whole file, while
+     * {@link #getInputStream()} is better suited when only a part of the file is read.
+     *
+     * @return an <code>InputStream</code> to read the contents of this file
+     * @throws IOException if the file could not be opened
+     * @see #setParallelTransfers(long, int, int)
+     */
+    @Override
+    public InputStream getParallelInputStream() throws IOException {
+        long size = getSize();
+        if (!isParallelTransfer(size)) {
+            return getInputStream();
+        }
+        return new SFTPParallelInputStream(fileURL, size, parallelTransferPartSize, parallelTransferStreams);
+    }
+
     private OutputStream getOutputStream(boolean append) throws IOException {
         // Retrieve a ConnectionHandler and lock it
         final SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
@@ -363,6 +509,45 @@ public class SFTPFile extends ProtocolFile {
         return getOutputStream(true);
     }
 
+    /**
+     * Overridden to write large files over several connections at once.
+     *
+     * @see #setParallelTransfers(long, int, int)
+     */
+    @Override
+    public void copyStream(InputStream in, boolean append, long length) throws FileTransferException {
+        if (append || !isParallelTransfer(length)) {
+            super.copyStream(in, append, length);
+            return;
+        }
+
+        SFTPParallelOutputStream out;
+        try {
+            // Create or truncate the file, its parts are then written concurrently
+            getOutputStream(false).close();
+            out = new SFTPParallelOutputStream(fileURL, parallelTransferPartSize, parallelTransferStreams);
+        } catch (IOException e) {
+            throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
+        }
+
+        long nbWritten = 0;
+        try {
+            nbWritten = StreamUtils.copyStream(in, out, IO_BUFFER_SIZE);
+        } finally {
+            // Close stream even if copyStream() threw an IOException
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.info("Error while writing " + fileURL, e);
+                throw new FileTransferException(FileTransferException.CLOSING_DESTINATION);
+            } finally {
+                // Update local attributes
+                fileAttributes.setSize(nbWritten);
+                fileAttributes.setDate(System.currentTimeMillis());
+            }
+        }
+    }
+
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
         return new SFTPRandomAccessInputStream();
@@ -417,6 +602,9 @@ public class SFTPFile extends ProtocolFile {
             connHandler.releaseLock();
         }
 
+        // Establish the connections that concurrent operations on the children will need
+        ConnectionPool.prewarm(CONN_HANDLER_FACTORY, fileURL);
+
         int nbFiles = files.size();
 
         // File doesn't exist, return an empty file array
@@ -426,11 +614,6 @@ public class SFTPFile extends ProtocolFile {
         AbstractFile children[] = new AbstractFile[nbFiles];
 
         int fileCount = 0;
-        String parentPath = fileURL.getPath();
-        if (!parentPath.endsWith(SEPARATOR)) {
-            parentPath += SEPARATOR;
-        }
-
         // Fill AbstractFile array and discard '.' and '..' files
         for (SftpFile file : files) {
             String filename = file.getFilename();
@@ -438,8 +621,7 @@ public class SFTPFile extends ProtocolFile {
             if (filename.equals(".") || filename.equals(".."))
                 continue;
 
-            FileURL childURL = (FileURL) fileURL.clone();
-            childURL.setPath(parentPath + filename);
+            FileURL childURL = fileURL.getChild(filename);
 
             children[fileCount++] = FileFactory.getFile(childURL, this, new SFTPFileAttributes(childURL, file.getAttributes()));
         }
@@ -542,17 +724,6 @@ public class SFTPFile extends ProtocolFile {
         throw new UnsupportedFileOperationException(FileOperation.RANDOM_WRITE_FILE);
     }
 
-    /**
-     * Always throws {@link UnsupportedFileOperationException} when called.
-     *
-     * @throws UnsupportedFileOperationException, always
-     */
-    @Override
-    @UnsupportedFileOperation
-    public void copyRemotelyTo(AbstractFile destFile) throws UnsupportedFileOperationException {
-        throw new UnsupportedFileOperationException(FileOperation.COPY_REMOTELY);
-    }
-
     /**
      * Always throws {@link UnsupportedFileOperationException} when called.
      *
@@ -601,6 +772,72 @@ public class SFTPFile extends ProtocolFile {
     ////////////////////////
 
 
+    /**
+     * Implementation notes: the file is copied by running <code>cp</code> on the server, over the SSH connection of
+     * this file. This works for regular files located on the same host and accessed with the same login, if the server
+     * lets the user execute commands: SFTP-only accounts and servers without a POSIX shell make this method throw an
+     * <code>IOException</code>, and the file can then be copied with streams.
+     */
+    @Override
+    public void copyRemotelyTo(AbstractFile destFile) throws IOException {
+        checkCopyRemotelyPrerequisites(destFile, false, false);
+
+        // The copy runs on the server, with this file's account: both files must be on the same server and account
+        FileURL destURL = destFile.getURL();
+        if (isDirectory() || isSymlink() || !fileURL.portEquals(destURL) || !fileURL.credentialsEquals(destURL)) {
+            throw new IOException();
+        }
+
+        SFTPFile destSftpFile = destFile.getAncestor(SFTPFile.class);
+
+        // Retrieve a ConnectionHandler and lock it
+        SFTPConnectionHandler connHandler = null;
+        try {
+            connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
+
+            // Makes sure the connection is started, if not starts it
+            connHandler.checkConnection();
+
+            // A failed copy makes executeCommand() throw an IOException, this file is then copied with streams.
+            // The command succeeding without printing the marker means the server runs something else than a shell,
+            // like a forced SFTP server. The marker may follow the messages printed by the user's shell on startup.
+            String output = connHandler.executeCommand("cp -p -- " + quoteShellArgument(absPath) + " "
+                    + quoteShellArgument(destSftpFile.absPath) + " && echo " + COPY_DONE_MARKER);
+            if (!isCopyDone(output)) {
+                LOGGER.info("marking commands as unsupported, the server has no shell, output: {}", output);
+                connHandler.commandsSupported = false;
+                throw new IOException();
+            }
+        } finally {
+            // Update destination file attributes by fetching them from the server, the file may have been modified
+            // even if the command failed
+            destSftpFile.fileAttributes.fetchAttributes();
+
+            // Release the lock on the ConnectionHandler
+            if (connHandler != null)
+                connHandler.releaseLock();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given output of a copy command contains the line printed once the copy is done.
+     */
+    private static boolean isCopyDone(String output) {
+        for (String line : output.split("\r?\n")) {
+            if (line.trim().equals(COPY_DONE_MARKER)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the given string quoted for a POSIX shell.
+     */
+    private static String quoteShellArgument(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
     @Override
     public void changePermissions(int permissions) throws IOException {
         // Retrieve a ConnectionHandler and lock it
@@ -624,6 +861,15 @@ public class SFTPFile extends ProtocolFile {
 
     @Override
     public InputStream getInputStream(long offset) throws IOException {
+        SFTPRandomAccessInputStream in = new SFTPRandomAccessInputStream();
+        in.seek(offset);
+        return in;
+    }
+
+    /**
+     * Opens this file for reading, using a locked connection that is released when the stream is closed.
+     */
+    private SftpFileInputStream openInputStream() throws IOException {
         // Retrieve a ConnectionHandler and lock it
         final SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
         try {
@@ -633,7 +879,7 @@ public class SFTPFile extends ProtocolFile {
             SftpFile sftpFile = connHandler.sftpSubsystem.openFile(absPath, SftpSubsystemClient.OPEN_READ);
 
             // Custom made constructor, not part of the official J2SSH API
-            return new SftpFileInputStream(sftpFile, offset) {
+            return new SftpFileInputStream(sftpFile, 0) {
 
                     @Override
                     public void close() throws IOException {
@@ -882,28 +1128,74 @@ public class SFTPFile extends ProtocolFile {
 
     /**
      * SFTPRandomAccessInputStream extends RandomAccessInputStream to provide random read access to an SFTPFile.
+     * The file is read by blocks through a {@link SFTPBlockCache}, which reads the next blocks ahead when the file is
+     * read sequentially.
+     *
+     * @see #setReadAhead(int, int, int)
      */
     private class SFTPRandomAccessInputStream extends RandomAccessInputStream {
 
-        private SftpFileInputStream in;
+        private final SftpFileInputStream in;
+
+        private final SFTPBlockCache blockCache;
+
+        /** Position of the next byte to read */
+        private long position;
+
+        /** The block that contains the next byte to read, null if it hasn't been fetched yet */
+        private byte[] block;
+        /** Index of the current block */
+        private long blockIndex = -1;
 
         private SFTPRandomAccessInputStream() throws IOException {
-            this.in = (SftpFileInputStream)getInputStream();
+            this.in = openInputStream();
+            this.blockCache = new SFTPBlockCache(fileURL, in, readAheadBlockSize, readAheadBlocks, CACHED_BLOCKS, readAheadStreams);
+        }
+
+        /**
+         * Makes sure that the current block has bytes left at the current position, fetching it if needed. Returns
+         * the offset of the next byte to read in the current block, <code>-1</code> if the end of the file has been
+         * reached.
+         */
+        private int fetchBlock() throws IOException {
+            int blockSize = blockCache.getBlockSize();
+            long index = position / blockSize;
+            int offset = (int)(position % blockSize);
+            // A partial block is fetched again, the file may have grown since
+            if (block == null || index != blockIndex || offset >= block.length) {
+                block = blockCache.getBlock(index);
+                blockIndex = index;
+            }
+            return offset < block.length ? offset : -1;
         }
 
         @Override
         public int read(byte b[], int off, int len) throws IOException {
-            return in.read(b, off, len);
+            if (len == 0) {
+                return 0;
+            }
+            int offset = fetchBlock();
+            if (offset == -1) {
+                return -1;
+            }
+            int nbBytes = Math.min(len, block.length - offset);
+            System.arraycopy(block, offset, b, off, nbBytes);
+            position += nbBytes;
+            return nbBytes;
         }
 
         @Override
         public int read() throws IOException {
-            return in.read();
+            int offset = fetchBlock();
+            if (offset == -1) {
+                return -1;
+            }
+            position++;
+            return block[offset] & 0xFF;
         }
 
         public long getOffset() throws IOException {
-            // Custom method, not part of the official J2SSH API
-            return in.getPosition();
+            return position;
         }
 
         public long getLength() throws IOException {
@@ -911,12 +1203,13 @@ public class SFTPFile extends ProtocolFile {
         }
 
         public void seek(long offset) throws IOException {
-            // Custom method, not part of the official J2SSH API
-            in.setPosition(offset);
+            position = offset;
         }
 
         @Override
         public void close() throws IOException {
+            blockCache.close();
+            block = null;
             in.close();
         }
     }
@@ -0,0 +1,77 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.sftp;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.connection.ConnectionPool;
+import com.mucommander.commons.io.ParallelInputStream;
+import com.sshtools.j2ssh.sftp.SftpFile;
+import com.sshtools.j2ssh.sftp.SftpFileInputStream;
+import com.sshtools.j2ssh.sftp.SftpSubsystemClient;
+
+import java.io.IOException;
+
+/**
+ * An InputStream that reads an SFTP file over several connections at once, each worker using its own pooled
+ * connection and file handle.
+ *
+ * @see SFTPFile#getParallelInputStream()
+ */
+class SFTPParallelInputStream extends ParallelInputStream {
+
+    private final FileURL url;
+
+    SFTPParallelInputStream(FileURL url, long length, int partSize, int nbStreams) {
+        super(url, length, partSize, nbStreams);
+        this.url = url;
+        start(SFTPFile.TRANSFER_EXECUTOR);
+    }
+
+    @Override
+    protected PartReader openPartReader() throws IOException {
+        SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(SFTPFile.CONN_HANDLER_FACTORY, url, true);
+        try {
+            // Makes sure the connection is started, if not starts it
+            connHandler.checkConnection();
+
+            SftpFile sftpFile = connHandler.sftpSubsystem.openFile(url.getPath(), SftpSubsystemClient.OPEN_READ);
+            SftpFileInputStream in = new SftpFileInputStream(sftpFile);
+            return new PartReader() {
+                @Override
+                public int read(long offset, byte b[], int off, int len) throws IOException {
+                    in.setPosition(offset);
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        // Closes the file handle
+                        in.close();
+                    } finally {
+                        // Release the lock on the ConnectionHandler
+                        connHandler.releaseLock();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            connHandler.releaseLock();
+            throw e;
+        }
+    }
+}
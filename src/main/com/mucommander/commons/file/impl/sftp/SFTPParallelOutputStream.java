@@ -0,0 +1,96 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.sftp;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.connection.ConnectionPool;
+import com.mucommander.commons.io.ParallelOutputStream;
+import com.sshtools.j2ssh.sftp.SftpFile;
+import com.sshtools.j2ssh.sftp.SftpFileOutputStream;
+import com.sshtools.j2ssh.sftp.SftpSubsystemClient;
+
+import java.io.IOException;
+
+/**
+ * An OutputStream that writes an existing SFTP file over several connections at once, each worker using its own
+ * pooled connection and file handle.
+ *
+ * @see SFTPFile#copyStream(java.io.InputStream, boolean, long)
+ */
+class SFTPParallelOutputStream extends ParallelOutputStream {
+
+    private final FileURL url;
+
+    /**
+     * Does not close the file handle when garbage collected, as handles are shared by the parts written by a worker.
+     */
+    private static class PartOutputStream extends SftpFileOutputStream {
+        private PartOutputStream(SftpFile file, long position) throws IOException {
+            super(file, position);
+        }
+
+        @Override
+        protected void finalize() {
+        }
+    }
+
+
+    /**
+     * Creates a new stream that writes the given file, which must exist.
+     *
+     * @param url location of the file to write
+     * @param partSize size of the parts that are written concurrently
+     * @param nbStreams number of connections to use
+     */
+    SFTPParallelOutputStream(FileURL url, int partSize, int nbStreams) {
+        super(url, 0, partSize, nbStreams);
+        this.url = url;
+        start(SFTPFile.TRANSFER_EXECUTOR);
+    }
+
+    @Override
+    protected PartWriter openPartWriter() throws IOException {
+        SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(SFTPFile.CONN_HANDLER_FACTORY, url, true);
+        try {
+            // Makes sure the connection is started, if not starts it
+            connHandler.checkConnection();
+
+            SftpFile sftpFile = connHandler.sftpSubsystem.openFile(url.getPath(), SftpSubsystemClient.OPEN_WRITE);
+            return new PartWriter() {
+                @Override
+                public void write(long offset, byte b[], int off, int len) throws IOException {
+                    new PartOutputStream(sftpFile, offset).write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        // Closes the file handle
+                        sftpFile.close();
+                    } finally {
+                        // Release the lock on the ConnectionHandler
+                        connHandler.releaseLock();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            connHandler.releaseLock();
+            throw e;
+        }
+    }
+}
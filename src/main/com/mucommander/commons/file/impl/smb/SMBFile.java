@@ -21,8 +21,10 @@ package com.mucommander.commons.file.impl.smb;
 
 import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.filter.FilenameFilter;
+import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
+import com.mucommander.commons.io.StreamUtils;
 import jcifs.smb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +33,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -72,6 +76,22 @@ import java.net.MalformedURLException;
      *  be changed. */
     private final static PermissionBits CHANGEABLE_PERMISSIONS = new GroupedPermissionBits(128);   // -w------- (200 octal)
 
+    /** Minimum size of the files that are transferred with several requests in flight */
+    private static long parallelThreshold = 8 * 1024 * 1024;
+
+    /** Size of the chunks of the files that are transferred with several requests in flight */
+    private static int parallelChunkSize = 1024 * 1024;
+
+    /** Number of chunks transferred concurrently, 1 to disable parallel transfers */
+    private static int parallelRequests = 4;
+
+    /** Reads and writes the chunks of parallel transfers */
+    final static ExecutorService TRANSFER_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "SMB transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     
     protected SMBFile(FileURL fileURL) throws IOException {
         this(fileURL, null);
@@ -133,7 +153,7 @@ import java.net.MalformedURLException;
      * @return an SmbFile corresponding to the given location
      * @throws MalformedURLException if an error occurred while creating the SmbFile instance
      */
-    private static SmbFile createSmbFile(FileURL url) throws MalformedURLException {
+    static SmbFile createSmbFile(FileURL url) throws MalformedURLException {
         Credentials credentials = url.getCredentials();
         if(credentials==null)
             return new SmbFile(url.toString(false));
@@ -197,6 +217,73 @@ import java.net.MalformedURLException;
         jcifs.Config.setProperty("jcifs.smb.client.attrExpirationPeriod", ""+period);
     }
 
+    /**
+     * Sets how large files are transferred by {@link #getParallelInputStream()} and
+     * {@link #copyStream(InputStream, boolean, long)}. The files are split into chunks that are read or written
+     * concurrently, each stream having a file handle of its own, so that several requests are in flight at once
+     * rather than one at a time. The requests share the connection and session that jCIFS keeps to the server.
+     *
+     * @param threshold minimum size of the files that are transferred in chunks, in bytes
+     * @param chunkSize size of the chunks, in bytes
+     * @param nbRequests number of chunks transferred concurrently, <code>1</code> disables parallel transfers
+     */
+    public static void setParallelTransfers(long threshold, int chunkSize, int nbRequests) {
+        parallelThreshold = threshold;
+        parallelChunkSize = Math.max(1, chunkSize);
+        parallelRequests = Math.max(1, nbRequests);
+    }
+
+    /**
+     * Returns the minimum size of the files that are transferred in chunks, in bytes.
+     *
+     * @return the minimum size of the files that are transferred in chunks, in bytes
+     */
+    public static long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Returns the size of the chunks of the files that are transferred in chunks, in bytes.
+     *
+     * @return the size of the chunks, in bytes
+     */
+    public static int getParallelChunkSize() {
+        return parallelChunkSize;
+    }
+
+    /**
+     * Returns the number of chunks transferred concurrently, <code>1</code> if parallel transfers are disabled.
+     *
+     * @return the number of chunks transferred concurrently
+     */
+    public static int getParallelRequests() {
+        return parallelRequests;
+    }
+
+    /**
+     * Returns <code>true</code> if a file of the given size should be transferred in chunks.
+     */
+    private static boolean isParallelTransfer(long size) {
+        return parallelRequests > 1 && size >= parallelThreshold && size > parallelChunkSize;
+    }
+
+    /**
+     * Returns an <code>InputStream</code> that reads this file from the beginning. Large files are read in chunks,
+     * with several requests in flight; smaller ones are read like {@link #getInputStream()} does.
+     *
+     * @return an <code>InputStream</code> that reads this file from the beginning
+     * @throws IOException if the file could not be read
+     * @see #setParallelTransfers(long, int, int)
+     */
+    @Override
+    public InputStream getParallelInputStream() throws IOException {
+        long size = file.length();
+        if (!isParallelTransfer(size)) {
+            return getInputStream();
+        }
+        return new SMBParallelInputStream(fileURL, size, parallelChunkSize, parallelRequests);
+    }
+
 
     /////////////////////////////////////////
     // AbstractFile methods implementation //
@@ -435,6 +522,46 @@ import java.net.MalformedURLException;
         ((SMBFile)destFile).checkSmbFile(isDirectory);
     }
 
+    /**
+     * Writes large files in chunks, with several requests in flight. Files which length is unknown or below the
+     * threshold are written like {@link AbstractFile#copyStream(InputStream, boolean, long)} does.
+     *
+     * @see #setParallelTransfers(long, int, int)
+     */
+    @Override
+    public void copyStream(InputStream in, boolean append, long length) throws FileTransferException {
+        if (!isParallelTransfer(length)) {
+            super.copyStream(in, append, length);
+            return;
+        }
+
+        OutputStream out;
+        try {
+            long position;
+            if (append) {
+                position = file.length();
+            } else {
+                // Create or truncate the file
+                new SmbFileOutputStream(file, false).close();
+                position = 0;
+            }
+            out = new SMBParallelOutputStream(fileURL, position, parallelChunkSize, parallelRequests);
+        } catch (IOException e) {
+            throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
+        }
+
+        try {
+            StreamUtils.copyStream(in, out, IO_BUFFER_SIZE);
+        } finally {
+            // Close stream even if copyStream() threw an IOException
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new FileTransferException(FileTransferException.CLOSING_DESTINATION);
+            }
+        }
+    }
+
     @Override
     public long getFreeSpace() throws IOException {
         return file.getDiskFreeSpace();
@@ -0,0 +1,61 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.smb;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.ParallelInputStream;
+import jcifs.smb.SmbRandomAccessFile;
+
+import java.io.IOException;
+
+/**
+ * An InputStream that reads an SMB file with several read requests in flight, each worker with a handle of its own on
+ * the file.
+ *
+ * <p>jCIFS multiplexes the requests of all the handles on the same transport and session, so that the server is kept
+ * busy while the responses to the previous requests are on their way instead of waiting for each of them in turn.</p>
+ *
+ * @see SMBFile#getParallelInputStream()
+ */
+class SMBParallelInputStream extends ParallelInputStream {
+
+    private final FileURL url;
+
+    SMBParallelInputStream(FileURL url, long length, int chunkSize, int nbRequests) {
+        super(url, length, chunkSize, nbRequests);
+        this.url = url;
+        start(SMBFile.TRANSFER_EXECUTOR);
+    }
+
+    @Override
+    protected PartReader openPartReader() throws IOException {
+        SmbRandomAccessFile raf = new SmbRandomAccessFile(SMBFile.createSmbFile(url), "r");
+        return new PartReader() {
+            @Override
+            public int read(long offset, byte b[], int off, int len) throws IOException {
+                raf.seek(offset);
+                return raf.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                raf.close();
+            }
+        };
+    }
+}
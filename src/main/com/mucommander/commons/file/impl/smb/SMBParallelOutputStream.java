@@ -0,0 +1,62 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.smb;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.ParallelOutputStream;
+import jcifs.smb.SmbRandomAccessFile;
+
+import java.io.IOException;
+
+/**
+ * An OutputStream that writes an SMB file with several write requests in flight, each worker with a handle of its own
+ * on the file.
+ *
+ * @see SMBFile#copyStream(java.io.InputStream, boolean, long)
+ */
+class SMBParallelOutputStream extends ParallelOutputStream {
+
+    private final FileURL url;
+
+    /**
+     * Creates a stream that writes the file at the given location from the given position, which must not exceed the
+     * file's length.
+     */
+    SMBParallelOutputStream(FileURL url, long position, int chunkSize, int nbRequests) {
+        super(url, position, chunkSize, nbRequests);
+        this.url = url;
+        start(SMBFile.TRANSFER_EXECUTOR);
+    }
+
+    @Override
+    protected PartWriter openPartWriter() throws IOException {
+        SmbRandomAccessFile raf = new SmbRandomAccessFile(SMBFile.createSmbFile(url), "rw");
+        return new PartWriter() {
+            @Override
+            public void write(long offset, byte b[], int off, int len) throws IOException {
+                raf.seek(offset);
+                raf.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                raf.close();
+            }
+        };
+    }
+}
@@ -55,6 +55,11 @@ public class SMBProtocolProvider implements ProtocolProvider {
         // when JCIFS first tries to resolve a path would timeout causing a long startup delay (e.g. running JCIFS only
         // on the local machine without a network like on a laptop)."
         System.setProperty("jcifs.smb.client.dfs.disabled", "true");
+
+        // Read and write requests carry up to the size of the buffers negotiated with the server, minus the headers.
+        // jCIFS's default send buffer (16644 bytes) only allows writes of about 16 KB, a quarter of what reads get:
+        // use the size of the receive buffer instead. The server's own limit still applies.
+        System.setProperty("jcifs.smb.client.snd_buf_size", "60416");
     }
 
 
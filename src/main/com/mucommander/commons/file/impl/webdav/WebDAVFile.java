@@ -197,9 +197,8 @@ public class WebDAVFile extends ProtocolFile {
                 continue;
             }
 
-            // Note: properties and credentials are cloned for every children's url
-            childURL = (FileURL) fileURL.clone();
-            childURL.setPath(parentPath + childName);
+            // Note: properties and credentials are shared by the children's urls
+            childURL = fileURL.getChild(childName);
 
             child = FileFactory.getFile(childURL, this, files.get(i));
             children[fileCount++] = child;
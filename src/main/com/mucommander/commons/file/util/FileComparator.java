@@ -338,8 +338,10 @@ public class FileComparator implements Comparator<AbstractFile> {
     public int compare(AbstractFile f1, AbstractFile f2) {
         long diff;
 
-        boolean is1Directory = f1.isDirectory();
-        boolean is2Directory = f2.isDirectory();
+        // Only query the directory attribute when it matters, it may require I/O
+        boolean needsDirectory = directoriesFirst || criterion == SIZE_CRITERION;
+        boolean is1Directory = needsDirectory && isDirectory(f1);
+        boolean is2Directory = needsDirectory && isDirectory(f2);
 
         if (directoriesFirst) {
             if (is1Directory && !is2Directory)
@@ -395,6 +397,19 @@ public class FileComparator implements Comparator<AbstractFile> {
     }
 
 
+    /**
+     * Returns <code>true</code> if the given file is to be compared as a directory. This implementation returns the
+     * value of {@link AbstractFile#isDirectory()}, subclasses may override it to avoid blocking on files whose
+     * attributes are not known yet.
+     *
+     * @param file the file to test
+     * @return <code>true</code> if the given file is to be compared as a directory
+     */
+    protected boolean isDirectory(AbstractFile file) {
+        return file.isDirectory();
+    }
+
+
     /**
      * Returns true only if the given object is a FileComparator using the same criterion and ascending/descending order.
      */
@@ -20,7 +20,12 @@
 package com.mucommander.commons.file.util;
 
 import com.mucommander.commons.file.AbstractFile;
-import org.apache.commons.collections4.map.ReferenceMap;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class allows {@link AbstractFile} instances to be pooled, so that existing file instances can be reused,
@@ -29,17 +34,34 @@ import org.apache.commons.collections4.map.ReferenceMap;
  * but a sensible choice is to use the {@link AbstractFile#getURL() file's URL}.
  *
  * <p>Files are stored as {@link java.lang.ref.WeakReference weak references} so they can be garbage collected
- * when they are no longer hard-referenced.</p>
+ * when they are no longer hard-referenced. Mappings whose file has been garbage collected are removed lazily, when
+ * files are added to the pool.</p>
  *
- * <p>This class uses the {@link ReferenceMap} class part of the <code>Apache Commons Collection</code> library.
- * All accesses to the underlying map is synchronized, making this class thread-safe.</p>
+ * <p>This class is thread-safe. Files are stored in a {@link ConcurrentHashMap} so that lookups, which are far more
+ * frequent than insertions, never block.</p>
  *
  * @author Maxence Bernard
  */
 public class FilePool {
 
     /** The actual hash map */
-    protected final ReferenceMap<Object, AbstractFile> hashMap = new ReferenceMap<>(ReferenceMap.ReferenceStrength.HARD, ReferenceMap.ReferenceStrength.WEAK);
+    private final ConcurrentMap<Object, FileReference> hashMap = new ConcurrentHashMap<>();
+
+    /** Queue of the references whose file has been garbage collected */
+    private final ReferenceQueue<AbstractFile> referenceQueue = new ReferenceQueue<>();
+
+    /**
+     * A weak reference to a pooled file, which remembers its key so that the mapping can be removed once the file
+     * has been garbage collected.
+     */
+    private static class FileReference extends WeakReference<AbstractFile> {
+        private final Object key;
+
+        private FileReference(Object key, AbstractFile file, ReferenceQueue<AbstractFile> queue) {
+            super(file, queue);
+            this.key = key;
+        }
+    }
 
     /**
      * Creates a new file pool.
@@ -56,8 +78,10 @@ public class FilePool {
      * @return returns the file instance previously mapped onto the given key, <code>null</code> if no
      * such mapping existed
      */
-    public synchronized AbstractFile put(Object key, AbstractFile value) {
-        return hashMap.put(key, value);
+    public AbstractFile put(Object key, AbstractFile value) {
+        purge();
+        FileReference previous = hashMap.put(key, new FileReference(key, value, referenceQueue));
+        return previous == null ? null : previous.get();
     }
 
     /**
@@ -68,8 +92,9 @@ public class FilePool {
      * @return the {@link AbstractFile} instance mapped onto the given key if there is one,
      * <code>null</code> otherwise
      */
-    public synchronized AbstractFile get(Object key) {
-        return hashMap.get(key);
+    public AbstractFile get(Object key) {
+        FileReference reference = hashMap.get(key);
+        return reference == null ? null : reference.get();
     }
 
     /**
@@ -80,8 +105,8 @@ public class FilePool {
      * @return <code>true</code> if this pool currently contains a key/file mapping where the given key is used as
      * the mapping's key.
      */
-    public synchronized boolean containsKey(Object key) {
-        return hashMap.containsKey(key);
+    public boolean containsKey(Object key) {
+        return get(key) != null;
     }
 
     /**
@@ -92,16 +117,22 @@ public class FilePool {
      * @return <code>true</code> if this pool currently contains a key/file mapping where the given file is used as
      * the mapping's key.
      */
-    public synchronized boolean containsValue(AbstractFile file) {
-        return hashMap.containsValue(file);
+    public boolean containsValue(AbstractFile file) {
+        for (FileReference reference : hashMap.values()) {
+            if (file.equals(reference.get())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Removes all existing key/file mapping from this pool, leaving the pool in the same state as it was right after
      * its creation.
      */
-    public synchronized void clear() {
+    public void clear() {
         hashMap.clear();
+        purge();
     }
 
     /**
@@ -109,7 +140,20 @@ public class FilePool {
      *
      * @return the number of key/file mapping this pool currently contains.
      */
-    public synchronized int size() {
+    public int size() {
+        purge();
         return hashMap.size();
     }
+
+    /**
+     * Removes the mappings whose file has been garbage collected.
+     */
+    private void purge() {
+        Reference<? extends AbstractFile> reference;
+        while ((reference = referenceQueue.poll()) != null) {
+            FileReference fileReference = (FileReference)reference;
+            // The key may have been mapped onto another file since
+            hashMap.remove(fileReference.key, fileReference);
+        }
+    }
 }
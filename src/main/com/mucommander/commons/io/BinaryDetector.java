@@ -20,9 +20,7 @@ package com.mucommander.commons.io;
 
 import com.mucommander.commons.io.bom.BOM;
 import com.mucommander.commons.io.bom.BOMConstants;
-import com.mucommander.commons.io.bom.BOMInputStream;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
@@ -66,46 +64,32 @@ public class BinaryDetector {
      * @return true if BinaryDetector thinks that the specified data is binary
      */
     public static boolean guessBinary(byte b[], int off, int len) {
+        ByteStatistics statistics = new ByteStatistics();
+        statistics.update(b, off, len);
+        return guessBinary(statistics);
+    }
+
+    /**
+     * Tries and detect whether the bytes described by the given statistics correspond to binary or text data.
+     * This method returns <code>true</code> if it thinks that the bytes correspond to binary data.
+     *
+     * @param statistics the statistics of the data to analyze
+     * @return true if BinaryDetector thinks that the specified data is binary
+     */
+    public static boolean guessBinary(ByteStatistics statistics) {
         // binary .torrent files etc. doesn't contains any 0x0A, 0x0D or 0x00 bytes
-        int x0Acnt = 0;
-        int x0Dcnt = 0;
-        boolean containsZero = false;
-        for (int i = 0; i < len; i++) {
-            byte v = b[i+off];
-            if (v == 0x0A) {
-                x0Acnt++;
-                if (x0Acnt > 16) {
-                    break;
-                }
-            } else if (v == 0x0D) {
-                x0Dcnt++;
-                if (x0Dcnt > 16) {
-                    break;
-                }
-            } else if (v == 0) {
-                containsZero = true;
-            }
-        }
-        if (x0Acnt == 0 && x0Dcnt == 0 && len > 1024*32) {
+        if (statistics.getNbLineFeeds() == 0 && statistics.getNbCarriageReturns() == 0 && statistics.getLength() > 1024*32) {
             return true;
         }
-        try {
-            // Returns true if any of the bytes are the NUL character. The NUL character is usually not found in a text
-            // file, except for UTF-16 and UTF-32 streams.
-            // So first, we try and look for a BOM (byte-order mark) to see if the stream is UTF-16 or UTF-32 encoded.
-            BOMInputStream bin = new BOMInputStream(new ByteArrayInputStream(b, off, len));
-            BOM bom = bin.getBOM();
-            if (bom != null) {
-                if (bom.equals(BOMConstants.UTF16_BE_BOM) || bom.equals(BOMConstants.UTF16_LE_BOM)
-                || bom.equals(BOMConstants.UTF32_BE_BOM) || bom.equals(BOMConstants.UTF32_LE_BOM)) {
-                    return false;
-                }
-            }
-        } catch (IOException e) {
-            // Can never happen in practice with a ByteArrayInputStream.
+        if (statistics.getNbZeros() == 0) {
+            return false;
         }
-        // No BOM, start looking for zeros
-        return containsZero;
+        // Returns true if any of the bytes are the NUL character. The NUL character is usually not found in a text
+        // file, except for UTF-16 and UTF-32 streams.
+        // So first, we try and look for a BOM (byte-order mark) to see if the stream is UTF-16 or UTF-32 encoded.
+        BOM bom = statistics.getBOM();
+        return !(BOMConstants.UTF16_BE_BOM.equals(bom) || BOMConstants.UTF16_LE_BOM.equals(bom)
+                || BOMConstants.UTF32_BE_BOM.equals(bom) || BOMConstants.UTF32_LE_BOM.equals(bom));
     }
 
     /**
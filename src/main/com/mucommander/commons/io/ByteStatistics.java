@@ -0,0 +1,206 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import com.mucommander.commons.io.bom.BOM;
+import com.mucommander.commons.io.bom.BOMConstants;
+
+/**
+ * Statistics about some bytes, gathered in a single pass with a byte class table: the byte-order mark, the number of
+ * NUL and line separator bytes, and whether the bytes are pure ASCII or valid UTF-8. They are used by both
+ * {@link EncodingDetector} and {@link BinaryDetector}, and can be updated as the bytes are read from a stream.
+ */
+public class ByteStatistics {
+
+    /** Class of the ASCII bytes that don't have a class of their own */
+    private static final byte TEXT = 0;
+    private static final byte NUL = 1;
+    private static final byte LINE_FEED = 2;
+    private static final byte CARRIAGE_RETURN = 3;
+    /** Escape, which starts the shift sequences of the ISO-2022 encodings */
+    private static final byte ESCAPE = 4;
+    /** UTF-8 continuation byte: 80-BF */
+    private static final byte CONTINUATION = 5;
+    /** UTF-8 lead bytes of 2, 3 and 4 byte sequences: C2-DF, E0-EF, F0-F4 */
+    private static final byte LEAD_2 = 6;
+    private static final byte LEAD_3 = 7;
+    private static final byte LEAD_4 = 8;
+    /** Bytes that never appear in UTF-8: C0, C1, F5-FF */
+    private static final byte INVALID = 9;
+
+    private static final byte CLASSES[] = new byte[256];
+
+    static {
+        for (int i = 0x80; i <= 0xBF; i++) {
+            CLASSES[i] = CONTINUATION;
+        }
+        for (int i = 0xC0; i <= 0xFF; i++) {
+            CLASSES[i] = i < 0xC2 || i > 0xF4 ? INVALID : i <= 0xDF ? LEAD_2 : i <= 0xEF ? LEAD_3 : LEAD_4;
+        }
+        CLASSES[0x00] = NUL;
+        CLASSES['\n'] = LINE_FEED;
+        CLASSES['\r'] = CARRIAGE_RETURN;
+        CLASSES[0x1B] = ESCAPE;
+    }
+
+    /** Length of the longest byte-order mark */
+    private static final int MAX_BOM_LENGTH = 4;
+
+    /** The first bytes, to look for a byte-order mark */
+    private final byte head[] = new byte[MAX_BOM_LENGTH];
+
+    private int length;
+    private int nbZeros;
+    private int nbLineFeeds;
+    private int nbCarriageReturns;
+    private int nbEscapes;
+    private int nbHighBytes;
+    private int nbMultiByteSequences;
+    private boolean invalidUTF8;
+
+    /** Number of continuation bytes expected to end the current UTF-8 sequence */
+    private int pendingContinuations;
+
+
+    /**
+     * Adds the specified bytes, which follow the bytes added previously, to the statistics.
+     *
+     * @param b the bytes to add
+     * @param off the array offset at which the bytes start
+     * @param len the number of bytes
+     */
+    public void update(byte b[], int off, int len) {
+        if (length < MAX_BOM_LENGTH) {
+            System.arraycopy(b, off, head, length, Math.min(len, MAX_BOM_LENGTH - length));
+        }
+        length += len;
+
+        int pending = pendingContinuations;
+        for (int i = off, end = off + len; i < end; i++) {
+            byte c = CLASSES[b[i] & 0xFF];
+            if (pending > 0) {
+                if (c == CONTINUATION) {
+                    nbHighBytes++;
+                    if (--pending == 0) {
+                        nbMultiByteSequences++;
+                    }
+                    continue;
+                }
+                invalidUTF8 = true;
+                pending = 0;
+            }
+            switch (c) {
+                case TEXT:
+                    break;
+                case NUL:
+                    nbZeros++;
+                    break;
+                case LINE_FEED:
+                    nbLineFeeds++;
+                    break;
+                case CARRIAGE_RETURN:
+                    nbCarriageReturns++;
+                    break;
+                case ESCAPE:
+                    nbEscapes++;
+                    break;
+                case LEAD_2:
+                    nbHighBytes++;
+                    pending = 1;
+                    break;
+                case LEAD_3:
+                    nbHighBytes++;
+                    pending = 2;
+                    break;
+                case LEAD_4:
+                    nbHighBytes++;
+                    pending = 3;
+                    break;
+                default:
+                    // Continuation byte without a lead byte, or a byte that is invalid in UTF-8
+                    nbHighBytes++;
+                    invalidUTF8 = true;
+            }
+        }
+        pendingContinuations = pending;
+    }
+
+    /**
+     * Returns the byte-order mark the bytes start with, <code>null</code> if there is none.
+     *
+     * @return the byte-order mark the bytes start with, <code>null</code> if there is none
+     */
+    public BOM getBOM() {
+        BOM found = null;
+        for (BOM bom : BOMConstants.SUPPORTED_BOMS) {
+            byte signature[] = bom.getSignature();
+            if (signature.length > length || (found != null && signature.length <= found.getSignature().length)) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < signature.length && matches; i++) {
+                matches = head[i] == signature[i];
+            }
+            if (matches) {
+                found = bom;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns <code>true</code> if the bytes are pure 7-bit ASCII text: no byte has its high bit set, and there are no
+     * NUL bytes nor escape sequences of the ISO-2022 encodings.
+     *
+     * @return <code>true</code> if the bytes are pure ASCII text
+     */
+    public boolean isASCII() {
+        return nbHighBytes == 0 && nbZeros == 0 && nbEscapes == 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the bytes are valid UTF-8 with at least one multi-byte sequence, and no NUL bytes.
+     * A sequence cut by the end of the bytes is considered valid, as the bytes are usually the beginning of a file.
+     *
+     * @return <code>true</code> if the bytes are valid UTF-8 that is not pure ASCII
+     */
+    public boolean isUTF8() {
+        return nbMultiByteSequences > 0 && !invalidUTF8 && nbZeros == 0;
+    }
+
+    /**
+     * Returns the number of bytes added to the statistics.
+     *
+     * @return the number of bytes added to the statistics
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getNbZeros() {
+        return nbZeros;
+    }
+
+    public int getNbLineFeeds() {
+        return nbLineFeeds;
+    }
+
+    public int getNbCarriageReturns() {
+        return nbCarriageReturns;
+    }
+}
@@ -20,6 +20,7 @@ package com.mucommander.commons.io;
 
 import com.ibm.icu.text.CharsetDetector;
 import com.ibm.icu.text.CharsetMatch;
+import com.mucommander.commons.io.bom.BOM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +40,13 @@ import java.io.PushbackInputStream;
  * should be taken into account if bytes are to be fetched specifically for the purpose of detecting the encoding.
  *
  * <p>
+ * The bytes are first scanned once for a byte-order mark, pure ASCII and valid UTF-8, which are recognized without
+ * further analysis. Only the other bytes go through the costlier statistical recognizers. Pure ASCII is reported as
+ * ISO-8859-1 by default: only the first bytes are sampled, and unlike UTF-8, ISO-8859-1 can decode and encode back
+ * any byte that may follow them. It can be reported as UTF-8 instead with {@link #setASCIIAsUTF8(boolean)}.
+ * </p>
+ *
+ * <p>
  * EncodingDetector uses <i>ICU4J</i> under the hood. Here's a list of encodings that can currently be detected:
  * <pre>
  * UTF-8
@@ -84,6 +92,40 @@ public class EncodingDetector {
      *  */
     public final static int MAX_RECOMMENDED_BYTE_SIZE = 1024*16;
 
+    /** Confidence of an ICU match past which the remaining recognizers are not run */
+    private final static int DECISIVE_CONFIDENCE = 100;
+
+    /** Number of bytes read at once by the methods that read from a stream */
+    private final static int STREAM_CHUNK_SIZE = 4096;
+
+    /** Encoding reported for pure ASCII by default, which maps every byte to a character and back */
+    private final static String ASCII_ENCODING = "ISO-8859-1";
+
+    /** True if pure ASCII is reported as UTF-8 rather than as {@link #ASCII_ENCODING} */
+    private static boolean asciiAsUTF8;
+
+
+    /**
+     * Returns <code>true</code> if pure ASCII is reported as UTF-8, <code>false</code> if it is reported as
+     * ISO-8859-1 (the default).
+     *
+     * @return <code>true</code> if pure ASCII is reported as UTF-8
+     */
+    public static boolean isASCIIAsUTF8() {
+        return asciiAsUTF8;
+    }
+
+    /**
+     * Sets whether pure ASCII is reported as UTF-8 rather than as ISO-8859-1. UTF-8 keeps the non-Latin characters
+     * added to the text later on, but since only the first bytes are sampled, non-ASCII bytes that follow them and are
+     * not valid UTF-8 are lost if the text is decoded and saved. ISO-8859-1 is lossless, and is the default.
+     *
+     * @param asciiAsUTF8 <code>true</code> to report pure ASCII as UTF-8
+     */
+    public static void setASCIIAsUTF8(boolean asciiAsUTF8) {
+        EncodingDetector.asciiAsUTF8 = asciiAsUTF8;
+    }
+
 
     /**
      * This method is a shorthand for {@link #detectEncoding(byte[], int, int) detectEncoding(b, 0, b.length)}.
@@ -122,6 +164,40 @@ public class EncodingDetector {
             len = MAX_RECOMMENDED_BYTE_SIZE;
         }
 
+        ByteStatistics statistics = new ByteStatistics();
+        statistics.update(bytes, off, len);
+        return detectEncoding(statistics, bytes, off, len);
+    }
+
+    /**
+     * Returns the encoding of the given bytes if their statistics are conclusive: the encoding of their byte-order mark,
+     * ISO-8859-1 (or UTF-8 if {@link #setASCIIAsUTF8(boolean) enabled}) if they are pure ASCII, or UTF-8 if they are
+     * valid UTF-8. Otherwise, the ICU recognizers are run.
+     */
+    private static String detectEncoding(ByteStatistics statistics, byte bytes[], int off, int len) {
+        BOM bom = statistics.getBOM();
+        if (bom != null) {
+            return bom.getEncoding();
+        }
+        if (statistics.isASCII()) {
+            return asciiAsUTF8 ? "UTF-8" : ASCII_ENCODING;
+        }
+        if (statistics.isUTF8()) {
+            return "UTF-8";
+        }
+        return detectEncodingWithRecognizers(bytes, off, len);
+    }
+
+    /**
+     * Detects the encoding of the given bytes with the ICU recognizers, without looking at byte-order marks, ASCII and
+     * UTF-8 first.
+     *
+     * @param bytes the bytes for which to detect the encoding
+     * @param off the array offset at which the data to process starts
+     * @param len length of the data in the array, at least 4 and at most {@link #MAX_RECOMMENDED_BYTE_SIZE}
+     * @return the best guess at the encoding, null if there is none (not enough data or confidence)
+     */
+    static String detectEncodingWithRecognizers(byte bytes[], int off, int len) {
         // CharsetDetector will process the array fully, so if the data does not start at 0 or ends before the array's
         // length, create a new array that fits the data exactly
         if (off > 0 || len < bytes.length) {
@@ -134,7 +210,7 @@ public class EncodingDetector {
         cd.setText(bytes);
 
 
-        CharsetMatch[] matches = cd.detectAll();
+        CharsetMatch[] matches = cd.detectAll(DECISIVE_CONFIDENCE);
 
         CharsetMatch cm;
         if (matches == null || matches.length == 0) {
@@ -191,18 +267,30 @@ public class EncodingDetector {
         byte buf[] = BufferPool.getByteArray(MAX_RECOMMENDED_BYTE_SIZE);
 
         try {
-            return detectEncoding(buf, 0, StreamUtils.readUpTo(in, buf));
+            ByteStatistics statistics = new ByteStatistics();
+            int readBytes = read(in, buf, statistics);
+            return readBytes < 4 ? null : detectEncoding(statistics, buf, 0, readBytes);
         }
         finally {
             BufferPool.releaseByteArray(buf);
         }
     }
 
+    /**
+     * Same as {@link #detectEncoding(InputStream)}, except that the bytes that have been read are pushed back to the
+     * stream.
+     *
+     * @param in the PushbackInputStream that supplies the bytes, with a push back buffer of at least
+     * {@link #MAX_RECOMMENDED_BYTE_SIZE} bytes
+     * @return the best guess at the character encoding, null if there is none (not enough data or confidence)
+     * @throws IOException if an error occurred while reading the stream
+     */
     public static String detectEncoding(PushbackInputStream in) throws IOException {
         byte buf[] = BufferPool.getByteArray(MAX_RECOMMENDED_BYTE_SIZE);
         try {
-            int readBytes = StreamUtils.readUpTo(in, buf);
-            String result = detectEncoding(buf, 0, readBytes);
+            ByteStatistics statistics = new ByteStatistics();
+            int readBytes = read(in, buf, statistics);
+            String result = readBytes < 4 ? null : detectEncoding(statistics, buf, 0, readBytes);
             in.unread(buf, 0, readBytes);
             return result;
         } finally {
@@ -210,6 +298,30 @@ public class EncodingDetector {
         }
     }
 
+    /**
+     * Reads bytes from the stream into the buffer, updating their statistics along the way. Stops reading as soon as
+     * the bytes start with a byte-order mark, which is enough to know the encoding, or once {@link #MAX_RECOMMENDED_BYTE_SIZE} bytes have been read.
+     *
+     * @return the number of bytes read
+     */
+    private static int read(InputStream in, byte buf[], ByteStatistics statistics) throws IOException {
+        int maxBytes = Math.min(buf.length, MAX_RECOMMENDED_BYTE_SIZE);
+        int readBytes = 0;
+        while (readBytes < maxBytes) {
+            int nbBytes = in.read(buf, readBytes, Math.min(STREAM_CHUNK_SIZE, maxBytes - readBytes));
+            if (nbBytes == -1) {
+                break;
+            }
+            statistics.update(buf, readBytes, nbBytes);
+            readBytes += nbBytes;
+            // Four bytes are needed to tell the UTF-32LE byte-order mark from the UTF-16LE one
+            if (readBytes >= 4 && statistics.getBOM() != null) {
+                break;
+            }
+        }
+        return readBytes;
+    }
+
     /**
      * Returns an array of encodings that can be detected by the <code>detectEncoding</code> methods.
      * Note that some of the returned character encodings may not be available on the Java runtime.
@@ -0,0 +1,290 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * An InputStream that reads a file of a known length with several workers at once. The file is split into parts of a
+ * fixed size that are read concurrently by the workers, each with a {@link PartReader} of its own, and that are
+ * returned in order by this stream.
+ *
+ * <p>The number of parts read ahead of the part being consumed is bounded, so that the memory used by this stream
+ * doesn't depend on the file's size. A file that turns out to be shorter than the length it was opened with makes
+ * this stream throw an <code>EOFException</code> when the missing bytes are reached.</p>
+ *
+ * <p>Subclasses implement {@link #openPartReader()} and call {@link #start(Executor)} once they are initialized.</p>
+ */
+public abstract class ParallelInputStream extends InputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelInputStream.class);
+
+    /** Location of the file, used in error messages */
+    private final Object location;
+    private final long length;
+    private final int partSize;
+    private final int nbStreams;
+
+    /** Maximum number of parts read ahead of the part being consumed */
+    private final int maxBufferedParts;
+
+    /** Number of parts of the file */
+    private final long nbParts;
+
+    /** Index of the next part to read */
+    private long nextPart;
+
+    /** Parts read but not consumed yet, by index */
+    private final Map<Long, byte[]> readParts = new HashMap<>();
+
+    /** Number of workers that are still running */
+    private int nbWorkers;
+
+    /** The part being consumed, null if it hasn't been read yet */
+    private byte[] currentPart;
+    /** Index of the part being consumed */
+    private long currentPartIndex;
+    /** Position of the next byte to return in the current part */
+    private int currentPartPosition;
+
+    private IOException error;
+    private boolean closed;
+
+    /**
+     * Reads parts of the file for a worker.
+     */
+    public interface PartReader extends Closeable {
+        /**
+         * Reads up to <code>len</code> bytes of the file starting at the given offset.
+         *
+         * @param offset offset in the file of the first byte to read
+         * @param b the buffer into which the bytes are read
+         * @param off offset in the buffer of the first byte to read
+         * @param len maximum number of bytes to read
+         * @return the number of bytes read, <code>-1</code> if the end of the file has been reached
+         * @throws IOException if the file could not be read
+         */
+        int read(long offset, byte b[], int off, int len) throws IOException;
+    }
+
+
+    /**
+     * Creates a stream that reads the file at the given location, of the given length. Reading starts once
+     * {@link #start(Executor)} has been called.
+     *
+     * @param location location of the file, used in error messages
+     * @param length length of the file
+     * @param partSize size of the parts that are read concurrently
+     * @param nbStreams maximum number of parts read concurrently
+     */
+    protected ParallelInputStream(Object location, long length, int partSize, int nbStreams) {
+        this.location = location;
+        this.length = length;
+        this.partSize = partSize;
+        this.nbStreams = nbStreams;
+        this.nbParts = (length + partSize - 1) / partSize;
+        this.maxBufferedParts = 2 * nbStreams;
+    }
+
+    /**
+     * Starts the workers on the given executor. Subclasses call this method once they are initialized, as the
+     * workers call {@link #openPartReader()} right away.
+     *
+     * @param executor runs the workers
+     */
+    protected final void start(Executor executor) {
+        int nbWorkers = (int)Math.min(nbStreams, nbParts);
+        synchronized (this) {
+            this.nbWorkers = nbWorkers;
+        }
+        for (int i = 0; i < nbWorkers; i++) {
+            executor.execute(this::readParts);
+        }
+    }
+
+    /**
+     * Opens the file for a worker. This method is called by each worker, in its own thread.
+     *
+     * @return a reader of the file that is closed once the worker is done
+     * @throws IOException if the file could not be opened
+     */
+    protected abstract PartReader openPartReader() throws IOException;
+
+    @Override
+    public int read() throws IOException {
+        if (!nextPart()) {
+            return -1;
+        }
+        return currentPart[currentPartPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextPart()) {
+            return -1;
+        }
+        int nbBytes = Math.min(len, currentPart.length - currentPartPosition);
+        System.arraycopy(currentPart, currentPartPosition, b, off, nbBytes);
+        currentPartPosition += nbBytes;
+        return nbBytes;
+    }
+
+    @Override
+    public synchronized int available() {
+        return currentPart == null ? 0 : currentPart.length - currentPartPosition;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        readParts.clear();
+        currentPart = null;
+        notifyAll();
+    }
+
+    /**
+     * Makes sure that the current part has bytes left to return, waiting for the next part to be read if needed.
+     * Returns <code>false</code> if the end of the file has been reached.
+     */
+    private synchronized boolean nextPart() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (currentPart != null && currentPartPosition < currentPart.length) {
+            return true;
+        }
+        if (currentPart != null) {
+            currentPart = null;
+            currentPartIndex++;
+            // Let the workers read ahead
+            notifyAll();
+        }
+
+        while (currentPartIndex < nbParts) {
+            currentPart = readParts.remove(currentPartIndex);
+            if (currentPart != null) {
+                currentPartPosition = 0;
+                return true;
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (nbWorkers == 0) {
+                throw new IOException("Could not read " + location);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of the next part that the calling worker should read, <code>-1</code> if it should stop.
+     */
+    private synchronized long claimPart() throws InterruptedException {
+        while (!closed && error == null && nextPart < nbParts && nextPart >= currentPartIndex + maxBufferedParts) {
+            wait();
+        }
+        if (closed || error != null || nextPart >= nbParts) {
+            return -1;
+        }
+        return nextPart++;
+    }
+
+    private synchronized void partRead(long index, byte data[]) {
+        if (!closed) {
+            readParts.put(index, data);
+        }
+        notifyAll();
+    }
+
+    private synchronized void workerStopped(IOException e) {
+        nbWorkers--;
+        if (e != null && error == null) {
+            error = e;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reads parts until there are none left, with a reader of its own.
+     */
+    private void readParts() {
+        PartReader reader;
+        try {
+            reader = openPartReader();
+        } catch (IOException | RuntimeException e) {
+            // The other workers can do without this one, the stream fails only if all of them stop
+            LOGGER.debug("Could not open " + location, e);
+            synchronized (this) {
+                workerStopped(nbWorkers == 1 ? toIOException(e) : null);
+            }
+            return;
+        }
+
+        IOException error = null;
+        try {
+            long index;
+            while ((index = claimPart()) != -1) {
+                long start = index * partSize;
+                byte data[] = new byte[(int)Math.min(partSize, length - start)];
+                int nbRead = 0;
+                while (nbRead < data.length) {
+                    int n = reader.read(start + nbRead, data, nbRead, data.length - nbRead);
+                    if (n == -1) {
+                        throw new EOFException(location + " is shorter than " + length + " bytes");
+                    }
+                    nbRead += n;
+                }
+                partRead(index, data);
+            }
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.info("Error while reading " + location, e);
+            error = toIOException(e);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error while closing " + location, e);
+            }
+            workerStopped(error);
+        }
+    }
+
+    private static IOException toIOException(Exception e) {
+        return e instanceof IOException ? (IOException)e : new IOException(e);
+    }
+}
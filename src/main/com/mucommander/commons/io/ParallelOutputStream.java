@@ -0,0 +1,308 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+/**
+ * An OutputStream that writes a file with several workers at once. The bytes written to this stream are gathered in
+ * parts of a fixed size that are written at their offset in the file concurrently by the workers, each with a
+ * {@link PartWriter} of its own.
+ *
+ * <p>The number of parts waiting to be written is bounded: {@link #write(byte[], int, int)} blocks while the workers
+ * catch up. Errors are reported by the first call to <code>write</code> or {@link #close()} that follows them;
+ * {@link #close()} returns once all the parts have been written.</p>
+ *
+ * <p>Subclasses implement {@link #openPartWriter()} and call {@link #start(Executor)} once they are initialized.</p>
+ */
+public abstract class ParallelOutputStream extends OutputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelOutputStream.class);
+
+    /** Location of the file, used in error messages */
+    private final Object location;
+    private final int partSize;
+    private final int nbStreams;
+
+    /** Maximum number of parts waiting to be written */
+    private final int maxQueuedParts;
+
+    /** Parts waiting to be written, in the order in which they were filled */
+    private final Deque<Part> queuedParts = new ArrayDeque<>();
+
+    /** Number of workers that are still running */
+    private int nbWorkers;
+
+    /** The part being filled, null if no byte has been written to it yet */
+    private Part currentPart;
+
+    /** Offset in the file of the byte that follows the current part */
+    private long offset;
+
+    private IOException error;
+    private boolean closed;
+
+    /**
+     * Writes parts of the file for a worker.
+     */
+    public interface PartWriter extends Closeable {
+        /**
+         * Writes the given bytes to the file at the given offset.
+         *
+         * @param offset offset in the file of the first byte to write
+         * @param b the bytes to write
+         * @param off offset in the array of the first byte to write
+         * @param len number of bytes to write
+         * @throws IOException if the bytes could not be written
+         */
+        void write(long offset, byte b[], int off, int len) throws IOException;
+    }
+
+    /**
+     * Bytes to write at a given offset in the file.
+     */
+    private static class Part {
+        private final long offset;
+        private final byte data[];
+        private int length;
+
+        private Part(long offset, byte data[]) {
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
+
+    /**
+     * Creates a stream that writes the file at the given location from the given offset, which must not exceed the
+     * file's length. Writing starts once {@link #start(Executor)} has been called.
+     *
+     * @param location location of the file, used in error messages
+     * @param offset offset in the file of the first byte written to this stream
+     * @param partSize size of the parts that are written concurrently
+     * @param nbStreams number of parts written concurrently
+     */
+    protected ParallelOutputStream(Object location, long offset, int partSize, int nbStreams) {
+        this.location = location;
+        this.offset = offset;
+        this.partSize = partSize;
+        this.nbStreams = nbStreams;
+        this.maxQueuedParts = nbStreams;
+    }
+
+    /**
+     * Starts the workers on the given executor. Subclasses call this method once they are initialized, as the
+     * workers call {@link #openPartWriter()} right away.
+     *
+     * @param executor runs the workers
+     */
+    protected final void start(Executor executor) {
+        synchronized (this) {
+            nbWorkers = nbStreams;
+        }
+        for (int i = 0; i < nbStreams; i++) {
+            executor.execute(this::writeParts);
+        }
+    }
+
+    /**
+     * Opens the file for a worker. This method is called by each worker, in its own thread.
+     *
+     * @return a writer of the file that is closed once the worker is done
+     * @throws IOException if the file could not be opened
+     */
+    protected abstract PartWriter openPartWriter() throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+        while (len > 0) {
+            if (currentPart == null) {
+                currentPart = new Part(offset, new byte[partSize]);
+                offset += partSize;
+            }
+            int nbBytes = Math.min(len, partSize - currentPart.length);
+            System.arraycopy(b, off, currentPart.data, currentPart.length, nbBytes);
+            currentPart.length += nbBytes;
+            off += nbBytes;
+            len -= nbBytes;
+
+            if (currentPart.length == partSize) {
+                queuePart(currentPart);
+                currentPart = null;
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining bytes and waits for all the parts to be written.
+     *
+     * @throws IOException if a part could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        try {
+            if (currentPart != null && currentPart.length > 0) {
+                queuePart(currentPart);
+            }
+        } finally {
+            currentPart = null;
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+                // Wait for the queued parts to be written
+                boolean interrupted = false;
+                while (nbWorkers > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Stop the workers after the parts they are writing
+                        interrupted = true;
+                        queuedParts.clear();
+                        if (error == null) {
+                            error = new InterruptedIOException();
+                        }
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        synchronized (this) {
+            if (error != null) {
+                throw error;
+            }
+            if (!queuedParts.isEmpty()) {
+                throw new IOException("Could not write " + location);
+            }
+        }
+    }
+
+    /**
+     * Hands the given part over to the workers, waiting for one of them to be done with a previous part if there are
+     * too many parts waiting already.
+     */
+    private synchronized void queuePart(Part part) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (error == null && nbWorkers > 0 && queuedParts.size() >= maxQueuedParts) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (nbWorkers == 0) {
+            throw new IOException("Could not write " + location);
+        }
+        queuedParts.addLast(part);
+        notifyAll();
+    }
+
+    /**
+     * Returns the next part that the calling worker should write, <code>null</code> if it should stop.
+     */
+    private synchronized Part takePart() throws InterruptedException {
+        while (!closed && error == null && queuedParts.isEmpty()) {
+            wait();
+        }
+        if (error != null || queuedParts.isEmpty()) {
+            return null;
+        }
+        Part part = queuedParts.removeFirst();
+        // Let the stream queue another part
+        notifyAll();
+        return part;
+    }
+
+    private synchronized void workerStopped(IOException e) {
+        nbWorkers--;
+        if (e != null && error == null) {
+            error = e;
+            queuedParts.clear();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Writes parts until the stream is closed, with a writer of its own.
+     */
+    private void writeParts() {
+        PartWriter writer;
+        try {
+            writer = openPartWriter();
+        } catch (IOException | RuntimeException e) {
+            // The other workers can do without this one, the stream fails only if all of them stop
+            LOGGER.debug("Could not open " + location, e);
+            synchronized (this) {
+                workerStopped(nbWorkers == 1 ? toIOException(e) : null);
+            }
+            return;
+        }
+
+        IOException error = null;
+        try {
+            Part part;
+            while ((part = takePart()) != null) {
+                writer.write(part.offset, part.data, 0, part.length);
+            }
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.info("Error while writing " + location, e);
+            error = toIOException(e);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error while closing " + location, e);
+                if (error == null) {
+                    error = e;
+                }
+            }
+            workerStopped(error);
+        }
+    }
+
+    private static IOException toIOException(Exception e) {
+        return e instanceof IOException ? (IOException)e : new IOException(e);
+    }
+}
@@ -67,16 +67,19 @@ public enum MuPreference {
 	RIGHT_CUSTOM_FOLDER(MuPreferences.RIGHT_CUSTOM_FOLDER),
 	REFRESH_CHECK_PERIOD(MuPreferences.REFRESH_CHECK_PERIOD),
 	WAIT_AFTER_REFRESH(MuPreferences.WAIT_AFTER_REFRESH),
+	INCREMENTAL_REFRESH(MuPreferences.INCREMENTAL_REFRESH),
 	PROGRESS_DIALOG_EXPANDED(MuPreferences.PROGRESS_DIALOG_EXPANDED),
 	PROGRESS_DIALOG_CLOSE_WHEN_FINISHED(MuPreferences.PROGRESS_DIALOG_CLOSE_WHEN_FINISHED),
 	THEME_TYPE(MuPreferences.THEME_TYPE),
 	THEME_NAME(MuPreferences.THEME_NAME),
     SYNTAX_THEME_NAME(MuPreferences.SYNTAX_THEME_NAME),
+    SYNTAX_HIGHLIGHTING_MAX_SIZE(MuPreferences.SYNTAX_HIGHLIGHTING_MAX_SIZE),
 	ENABLE_BONJOUR_DISCOVERY(MuPreferences.ENABLE_BONJOUR_DISCOVERY),
 	LIST_HIDDEN_FILES(MuPreferences.LIST_HIDDEN_FILES),
 	SMB_LM_COMPATIBILITY(MuPreferences.SMB_LM_COMPATIBILITY),
 	SMB_USE_EXTENDED_SECURITY(MuPreferences.SMB_USE_EXTENDED_SECURITY),
 	SHOW_TAB_HEADER(MuPreferences.SHOW_SINGLE_TAB_HEADER),
+	THUMBNAIL_CACHE_MAX_SIZE(MuPreferences.THUMBNAIL_CACHE_MAX_SIZE),
     FILE_GROUP_1_MASK(MuPreferences.FILE_GROUP_1_MASK),
     FILE_GROUP_2_MASK(MuPreferences.FILE_GROUP_2_MASK),
     FILE_GROUP_3_MASK(MuPreferences.FILE_GROUP_3_MASK),
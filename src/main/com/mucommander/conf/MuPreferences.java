@@ -252,6 +252,10 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String SHOW_SINGLE_TAB_HEADER			   = FILE_TABLE_SECTION + '.' + "show_single_tab_header";
 	/** Default value for 'Always show single tab header" */
 	public static final boolean DEFAULT_SHOW_TAB_HEADER	   = false;
+	/** Maximum size of the thumbnail cache, in bytes. */
+	public static final String  THUMBNAIL_CACHE_MAX_SIZE           = FILE_TABLE_SECTION + '.' + "thumbnail_cache_max_size";
+	/** Default maximum size of the thumbnail cache. */
+	public static final int     DEFAULT_THUMBNAIL_CACHE_MAX_SIZE   = 64 * 1024 * 1024;
 
 	/** Name of the root element's attribute that contains the version of muCommander used to write the CONFIGURATION file. */
 	static final String VERSION_ATTRIBUTE = "version";
@@ -309,6 +313,10 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String WAIT_AFTER_REFRESH                 = REFRESH_SECTION + '.' + "wait_after_refresh";
 	/** Default minimum amount of time between two refreshes. */
 	public static final long   DEFAULT_WAIT_AFTER_REFRESH         = 10000;
+	/** Whether refreshing a folder only updates the files that have changed rather than rebuilding the whole table. */
+	public static final String INCREMENTAL_REFRESH                = REFRESH_SECTION + '.' + "incremental";
+	/** Default incremental refresh behavior. */
+	public static final boolean DEFAULT_INCREMENTAL_REFRESH       = true;
 
 
 
@@ -349,6 +357,10 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String DEFAULT_THEME_NAME                 = RuntimeConstants.DEFAULT_THEME;
     /** Default current editor syntax theme name. */
     public static final String DEFAULT_SYNTAX_THEME_NAME          = "Default";
+    /** Maximum size of a document, in characters, with syntax highlighting. Larger documents are shown as plain text. */
+    public static final String SYNTAX_HIGHLIGHTING_MAX_SIZE       = "editor.syntax.max_size";
+    /** Default maximum size of a document with syntax highlighting. */
+    public static final int    DEFAULT_SYNTAX_HIGHLIGHTING_MAX_SIZE = 4 * 1024 * 1024;
 
 
 
@@ -42,6 +42,7 @@ import com.mucommander.ui.main.table.Column;
 import com.mucommander.ui.main.table.FileTable;
 import com.mucommander.ui.main.tabs.FileTableTab;
 import com.mucommander.ui.main.tabs.FileTableTabs;
+import com.mucommander.ui.viewer.text.LargeTextViewer;
 import com.mucommander.ui.viewer.text.TextViewer;
 
 /**
@@ -79,6 +80,10 @@ public class MuSnapshot {
  	public static final boolean DEFAULT_LINE_NUMBERS               = true;
     /** Last known file presenter full screen mode. */
     public static final String  TEXT_FILE_PRESENTER_FULL_SCREEN    = TEXT_FILE_PRESENTER_SECTION + "." + "full_screen";
+    /** Whether or not the large text viewer follows the files it shows, log files are then always viewed by it. */
+    public static final String  TEXT_FILE_PRESENTER_FOLLOW         = TEXT_FILE_PRESENTER_SECTION + "." + "follow";
+    /** Default follow value. */
+    public static final boolean DEFAULT_FOLLOW                     = false;
 
     // - Location history ---- -----------------------------------------------
     // -----------------------------------------------------------------------
@@ -626,6 +631,7 @@ public class MuSnapshot {
 //    	configuration.setVariable(MuSnapshot.TEXT_FILE_PRESENTER_FULL_SCREEN, TextViewer.isFullScreen());
     	configuration.setVariable(MuSnapshot.TEXT_FILE_PRESENTER_LINE_WRAP, TextViewer.isLineWrap());
     	configuration.setVariable(MuSnapshot.TEXT_FILE_PRESENTER_LINE_NUMBERS, TextViewer.isLineNumbers());
+    	configuration.setVariable(MuSnapshot.TEXT_FILE_PRESENTER_FOLLOW, LargeTextViewer.isFollowMode());
     }
 
     private void setFrameAttributes(MainFrame mainFrame, int index) {
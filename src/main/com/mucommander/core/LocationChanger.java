@@ -34,6 +34,7 @@ import com.mucommander.commons.file.AuthenticationType;
 import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileProtocols;
 import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.ListingCache;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
 import com.mucommander.commons.file.impl.CachedFile;
 import com.mucommander.commons.file.impl.local.LocalFile;
@@ -321,6 +322,10 @@ public class LocationChanger {
 	 * @see #tryChangeCurrentFolder(AbstractFile, AbstractFile, boolean, boolean)
 	 */
 	public ChangeFolderThread tryRefreshCurrentFolder(AbstractFile selectThisFileAfter) {
+		// The folder is refreshed because it has or may have changed, don't use its cached listing
+		if (locationManager.getCurrentFolder() != null) {
+			ListingCache.invalidate(locationManager.getCurrentFolder());
+		}
 		folderPanel.getFoldersTreePanel().refreshFolder(locationManager.getCurrentFolder());
 		return tryChangeCurrentFolder(locationManager.getCurrentFolder(), selectThisFileAfter, true, true);
 	}
@@ -140,6 +140,21 @@ public abstract class AbstractCopyJob extends TransferFileJob {
                     break;
             }
             
+            // Resume the transfer without asking if a previous transfer of the file to this destination was interrupted,
+            // skip the file if it has been transferred by a job that was interrupted, unless the user has chosen what
+            // to do with existing files
+            if (collision == FileCollisionChecker.DESTINATION_FILE_ALREADY_EXISTS && !file.isDirectory()
+                    && (defaultFileExistsAction == FileCollisionDialog.ASK_ACTION || defaultFileExistsAction == FileCollisionDialog.RESUME_ACTION)) {
+                TransferCheckpoints.Checkpoint checkpoint = getCheckpoint(file, destFile);
+                if (checkpoint != null) {
+                    if (checkpoint.isCompleted()) {
+                        return null;
+                    }
+                    append = true;
+                    break;
+                }
+            }
+
             // Handle collision, asking the user what to do or using a default action to resolve the collision 
             if (collision != FileCollisionChecker.NO_COLLOSION) {
                 int choice;
@@ -19,12 +19,15 @@
 
 package com.mucommander.job;
 
+import java.io.IOException;
 import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ListingCache;
+import com.mucommander.commons.file.ListingPrefetcher;
 import com.mucommander.commons.file.impl.CachedFile;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.job.progress.JobProgress;
@@ -153,6 +156,9 @@ public abstract class FileJob implements Runnable {
     /** True if the user asked to automatically skip errors */
     private boolean autoSkipErrors;
 
+    /** Lists the subfolders of the folders listed by {@link #lsFolder(AbstractFile)} ahead of time, created on first use */
+    private volatile ListingPrefetcher listingPrefetcher;
+
 //    private int nbFilesProcessed;
 //    private int nbFilesDiscovered;
 
@@ -428,6 +434,7 @@ public abstract class FileJob implements Runnable {
 
         jobThread = null;
         endDate = System.currentTimeMillis();
+        closeListingPrefetcher();
 
         // Notify that the job has been stopped
         jobStopped();
@@ -514,6 +521,33 @@ public abstract class FileJob implements Runnable {
 //    }
 //
 
+    /**
+     * Returns the children of the given folder, for jobs that process folders recursively. On remote filesystems,
+     * the subfolders of the listed folders are listed in the background, a bounded number at a time, so that their
+     * listing is available by the time the job recurses into them.
+     *
+     * @param folder the folder to list
+     * @return the children of the folder
+     * @throws IOException if the folder could not be listed
+     * @see ListingPrefetcher
+     */
+    protected AbstractFile[] lsFolder(AbstractFile folder) throws IOException {
+        ListingPrefetcher prefetcher = listingPrefetcher;
+        if (prefetcher == null) {
+            prefetcher = new ListingPrefetcher(folder.getURL().getScheme());
+            listingPrefetcher = prefetcher;
+        }
+        return prefetcher.ls(folder);
+    }
+
+    private void closeListingPrefetcher() {
+        ListingPrefetcher prefetcher = listingPrefetcher;
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+    }
+
+
     /**
      * Returns the name of the file currently being processed surrounded by simple quotes (e.g. 'test.zip'), or an empty
      * string if no file is currently being processed.
@@ -682,6 +716,9 @@ public abstract class FileJob implements Runnable {
      * Check and if needed, refreshes both file tables's current folders, based on the job's refresh policy.
      */
     protected void refreshTables() {
+        // Drop the cached listings of the folders this job has modified before they get listed again
+        ListingCache.invalidate(this::hasFolderChanged);
+
     	FolderPanel activePanel = getMainFrame().getActivePanel();
     	FolderPanel inactivePanel = getMainFrame().getInactivePanel();
 
@@ -858,6 +895,8 @@ public abstract class FileJob implements Runnable {
             }
         }
 
+        closeListingPrefetcher();
+
         // Refresh tables's current folders, based on the job's refresh policy.
         refreshTables();
     }
@@ -72,7 +72,7 @@ public class FindFileJob extends FileJob {
                 return true;
             }
             try {
-                AbstractFile subFiles[] = file.ls();
+                AbstractFile subFiles[] = lsFolder(file);
                 for (int i = 0; i < subFiles.length && getState() != State.INTERRUPTED; i++) {
                     if (ignoreHidden && file.isHidden()) {
                         continue;
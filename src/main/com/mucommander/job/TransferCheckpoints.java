@@ -0,0 +1,381 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.job;
+
+import com.mucommander.PlatformManager;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.file.impl.local.LocalFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+
+/**
+ * Keeps track of the progress of the transfers of large files in a file of the preferences folder, so that a transfer
+ * that was interrupted, even by a crash of the application, can be resumed where it stopped when the same file is
+ * transferred to the same destination again.
+ *
+ * <p>A checkpoint records the size and date of the source file, the number of bytes known to have been written to the
+ * destination and the Adler32 checksum of these bytes, which is verified against the destination before the transfer
+ * is resumed. Files whose transfer has completed are recorded as well, along with the date of the destination, until
+ * the job that transferred them completes, so that they are not transferred again if the job is restarted and the
+ * destination hasn't been modified since. These are only kept in memory.</p>
+ *
+ * <p>Only the transfers to remote destinations are checkpointed: local copies are fast enough to be started over.
+ * Checkpoints are saved at most every {@link #SAVE_INTERVAL} milliseconds, and when a job stops.</p>
+ */
+class TransferCheckpoints {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransferCheckpoints.class);
+
+    /** Minimum size of the files whose transfer is checkpointed */
+    final static long MIN_FILE_SIZE = 4 * 1024 * 1024;
+
+    /** Number of bytes transferred between two checkpoints */
+    final static long CHECKPOINT_INTERVAL = 8 * 1024 * 1024;
+
+    /** Minimum number of milliseconds between two saves of the checkpoints file */
+    final static long SAVE_INTERVAL = 5000;
+
+    /** Number of milliseconds after which a checkpoint that hasn't been updated is discarded */
+    final static long MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+    /** Name of the checkpoints file in the preferences folder */
+    private final static String CHECKPOINTS_FILE_NAME = "transfer_checkpoints.txt";
+
+    private static TransferCheckpoints instance;
+
+    /** The file checkpoints are saved to */
+    private final AbstractFile file;
+
+    /** Checkpoints by source and destination URL */
+    private final Map<String, Checkpoint> checkpoints = new LinkedHashMap<>();
+
+    /** True if the checkpoints have changed since they were last saved */
+    private boolean dirty;
+
+    private long lastSaveDate;
+
+
+    /**
+     * The progress of the transfer of a file to a destination.
+     */
+    static class Checkpoint {
+        private final String sourceURL;
+        private final String destinationURL;
+        private final long sourceSize;
+        private final long sourceDate;
+        /** Date of the destination when the checkpoint was recorded */
+        private final long destinationDate;
+        /** Number of bytes known to have been written to the destination */
+        private final long bytesDone;
+        /** Adler32 checksum of the bytes known to have been written */
+        private final long checksum;
+        private final boolean completed;
+        private final long updateDate;
+
+        private Checkpoint(String sourceURL, String destinationURL, long sourceSize, long sourceDate, long destinationDate, long bytesDone, long checksum, boolean completed, long updateDate) {
+            this.sourceURL = sourceURL;
+            this.destinationURL = destinationURL;
+            this.sourceSize = sourceSize;
+            this.sourceDate = sourceDate;
+            this.destinationDate = destinationDate;
+            this.bytesDone = bytesDone;
+            this.checksum = checksum;
+            this.completed = completed;
+            this.updateDate = updateDate;
+        }
+
+        long getBytesDone() {
+            return bytesDone;
+        }
+
+        long getChecksum() {
+            return checksum;
+        }
+
+        boolean isCompleted() {
+            return completed;
+        }
+    }
+
+
+    TransferCheckpoints(AbstractFile file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Returns the checkpoints saved in the preferences folder.
+     *
+     * @return the checkpoints saved in the preferences folder
+     * @throws IOException if the preferences folder could not be located
+     */
+    static synchronized TransferCheckpoints getInstance() throws IOException {
+        if (instance == null) {
+            instance = new TransferCheckpoints(PlatformManager.getPreferencesFolder().getChild(CHECKPOINTS_FILE_NAME));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns <code>true</code> if the transfer of the given file to the given destination should be checkpointed:
+     * the file is large enough, and the destination is remote and can be appended to when the transfer is resumed.
+     *
+     * @param source the transferred file
+     * @param destination the destination of the transfer
+     * @return <code>true</code> if the transfer should be checkpointed
+     */
+    static boolean isCheckpointed(AbstractFile source, AbstractFile destination) {
+        return source.getSize() >= MIN_FILE_SIZE && !destination.hasAncestor(LocalFile.class)
+                && destination.isFileOperationSupported(FileOperation.APPEND_FILE);
+    }
+
+    /**
+     * Returns the checkpoint of the transfer of the given file to the given destination, <code>null</code> if there
+     * is none, if the source file has changed since it was recorded, or if the transfer has completed and the
+     * destination has changed since.
+     *
+     * @param source the transferred file
+     * @param destination the destination of the transfer
+     * @return the checkpoint of the transfer, <code>null</code> if there is no valid one
+     */
+    synchronized Checkpoint get(AbstractFile source, AbstractFile destination) {
+        String key = getKey(source, destination);
+        Checkpoint checkpoint = checkpoints.get(key);
+        if (checkpoint == null) {
+            return null;
+        }
+        if (checkpoint.sourceSize != source.getSize() || checkpoint.sourceDate != source.getDate()) {
+            remove(key);
+            return null;
+        }
+        if (checkpoint.completed ? destination.getSize() != checkpoint.sourceSize || destination.getDate() != checkpoint.destinationDate
+                : destination.getSize() < checkpoint.bytesDone) {
+            remove(key);
+            return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Records that the given number of bytes of the given file have been written to the given destination.
+     *
+     * @param source the transferred file
+     * @param destination the destination of the transfer
+     * @param bytesDone number of bytes written to the destination
+     * @param checksum Adler32 checksum of these bytes
+     */
+    synchronized void update(AbstractFile source, AbstractFile destination, long bytesDone, long checksum) {
+        put(source, destination, bytesDone, checksum, false);
+    }
+
+    /**
+     * Records that the given file has been completely transferred to the given destination, which must have its final
+     * date.
+     *
+     * @param source the transferred file
+     * @param destination the destination of the transfer
+     */
+    synchronized void completed(AbstractFile source, AbstractFile destination) {
+        put(source, destination, source.getSize(), 0, true);
+    }
+
+    /**
+     * Removes the checkpoint of the transfer of the given file to the given destination, if there is one.
+     *
+     * @param source the transferred file
+     * @param destination the destination of the transfer
+     */
+    synchronized void remove(AbstractFile source, AbstractFile destination) {
+        remove(getKey(source, destination));
+    }
+
+    /**
+     * Saves the checkpoints of the transfers in progress if the checkpoints have changed and if they haven't been saved
+     * for {@link #SAVE_INTERVAL} milliseconds.
+     *
+     * @param force <code>true</code> to save the checkpoints even if they have been saved recently
+     */
+    synchronized void save(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!dirty || (!force && now - lastSaveDate < SAVE_INTERVAL)) {
+            return;
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(file.getOutputStream(), "UTF-8"))) {
+            for (Checkpoint checkpoint : checkpoints.values()) {
+                if (checkpoint.completed) {
+                    continue;
+                }
+                writer.write(checkpoint.sourceURL + '\t' + checkpoint.destinationURL + '\t' + checkpoint.sourceSize
+                        + '\t' + checkpoint.sourceDate + '\t' + checkpoint.destinationDate + '\t' + checkpoint.bytesDone + '\t' + checkpoint.checksum
+                        + '\t' + (checkpoint.completed ? 1 : 0) + '\t' + checkpoint.updateDate);
+                writer.write('\n');
+            }
+            dirty = false;
+        } catch (IOException e) {
+            LOGGER.info("Could not save transfer checkpoints to " + file, e);
+        }
+        lastSaveDate = now;
+    }
+
+    /**
+     * Returns a stream that reads the given source stream and records a checkpoint every {@link #CHECKPOINT_INTERVAL}
+     * bytes. As the destination may not have written the bytes it was given yet, each checkpoint records the position
+     * of the previous one.
+     *
+     * @param in the stream of the transferred file, positioned at the given offset
+     * @param source the transferred file
+     * @param destination the destination of the transfer
+     * @param offset number of bytes already written to the destination
+     * @param checksum Adler32 checksum of the bytes already written, updated with the bytes read from the stream
+     * @return a stream that reads the given stream
+     */
+    InputStream getCheckpointingInputStream(InputStream in, AbstractFile source, AbstractFile destination, long offset, Adler32 checksum) {
+        return new CheckpointingInputStream(in, source, destination, offset, checksum);
+    }
+
+    private void put(AbstractFile source, AbstractFile destination, long bytesDone, long checksum, boolean completed) {
+        String sourceURL = source.getURL().toString(false);
+        String destinationURL = destination.getURL().toString(false);
+        checkpoints.put(sourceURL + '\t' + destinationURL, new Checkpoint(sourceURL, destinationURL, source.getSize(),
+                source.getDate(), destination.getDate(), bytesDone, checksum, completed, System.currentTimeMillis()));
+        dirty = true;
+    }
+
+    private void remove(String key) {
+        if (checkpoints.remove(key) != null) {
+            dirty = true;
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        long minUpdateDate = System.currentTimeMillis() - MAX_AGE;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String fields[] = line.split("\t");
+                if (fields.length != 9) {
+                    continue;
+                }
+                try {
+                    Checkpoint checkpoint = new Checkpoint(fields[0], fields[1], Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]),
+                            Long.parseLong(fields[6]), "1".equals(fields[7]), Long.parseLong(fields[8]));
+                    if (checkpoint.updateDate >= minUpdateDate) {
+                        checkpoints.put(checkpoint.sourceURL + '\t' + checkpoint.destinationURL, checkpoint);
+                    }
+                } catch (NumberFormatException e) {
+                    // Skip the invalid line
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.info("Could not load transfer checkpoints from " + file, e);
+        }
+    }
+
+    private static String getKey(AbstractFile source, AbstractFile destination) {
+        return source.getURL().toString(false) + '\t' + destination.getURL().toString(false);
+    }
+
+
+    /**
+     * Records the checkpoints of a transfer as its source stream is read.
+     */
+    private class CheckpointingInputStream extends FilterInputStream {
+        private final AbstractFile source;
+        private final AbstractFile destination;
+        private final Adler32 checksum;
+
+        /** Number of bytes read from the start of the file */
+        private long position;
+        private long nextCheckpoint;
+
+        /** Position and checksum of the last checkpoint, recorded at the next one */
+        private long pendingPosition;
+        private long pendingChecksum;
+
+        private CheckpointingInputStream(InputStream in, AbstractFile source, AbstractFile destination, long offset, Adler32 checksum) {
+            super(in);
+            this.source = source;
+            this.destination = destination;
+            this.checksum = checksum;
+            this.position = offset;
+            this.nextCheckpoint = offset + CHECKPOINT_INTERVAL;
+            this.pendingPosition = offset;
+            this.pendingChecksum = checksum.getValue();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                checksum.update(b);
+                bytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException {
+            int nbRead = super.read(b, off, len);
+            if (nbRead > 0) {
+                checksum.update(b, off, nbRead);
+                bytesRead(nbRead);
+            }
+            return nbRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the checksum
+            throw new IOException("skip() is not supported");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void bytesRead(int nbBytes) {
+            position += nbBytes;
+            if (position >= nextCheckpoint) {
+                if (pendingPosition > 0) {
+                    update(source, destination, pendingPosition, pendingChecksum);
+                    save(false);
+                }
+                pendingPosition = position;
+                pendingChecksum = checksum.getValue();
+                nextCheckpoint = position + CHECKPOINT_INTERVAL;
+            }
+        }
+    }
+}
@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Adler32;
 
 import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.impl.adb.AdbFile;
@@ -31,11 +34,14 @@ import org.slf4j.LoggerFactory;
 
 import com.apple.eio.FileManager;
 import com.mucommander.commons.file.impl.local.LocalFile;
+import com.mucommander.commons.file.impl.http.HTTPFile;
+import com.mucommander.commons.file.impl.http.HTTPSegmentedDownload;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.commons.io.ByteCounter;
 import com.mucommander.commons.io.ChecksumInputStream;
 import com.mucommander.commons.io.CounterInputStream;
 import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.StreamUtils;
 import com.mucommander.commons.io.ThroughputLimitInputStream;
 import com.mucommander.commons.io.security.MuProvider;
 import com.mucommander.commons.runtime.OsFamily;
@@ -70,6 +76,17 @@ public abstract class TransferFileJob extends FileJob {
     /** InputStream currently being processed, may be null */
     private ThroughputLimitInputStream tlin;
 
+    /** Segmented HTTP download currently being performed, may be null */
+    private HTTPSegmentedDownload currentDownload;
+
+    /** Checkpoints of the transfers of large files, null if they could not be loaded */
+    private TransferCheckpoints checkpoints;
+    private boolean checkpointsLoaded;
+
+    /** Source and destination of the checkpointed files transferred by this job, whose checkpoints are removed when
+     * the job completes */
+    private final List<AbstractFile[]> checkpointedTransfers = new ArrayList<>();
+
     /** ThroughputLimit in bytes per second, -1 initially (no limit) */
     private long throughputLimit = -1;
 
@@ -150,9 +167,26 @@ public abstract class TransferFileJob extends FileJob {
             }
         }
 
+        // Download large HTTP files in segments written in place, unless the transfer is resumed or throttled
+        if (!copied && !append && throughputLimit <= 0) {
+            HTTPFile httpFile = sourceFile.getAncestor(HTTPFile.class);
+            if (httpFile != null && httpFile.isSegmentedDownload() && destFile.isFileOperationSupported(FileOperation.RANDOM_WRITE_FILE)) {
+                downloadInSegments(httpFile, destFile);
+                copied = true;
+            }
+        }
+
         // If the file wasn't copied using copyRemotelyTo(), or if copyRemotelyTo() failed
         InputStream in = null;
+        boolean checkpointed = false;
         if (!copied) {
+            // Checkpoint the transfer of large files, resuming it from its last checkpoint if there is one
+            Adler32 checkpointChecksum = null;
+            if (getCheckpoints() != null && TransferCheckpoints.isCheckpointed(sourceFile, destFile)) {
+                checkpointChecksum = new Adler32();
+            }
+            TransferCheckpoints.Checkpoint checkpoint = checkpointChecksum != null && append ? checkpoints.get(sourceFile, destFile) : null;
+
             // Copy source file stream to destination file
             try {
                 long inLength = sourceFile.getSize();
@@ -160,9 +194,26 @@ public abstract class TransferFileJob extends FileJob {
                 // Try to open InputStream
                 try  {
                     long destFileSize = destFile.getSize();
-                    if (append && destFileSize > 0) {
+                    if (checkpoint != null && !checkpoint.isCompleted()) {
+                        in = resumeFromCheckpoint(sourceFile, destFile, checkpoint, checkpointChecksum);
+                        if (in == null) {
+                            // The destination doesn't match the checkpoint, start over
+                            LOGGER.info("Checkpoint of " + sourceFile + " doesn't match " + destFile + ", transferring it again");
+                            checkpointChecksum.reset();
+                            append = false;
+                        }
+                    }
+
+                    if (in != null) {
+                        // Resumed from the checkpoint, the destination's contents have been verified
+                        inLength -= destFileSize;
+                        currentFileByteCounter.add(destFileSize);
+                        currentFileSkippedByteCounter.add(destFileSize);
+                    } else if (append && destFileSize > 0) {
                         in = sourceFile.getInputStream(destFileSize);
                         // Do not calculate checksum, as it needs to be calculated on the whole file
+                        // The bytes already in the destination are not known, the transfer can't be checkpointed
+                        checkpointChecksum = null;
 
                         inLength -= destFileSize;
                         // Increase current file ByteCounter by the number of bytes skipped
@@ -170,13 +221,17 @@ public abstract class TransferFileJob extends FileJob {
                         // Increase skipped ByteCounter by the number of bytes skipped
                         currentFileSkippedByteCounter.add(destFileSize);
                     } else {
-                        in = sourceFile.getInputStream();
+                        in = getSourceInputStream(sourceFile);
                         if (integrityCheckEnabled) {
                             in = new ChecksumInputStream(in, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM));
                     }
                     }
 
-                    setCurrentInputStream(in);
+                    if (checkpointChecksum != null) {
+                        setCurrentInputStream(checkpoints.getCheckpointingInputStream(in, sourceFile, destFile, append ? destFileSize : 0, checkpointChecksum));
+                    } else {
+                        setCurrentInputStream(in);
+                    }
                 } catch(Exception e) {
                     LOGGER.debug("IOException caught, throwing FileTransferException", e);
                     throw new FileTransferException(FileTransferException.OPENING_SOURCE);
@@ -194,7 +249,7 @@ public abstract class TransferFileJob extends FileJob {
                     return;
                 }
                 // Copy source stream to destination file
-                destFile.copyStream(tlin, append, inLength);
+                destFile.copyStream(tlin, append, inLength, append ? null : sourceFile);
             } finally {
                 // This block will always be executed, even if an exception
                 // was thrown in the catch block
@@ -202,6 +257,8 @@ public abstract class TransferFileJob extends FileJob {
                 // Tries to close the streams no matter what happened before
                 closeCurrentInputStream();
             }
+
+            checkpointed = checkpointChecksum != null;
         }
 
         // Preserve source file's date
@@ -239,6 +296,13 @@ public abstract class TransferFileJob extends FileJob {
             }
         }
 
+        // Record the completed transfer once the destination has its final date, which the checkpoint records
+        if (checkpointed) {
+            checkpoints.completed(sourceFile, destFile);
+            checkpoints.save(false);
+            checkpointedTransfers.add(new AbstractFile[] {sourceFile, destFile});
+        }
+
         // This block is executed only if integrity check has been enabled (disabled by default)
         if (integrityCheckEnabled) {
             String sourceChecksum;
@@ -279,6 +343,127 @@ public abstract class TransferFileJob extends FileJob {
         }
     }
 
+    /**
+     * Opens the given source file from the beginning, reading it over several connections at once if its protocol
+     * supports it.
+     */
+    private static InputStream getSourceInputStream(AbstractFile sourceFile) throws IOException {
+        InputStream in = sourceFile.getParallelInputStream();
+        return in != null ? in : sourceFile.getInputStream();
+    }
+
+    /**
+     * Returns the checkpoints of the transfers of large files, <code>null</code> if they could not be loaded.
+     */
+    private synchronized TransferCheckpoints getCheckpoints() {
+        if (!checkpointsLoaded) {
+            checkpointsLoaded = true;
+            try {
+                checkpoints = TransferCheckpoints.getInstance();
+            } catch (IOException e) {
+                LOGGER.info("Could not load transfer checkpoints", e);
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Returns the checkpoint of the transfer of the given file to the given destination, left by a transfer that was
+     * interrupted, <code>null</code> if there is none.
+     */
+    TransferCheckpoints.Checkpoint getCheckpoint(AbstractFile sourceFile, AbstractFile destFile) {
+        TransferCheckpoints checkpoints = getCheckpoints();
+        if (checkpoints == null || !TransferCheckpoints.isCheckpointed(sourceFile, destFile)) {
+            return null;
+        }
+        return checkpoints.get(sourceFile, destFile);
+    }
+
+    /**
+     * Verifies that the destination starts with the bytes recorded by the given checkpoint and that the bytes written
+     * after them match the source file, and returns a stream of the source file positioned at the end of the
+     * destination. Returns <code>null</code> if the destination doesn't match, in which case the file has to be
+     * transferred from the start.
+     *
+     * @param checksum receives the checksum of the destination's contents
+     */
+    private InputStream resumeFromCheckpoint(AbstractFile sourceFile, AbstractFile destFile, TransferCheckpoints.Checkpoint checkpoint, Adler32 checksum) throws IOException {
+        // Indicate that the destination is being verified
+        isCheckingIntegrity = true;
+        currentFileByteCounter.reset();
+        byte buffer[] = new byte[64 * 1024];
+        try {
+            // The destination is read through the current stream, so that reading it can be paused and stopped
+            InputStream destIn = setCurrentInputStream(destFile.getInputStream());
+            try {
+                long remaining = checkpoint.getBytesDone();
+                while (remaining > 0) {
+                    int nbRead = destIn.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                    if (nbRead == -1) {
+                        return null;
+                    }
+                    checksum.update(buffer, 0, nbRead);
+                    remaining -= nbRead;
+                }
+                if (checksum.getValue() != checkpoint.getChecksum()) {
+                    return null;
+                }
+
+                // The bytes written after the checkpoint are compared with the source
+                InputStream in = sourceFile.getInputStream(checkpoint.getBytesDone());
+                boolean resumed = false;
+                try {
+                    byte sourceBuffer[] = new byte[buffer.length];
+                    remaining = destFile.getSize() - checkpoint.getBytesDone();
+                    while (remaining > 0) {
+                        int nbRead = destIn.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                        if (nbRead == -1) {
+                            return null;
+                        }
+                        StreamUtils.readFully(in, sourceBuffer, 0, nbRead);
+                        for (int i = 0; i < nbRead; i++) {
+                            if (buffer[i] != sourceBuffer[i]) {
+                                return null;
+                            }
+                        }
+                        checksum.update(buffer, 0, nbRead);
+                        remaining -= nbRead;
+                    }
+                    resumed = true;
+                    return in;
+                } finally {
+                    if (!resumed) {
+                        in.close();
+                    }
+                }
+            } finally {
+                closeCurrentInputStream();
+            }
+        } finally {
+            isCheckingIntegrity = false;
+            currentFileByteCounter.reset();
+        }
+    }
+
+    /**
+     * Downloads the given HTTP file with a {@link HTTPSegmentedDownload}, which is paused, resumed and cancelled along
+     * with this job.
+     */
+    private void downloadInSegments(HTTPFile sourceFile, AbstractFile destFile) throws FileTransferException {
+        HTTPSegmentedDownload download = new HTTPSegmentedDownload(sourceFile, destFile);
+        synchronized (this) {
+            currentDownload = download;
+            download.setPaused(getState() == State.PAUSED);
+        }
+        try {
+            download.download(currentFileByteCounter, currentFileSkippedByteCounter);
+        } finally {
+            synchronized (this) {
+                currentDownload = null;
+            }
+        }
+    }
+
     private String calculateChecksum(AbstractFile file) throws IOException, NoSuchAlgorithmException {
         currentFileByteCounter.reset();
         InputStream in = setCurrentInputStream(file.getInputStream());
@@ -452,6 +637,10 @@ public abstract class TransferFileJob extends FileJob {
      * Interrupts the current file transfer and advance to the next one.
      */
     public synchronized void skipCurrentFile() {
+        if (currentDownload != null) {
+            currentFileSkipped = true;
+            currentDownload.cancel();
+        }
         if (tlin != null) {
             LOGGER.debug("skipping current file, closing "+ tlin);
 
@@ -588,6 +777,30 @@ public abstract class TransferFileJob extends FileJob {
 
                 closeCurrentInputStream();
             }
+            if (currentDownload != null) {
+                currentDownload.cancel();
+            }
+        }
+
+        // Keep the checkpoints of the interrupted transfers, in case the job is started again
+        if (checkpoints != null) {
+            checkpoints.save(true);
+        }
+    }
+
+    /**
+     * Overrides {@link FileJob#jobCompleted()} to remove the checkpoints of the files transferred by this job, which
+     * are not needed anymore.
+     */
+    @Override
+    protected void jobCompleted() {
+        super.jobCompleted();
+
+        if (checkpoints != null) {
+            for (AbstractFile transfer[] : checkpointedTransfers) {
+                checkpoints.remove(transfer[0], transfer[1]);
+            }
+            checkpoints.save(true);
         }
     }
 
@@ -603,6 +816,8 @@ public abstract class TransferFileJob extends FileJob {
         synchronized(this) {
             if(tlin !=null)
                 tlin.setThroughputLimit(0);
+            if (currentDownload != null)
+                currentDownload.setPaused(true);
         }
     }
 
@@ -619,9 +834,12 @@ public abstract class TransferFileJob extends FileJob {
             // Restore previous throughput limit (if any, -1 by default)
             if (tlin != null) {
                 tlin.setThroughputLimit(throughputLimit);
+            }
+            if (currentDownload != null) {
+                currentDownload.setPaused(false);
+            }
         }
     }
-    }
 
 
     /**
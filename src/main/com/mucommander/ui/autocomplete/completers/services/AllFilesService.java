@@ -19,6 +19,7 @@
 package com.mucommander.ui.autocomplete.completers.services;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ListingCache;
 
 import java.io.IOException;
 
@@ -32,6 +33,6 @@ public class AllFilesService extends FilesService {
 
 	@Override
     protected AbstractFile[] getFiles(AbstractFile directory) throws IOException {
-		return directory.ls();
+		return ListingCache.ls(directory);
 	}	
 }
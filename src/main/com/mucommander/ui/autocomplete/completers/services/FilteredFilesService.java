@@ -19,6 +19,7 @@
 package com.mucommander.ui.autocomplete.completers.services;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ListingCache;
 import com.mucommander.commons.file.filter.FileFilter;
 
 import java.io.IOException;
@@ -39,6 +40,6 @@ public class FilteredFilesService extends FilesService {
 
 	@Override
     protected AbstractFile[] getFiles(AbstractFile directory) throws IOException {
-		return fileFilter.filter(directory.ls());
+		return ListingCache.ls(directory, fileFilter);
 	}
 }
@@ -19,6 +19,9 @@
 package com.mucommander.ui.event;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
@@ -26,6 +29,8 @@ import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.ListingCache;
+import com.mucommander.commons.file.ListingListener;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
 import com.mucommander.core.FolderChangeMonitor;
 import com.mucommander.core.GlobalLocationHistory;
@@ -38,6 +43,9 @@ import com.mucommander.ui.main.FolderPanel;
 public class LocationManager {
 	private static final Logger LOGGER = LoggerFactory.getLogger(LocationManager.class);
 
+	/** Minimum number of milliseconds between two updates of the file table while a folder is listed page by page */
+	private static final long PAGE_REFRESH_INTERVAL = 500;
+
     /** Contains all registered location listeners, stored as weak references */
     private WeakHashMap<LocationListener, ?> locationListeners = new WeakHashMap<>();
 
@@ -74,17 +82,14 @@ public class LocationManager {
      */
     public void setCurrentFolder(AbstractFile folder, AbstractFile fileToSelect, boolean changeLockedTab) {
     	LOGGER.trace("calling ls()");
-    	AbstractFile[] children;
+    	// Folders listed page by page are displayed as soon as their first page has been listed
+    	PageReceiver pageReceiver = new PageReceiver(folder, fileToSelect, changeLockedTab);
 		try {
-			children = folder.ls(configurableFolderFilter);
+			ListingCache.lsInPages(folder, configurableFolderFilter, pageReceiver);
 		} catch (Exception e) {
 			LOGGER.debug("Couldn't ls children of " + folder.getAbsolutePath() + ", error: " + e.getMessage());
-			children = new AbstractFile[0];
 		}
-
-    	folderPanel.setCurrentFolder(folder, children, fileToSelect, changeLockedTab);
-
-    	this.currentFolder = folder;
+		pageReceiver.flush();
 
     	// Notify listeners that the location has changed
     	fireLocationChanged(folder.getURL());
@@ -94,6 +99,58 @@ public class LocationManager {
     		folderChangeMonitor = new FolderChangeMonitor(folderPanel);
     }
 
+    /**
+     * Displays the pages of a folder listing as they are received: the first page sets the current folder, the next
+     * ones are added to the file table, at most every {@link #PAGE_REFRESH_INTERVAL} milliseconds.
+     * When the current folder is refreshed, the complete listing is awaited so that the file table can be refreshed
+     * incrementally, keeping the files that haven't changed in place.
+     */
+    private class PageReceiver implements ListingListener {
+        private final AbstractFile folder;
+        private final AbstractFile fileToSelect;
+        private final boolean changeLockedTab;
+        private final boolean displayPages;
+
+        /** Files received but not added to the file table yet */
+        private final List<AbstractFile> pendingFiles = new ArrayList<>();
+        private boolean folderSet;
+        private long lastRefreshTime;
+
+        private PageReceiver(AbstractFile folder, AbstractFile fileToSelect, boolean changeLockedTab) {
+            this.folder = folder;
+            this.fileToSelect = fileToSelect;
+            this.changeLockedTab = changeLockedTab;
+            this.displayPages = currentFolder == null || !folder.equalsCanonical(currentFolder);
+        }
+
+        @Override
+        public void childrenListed(AbstractFile[] children) {
+            Collections.addAll(pendingFiles, children);
+            if (!displayPages) {
+                return;
+            }
+            if (!folderSet || System.currentTimeMillis() - lastRefreshTime >= PAGE_REFRESH_INTERVAL) {
+                flush();
+            }
+        }
+
+        /**
+         * Displays the files received so far, setting the current folder if it hasn't been set yet.
+         */
+        private void flush() {
+            AbstractFile files[] = pendingFiles.toArray(new AbstractFile[pendingFiles.size()]);
+            pendingFiles.clear();
+            if (!folderSet) {
+                folderPanel.setCurrentFolder(folder, files, fileToSelect, changeLockedTab);
+                currentFolder = folder;
+                folderSet = true;
+            } else if (files.length > 0) {
+                folderPanel.getFileTable().addFiles(folder, files, fileToSelect);
+            }
+            lastRefreshTime = System.currentTimeMillis();
+        }
+    }
+
     /**
      * Return the folder presented in the {@link FolderPanel}
      * 
@@ -80,7 +80,7 @@ public class MainMenuBar extends JMenuBar implements ActionListener, MenuListene
     private JMenu themesMenu;
     private JCheckBoxMenuItem[] sortByItems = new JCheckBoxMenuItem[Column.values().length];
     private JMenu tableModeMenu;
-    private JCheckBoxMenuItem[] tableModeItems = new JCheckBoxMenuItem[3];
+    private JCheckBoxMenuItem[] tableModeItems = new JCheckBoxMenuItem[4];
     private JMenu columnsMenu;
     private JCheckBoxMenuItem[] toggleColumnItems = new JCheckBoxMenuItem[Column.values().length];
     private JCheckBoxMenuItem toggleToggleAutoSizeItem;
@@ -218,6 +218,7 @@ public class MainMenuBar extends JMenuBar implements ActionListener, MenuListene
         tableModeItems[0] = MenuToolkit.addCheckBoxMenuItem(tableModeMenu, ActionManager.getActionInstance(ToggleTableViewModeFullAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper2);
         tableModeItems[1] = MenuToolkit.addCheckBoxMenuItem(tableModeMenu, ActionManager.getActionInstance(ToggleTableViewModeCompactAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper2);
         tableModeItems[2] = MenuToolkit.addCheckBoxMenuItem(tableModeMenu, ActionManager.getActionInstance(ToggleTableViewModeShortAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper2);
+        tableModeItems[3] = MenuToolkit.addCheckBoxMenuItem(tableModeMenu, ActionManager.getActionInstance(ToggleTableViewModeThumbnailsAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper2);
         ButtonGroup groupViewMode = new ButtonGroup();
         for (JCheckBoxMenuItem checkBoxMenuItem : tableModeItems) {
             groupViewMode.add(checkBoxMenuItem);
@@ -40,6 +40,8 @@ import com.mucommander.ui.main.table.views.full.FileTableCellRenderer;
 import com.mucommander.ui.main.table.views.full.FileTableColumnModel;
 import com.mucommander.ui.main.table.views.full.FileTableConfiguration;
 import com.mucommander.ui.main.table.views.full.FileTableModel;
+import com.mucommander.ui.main.table.views.thumbnails.ThumbnailCache;
+import com.mucommander.ui.main.table.views.thumbnails.ThumbnailFileTableCellRenderer;
 import com.mucommander.ui.theme.*;
 import com.mucommander.utils.FileIconsCache;
 import org.slf4j.Logger;
@@ -200,6 +202,15 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         this.conf = conf;
         tableModel = (BaseFileTableModel)getModel();
         tableModel.setSortInfo(sortInfo);
+        // Repaint rows as the attributes of remote files are fetched in the background, and sort them again once
+        // the directories are known
+        tableModel.setPrefetchListener(() -> {
+            if (tableModel.isSortOutdated()) {
+                sortTable();
+            } else {
+                repaint();
+            }
+        });
 
         ThemeManager.addCurrentThemeListener(this);
 
@@ -252,7 +263,7 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
     /**
      *
-     * @param mode - FULL, COMPACT or SHORT
+     * @param mode - FULL, COMPACT, SHORT or THUMBNAILS
      */
     public synchronized void setViewMode(TableViewMode mode) {
         if (this.viewMode == mode) {
@@ -277,6 +288,7 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
             case COMPACT:
             case SHORT:
+            case THUMBNAILS:
                 if (!fromConstructor) {
                     setModel(new CompactFileTableModel(mode.getColumnsCount(), pageSize > 0 ? pageSize : 10));
                     setColumnModel(new CompactFileTableColumnModel(mode.getColumnsCount(), conf));
@@ -293,6 +305,9 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         BaseFileTableModel newModel = (BaseFileTableModel)getModel();
         newModel.setupFromModel(oldModel);
         tableModel = newModel;
+        if (cellRenderer != null) {
+            cellRenderer.dispose();
+        }
         cellRenderer = mode.createCellRenderer(this);
         tableModel.setSortInfo(sortInfo);
         if (!fromConstructor) {
@@ -609,8 +624,15 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         // If we're refreshing the current folder, save the current selection and marked files
         // in order to restore them properly.
         FileSet markedFiles  = null;
+        boolean incrementalRefresh = false;
         if (currentFolder != null && folder.equalsCanonical(currentFolder)) {
-            markedFiles = tableModel.getMarkedFiles();
+            // Marked files are carried over by the table model when refreshing incrementally
+            AbstractFile modelFolder = tableModel.getCurrentFolder();
+            incrementalRefresh = modelFolder != null && folder.equalsCanonical(modelFolder)
+                    && MuConfigurations.getPreferences().getVariable(MuPreference.INCREMENTAL_REFRESH, MuPreferences.DEFAULT_INCREMENTAL_REFRESH);
+            if (!incrementalRefresh) {
+                markedFiles = tableModel.getMarkedFiles();
+            }
             if (fileToSelect == null) {
                 fileToSelect = getSelectedFile();
             }
@@ -626,7 +648,7 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         // Changes the current folder in the swing thread to make sure that repaints cannot
         // happen in the middle of the operation - this is used to prevent flickering, badly
         // refreshed frames and such unpleasant graphical artifacts.
-        Runnable folderChangeThread = new FolderChangeThread(folder, children, markedFiles, fileToSelect);
+        Runnable folderChangeThread = new FolderChangeThread(folder, children, markedFiles, fileToSelect, incrementalRefresh);
 
         // Wait for the getTask to complete, so that we return only when the folder has actually been changed and the
         // table updated to reflect the new folder.
@@ -646,6 +668,44 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         }
     }
 
+    /**
+     * Adds files to the current folder, as they are listed by a folder that is listed page by page (see
+     * {@link AbstractFile#lsInPages(com.mucommander.commons.file.ListingListener)}). The selected file and marked
+     * files are kept, except if the given file to select is among the added files, in which case it gets selected.
+     *
+     * <p>This method can be called from any thread, the files are added in the event dispatch thread. Files added
+     * after the current folder has changed are ignored.</p>
+     *
+     * @param folder the folder the files belong to
+     * @param files the files to add
+     * @param fileToSelect the file to select if it is among the added files, may be <code>null</code>
+     */
+    public void addFiles(final AbstractFile folder, final AbstractFile files[], final AbstractFile fileToSelect) {
+        SwingUtilities.invokeLater(() -> {
+            AbstractFile modelFolder = tableModel.getCurrentFolder();
+            if (modelFolder == null || !folder.equalsCanonical(modelFolder)) {
+                return;
+            }
+            AbstractFile selectedFile = getSelectedFile(true, true);
+            if (fileToSelect != null) {
+                for (AbstractFile file : files) {
+                    if (file.equals(fileToSelect)) {
+                        selectedFile = fileToSelect;
+                        break;
+                    }
+                }
+            }
+
+            tableModel.addFiles(files);
+
+            int indexToSelect = selectedFile == null ? 0 : tableModel.getFileIndex(selectedFile);
+            selectFile(Math.max(indexToSelect, 0));
+            fireSelectedFileChangedEvent();
+            fireMarkedFilesChangedEvent();
+            resizeAndRepaint();
+        });
+    }
+
     /**
      * Sets row height based on current cell's font and border, revalidates and repaints this JTable.
      */
@@ -653,7 +713,13 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         // JTable.setRowHeight() revalidates and repaints the JTable.
         // Note that it's important here to use the cell editor's font rather than the cell renderer's: if this method is called
         // as a result to a font changed event, we do not know which class' fontChanged event will be called first.
-        setRowHeight(2*CellLabel.CELL_BORDER_HEIGHT + Math.max(getFontMetrics(filenameEditor.filenameField.getFont()).getHeight(), (int)FileIcons.getIconDimension().getHeight()));
+        final int fontHeight = getFontMetrics(filenameEditor.filenameField.getFont()).getHeight();
+        if (viewMode == TableViewMode.THUMBNAILS) {
+            // Thumbnails are shown above the file names
+            setRowHeight(2*CellLabel.CELL_BORDER_HEIGHT + ThumbnailCache.NORMAL_SIZE + ThumbnailFileTableCellRenderer.ICON_TEXT_GAP + fontHeight);
+        } else {
+            setRowHeight(2*CellLabel.CELL_BORDER_HEIGHT + Math.max(fontHeight, (int)FileIcons.getIconDimension().getHeight()));
+        }
         // Filename editor's row resize disabled because of Java bug #4398268 which prevents new rows from being visible after setRowHeight(row, height) has been called :/
         //		setRowHeight(Math.max(getFontMetrics(cellRenderer.getCellFont()).getHeight()+cellRenderer.CELL_BORDER_HEIGHT, editorRowHeight));
     }
@@ -2172,17 +2238,23 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         private AbstractFile[] children;
         private FileSet        markedFiles;
         private AbstractFile   selectedFile;
+        private boolean        incrementalRefresh;
 
-        private FolderChangeThread(AbstractFile folder, AbstractFile[] children, FileSet markedFiles, AbstractFile selectedFile) {
+        private FolderChangeThread(AbstractFile folder, AbstractFile[] children, FileSet markedFiles, AbstractFile selectedFile, boolean incrementalRefresh) {
             this.folder       = folder;
             this.children     = children;
             this.markedFiles  = markedFiles;
             this.selectedFile = selectedFile;
+            this.incrementalRefresh = incrementalRefresh;
             setName(getClass().getName());
         }
 
         public void run() {
             try {
+                if (incrementalRefresh) {
+                    refreshFolder();
+                    return;
+                }
                 // Set the new current folder.
                 tableModel.setCurrentFolder(folder, children);
                 // Update the visibility state of conditional columns
@@ -2249,6 +2321,25 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
                 }
             }
         }
+
+        /**
+         * Refreshes the current folder, having the table model update only the rows that have changed.
+         * Table model events take care of resizing the table and repainting the affected rows.
+         */
+        private void refreshFolder() {
+            int currentIndex = tableModel.getFileIndexAt(currentRow, currentColumn);
+            tableModel.refreshCurrentFolder(folder, children);
+
+            int indexToSelect = selectedFile == null ? -1 : tableModel.getFileIndex(selectedFile);
+            if (indexToSelect < 0) {
+                int filesCount = tableModel.getFilesCount();
+                indexToSelect = currentIndex < filesCount ? currentIndex : filesCount - 1;
+            }
+            selectFile(Math.max(indexToSelect, 0));
+            fireSelectedFileChangedEvent();
+            fireMarkedFilesChangedEvent();
+            repaint();
+        }
     }
 
     public void updateSelectedFilesStatusbar() {
@@ -0,0 +1,271 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.main.table.views;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileURL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.SwingUtilities;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fetches in the background the attributes of {@link com.mucommander.commons.file.impl.CachedFile} instances that
+ * are used by the table renderer, for protocols where retrieving them requires a round-trip to the server.
+ *
+ * <p>Attributes are fetched by up to {@link #MAX_THREADS_PER_REALM} threads per realm, which are shared by all
+ * prefetchers working on the same server so that the number of concurrent requests stays bounded. Files are
+ * fetched in listing order, except for the files that have been {@link #prioritize(AbstractFile) prioritized}
+ * (typically because they are visible in the table) which are fetched first.</p>
+ *
+ * <p>Until its attributes have been fetched, a file is {@link #isPending(AbstractFile) pending} and its attributes
+ * should not be accessed by the event dispatch thread : the table renders placeholders instead.</p>
+ */
+class AttributesPrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AttributesPrefetcher.class);
+
+    /** Maximum number of threads fetching attributes concurrently on the same realm */
+    static final int MAX_THREADS_PER_REALM = 4;
+
+    /** Number of milliseconds after which idle threads are stopped */
+    private static final long KEEP_ALIVE_TIME = 30000;
+
+    /** Maximum number of prioritized files, the oldest requests are dropped when exceeded */
+    private static final int MAX_PRIORITIZED_FILES = 256;
+
+    /** Thread pools, per realm. A pool is shut down and removed once all its workers are done. */
+    private static final Map<FileURL, ThreadPoolExecutor> EXECUTORS = new HashMap<>();
+
+    /** Number of workers submitted to the thread pools and not done yet, per realm */
+    private static final Map<FileURL, Integer> NB_WORKERS = new HashMap<>();
+
+    /** Files to prefetch, in listing order */
+    private final AbstractFile files[];
+
+    /** Files whose attributes haven't been fetched yet, including the ones being fetched */
+    private final Set<AbstractFile> pendingFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Files being fetched */
+    private final Set<AbstractFile> fetchingFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Files to fetch first, the most recently prioritized first */
+    private final Deque<AbstractFile> prioritizedFiles = new ArrayDeque<>();
+
+    /** Index of the next file to fetch in listing order */
+    private int nextIndex;
+
+    private volatile boolean cancelled;
+
+    /** Called in the event dispatch thread when attributes have been fetched */
+    private final Runnable listener;
+
+    /** True while a call to the listener is queued on the event dispatch thread */
+    private final AtomicBoolean listenerCallScheduled = new AtomicBoolean();
+
+
+    /**
+     * Creates a new prefetcher for the given files. Fetching starts when {@link #start()} is called.
+     *
+     * @param files the CachedFile instances whose attributes should be fetched
+     * @param listener called in the event dispatch thread when attributes have been fetched, may be <code>null</code>
+     */
+    AttributesPrefetcher(AbstractFile files[], Runnable listener) {
+        this.files = files;
+        this.listener = listener;
+        Collections.addAll(pendingFiles, files);
+    }
+
+    /**
+     * Starts fetching the attributes, on the thread pool of the files' realm.
+     */
+    void start() {
+        if (files.length == 0) {
+            return;
+        }
+        FileURL realm = files[0].getURL().getRealm();
+        int nbWorkers = Math.min(MAX_THREADS_PER_REALM, files.length);
+        synchronized (EXECUTORS) {
+            ThreadPoolExecutor executor = getExecutor(realm);
+            NB_WORKERS.merge(realm, nbWorkers, Integer::sum);
+            for (int i = 0; i < nbWorkers; i++) {
+                executor.execute(() -> {
+                    try {
+                        fetchAttributes();
+                    } finally {
+                        workerDone(realm);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Stops fetching attributes. Files being fetched are completed, remaining files are left pending.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns <code>true</code> if the attributes of the given file haven't been fetched yet.
+     *
+     * @param file a CachedFile instance
+     * @return <code>true</code> if the attributes of the given file haven't been fetched yet
+     */
+    synchronized boolean isPending(AbstractFile file) {
+        return pendingFiles.contains(file);
+    }
+
+    /**
+     * Returns <code>true</code> if the attributes of some files haven't been fetched yet.
+     *
+     * @return <code>true</code> if the attributes of some files haven't been fetched yet
+     */
+    synchronized boolean hasPendingFiles() {
+        return !pendingFiles.isEmpty();
+    }
+
+    /**
+     * Returns the files whose attributes haven't been fetched yet.
+     *
+     * @return the files whose attributes haven't been fetched yet
+     */
+    synchronized Collection<AbstractFile> getPendingFiles() {
+        return new ArrayList<>(pendingFiles);
+    }
+
+    /**
+     * Requests the attributes of the given file to be fetched before the ones that haven't been prioritized.
+     * This method has no effect if the file is not pending.
+     *
+     * @param file a CachedFile instance
+     */
+    synchronized void prioritize(AbstractFile file) {
+        if (!pendingFiles.contains(file) || fetchingFiles.contains(file) || prioritizedFiles.peekFirst() == file) {
+            return;
+        }
+        prioritizedFiles.addFirst(file);
+        if (prioritizedFiles.size() > MAX_PRIORITIZED_FILES) {
+            prioritizedFiles.removeLast();
+        }
+    }
+
+    /**
+     * Returns the next file to fetch, <code>null</code> if there are none left.
+     */
+    private synchronized AbstractFile nextFile() {
+        while (!prioritizedFiles.isEmpty()) {
+            AbstractFile file = prioritizedFiles.removeFirst();
+            if (pendingFiles.contains(file) && fetchingFiles.add(file)) {
+                return file;
+            }
+        }
+        while (nextIndex < files.length) {
+            AbstractFile file = files[nextIndex++];
+            if (pendingFiles.contains(file) && fetchingFiles.add(file)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void fileFetched(AbstractFile file) {
+        fetchingFiles.remove(file);
+        pendingFiles.remove(file);
+    }
+
+    private void fetchAttributes() {
+        AbstractFile file;
+        while (!cancelled && (file = nextFile()) != null) {
+            try {
+                BaseFileTableModel.prefetchCachedFileAttributes(file);
+            } catch (Exception e) {
+                LOGGER.debug("Could not fetch attributes of " + file, e);
+            } finally {
+                fileFetched(file);
+            }
+            notifyListener();
+        }
+    }
+
+    /**
+     * Calls the listener in the event dispatch thread, coalescing calls made while a previous one is still queued.
+     */
+    private void notifyListener() {
+        if (listener == null || cancelled || !listenerCallScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            listenerCallScheduled.set(false);
+            if (!cancelled) {
+                listener.run();
+            }
+        });
+    }
+
+    /**
+     * Returns the thread pool of the given realm, creating it if there is none. Must be called while holding the lock
+     * on {@link #EXECUTORS}.
+     */
+    private static ThreadPoolExecutor getExecutor(FileURL realm) {
+        ThreadPoolExecutor executor = EXECUTORS.get(realm);
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(MAX_THREADS_PER_REALM, MAX_THREADS_PER_REALM, KEEP_ALIVE_TIME,
+                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "AttributesPrefetcher " + realm.getHost());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTORS.put(realm, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Called when a worker of the given realm is done, shuts the realm's thread pool down if it was the last one so
+     * that pools of realms that are no longer browsed don't pile up.
+     */
+    private static void workerDone(FileURL realm) {
+        synchronized (EXECUTORS) {
+            int nbWorkers = NB_WORKERS.get(realm) - 1;
+            if (nbWorkers > 0) {
+                NB_WORKERS.put(realm, nbWorkers);
+            } else {
+                NB_WORKERS.remove(realm);
+                EXECUTORS.remove(realm).shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of realms that have a thread pool.
+     *
+     * @return the number of realms that have a thread pool
+     */
+    static int getExecutorCount() {
+        synchronized (EXECUTORS) {
+            return EXECUTORS.size();
+        }
+    }
+}
@@ -18,13 +18,19 @@
 package com.mucommander.ui.main.table.views;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.ui.icon.CustomFileIconProvider;
+import com.mucommander.ui.icon.FileIcons;
+import com.mucommander.ui.icon.IconManager;
 import com.mucommander.ui.main.table.CellLabel;
+import com.mucommander.ui.main.table.FileGroupResolver;
 import com.mucommander.ui.main.table.FileTable;
 import com.mucommander.ui.main.table.Column;
 import com.mucommander.ui.theme.*;
+import com.mucommander.utils.FileIconsCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.swing.Icon;
 import javax.swing.table.TableCellRenderer;
 import java.awt.Font;
 
@@ -57,6 +63,10 @@ public abstract class BaseCellRenderer implements TableCellRenderer, ThemeListen
         if (tableModel.isFileMarked(fileIndex)) {
             return ThemeCache.MARKED;
         }
+        // Attributes are still being fetched in the background
+        if (tableModel.isPrefetchPending(file)) {
+            return ThemeCache.PLAIN_FILE;
+        }
         // Symlink
         if (file.isSymlink()) {
             return ThemeCache.SYMLINK;
@@ -82,6 +92,34 @@ public abstract class BaseCellRenderer implements TableCellRenderer, ThemeListen
     }
 
 
+    /**
+     * Returns the icon of the given file, or a plain file icon if its attributes are still being fetched in the
+     * background.
+     */
+    protected static Icon getFileIcon(AbstractFile file, BaseFileTableModel tableModel) {
+        if (tableModel.isPrefetchPending(file)) {
+            return IconManager.getIcon(IconManager.IconSet.FILE, CustomFileIconProvider.FILE_ICON_NAME, FileIcons.getScaleFactor());
+        }
+        return FileIconsCache.getInstance().getIcon(file);
+    }
+
+    /**
+     * Returns the group of the given file as resolved by {@link FileGroupResolver}, or <code>-1</code> if its
+     * attributes are still being fetched in the background.
+     */
+    protected static int getFileGroup(AbstractFile file, BaseFileTableModel tableModel) {
+        if (tableModel.isPrefetchPending(file)) {
+            return -1;
+        }
+        return FileGroupResolver.getInstance().resolve(file);
+    }
+
+    /**
+     * Releases the resources held by this renderer, when the table switches to another view mode.
+     */
+    public void dispose() {
+    }
+
     /**
      * Returns the font used to render all table cells.
      */
@@ -49,6 +49,9 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
     /** String used as size information for directories that queued to size calculation */
     public static final String QUEUED_DIRECTORY_SIZE_STRING = "<...>";
 
+    /** String displayed in place of the attributes of a file until they have been fetched in the background */
+    public static final String PENDING_ATTRIBUTE_STRING = "...";
+
 
     /** True if the name column is temporarily editable */
     protected boolean nameColumnEditable;
@@ -101,6 +104,15 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
 
     protected FileComparator fileComparator;
 
+    /** Fetches the attributes of remote files in the background, null if there are no pending files */
+    private volatile AttributesPrefetcher attributesPrefetcher;
+
+    /** Called in the event dispatch thread when file attributes have been fetched in the background */
+    private Runnable prefetchListener;
+
+    /** True if rows have been sorted while the attributes of some files were being fetched */
+    private boolean sortedWithPendingFiles;
+
     /**
      * First visible row
      */
@@ -155,6 +167,8 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
         this.markedTotalSize = model.markedTotalSize;
         this.nbFilesMarked = model.nbFilesMarked;
         this.fileMarked = model.fileMarked;
+        this.attributesPrefetcher = model.attributesPrefetcher;
+        this.prefetchListener = model.prefetchListener;
         stopSizeCalculation();
     }
 
@@ -188,7 +202,7 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
      *
      * @param cachedFile a CachedFile instance from which to pre-fetch attributes
      */
-    protected static void prefetchCachedFileAttributes(AbstractFile cachedFile) {
+    static void prefetchCachedFileAttributes(AbstractFile cachedFile) {
         cachedFile.isDirectory();
         cachedFile.isBrowsable();
         cachedFile.isHidden();
@@ -203,6 +217,52 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
     }
 
 
+    /**
+     * Sets the listener to be called in the event dispatch thread when file attributes have been fetched in the
+     * background, typically to repaint the table.
+     *
+     * @param listener called when file attributes have been fetched
+     */
+    public synchronized void setPrefetchListener(Runnable listener) {
+        this.prefetchListener = listener;
+    }
+
+    /**
+     * Returns <code>true</code> if the attributes of the given file are being fetched in the background. Until they
+     * have been fetched, the renderer should display placeholders rather than calling the file's attribute getters,
+     * which would block the event dispatch thread.
+     *
+     * <p>Calling this method also has the file's attributes fetched before those of files that haven't been
+     * rendered, so that visible rows are filled first.</p>
+     *
+     * @param cachedFile a CachedFile instance returned by {@link #getCachedFileAt(int)}
+     * @return <code>true</code> if the attributes of the given file are being fetched in the background
+     */
+    public boolean isPrefetchPending(AbstractFile cachedFile) {
+        AttributesPrefetcher prefetcher = attributesPrefetcher;
+        if (prefetcher == null || !prefetcher.isPending(cachedFile)) {
+            return false;
+        }
+        prefetcher.prioritize(cachedFile);
+        return true;
+    }
+
+    /**
+     * Starts fetching the attributes of the given files in the background, cancelling the previous prefetch if any.
+     *
+     * @param files CachedFile instances, <code>null</code> or empty to only cancel the previous prefetch
+     */
+    private void startPrefetch(AbstractFile files[]) {
+        if (attributesPrefetcher != null) {
+            attributesPrefetcher.cancel();
+            attributesPrefetcher = null;
+        }
+        if (files != null && files.length > 0) {
+            attributesPrefetcher = new AttributesPrefetcher(files, prefetchListener);
+            attributesPrefetcher.start();
+        }
+    }
+
     /**
      * Returns the file located at the given index, not including the parent file.
      * Returns <code>null</code> if fileIndex is lower than 0 or is greater than or equals {@link #getFileCount() getFileCount()}.
@@ -282,11 +342,39 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
      * Sorts rows by the current criterion, ascending/descending order and 'folders first' value.
      */
     public synchronized void sortRows() {
-        this.fileComparator = createFileComparator(sortInfo);
+        sortedWithPendingFiles = false;
+        final AttributesPrefetcher prefetcher = attributesPrefetcher;
+        if (prefetcher == null) {
+            this.fileComparator = createFileComparator(sortInfo);
+        } else {
+            this.fileComparator = new FileComparator(sortInfo.getCriterion().getFileComparatorCriterion(), sortInfo.getAscendingOrder(), sortInfo.getFoldersFirst()) {
+                @Override
+                protected boolean isDirectory(AbstractFile file) {
+                    // Don't fetch the attributes the prefetcher is fetching, rows are sorted again once it is done
+                    if (prefetcher.isPending(file)) {
+                        sortedWithPendingFiles = true;
+                        return false;
+                    }
+                    return file.isDirectory();
+                }
+            };
+        }
         sort(0, fileArrayIndex.length - 1);
         this.fileComparator = null;
     }
 
+    /**
+     * Returns <code>true</code> if rows have been sorted while the attributes of some files were being fetched in
+     * the background, and all of them have been fetched since then: rows should be sorted again, as files whose
+     * attributes were pending have been sorted as regular files.
+     *
+     * @return <code>true</code> if rows should be sorted again
+     */
+    public synchronized boolean isSortOutdated() {
+        AttributesPrefetcher prefetcher = attributesPrefetcher;
+        return sortedWithPendingFiles && (prefetcher == null || !prefetcher.hasPendingFiles());
+    }
+
 
     //////////////////
     // Sort methods //
@@ -414,15 +502,14 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
             AbstractFile child = children[i];
             AbstractFile file = child instanceof CachedFile ? child : new CachedFile(child, true);
 
-            // Pre-fetch the attributes that are used by the table renderer and some actions.
-            if (needPrefetch) {
-                prefetchCachedFileAttributes(file);
-            }
-
             cachedFiles[i] = file;
             fileArrayIndex[i] = i;
         }
 
+        // Pre-fetch the attributes that are used by the table renderer and some actions, in the background
+        // as they may require a round-trip to the server for each file.
+        startPrefetch(needPrefetch ? cachedFiles.clone() : null);
+
         // Reset marked files
         //this.rowMarked = new boolean[getRowCount()];
         this.fileMarked = new boolean[getFilesCount()];
@@ -435,6 +522,247 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
         fillCellCache();
     }
 
+    /**
+     * Refreshes the current folder with a new listing of its children. Contrary to
+     * {@link #setCurrentFolder(AbstractFile, AbstractFile[])}, the new listing is compared by name, size and date to
+     * the current one : the {@link CachedFile} instances of unchanged files (and the attributes they have already
+     * fetched) are reused, marked files and calculated directory sizes are preserved, and listeners are notified of
+     * the inserted, deleted and updated rows only.
+     *
+     * <p>Rows are sorted by this method. It must be called from the event dispatch thread as it fires table model
+     * events.</p>
+     *
+     * @param folder the current folder, must be the same as the folder currently displayed
+     * @param children the current folder's new children
+     */
+    public synchronized void refreshCurrentFolder(AbstractFile folder, AbstractFile children[]) {
+        int nbFiles = children.length;
+        int nbOldFiles = cachedFiles.length;
+        AbstractFile oldCachedFiles[] = cachedFiles;
+        int oldFileArrayIndex[] = fileArrayIndex;
+        boolean oldFileMarked[] = fileMarked;
+
+        // Date of the '..' row is the current folder's, so the folder is wrapped again to drop its cached date
+        this.currentFolder = (folder instanceof CachedFile) ? folder : new CachedFile(folder, true);
+
+        Map<String, Integer> oldIndexes = new HashMap<>(nbOldFiles * 4 / 3 + 1);
+        for (int i = 0; i < nbOldFiles; i++) {
+            oldIndexes.put(oldCachedFiles[i].getName(), i);
+        }
+
+        // Old index of the file with the same name (-1 for new files), and whether its CachedFile could be reused
+        int matchedFrom[] = new int[nbFiles];
+        boolean reused[] = new boolean[nbFiles];
+        AbstractFile newCachedFiles[] = new AbstractFile[nbFiles];
+        boolean needPrefetch = nbFiles > 0 && !(children[0] instanceof LocalFile);
+        // Files to prefetch : new and updated files, and reused files the previous prefetch hasn't reached yet
+        List<AbstractFile> prefetchFiles = new ArrayList<>();
+        for (int i = 0; i < nbFiles; i++) {
+            AbstractFile child = children[i];
+            Integer oldIndex = oldIndexes.remove(child.getName());
+            matchedFrom[i] = oldIndex == null ? -1 : oldIndex;
+            if (oldIndex != null) {
+                AbstractFile oldFile = oldCachedFiles[oldIndex];
+                if (oldFile.getSize() == child.getSize() && oldFile.getDate() == child.getDate()) {
+                    newCachedFiles[i] = oldFile;
+                    reused[i] = true;
+                    if (attributesPrefetcher != null && attributesPrefetcher.isPending(oldFile)) {
+                        prefetchFiles.add(oldFile);
+                    }
+                    continue;
+                }
+            }
+            AbstractFile file = child instanceof CachedFile ? child : new CachedFile(child, true);
+            if (needPrefetch) {
+                prefetchFiles.add(file);
+            }
+            newCachedFiles[i] = file;
+        }
+        startPrefetch(prefetchFiles.toArray(new AbstractFile[prefetchFiles.size()]));
+
+        this.cachedFiles = newCachedFiles;
+        this.fileArrayIndex = new int[nbFiles];
+        for (int i = 0; i < nbFiles; i++) {
+            fileArrayIndex[i] = i;
+        }
+
+        // Carry over marked files, recalculating the combined size as the size of updated files may have changed
+        this.fileMarked = new boolean[getFilesCount()];
+        this.markedTotalSize = 0;
+        this.nbFilesMarked = 0;
+        markedDirectories.clear();
+        for (int i = 0; i < nbFiles; i++) {
+            if (matchedFrom[i] >= 0 && oldFileMarked[matchedFrom[i]]) {
+                AbstractFile file = newCachedFiles[i];
+                if (file.isDirectory()) {
+                    markedDirectories.add(file);
+                } else if (file.getSize() > 0) {
+                    markedTotalSize += file.getSize();
+                }
+                fileMarked[i] = true;
+                nbFilesMarked++;
+            }
+        }
+
+        int reusedFrom[] = new int[nbFiles];
+        for (int i = 0; i < nbFiles; i++) {
+            reusedFrom[i] = reused[i] ? matchedFrom[i] : -1;
+        }
+        retainCellValues(reusedFrom);
+
+        sortRows();
+
+        // Row of each file in the new sort order
+        int newRows[] = new int[nbFiles];
+        for (int row = 0; row < nbFiles; row++) {
+            newRows[fileArrayIndex[row]] = row;
+        }
+        int oldToNew[] = new int[nbOldFiles];
+        Arrays.fill(oldToNew, -1);
+        for (int i = 0; i < nbFiles; i++) {
+            if (matchedFrom[i] >= 0) {
+                oldToNew[matchedFrom[i]] = i;
+            }
+        }
+
+        // Fine-grained events can only describe the change if the files present before and after the refresh
+        // appear in the same order, which is not the case if an updated file moved (e.g. when sorting by size).
+        int removedRows[] = new int[nbOldFiles];
+        int nbRemoved = 0;
+        int lastNewRow = -1;
+        for (int row = 0; row < nbOldFiles; row++) {
+            int newIndex = oldToNew[oldFileArrayIndex[row]];
+            if (newIndex < 0) {
+                removedRows[nbRemoved++] = row;
+            } else if (newRows[newIndex] < lastNewRow) {
+                fireTableDataChanged();
+                return;
+            } else {
+                lastNewRow = newRows[newIndex];
+            }
+        }
+
+        int insertedRows[] = new int[nbFiles];
+        int updatedRows[] = new int[nbFiles];
+        int nbInserted = 0;
+        int nbUpdated = 0;
+        for (int row = 0; row < nbFiles; row++) {
+            int index = fileArrayIndex[row];
+            if (matchedFrom[index] < 0) {
+                insertedRows[nbInserted++] = row;
+            } else if (!reused[index]) {
+                updatedRows[nbUpdated++] = row;
+            }
+        }
+
+        fireRefreshEvents(Arrays.copyOf(removedRows, nbRemoved), Arrays.copyOf(insertedRows, nbInserted),
+                Arrays.copyOf(updatedRows, nbUpdated));
+    }
+
+    /**
+     * Adds files to the current folder, typically the files of a folder listed page by page that have been listed
+     * after the folder was set with {@link #setCurrentFolder(AbstractFile, AbstractFile[])}. The files already present
+     * keep their marks, cell values and fetched attributes.
+     *
+     * <p>Rows are sorted by this method. It must be called from the event dispatch thread as it fires table model
+     * events.</p>
+     *
+     * @param files the files to add to the current folder
+     */
+    public synchronized void addFiles(AbstractFile files[]) {
+        if (files.length == 0) {
+            return;
+        }
+        int nbOldFiles = cachedFiles.length;
+        int nbFiles = nbOldFiles + files.length;
+
+        // Files to prefetch : the added files, and old files the previous prefetch hasn't reached yet
+        List<AbstractFile> prefetchFiles = new ArrayList<>();
+        if (attributesPrefetcher != null) {
+            for (AbstractFile oldFile : cachedFiles) {
+                if (attributesPrefetcher.isPending(oldFile)) {
+                    prefetchFiles.add(oldFile);
+                }
+            }
+        }
+        boolean needPrefetch = !(files[0] instanceof LocalFile);
+        this.cachedFiles = Arrays.copyOf(cachedFiles, nbFiles);
+        for (int i = 0; i < files.length; i++) {
+            AbstractFile file = files[i] instanceof CachedFile ? files[i] : new CachedFile(files[i], true);
+            cachedFiles[nbOldFiles + i] = file;
+            if (needPrefetch) {
+                prefetchFiles.add(file);
+            }
+        }
+        startPrefetch(prefetchFiles.toArray(new AbstractFile[prefetchFiles.size()]));
+
+        int reusedFrom[] = new int[nbFiles];
+        this.fileArrayIndex = new int[nbFiles];
+        for (int i = 0; i < nbFiles; i++) {
+            fileArrayIndex[i] = i;
+            reusedFrom[i] = i < nbOldFiles ? i : -1;
+        }
+        this.fileMarked = Arrays.copyOf(fileMarked, getFilesCount());
+        retainCellValues(reusedFrom);
+
+        sortRows();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Called by {@link #refreshCurrentFolder(AbstractFile, AbstractFile[])} once the new files are in place, to
+     * initialize the cell cache. Files that have been kept as-is can have their cached cell values carried over.
+     * This implementation simply reinitializes the cell cache.
+     *
+     * @param reusedFrom for each new file index, the index the file had before the refresh, or <code>-1</code> if the
+     * file is new or has changed
+     */
+    protected void retainCellValues(int reusedFrom[]) {
+        initCellValuesCache();
+        fillCellCache();
+    }
+
+    /**
+     * Notifies listeners of the rows changed by {@link #refreshCurrentFolder(AbstractFile, AbstractFile[])}.
+     * Removed rows are fired first, from the last one up, followed by inserted rows in ascending order, so that
+     * each event is consistent with the ones fired before it. Row indexes do not include the parent '..' row.
+     *
+     * @param removedRows rows removed from the table, as they were before the refresh, in ascending order
+     * @param insertedRows rows inserted in the table, as they are after the refresh, in ascending order
+     * @param updatedRows rows whose file has changed, as they are after the refresh, in ascending order
+     */
+    protected void fireRefreshEvents(int removedRows[], int insertedRows[], int updatedRows[]) {
+        final int offset = parent == null ? 0 : 1;
+        for (int i = removedRows.length - 1; i >= 0; ) {
+            int last = removedRows[i];
+            int first = last;
+            while (--i >= 0 && removedRows[i] == first - 1) {
+                first--;
+            }
+            fireTableRowsDeleted(first + offset, last + offset);
+        }
+        for (int i = 0; i < insertedRows.length; ) {
+            int first = insertedRows[i];
+            int last = first;
+            while (++i < insertedRows.length && insertedRows[i] == last + 1) {
+                last++;
+            }
+            fireTableRowsInserted(first + offset, last + offset);
+        }
+        for (int i = 0; i < updatedRows.length; ) {
+            int first = updatedRows[i];
+            int last = first;
+            while (++i < updatedRows.length && updatedRows[i] == last + 1) {
+                last++;
+            }
+            fireTableRowsUpdated(first + offset, last + offset);
+        }
+        // The parent row shows the current folder's date
+        if (parent != null) {
+            fireTableRowsUpdated(0, 0);
+        }
+    }
+
     /**
      * Returns the date of the current folder, when it was set using {@link #setCurrentFolder(com.mucommander.commons.file.AbstractFile, com.mucommander.commons.file.AbstractFile[])}.
      * In other words, the returned date is a snapshot of the current folder's date which is never updated.
@@ -646,6 +974,16 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
             return 0;
         }
 
+        // Files whose attributes were pending may be out of order, look for the file linearly
+        if (sortedWithPendingFiles) {
+            for (int i = parent == null ? 0 : 1; i < getFilesCount(); i++) {
+                if (getCachedFileAt(i).equals(file)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
         // Use dichotomic binary search rather than a dumb linear search since file array is sorted, complexity is reduced to O(log n) instead of O(n^2)
         int left = parent == null ? 0 : 1;
         int right = getFilesCount() - 1;
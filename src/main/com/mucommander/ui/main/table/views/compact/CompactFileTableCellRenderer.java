@@ -22,12 +22,10 @@ import com.mucommander.ui.icon.CustomFileIconProvider;
 import com.mucommander.ui.icon.FileIcons;
 import com.mucommander.ui.icon.IconManager;
 import com.mucommander.ui.main.table.CellLabel;
-import com.mucommander.ui.main.table.FileGroupResolver;
 import com.mucommander.ui.main.table.FileTable;
 import com.mucommander.ui.main.table.views.BaseCellRenderer;
 import com.mucommander.ui.quicksearch.QuickSearch;
 import com.mucommander.ui.theme.ThemeCache;
-import com.mucommander.utils.FileIconsCache;
 
 import javax.swing.JTable;
 import javax.swing.table.TableColumn;
@@ -62,7 +60,7 @@ public class CompactFileTableCellRenderer extends BaseCellRenderer {
         }
         CompactFileTableModel model = (CompactFileTableModel)tableModel;
         // Sanity check.
-        final AbstractFile file = model.getFileAt(row, column);
+        final AbstractFile file = model.getCachedFileAt(row, column);
         if (file == null) {
             debug("tableModel.getCachedFileAtRow( " + row + ") RETURNED NULL !");
 //            emptyLabel.setupText("", 0);
@@ -95,7 +93,7 @@ public class CompactFileTableCellRenderer extends BaseCellRenderer {
 
         label.setIcon(fileIndex == 0 && tableModel.hasParentFolder()
                 ? IconManager.getIcon(IconManager.IconSet.FILE, CustomFileIconProvider.PARENT_FOLDER_ICON_NAME, FileIcons.getScaleFactor())
-                : FileIconsCache.getInstance().getIcon(file));
+                : getFileIcon(file, tableModel));
 
 
         String text = (String)value;
@@ -106,7 +104,7 @@ public class CompactFileTableCellRenderer extends BaseCellRenderer {
         // Set foreground color
         Color foregroundColor;
         if (matches || isSelected) {
-            int group = (selectedIndex == ThemeCache.SELECTED) ? -1 : FileGroupResolver.getInstance().resolve(file);
+            int group = (selectedIndex == ThemeCache.SELECTED) ? -1 : getFileGroup(file, tableModel);
             if (group >= 0 && colorIndex != ThemeCache.MARKED) {
                 foregroundColor = ThemeCache.groupColors[group];
             } else {
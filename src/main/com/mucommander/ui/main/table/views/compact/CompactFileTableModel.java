@@ -97,6 +97,15 @@ public class CompactFileTableModel extends BaseFileTableModel {
 //        }
     }
 
+    /**
+     * Files are laid out in columns, so a row change shifts all the files that follow it : notifies listeners of a
+     * whole data change instead.
+     */
+    @Override
+    protected void fireRefreshEvents(int removedRows[], int insertedRows[], int updatedRows[]) {
+        fireTableDataChanged();
+    }
+
     /**
      * Init and fill cell cache to speed up table even more
      */
@@ -25,12 +25,10 @@ import com.mucommander.ui.icon.FileIcons;
 import com.mucommander.ui.icon.IconManager;
 import com.mucommander.ui.main.table.CellLabel;
 import com.mucommander.ui.main.table.Column;
-import com.mucommander.ui.main.table.FileGroupResolver;
 import com.mucommander.ui.main.table.FileTable;
 import com.mucommander.ui.main.table.views.BaseCellRenderer;
 import com.mucommander.ui.quicksearch.QuickSearch;
 import com.mucommander.ui.theme.*;
-import com.mucommander.utils.FileIconsCache;
 
 import javax.swing.*;
 import javax.swing.table.TableColumn;
@@ -108,7 +106,7 @@ public class FileTableCellRenderer extends BaseCellRenderer {
             debug("tableModel.getCachedFileAtRow( " + row + ") RETURNED NULL !");
             return null;
         }
-        boolean isCalculatedSizeDir = file.isDirectory() && tableModel.getCurrentCalculatedSizeDirectory() == file;
+        boolean isCalculatedSizeDir = tableModel.getCurrentCalculatedSizeDirectory() == file && file.isDirectory();
 
         final QuickSearch search = this.table.getQuickSearch();
 
@@ -135,12 +133,12 @@ public class FileTableCellRenderer extends BaseCellRenderer {
             label.setIcon(row == 0 && tableModel.hasParentFolder()
                     ? IconManager.getIcon(IconManager.IconSet.FILE, CustomFileIconProvider.PARENT_FOLDER_ICON_NAME, FileIcons.getScaleFactor())
                     // : FileIcons.getFileIcon(file));
-                    : FileIconsCache.getInstance().getIcon(file));
+                    : getFileIcon(file, tableModel));
         } else {    // Any other column (name, date or size)
             String text = (String)value;
             Color foregroundColor;
             if (matches || isSelected) {
-                int group = (selectedIndex == ThemeCache.SELECTED) ? -1 : FileGroupResolver.getInstance().resolve(file);
+                int group = (selectedIndex == ThemeCache.SELECTED) ? -1 : getFileGroup(file, tableModel);
                 if (group >= 0 && colorIndex != ThemeCache.MARKED) {
                     foregroundColor = ThemeCache.groupColors[group];
                 } else {
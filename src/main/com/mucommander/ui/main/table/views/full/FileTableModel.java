@@ -21,6 +21,7 @@ package com.mucommander.ui.main.table.views.full;
 import java.util.*;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.CachedFile;
 import com.mucommander.text.CustomDateFormat;
 import com.mucommander.text.SizeFormat;
 import com.mucommander.ui.main.table.Column;
@@ -100,6 +101,23 @@ public class FileTableModel extends BaseFileTableModel {
         }
     }
 
+    /**
+     * Carries over the cell values of the files that were kept as-is by a refresh.
+     */
+    @Override
+    protected void retainCellValues(int reusedFrom[]) {
+        Object oldCellValuesCache[][] = cellValuesCache;
+        initCellValuesCache();
+        fillCellCache();
+        final int indexOffset = parent == null ? 0 : 1;
+        for (int i = 0; i < reusedFrom.length; i++) {
+            int oldIndex = reusedFrom[i] + indexOffset;
+            if (reusedFrom[i] >= 0 && oldIndex < oldCellValuesCache.length) {
+                cellValuesCache[i + indexOffset] = oldCellValuesCache[oldIndex];
+            }
+        }
+    }
+
     private Object[] fillOneCellCache(int cellIndex, int fileIndex) {
         AbstractFile file = getCachedFileAt(fileIndex);
         Object[] cell = cellValuesCache[cellIndex];
@@ -195,6 +213,11 @@ public class FileTableModel extends BaseFileTableModel {
         }
         Object result = cellValuesCache[index][columnIndex];
         if (result == null) {
+            // Don't cache anything until the attributes have been fetched in the background
+            AbstractFile file = getCachedFileAt(parent != null ? fileIndex + 1 : fileIndex);
+            if (isPrefetchPending(file)) {
+                return columnIndex == Column.NAME.ordinal()-1 ? ((CachedFile)file).getProxiedFile().getName() : PENDING_ATTRIBUTE_STRING;
+            }
             result = fillOneCellCache(index, parent != null ? fileIndex + 1 : fileIndex)[columnIndex];
         }
         // TODO preload icons for all visible files
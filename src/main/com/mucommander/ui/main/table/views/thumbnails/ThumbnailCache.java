@@ -0,0 +1,395 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.main.table.views.thumbnails;
+
+import com.mucommander.PlatformManager;
+import com.mucommander.RuntimeConstants;
+import com.mucommander.commons.runtime.OsFamily;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent cache of file thumbnails, laid out as described by the
+ * <a href="https://specifications.freedesktop.org/thumbnail-spec/latest/">freedesktop.org thumbnail specification</a>
+ * so that the thumbnails are shared with the file managers of the desktop.
+ *
+ * <p>A thumbnail is stored in a PNG file named after the MD5 hash of the URI of its file. It is valid as long as the
+ * URI, modification date and size that are recorded in its text chunks match those of the file. Files that couldn't
+ * be thumbnailed are recorded in a folder of their own so that they are not tried again.</p>
+ *
+ * <p>The total size of the thumbnails written by this application is capped: the least recently written ones are
+ * deleted once it is exceeded. Thumbnails written by other applications are left alone.</p>
+ */
+public class ThumbnailCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    /** Maximum width and height of the thumbnails of the 'normal' size */
+    public static final int NORMAL_SIZE = 128;
+
+    private static final String KEY_URI = "Thumb::URI";
+    private static final String KEY_MTIME = "Thumb::MTime";
+    private static final String KEY_SIZE = "Thumb::Size";
+    private static final String KEY_SOFTWARE = "Software";
+
+    /** Start of the <code>Software</code> text of the thumbnails written by any version of this application */
+    private static final String SOFTWARE_PREFIX = "trolCommander ";
+
+    private static final String PNG_METADATA_FORMAT = "javax_imageio_png_1.0";
+
+    /** Number of thumbnails written between two checks of the size of the cache */
+    private static final int EVICTION_INTERVAL = 64;
+
+    private static ThumbnailCache instance;
+
+    /** Folder of the thumbnails */
+    private final File folder;
+    /** Folder of the files that couldn't be thumbnailed */
+    private final File failFolder;
+    /** Maximum size of the thumbnails, in bytes */
+    private final long maxSize;
+
+    /** Number of thumbnails written since the size of the cache was last checked */
+    private final AtomicInteger nbWrites = new AtomicInteger(EVICTION_INTERVAL);
+
+    /** Whether thumbnails have been written by this application, by name and date, so that each is read only once */
+    private Map<String, Boolean> ownThumbnails = new HashMap<>();
+
+
+    ThumbnailCache(File root, long maxSize) {
+        this.folder = new File(root, "normal");
+        this.failFolder = new File(new File(root, "fail"), "trolcommander-" + RuntimeConstants.VERSION);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the shared thumbnail cache, in the thumbnails folder of the desktop on Unix-like systems and in the
+     * preferences folder otherwise.
+     *
+     * @return the shared thumbnail cache
+     */
+    public static synchronized ThumbnailCache getInstance() {
+        if (instance == null) {
+            File root;
+            String cacheHome = System.getenv("XDG_CACHE_HOME");
+            if (cacheHome != null && !cacheHome.isEmpty()) {
+                root = new File(cacheHome, "thumbnails");
+            } else if (OsFamily.getCurrent().isUnixBased()) {
+                root = new File(new File(System.getProperty("user.home"), ".cache"), "thumbnails");
+            } else {
+                root = new File(PlatformManager.getPreferencesFolder().getAbsolutePath(), "thumbnails");
+            }
+            int maxSize = MuConfigurations.getPreferences().getVariable(MuPreference.THUMBNAIL_CACHE_MAX_SIZE, MuPreferences.DEFAULT_THUMBNAIL_CACHE_MAX_SIZE);
+            instance = new ThumbnailCache(root, maxSize);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the thumbnail of the specified file.
+     *
+     * @param file a local file
+     * @return the thumbnail, <code>null</code> if there is none or if it is out of date
+     */
+    public BufferedImage get(File file) {
+        return read(new File(folder, getThumbnailName(file)), file, true);
+    }
+
+    /**
+     * Returns <code>true</code> if the thumbnail of the specified file couldn't be created, and the file hasn't
+     * changed since.
+     *
+     * @param file a local file
+     * @return <code>true</code> if the file can't be thumbnailed
+     */
+    public boolean hasFailed(File file) {
+        return read(new File(failFolder, getThumbnailName(file)), file, false) != null;
+    }
+
+    /**
+     * Stores the thumbnail of the specified file.
+     *
+     * @param file a local file
+     * @param thumbnail its thumbnail
+     * @throws IOException if the thumbnail couldn't be written
+     */
+    public void put(File file, BufferedImage thumbnail) throws IOException {
+        write(folder, file, thumbnail);
+        if (nbWrites.incrementAndGet() >= EVICTION_INTERVAL) {
+            nbWrites.set(0);
+            evict();
+        }
+    }
+
+    /**
+     * Records that the thumbnail of the specified file couldn't be created.
+     *
+     * @param file a local file
+     * @throws IOException if the failure couldn't be recorded
+     */
+    public void putFailure(File file) throws IOException {
+        write(failFolder, file, new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    /**
+     * Deletes the least recently written thumbnails of this application until their total size doesn't exceed the
+     * maximum size. The folder is shared with other applications, whose thumbnails are never deleted.
+     */
+    synchronized void evict() {
+        File[] thumbnails = folder.listFiles((dir, name) -> name.endsWith(".png"));
+        if (thumbnails == null) {
+            return;
+        }
+        // File dates and sizes are read once, as they are slow to get
+        final Map<File, Long> dates = new HashMap<>();
+        List<File> ownFiles = new ArrayList<>();
+        Map<String, Boolean> checkedThumbnails = new HashMap<>();
+        long totalSize = 0;
+        for (File thumbnail : thumbnails) {
+            long date = thumbnail.lastModified();
+            String key = thumbnail.getName() + ":" + date;
+            Boolean own = ownThumbnails.get(key);
+            if (own == null) {
+                own = isOwnThumbnail(thumbnail);
+            }
+            checkedThumbnails.put(key, own);
+            if (own) {
+                dates.put(thumbnail, date);
+                ownFiles.add(thumbnail);
+                totalSize += thumbnail.length();
+            }
+        }
+        // Forget the thumbnails that have been deleted or replaced
+        ownThumbnails = checkedThumbnails;
+        if (totalSize <= maxSize) {
+            return;
+        }
+        ownFiles.sort(Comparator.comparing(dates::get));
+        for (File thumbnail : ownFiles) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            long size = thumbnail.length();
+            if (thumbnail.delete()) {
+                totalSize -= size;
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given thumbnail has been written by this application, according to its
+     * <code>Software</code> text.
+     */
+    private static boolean isOwnThumbnail(File thumbnailFile) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(thumbnailFile)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("png");
+            if (in == null || !readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                String software = getTexts(reader.getImageMetadata(0)).get(KEY_SOFTWARE);
+                return software != null && software.startsWith(SOFTWARE_PREFIX);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Could not read thumbnail " + thumbnailFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads a thumbnail if it belongs to the current version of the specified file.
+     */
+    private static BufferedImage read(File thumbnailFile, File file, boolean decode) {
+        if (!thumbnailFile.isFile()) {
+            return null;
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(thumbnailFile)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("png");
+            if (in == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                Map<String, String> texts = getTexts(reader.getImageMetadata(0));
+                if (!getURI(file).equals(texts.get(KEY_URI)) || !String.valueOf(file.lastModified() / 1000).equals(texts.get(KEY_MTIME))) {
+                    return null;
+                }
+                String size = texts.get(KEY_SIZE);
+                if (size != null && !size.equals(String.valueOf(file.length()))) {
+                    return null;
+                }
+                return decode ? reader.read(0) : new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Could not read thumbnail " + thumbnailFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a thumbnail to a temporary file that is then renamed, so that other applications never see a partially
+     * written thumbnail.
+     */
+    private static void write(File folder, File file, BufferedImage thumbnail) throws IOException {
+        if (!folder.isDirectory()) {
+            if (!folder.mkdirs()) {
+                throw new IOException("Could not create " + folder);
+            }
+            setOwnerOnly(folder.getParentFile());
+            setOwnerOnly(folder);
+        }
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+        if (!writers.hasNext()) {
+            throw new IOException("No PNG writer");
+        }
+        ImageWriter writer = writers.next();
+        File tempFile = File.createTempFile("trolcommander-", ".png", folder);
+        try {
+            IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(thumbnail), null);
+            IIOMetadataNode text = new IIOMetadataNode("tEXt");
+            addText(text, KEY_URI, getURI(file));
+            addText(text, KEY_MTIME, String.valueOf(file.lastModified() / 1000));
+            addText(text, KEY_SIZE, String.valueOf(file.length()));
+            addText(text, KEY_SOFTWARE, RuntimeConstants.APP_STRING);
+            IIOMetadataNode root = new IIOMetadataNode(PNG_METADATA_FORMAT);
+            root.appendChild(text);
+            metadata.mergeTree(PNG_METADATA_FORMAT, root);
+
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(tempFile)) {
+                writer.setOutput(out);
+                writer.write(new IIOImage(thumbnail, null, metadata));
+            }
+            setOwnerOnly(tempFile);
+            Files.move(tempFile.toPath(), new File(folder, getThumbnailName(file)).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            writer.dispose();
+            if (tempFile.exists() && !tempFile.delete()) {
+                LOGGER.debug("Could not delete " + tempFile);
+            }
+        }
+    }
+
+    private static void addText(IIOMetadataNode text, String keyword, String value) {
+        IIOMetadataNode entry = new IIOMetadataNode("tEXtEntry");
+        entry.setAttribute("keyword", keyword);
+        entry.setAttribute("value", value);
+        text.appendChild(entry);
+    }
+
+    private static Map<String, String> getTexts(IIOMetadata metadata) {
+        Map<String, String> texts = new HashMap<>();
+        Node root = metadata.getAsTree(PNG_METADATA_FORMAT);
+        for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (!"tEXt".equals(node.getNodeName())) {
+                continue;
+            }
+            for (Node entry = node.getFirstChild(); entry != null; entry = entry.getNextSibling()) {
+                IIOMetadataNode entryNode = (IIOMetadataNode)entry;
+                texts.put(entryNode.getAttribute("keyword"), entryNode.getAttribute("value"));
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * Thumbnails may reveal the content of private files: they are only readable by their owner.
+     */
+    private static void setOwnerOnly(File file) {
+        file.setReadable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(false, false);
+        file.setWritable(true, true);
+        if (file.isDirectory()) {
+            file.setExecutable(false, false);
+            file.setExecutable(true, true);
+        }
+    }
+
+    /**
+     * Returns the canonical URI of the specified file, e.g. <code>file:///home/user/my%20image.png</code>.
+     *
+     * @param file a local file
+     * @return the URI of the file
+     */
+    static String getURI(File file) {
+        try {
+            return new URI("file", "", file.getAbsoluteFile().toURI().getPath(), null).toASCIIString();
+        } catch (URISyntaxException e) {
+            // Can't happen, the path comes from a valid URI
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the name of the thumbnail of the specified file: the MD5 hash of its URI.
+     *
+     * @param file a local file
+     * @return the name of the thumbnail file
+     */
+    static String getThumbnailName(File file) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(getURI(file).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(".png").toString();
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.main.table.views.thumbnails;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.ui.main.table.CellLabel;
+import com.mucommander.ui.main.table.FileTable;
+import com.mucommander.ui.main.table.views.compact.CompactFileTableCellRenderer;
+import com.mucommander.ui.main.table.views.compact.CompactFileTableModel;
+
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.swing.JTable;
+import javax.swing.SwingConstants;
+import java.awt.Component;
+
+/**
+ * Renders the cells of the thumbnail view mode: the thumbnail of the file above its name, or the icon of the file
+ * while the thumbnail is being created and for files that have none.
+ */
+public class ThumbnailFileTableCellRenderer extends CompactFileTableCellRenderer {
+
+    /** Space between the thumbnails and the file names */
+    public static final int ICON_TEXT_GAP = 4;
+
+    private final ThumbnailLoader thumbnailLoader;
+
+    public ThumbnailFileTableCellRenderer(FileTable table) {
+        super(table);
+        this.thumbnailLoader = new ThumbnailLoader(ThumbnailCache.getInstance(), table::repaint);
+        for (CellLabel label : cellLabels) {
+            label.setHorizontalAlignment(SwingConstants.CENTER);
+            label.setHorizontalTextPosition(SwingConstants.CENTER);
+            label.setVerticalTextPosition(SwingConstants.BOTTOM);
+            label.setIconTextGap(ICON_TEXT_GAP);
+        }
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+        Component component = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+        if (component != cellLabels[column]) {
+            return component;
+        }
+        CompactFileTableModel model = (CompactFileTableModel)tableModel;
+        AbstractFile file = model.getCachedFileAt(row, column);
+        boolean parentFolder = model.getFileIndexAt(row, column) == 0 && tableModel.hasParentFolder();
+        if (!parentFolder && !tableModel.isPrefetchPending(file)) {
+            ImageIcon thumbnail = thumbnailLoader.getThumbnail(file);
+            if (thumbnail != null) {
+                // Not CellLabel#setIcon(ImageIcon), that would ignore the icon set by the super class
+                cellLabels[column].setIcon((Icon)thumbnail);
+            }
+        }
+        return component;
+    }
+
+    @Override
+    public void dispose() {
+        thumbnailLoader.dispose();
+    }
+}
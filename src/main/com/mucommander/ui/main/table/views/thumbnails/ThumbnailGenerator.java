@@ -0,0 +1,195 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.main.table.views.thumbnails;
+
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.XMLAbstractTranscoder;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.icepdf.core.pobjects.Document;
+import org.icepdf.core.pobjects.PDimension;
+import org.icepdf.core.pobjects.Page;
+import org.icepdf.core.util.GraphicsRenderingHints;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Renders the thumbnails of images, SVG drawings and PDF documents.
+ *
+ * <p>Large images are decoded with subsampling, so that only a fraction of their pixels is ever held in memory.</p>
+ */
+public class ThumbnailGenerator {
+
+    /** Extensions of the files that can be thumbnailed, in lower case */
+    private static final Set<String> EXTENSIONS = new HashSet<>();
+    static {
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            EXTENSIONS.add(suffix.toLowerCase(Locale.ENGLISH));
+        }
+        EXTENSIONS.addAll(Arrays.asList("svg", "pdf"));
+    }
+
+    private ThumbnailGenerator() {
+    }
+
+    /**
+     * Returns <code>true</code> if a thumbnail can be created for files with the specified extension.
+     *
+     * @param extension a file extension, may be <code>null</code>
+     * @return <code>true</code> if the files can be thumbnailed
+     */
+    public static boolean isSupported(String extension) {
+        return extension != null && EXTENSIONS.contains(extension.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Creates the thumbnail of the specified file, that fits in a square of the specified size. Images that are smaller
+     * than the square are not enlarged.
+     *
+     * @param file a local file
+     * @param size the maximum width and height of the thumbnail
+     * @return the thumbnail, <code>null</code> if the file format is not supported
+     * @throws Exception if the file couldn't be read
+     */
+    public static BufferedImage createThumbnail(File file, int size) throws Exception {
+        String name = file.getName();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ENGLISH);
+        BufferedImage image;
+        if ("svg".equals(extension)) {
+            image = renderSVG(file, size);
+        } else if ("pdf".equals(extension)) {
+            image = renderPDF(file, size);
+        } else {
+            image = readImage(file, size);
+        }
+        return image == null ? null : scale(image, size);
+    }
+
+    /**
+     * Reads the image, subsampled so that it is no more than twice as large as the thumbnail.
+     */
+    private static BufferedImage readImage(File file, int size) throws Exception {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int imageSize = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = 1;
+                while (imageSize / (subsampling * 2) >= 2 * size) {
+                    subsampling *= 2;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage renderSVG(File file, int size) throws Exception {
+        final BufferedImage[] result = new BufferedImage[1];
+        ImageTranscoder transcoder = new ImageTranscoder() {
+            @Override
+            public BufferedImage createImage(int width, int height) {
+                return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            }
+
+            @Override
+            public void writeImage(BufferedImage image, TranscoderOutput output) {
+                result[0] = image;
+            }
+        };
+        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_WIDTH, (float)size);
+        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_HEIGHT, (float)size);
+        transcoder.addTranscodingHint(XMLAbstractTranscoder.KEY_XML_PARSER_VALIDATING, false);
+        // The URI lets the drawing refer to files next to it
+        transcoder.transcode(new TranscoderInput(file.toURI().toString()), null);
+        return result[0];
+    }
+
+    /**
+     * Renders the first page of the document.
+     */
+    private static BufferedImage renderPDF(File file, int size) throws Exception {
+        Document document = new Document();
+        try {
+            document.setFile(file.getAbsolutePath());
+            if (document.getNumberOfPages() == 0) {
+                return null;
+            }
+            PDimension dimension = document.getPageDimension(0, 0f);
+            float zoom = size / (float)Math.max(dimension.getWidth(), dimension.getHeight());
+            Image image = document.getPageImage(0, GraphicsRenderingHints.SCREEN, Page.BOUNDARY_CROPBOX, 0f, zoom);
+            if (image == null || image instanceof BufferedImage) {
+                return (BufferedImage)image;
+            }
+            BufferedImage bufferedImage = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = bufferedImage.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            image.flush();
+            return bufferedImage;
+        } finally {
+            document.dispose();
+        }
+    }
+
+    /**
+     * Scales the image down to fit in a square of the specified size, keeping its aspect ratio.
+     */
+    private static BufferedImage scale(BufferedImage image, int size) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width <= size && height <= size && image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+        double factor = Math.min(1, size / (double)Math.max(width, height));
+        int scaledWidth = Math.max(1, (int)Math.round(width * factor));
+        int scaledHeight = Math.max(1, (int)Math.round(height * factor));
+        // Thumbnails are always written as ARGB images, whatever the color model of their file
+        BufferedImage thumbnail = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        g.dispose();
+        return thumbnail;
+    }
+}
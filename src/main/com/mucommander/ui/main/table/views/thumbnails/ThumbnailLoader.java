@@ -0,0 +1,213 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.main.table.views.thumbnails;
+
+import com.mucommander.commons.file.AbstractFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the thumbnails of the files shown by a table, creating the missing ones in the background.
+ *
+ * <p>Thumbnails are requested as cells are painted, and the most recently requested ones are loaded first: the files
+ * that are currently visible come before those that have been scrolled out of view, which are eventually forgotten.
+ * Loaded thumbnails are kept in memory for the files that are shown again.</p>
+ */
+public class ThumbnailLoader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailLoader.class);
+
+    /** Number of thumbnails loaded at the same time */
+    private static final int NB_THREADS = 2;
+
+    /** Maximum number of files waiting for their thumbnail, older requests are dropped */
+    private static final int MAX_PENDING = 128;
+
+    /** Maximum number of thumbnails kept in memory */
+    private static final int MAX_CACHED_THUMBNAILS = 256;
+
+    private static final ExecutorService THUMBNAIL_EXECUTOR = Executors.newFixedThreadPool(NB_THREADS, r -> {
+        Thread thread = new Thread(r, "Thumbnail loader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final ThumbnailCache cache;
+
+    /** Notified on the event dispatch thread when thumbnails have been loaded */
+    private final Runnable listener;
+
+    /** Loaded thumbnails, in access order */
+    private final LinkedHashMap<AbstractFile, Thumbnail> thumbnails = new LinkedHashMap<AbstractFile, Thumbnail>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<AbstractFile, Thumbnail> eldest) {
+            return size() > MAX_CACHED_THUMBNAILS;
+        }
+    };
+
+    /** Files waiting for their thumbnail, the most recently requested last */
+    private final Deque<AbstractFile> pending = new ArrayDeque<>();
+    /** Files whose thumbnail is being loaded */
+    private final Set<AbstractFile> loading = new HashSet<>();
+
+    private int nbWorkers;
+    private boolean listenerNotified;
+    private boolean disposed;
+
+
+    public ThumbnailLoader(ThumbnailCache cache, Runnable listener) {
+        this.cache = cache;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the thumbnail of the specified file if it has been loaded, and requests it otherwise.
+     *
+     * @param file a file shown by the table
+     * @return the thumbnail of the file, <code>null</code> if it hasn't been loaded yet or if the file has none
+     */
+    public synchronized ImageIcon getThumbnail(AbstractFile file) {
+        if (disposed || file.isDirectory() || !ThumbnailGenerator.isSupported(file.getExtension())
+                || !(file.getUnderlyingFileObject() instanceof File)) {
+            return null;
+        }
+        Thumbnail thumbnail = thumbnails.get(file);
+        if (thumbnail != null && thumbnail.date == file.getDate() && thumbnail.size == file.getSize()) {
+            return thumbnail.icon;
+        }
+        if (loading.contains(file)) {
+            return null;
+        }
+        pending.removeFirstOccurrence(file);
+        pending.addLast(file);
+        if (pending.size() > MAX_PENDING) {
+            pending.removeFirst();
+        }
+        if (nbWorkers < NB_THREADS) {
+            nbWorkers++;
+            THUMBNAIL_EXECUTOR.execute(this::loadThumbnails);
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the pending requests and the loaded thumbnails.
+     */
+    public synchronized void dispose() {
+        disposed = true;
+        pending.clear();
+        thumbnails.clear();
+    }
+
+    private void loadThumbnails() {
+        while (true) {
+            AbstractFile file;
+            synchronized (this) {
+                file = pending.pollLast();
+                if (file == null) {
+                    nbWorkers--;
+                    return;
+                }
+                loading.add(file);
+            }
+            Thumbnail thumbnail = loadThumbnail(file);
+            synchronized (this) {
+                loading.remove(file);
+                if (disposed) {
+                    continue;
+                }
+                thumbnails.put(file, thumbnail);
+                if (listenerNotified) {
+                    continue;
+                }
+                // Thumbnails loaded until the listener runs are shown at once
+                listenerNotified = true;
+            }
+            SwingUtilities.invokeLater(() -> {
+                synchronized (ThumbnailLoader.this) {
+                    listenerNotified = false;
+                }
+                listener.run();
+            });
+        }
+    }
+
+    /**
+     * Reads the thumbnail of the file from the cache, or creates it if it is missing or out of date.
+     */
+    private Thumbnail loadThumbnail(AbstractFile file) {
+        File localFile = (File)file.getUnderlyingFileObject();
+        // Read before the thumbnail, so that a file modified meanwhile is thumbnailed again
+        long date = file.getDate();
+        long size = file.getSize();
+        BufferedImage image = cache.get(localFile);
+        if (image == null && !cache.hasFailed(localFile)) {
+            boolean failed = false;
+            try {
+                image = ThumbnailGenerator.createThumbnail(localFile, ThumbnailCache.NORMAL_SIZE);
+                failed = image == null;
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // Not necessarily a problem with the file, it may be thumbnailed next time
+                LOGGER.info("Could not create the thumbnail of " + file, e);
+            } catch (Exception e) {
+                LOGGER.debug("Could not create the thumbnail of " + file, e);
+                failed = true;
+            }
+            try {
+                if (image != null) {
+                    cache.put(localFile, image);
+                } else if (failed) {
+                    cache.putFailure(localFile);
+                }
+            } catch (IOException e) {
+                LOGGER.info("Could not store the thumbnail of " + file, e);
+            }
+        }
+        return new Thumbnail(image == null ? null : new ImageIcon(image), date, size);
+    }
+
+
+    /**
+     * The thumbnail of a file, along with the date and size of the file it has been loaded for.
+     */
+    private static class Thumbnail {
+        private final ImageIcon icon;
+        private final long date;
+        private final long size;
+
+        private Thumbnail(ImageIcon icon, long date, long size) {
+            this.icon = icon;
+            this.date = date;
+            this.size = size;
+        }
+    }
+}
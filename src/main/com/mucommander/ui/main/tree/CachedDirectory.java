@@ -29,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ListingCache;
 import com.mucommander.commons.file.impl.ProxyFile;
 import com.mucommander.ui.icon.CustomFileIconProvider;
 import com.mucommander.ui.icon.FileIcons;
@@ -102,7 +103,7 @@ public class CachedDirectory extends ProxyFile {
 
         AbstractFile[] children;
         try {
-            children = file.ls(cache.getFilter());
+            children = ListingCache.ls(file, cache.getFilter());
         } catch (Exception e) {
             LOGGER.debug("Caught exception", e);
             children = new AbstractFile[0];
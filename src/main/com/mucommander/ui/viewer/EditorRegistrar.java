@@ -47,6 +47,8 @@ public class EditorRegistrar {
 
     static {
         registerFileEditor(new com.mucommander.ui.viewer.text.TextFactory());
+        // The HexFactory must be the last FileEditor to be registered, it edits the files that the text editor refuses
+        registerFileEditor(new com.mucommander.ui.viewer.hex.HexFactory());
     }
 
     /**
@@ -119,6 +121,7 @@ public class EditorRegistrar {
 
                 // User confirmed the operation
                 editor = factory.createFileEditor();
+                break;
             }
         }
 
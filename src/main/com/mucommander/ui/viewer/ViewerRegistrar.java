@@ -56,6 +56,9 @@ public class ViewerRegistrar {
 
         registerFileViewer(new com.mucommander.ui.viewer.html.HtmlFactory());
 
+        // Must be registered before the TextFactory, that doesn't view large text files
+        registerFileViewer(new com.mucommander.ui.viewer.text.LargeTextFactory());
+
         registerFileViewer(new com.mucommander.ui.viewer.text.TextFactory());
 
         // The HexFactory must be the last FileViewer to be registered (otherwise it would open other factories file types)
@@ -0,0 +1,267 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.hex;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.io.RandomAccessOutputStream;
+import com.mucommander.commons.runtime.OsFamily;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.helper.MenuToolkit;
+import com.mucommander.ui.helper.MnemonicHelper;
+import com.mucommander.ui.theme.Theme;
+import com.mucommander.ui.theme.ThemeManager;
+import com.mucommander.ui.viewer.FileEditor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.trolsoft.hexeditor.data.EditableByteBuffer;
+import ru.trolsoft.hexeditor.data.MuCommanderByteBuffer;
+import ru.trolsoft.hexeditor.ui.EditableHexTableModel;
+import ru.trolsoft.hexeditor.ui.HexTable;
+
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
+import javax.swing.KeyStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Hex editor. Hex digits overwrite the current byte, <code>Insert</code> inserts a byte and <code>Delete</code>
+ * removes the selected bytes.
+ *
+ * <p>The edits are kept in an {@link EditableByteBuffer}, so that files of any size can be edited. When saving, the
+ * file is patched in place if no byte has moved, otherwise it is rewritten through a temporary file.</p>
+ */
+public class HexEditor extends FileEditor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HexEditor.class);
+
+    private static final String DEFAULT_ENCODING = "windows-1252";
+
+    /** Number of names tried for the temporary file a file is rewritten to */
+    private static final int MAX_TEMP_FILE_ATTEMPTS = 100;
+
+    private HexTable hexTable;
+    private EditableHexTableModel model;
+    private EditableByteBuffer byteBuffer;
+    private StatusBar statusBar;
+
+    private JMenu menuEdit;
+    private JMenuItem gotoItem;
+
+    private GotoDialog dlgGoto;
+
+
+    public HexEditor() {
+        super();
+
+        MnemonicHelper menuMnemonicHelper = new MnemonicHelper();
+        menuEdit = MenuToolkit.addMenu(Translator.get("text_editor.edit"), menuMnemonicHelper, null);
+        int ctrlOrMeta = OsFamily.getCurrent() == OsFamily.MAC_OS_X ? KeyEvent.META_MASK : KeyEvent.CTRL_MASK;
+        gotoItem = MenuToolkit.addMenuItem(menuEdit, Translator.get("hex_viewer.goto"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_G, ctrlOrMeta), this);
+    }
+
+    @Override
+    protected void show(AbstractFile file) throws IOException {
+        open(file, 0);
+    }
+
+    /**
+     * Opens the specified file and moves to the specified offset
+     */
+    private void open(AbstractFile file, long offset) throws IOException {
+        byteBuffer = new EditableByteBuffer(new MuCommanderByteBuffer(file));
+        model = new EditableHexTableModel(byteBuffer);
+        model.load();
+        model.addTableModelListener(e -> {
+            if (byteBuffer.isModified()) {
+                setSaveNeeded(true);
+            }
+            statusBar.setMaxOffset(model.getSize() - 1);
+        });
+        hexTable = new HexTable(model);
+        hexTable.setBackground(ThemeManager.getCurrentColor(Theme.EDITOR_BACKGROUND_COLOR));
+        hexTable.setForeground(ThemeManager.getCurrentColor(Theme.EDITOR_FOREGROUND_COLOR));
+        hexTable.setAlternateBackground(new Color(20, 20, 20));
+        hexTable.setOffsetColumnColor(new Color(0, 255, 255));
+        hexTable.setAsciiColumnColor(new Color(255, 0, 255));
+        hexTable.setHighlightSelectionInAsciiDumpColor(new Color(0, 0, 255));
+        hexTable.setAlternateRowBackground(true);
+
+        hexTable.setFont(new Font("Monospaced", Font.PLAIN, 14));
+        hexTable.getTableHeader().setFont(new Font("Monospaced", Font.PLAIN, 12));
+
+        hexTable.setOnOffsetChangeListener(offs -> {
+            statusBar.setOffset(offs);
+            if (offs >= 0 && offs < model.getSize()) {
+                try {
+                    statusBar.setByteValue(byteBuffer.getByte(offs));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        getStatusBar();
+        statusBar.setMaxOffset(model.getSize() - 1);
+        if (model.getSize() > 0) {
+            hexTable.gotoOffset(Math.min(offset, model.getSize() - 1));
+        }
+
+        setComponentToPresent(hexTable);
+        getViewport().setBackground(hexTable.getBackground());
+    }
+
+    @Override
+    protected StatusBar getStatusBar() {
+        if (statusBar == null) {
+            statusBar = new StatusBar();
+            statusBar.setEncoding(DEFAULT_ENCODING);
+        }
+        return statusBar;
+    }
+
+    @Override
+    public JMenuBar getMenuBar() {
+        JMenuBar menuBar = super.getMenuBar();
+        menuBar.add(menuEdit);
+        return menuBar;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (e.getSource() == gotoItem) {
+            gotoOffset();
+        } else {
+            super.actionPerformed(e);
+        }
+    }
+
+    private void gotoOffset() {
+        if (dlgGoto != null && dlgGoto.isVisible()) {
+            return;
+        }
+        dlgGoto = new GotoDialog(getFrame(), model.getSize() - 1) {
+            @Override
+            protected void doGoto(long value) {
+                hexTable.gotoOffset(value);
+            }
+        };
+        dlgGoto.showDialog();
+    }
+
+    @Override
+    protected void saveAs(AbstractFile destFile) throws IOException {
+        statusBar.setStatusMessage(Translator.get("text_editor.writing"));
+        AbstractFile currentFile = getCurrentFile();
+        boolean sameFile = destFile.equals(currentFile);
+        if (sameFile && byteBuffer.canPatchInPlace() && destFile.isFileOperationSupported(FileOperation.RANDOM_WRITE_FILE)) {
+            // Only the modified bytes are written
+            try (RandomAccessOutputStream out = destFile.getRandomAccessOutputStream()) {
+                byteBuffer.patch(out);
+            }
+        } else if (sameFile) {
+            // The file can't be read and written at once, the new content replaces it once it has been written
+            AbstractFile tempFile = createTempFile(destFile);
+            try {
+                write(tempFile);
+                // The file must not be open to be replaced on some systems. Until the move succeeds, the buffer
+                // reopens it when it needs to read the original content.
+                byteBuffer.releaseOriginal();
+                tempFile.moveTo(destFile);
+            } catch (IOException e) {
+                try {
+                    tempFile.delete();
+                } catch (IOException e2) {
+                    LOGGER.debug("failed to delete " + tempFile, e2);
+                }
+                throw e;
+            }
+        } else {
+            write(destFile);
+        }
+        setSaveNeeded(false);
+
+        // Change the parent folder's date to now, so that changes are picked up by folder auto-refresh
+        if (destFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
+            try {
+                destFile.getParent().changeDate(System.currentTimeMillis());
+            } catch (IOException e) {
+                LOGGER.debug("failed to change the date of " + destFile, e);
+            }
+        }
+
+        // Later edits apply to the saved content
+        long offset = hexTable.getCurrentAddress();
+        byteBuffer.close();
+        currentFile.closePushbackInputStream();
+        open(destFile, offset);
+        statusBar.setStatusMessage(Translator.get("text_editor.saved"));
+    }
+
+    /**
+     * Creates an empty file next to the given one, with a name that isn't used yet, to write its new content to.
+     */
+    private static AbstractFile createTempFile(AbstractFile file) throws IOException {
+        AbstractFile folder = file.getParent();
+        for (int i = 0; i < MAX_TEMP_FILE_ATTEMPTS; i++) {
+            AbstractFile tempFile = folder.getDirectChild(file.getName() + (i == 0 ? "" : "." + i) + ".tmp");
+            if (tempFile.exists()) {
+                continue;
+            }
+            try {
+                tempFile.mkfile();
+                return tempFile;
+            } catch (IOException e) {
+                // Another file of this name may have been created in the meantime, try the next name
+                if (!tempFile.exists()) {
+                    throw e;
+                }
+            }
+        }
+        throw new IOException("Could not create a temporary file for " + file);
+    }
+
+    private void write(AbstractFile file) throws IOException {
+        try (OutputStream out = file.getOutputStream()) {
+            byteBuffer.writeTo(out);
+        }
+    }
+
+    @Override
+    protected void saveStateOnClose() {
+        try {
+            byteBuffer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            getCurrentFile().closePushbackInputStream();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void restoreStateOnStartup() {
+
+    }
+}
@@ -29,6 +29,7 @@ import ru.trolsoft.hexeditor.data.AbstractByteBuffer;
 import ru.trolsoft.hexeditor.data.MuCommanderByteBuffer;
 import ru.trolsoft.hexeditor.events.OnOffsetChangeListener;
 import ru.trolsoft.hexeditor.search.ByteBufferSearchUtils;
+import ru.trolsoft.hexeditor.search.SearchProgressListener;
 import ru.trolsoft.hexeditor.ui.HexTable;
 import ru.trolsoft.hexeditor.ui.ViewerHexTableModel;
 
@@ -39,6 +40,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Hex dump viewer
@@ -48,6 +53,18 @@ public class HexViewer extends FileViewer {
 
     private static final String DEFAULT_ENCODING = "windows-1252";
 
+    /** Maximum number of occurrences listed by 'find all' */
+    private static final int MAX_FIND_ALL_RESULTS = 10000;
+
+    /** Delay in milliseconds after which the progress of a running search is shown */
+    private static final int SEARCH_PROGRESS_DELAY = 300;
+
+    private enum SearchMode {
+        NEXT,
+        PREVIOUS,
+        ALL
+    }
+
     private HexTable hexTable;
     private ViewerHexTableModel model;
     private AbstractByteBuffer byteBuffer;
@@ -55,12 +72,14 @@ public class HexViewer extends FileViewer {
     private String encoding = DEFAULT_ENCODING;
     private byte[] lastSearchBytes;
     private long lastSearchResult = -1;
+    private SearchWorker searchWorker;
 
     private JMenu menuView;
     private JMenuItem gotoItem;
     private JMenuItem findItem;
     private JMenuItem findNextItem;
     private JMenuItem findPrevItem;
+    private JMenuItem findAllItem;
 
     private GotoDialog dlgGoto;
     private FindDialog dlgFind;
@@ -76,6 +95,7 @@ public class HexViewer extends FileViewer {
         findItem = MenuToolkit.addMenuItem(menuView, Translator.get("hex_viewer.search"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F, getCtrlOrMetaMask()), this);
         findNextItem = MenuToolkit.addMenuItem(menuView, Translator.get("hex_viewer.searchNext"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), this);
         findPrevItem = MenuToolkit.addMenuItem(menuView, Translator.get("hex_viewer.searchPrev"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F3, KeyEvent.SHIFT_DOWN_MASK), this);
+        findAllItem = MenuToolkit.addMenuItem(menuView, Translator.get("hex_viewer.findAll"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F, getCtrlOrMetaMask() | KeyEvent.SHIFT_MASK), this);
     }
 
     private int getCtrlOrMetaMask() {
@@ -153,6 +173,9 @@ public class HexViewer extends FileViewer {
 
     @Override
     protected void saveStateOnClose() {
+        if (searchWorker != null) {
+            searchWorker.cancel(false);
+        }
         try {
             byteBuffer.close();
         } catch (IOException e) {
@@ -182,6 +205,8 @@ public class HexViewer extends FileViewer {
             findNext();
         } else if (source == findPrevItem && findPrevItem.isEnabled()) {
             findPrev();
+        } else if (source == findAllItem && findAllItem.isEnabled()) {
+            findAll();
         } else {
             super.actionPerformed(e);
         }
@@ -189,35 +214,84 @@ public class HexViewer extends FileViewer {
 
 
     private void findFirst() {
+        showFindDialog(SearchMode.NEXT);
+    }
+
+    private void findAll() {
+        showFindDialog(SearchMode.ALL);
+    }
+
+    private void showFindDialog(final SearchMode mode) {
         if (dlgFind != null && dlgFind.isVisible()) {
             return;
         }
         dlgFind = new FindDialog(getFrame(), encoding) {
             @Override
             protected void doSearch(byte[] bytes) {
-                doSearchFromPos(bytes, 0, true);
+                if (bytes != null && bytes.length > 0) {
+                    doSearchFromPos(bytes, 0, mode);
+                }
             }
         };
         dlgFind.setSearchBytes(lastSearchBytes);
         dlgFind.showDialog();
     }
 
-    private void doSearchFromPos(byte[] bytes, long pos, boolean next) {
+    /**
+     * Starts searching in the background. The progress is shown if the search doesn't complete quickly.
+     */
+    private void doSearchFromPos(byte[] bytes, long pos, SearchMode mode) {
         lastSearchBytes = bytes;
-        try {
-            if (next) {
-                lastSearchResult = ByteBufferSearchUtils.indexOf(byteBuffer, bytes, pos);
-            } else {
-                lastSearchResult = ByteBufferSearchUtils.indexOfBackward(byteBuffer, bytes, pos);
-            }
-            if (lastSearchResult >= 0) {
-                hexTable.gotoOffset(lastSearchResult);
-                statusBar.clearStatusMessage();
-            } else {
-                statusBar.setStatusMessage(Translator.get("hex_viewer.search_not_found"));
+        if (searchWorker != null) {
+            // Only one search at a time
+            return;
+        }
+        final SearchWorker worker = new SearchWorker(bytes, pos, mode);
+        searchWorker = worker;
+        worker.execute();
+        Timer timer = new Timer(SEARCH_PROGRESS_DELAY, e -> {
+            if (!worker.isDone()) {
+                worker.progressDialog = new SearchProgressDialog(getFrame(), worker);
+                worker.progressDialog.showDialog();
             }
-        } catch (IOException e1) {
-            e1.printStackTrace();
+        });
+        timer.setRepeats(false);
+        timer.start();
+    }
+
+    private void onSearchDone(SearchWorker worker) {
+        searchWorker = null;
+        if (worker.progressDialog != null) {
+            worker.progressDialog.dispose();
+        }
+        List<Long> result;
+        try {
+            result = worker.get();
+        } catch (CancellationException e) {
+            statusBar.setStatusMessage(Translator.get("hex_viewer.search_cancelled"));
+            return;
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            statusBar.clearStatusMessage();
+            return;
+        }
+        if (result.isEmpty()) {
+            lastSearchResult = -1;
+            statusBar.setStatusMessage(Translator.get("hex_viewer.search_not_found"));
+            return;
+        }
+        lastSearchResult = result.get(0);
+        hexTable.gotoOffset(lastSearchResult);
+        if (worker.mode == SearchMode.ALL) {
+            statusBar.setStatusMessage(Translator.get("hex_viewer.search_results_count", String.valueOf(result.size())));
+            new SearchResultsDialog(getFrame(), result, result.size() >= MAX_FIND_ALL_RESULTS) {
+                @Override
+                protected void doGoto(long offset) {
+                    hexTable.gotoOffset(offset);
+                }
+            }.showDialog();
+        } else {
+            statusBar.clearStatusMessage();
         }
     }
 
@@ -225,14 +299,14 @@ public class HexViewer extends FileViewer {
     private void findNext() {
         if (lastSearchBytes != null && lastSearchBytes.length > 0) {
             long pos = hexTable.getCurrentAddress()+1;
-            doSearchFromPos(lastSearchBytes, pos, true);
+            doSearchFromPos(lastSearchBytes, pos, SearchMode.NEXT);
         }
     }
 
     private void findPrev() {
         if (lastSearchBytes != null && lastSearchBytes.length > 0) {
             long pos = hexTable.getCurrentAddress()-1;
-            doSearchFromPos(lastSearchBytes, pos, false);
+            doSearchFromPos(lastSearchBytes, pos, SearchMode.PREVIOUS);
         }
     }
 
@@ -265,4 +339,46 @@ public class HexViewer extends FileViewer {
             lastSearchBytes = searchedBytes;
         }
     }
+
+
+    /**
+     * Searches the buffer without blocking the event dispatch thread. The result is the list of the offsets found,
+     * sorted in the search direction.
+     */
+    private class SearchWorker extends SwingWorker<List<Long>, Void> {
+        private final byte[] pattern;
+        private final long fromOffset;
+        private final SearchMode mode;
+
+        /** Shown once the search has been running for a while, accessed on the event dispatch thread only */
+        private SearchProgressDialog progressDialog;
+
+        private SearchWorker(byte[] pattern, long fromOffset, SearchMode mode) {
+            this.pattern = pattern;
+            this.fromOffset = fromOffset;
+            this.mode = mode;
+        }
+
+        @Override
+        protected List<Long> doInBackground() throws Exception {
+            SearchProgressListener listener = (processed, total) -> {
+                setProgress(total > 0 ? (int)(processed * 100 / total) : 0);
+                return !isCancelled();
+            };
+            switch (mode) {
+                case ALL:
+                    return ByteBufferSearchUtils.findAll(byteBuffer, pattern, fromOffset, MAX_FIND_ALL_RESULTS, listener);
+                case PREVIOUS:
+                    long offset = ByteBufferSearchUtils.indexOfBackward(byteBuffer, pattern, fromOffset, listener);
+                    return offset < 0 ? Collections.<Long>emptyList() : Collections.singletonList(offset);
+                default:
+                    return ByteBufferSearchUtils.findAll(byteBuffer, pattern, fromOffset, 1, listener);
+            }
+        }
+
+        @Override
+        protected void done() {
+            onSearchDone(this);
+        }
+    }
 }
\ No newline at end of file
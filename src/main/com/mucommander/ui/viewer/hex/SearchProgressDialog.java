@@ -0,0 +1,89 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.hex;
+
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.DialogToolkit;
+import com.mucommander.ui.dialog.FocusDialog;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+import java.awt.BorderLayout;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Frame;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+/**
+ * Shows the progress of a search running in the hex viewer and allows to cancel it.
+ */
+class SearchProgressDialog extends FocusDialog implements ActionListener, PropertyChangeListener {
+
+    private final SwingWorker<?, ?> worker;
+
+    private final JProgressBar progressBar;
+
+
+    SearchProgressDialog(Frame owner, SwingWorker<?, ?> worker) {
+        super(owner, Translator.get("hex_viewer.find"), owner);
+        this.worker = worker;
+
+        Container contentPane = getContentPane();
+        contentPane.add(new JLabel(Translator.get("hex_viewer.searching")), BorderLayout.NORTH);
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setPreferredSize(new Dimension(300, progressBar.getPreferredSize().height));
+        progressBar.setValue(worker.getProgress());
+        contentPane.add(progressBar, BorderLayout.CENTER);
+
+        JButton cancelButton = new JButton(Translator.get("cancel"));
+        contentPane.add(DialogToolkit.createOKPanel(cancelButton, getRootPane(), this), BorderLayout.SOUTH);
+
+        worker.addPropertyChangeListener(this);
+    }
+
+    @Override
+    public void cancel() {
+        worker.cancel(false);
+        super.cancel();
+    }
+
+    @Override
+    public void dispose() {
+        worker.removePropertyChangeListener(this);
+        super.dispose();
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        cancel();
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        if ("progress".equals(evt.getPropertyName())) {
+            progressBar.setValue((Integer)evt.getNewValue());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.hex;
+
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.DialogToolkit;
+import com.mucommander.ui.dialog.FocusDialog;
+import ru.trolsoft.utils.StrUtils;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import java.awt.BorderLayout;
+import java.awt.Container;
+import java.awt.Font;
+import java.awt.Frame;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+
+/**
+ * Lists the offsets of all the occurrences found by a 'find all' search. Selecting an offset moves the hex viewer to it.
+ */
+abstract class SearchResultsDialog extends FocusDialog implements ActionListener {
+
+    private final JList<String> list;
+
+    private final List<Long> offsets;
+
+    private final JButton closeButton;
+
+
+    SearchResultsDialog(Frame owner, List<Long> offsets, boolean truncated) {
+        super(owner, Translator.get("hex_viewer.search_results"), owner);
+        this.offsets = offsets;
+        // Lets the user move through the results and the dump at the same time
+        setModal(false);
+
+        Container contentPane = getContentPane();
+        String message = Translator.get("hex_viewer.search_results_count", String.valueOf(offsets.size()));
+        if (truncated) {
+            message += " " + Translator.get("hex_viewer.search_results_truncated", String.valueOf(offsets.size()));
+        }
+        contentPane.add(new JLabel(message), BorderLayout.NORTH);
+
+        DefaultListModel<String> model = new DefaultListModel<>();
+        for (long offset : offsets) {
+            model.addElement(StrUtils.dwordToHexStr(offset));
+        }
+        list = new JList<>(model);
+        list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, list.getFont().getSize()));
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(15);
+        list.addListSelectionListener(e -> {
+            int index = list.getSelectedIndex();
+            if (!e.getValueIsAdjusting() && index >= 0) {
+                doGoto(this.offsets.get(index));
+            }
+        });
+        contentPane.add(new JScrollPane(list), BorderLayout.CENTER);
+
+        closeButton = new JButton(Translator.get("close"));
+        contentPane.add(DialogToolkit.createOKPanel(closeButton, getRootPane(), this), BorderLayout.SOUTH);
+
+        setInitialFocusComponent(list);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (e.getSource() == closeButton) {
+            dispose();
+        }
+    }
+
+    abstract protected void doGoto(long offset);
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * An image decoded by {@link ImageViewer}, either fully or as a {@link TiledImage}.
+ */
+class DecodedImage {
+
+    /** Returned instead of a tiled image when tiled images are not wanted, e.g. by the prefetcher */
+    static final DecodedImage TOO_LARGE = new DecodedImage(null, null, 0);
+
+    /** The image, or the overview of the tiled image */
+    final BufferedImage image;
+
+    /** The tiled image, <code>null</code> if the image has been decoded at full resolution */
+    final TiledImage tiledImage;
+
+    /** Number of bits per pixel to show in the status bar, <code>0</code> if it shouldn't be shown */
+    final int bpp;
+
+    DecodedImage(BufferedImage image, TiledImage tiledImage, int bpp) {
+        this.image = image;
+        this.tiledImage = tiledImage;
+        this.bpp = bpp;
+    }
+
+    DecodedImage(BufferedImage image, int bpp) {
+        this(image, null, bpp);
+    }
+
+    /**
+     * Returns the number of pixels held in memory by this image.
+     */
+    long getNbPixels() {
+        return image == null ? 0 : (long)image.getWidth() * image.getHeight();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.image;
+
+import com.mucommander.commons.file.AbstractFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Decodes the images next to the one being viewed in the background, so that they are shown immediately when the user
+ * flips to them.
+ *
+ * <p>Decoded images are kept in a cache bounded by their number of pixels, through soft references so that the
+ * garbage collector can reclaim them under memory pressure. Prefetches of images that are not wanted anymore, e.g.
+ * after the user changed direction, are cancelled if they haven't started yet.</p>
+ */
+class ImagePrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImagePrefetcher.class);
+
+    /** Number of images prefetched in the browsing direction */
+    static final int NB_PREFETCHED_AHEAD = 2;
+
+    /** Number of images prefetched in the opposite direction */
+    static final int NB_PREFETCHED_BEHIND = 1;
+
+    /** Maximum number of pixels of the cached images */
+    private static final long MAX_CACHED_PIXELS = 32 * 1024 * 1024;
+
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "Image prefetcher");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Decodes images, without touching the user interface.
+     */
+    interface Decoder {
+        DecodedImage decode(AbstractFile file) throws Exception;
+    }
+
+    private final Decoder decoder;
+
+    /** Decoded images, in access order */
+    private final LinkedHashMap<AbstractFile, CachedImage> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long nbCachedPixels;
+
+    /** Prefetches that are queued or running */
+    private final Map<AbstractFile, Prefetch> prefetches = new HashMap<>();
+
+    private boolean closed;
+
+
+    ImagePrefetcher(Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Returns the decoded image of the specified file if it has been prefetched, waiting for its prefetch to complete
+     * if it is running.
+     *
+     * @param file an image file
+     * @return the decoded image, <code>null</code> if it hasn't been prefetched or if it has been reclaimed
+     */
+    DecodedImage get(AbstractFile file) {
+        Future<DecodedImage> prefetch;
+        synchronized (this) {
+            CachedImage cachedImage = cache.get(file);
+            if (cachedImage != null) {
+                DecodedImage image = cachedImage.get();
+                if (image != null) {
+                    return image;
+                }
+                remove(file);
+            }
+            prefetch = prefetches.get(file);
+        }
+        if (prefetch == null) {
+            return null;
+        }
+        try {
+            return prefetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (CancellationException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds an image decoded by the viewer to the cache, so that it is shown immediately when the user goes back to it.
+     *
+     * @param file the image file
+     * @param image the decoded image
+     */
+    synchronized void put(AbstractFile file, DecodedImage image) {
+        if (closed || image.tiledImage != null || image.image == null) {
+            return;
+        }
+        remove(file);
+        cache.put(file, new CachedImage(image));
+        nbCachedPixels += image.getNbPixels();
+        Iterator<Map.Entry<AbstractFile, CachedImage>> iterator = cache.entrySet().iterator();
+        while (nbCachedPixels > MAX_CACHED_PIXELS && cache.size() > 1) {
+            nbCachedPixels -= iterator.next().getValue().nbPixels;
+            iterator.remove();
+        }
+    }
+
+    private void remove(AbstractFile file) {
+        CachedImage cachedImage = cache.remove(file);
+        if (cachedImage != null) {
+            nbCachedPixels -= cachedImage.nbPixels;
+        }
+    }
+
+    /**
+     * Prefetches the specified images, in order, and cancels the prefetches of other images that haven't started yet.
+     *
+     * @param files the images to prefetch, the most wanted first
+     */
+    synchronized void prefetch(List<AbstractFile> files) {
+        if (closed) {
+            return;
+        }
+        // Cancelling a prefetch removes it from the map
+        for (Map.Entry<AbstractFile, Prefetch> entry : new ArrayList<>(prefetches.entrySet())) {
+            if (!files.contains(entry.getKey())) {
+                entry.getValue().cancel(false);
+            }
+        }
+        for (final AbstractFile file : files) {
+            CachedImage cachedImage = cache.get(file);
+            if ((cachedImage != null && cachedImage.get() != null) || prefetches.containsKey(file)) {
+                continue;
+            }
+            Prefetch prefetch = new Prefetch(file);
+            prefetches.put(file, prefetch);
+            PREFETCH_EXECUTOR.execute(prefetch);
+        }
+    }
+
+    private DecodedImage decode(AbstractFile file) throws Exception {
+        try {
+            DecodedImage image = decoder.decode(file);
+            if (image.tiledImage != null) {
+                image.tiledImage.close();
+                image = DecodedImage.TOO_LARGE;
+            }
+            put(file, image);
+            return image == DecodedImage.TOO_LARGE ? null : image;
+        } catch (Exception e) {
+            LOGGER.debug("Could not prefetch " + file, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels the pending prefetches and releases the cached images.
+     */
+    synchronized void close() {
+        closed = true;
+        for (Prefetch prefetch : new ArrayList<>(prefetches.values())) {
+            prefetch.cancel(false);
+        }
+        prefetches.clear();
+        cache.clear();
+        nbCachedPixels = 0;
+    }
+
+
+    /**
+     * The prefetch of an image, that is forgotten once it is done.
+     */
+    private class Prefetch extends FutureTask<DecodedImage> {
+        private final AbstractFile file;
+
+        private Prefetch(AbstractFile file) {
+            super(() -> decode(file));
+            this.file = file;
+        }
+
+        @Override
+        protected void done() {
+            synchronized (ImagePrefetcher.this) {
+                prefetches.remove(file, this);
+            }
+        }
+    }
+
+
+    /**
+     * A soft reference to a decoded image, that remembers the image's size once it has been reclaimed.
+     */
+    private static class CachedImage extends SoftReference<DecodedImage> {
+        private final long nbPixels;
+
+        private CachedImage(DecodedImage image) {
+            super(image);
+            this.nbPixels = image.getNbPixels();
+        }
+    }
+}
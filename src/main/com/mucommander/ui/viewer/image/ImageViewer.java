@@ -24,6 +24,7 @@ import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -32,7 +33,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import javax.imageio.spi.IIORegistry;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.*;
 
 import com.mucommander.commons.file.AbstractFile;
@@ -76,6 +79,10 @@ class ImageViewer extends FileViewer implements ActionListener {
     private static final Cursor CURSOR_CROSS = new Cursor(Cursor.CROSSHAIR_CURSOR);
 
     private BufferedImage image;
+    /** Set instead of decoding the full image if it is too large, in which case {@link #image} is its overview */
+    private TiledImage tiledImage;
+    /** Size of the full resolution image */
+    private int sourceWidth, sourceHeight;
     //private BufferedImage scaledImage;
     private double zoomFactor;
     private boolean vectorImage;
@@ -92,6 +99,10 @@ class ImageViewer extends FileViewer implements ActionListener {
     private ImageViewerImpl imageViewerImpl;
     private List<AbstractFile> filesInDirectory;
     private int indexInDirectory = -1;
+    /** Direction in which the user browses the images: 1 for next, -1 for previous */
+    private int browsingDirection = 1;
+
+    private final ImagePrefetcher prefetcher = new ImagePrefetcher(file -> decodeImage(file, false));
 
     private StatusBar statusBar;
 
@@ -151,6 +162,8 @@ class ImageViewer extends FileViewer implements ActionListener {
 
     @Override
     protected void saveStateOnClose() {
+        prefetcher.close();
+        closeTiledImage();
         // Run GC for big images
         if (image != null && image.getWidth()*image.getHeight() > 1024*200) {
             System.gc();
@@ -167,42 +180,31 @@ class ImageViewer extends FileViewer implements ActionListener {
 
         statusBar.setFileSize(file.getSize());
         statusBar.setDateTime(file.getDate());
-        int imageWidth, imageHeight;
-
-        final String ext = file.getExtension().toLowerCase();
-        if ("scr".equals(ext) && file.getSize() == ZxSpectrumScrImage.SCR_IMAGE_FILE_SIZE) {
-            this.image = ZxSpectrumScrImage.load(file.getInputStream());
-            statusBar.setImageBpp(4);
-        } else if ("psd".equals(ext)) {
-            this.image = new PsdImageParser().getBufferedImage(loadFile(file), null);
-        } else if ("tif".equals(ext) || "tiff".equals(ext)) {
-            this.image = new TiffImageParser().getBufferedImage(loadFile(file), null);
-        } else if ("ico".equals(ext)) {
-            this.image = ICODecoder.read(file.getInputStream()).get(0);
-            //this.image = (BufferedImage) (new IcoImageParser().getAllBufferedImages(loadFile(file)).get(0));
-        } else if ("pnm".equals(ext) || "pbm".equals(ext) || "pgm".equals(ext) || "ppm".equals(ext)) {
-            // TODO pBm raw format reading error
-            this.image = (BufferedImage) (new PNMImageParser().getAllBufferedImages(loadFile(file)).get(0));
-        } else if ("svg".equals(ext)) {
-            this.image = transcodeSVGDocument(file, 0, 0);
-        } else {
-            InputStream is = file.getInputStream();
-            this.image = ImageIO.read(is);
-            is.close();
-            statusBar.setImageBpp(image.getColorModel().getPixelSize());
-        }
-        vectorImage = "svg".equalsIgnoreCase(ext);
-        imageWidth = image.getWidth();
-        imageHeight = image.getHeight();
+        closeTiledImage();
+
+        // Prefetched images are shown immediately
+        DecodedImage decodedImage = prefetcher.get(file);
+        if (decodedImage == null) {
+            decodedImage = decodeImage(file, true);
+            prefetcher.put(file, decodedImage);
+        }
+        this.image = decodedImage.image;
+        this.tiledImage = decodedImage.tiledImage;
+        if (decodedImage.bpp > 0) {
+            statusBar.setImageBpp(decodedImage.bpp);
+        }
+        vectorImage = "svg".equalsIgnoreCase(file.getExtension());
+        sourceWidth = tiledImage != null ? tiledImage.getWidth() : image.getWidth();
+        sourceHeight = tiledImage != null ? tiledImage.getHeight() : image.getHeight();
         this.hasTransparentPixels = image.getColorModel().hasAlpha();
 
-        statusBar.setImageSize(imageWidth, imageHeight);
+        statusBar.setImageSize(sourceWidth, sourceHeight);
 
         this.zoomFactor = 1.0;
         Dimension screen = MuSnapshot.getScreenSize();
 
-        double zoomFactorX = 1.0 * screen.width / imageWidth;
-        double zoomFactorY = 1.0 * screen.height / imageHeight;
+        double zoomFactorX = 1.0 * screen.width / sourceWidth;
+        double zoomFactorY = 1.0 * screen.height / sourceHeight;
         zoomFactor = Math.min(zoomFactorX, zoomFactorY);
         if (zoomFactor > 1.0) {
             zoomFactor = 1.0;
@@ -212,9 +214,134 @@ class ImageViewer extends FileViewer implements ActionListener {
         fixMouseMovementEventsIssue();
 
         checkNextPrev();
+        prefetchNeighbours();
         setFrameCursor(CURSOR_DEFAULT);
     }
 
+    /**
+     * Decodes an image, without changing the state of the viewer so that it can be called from any thread.
+     *
+     * @param file the image file
+     * @param allowTiled <code>false</code> to return {@link DecodedImage#TOO_LARGE} rather than a tiled image
+     * @return the decoded image
+     * @throws IOException if an error occurred while reading the image
+     * @throws ImageReadException if the image couldn't be parsed
+     */
+    private DecodedImage decodeImage(AbstractFile file, boolean allowTiled) throws IOException, ImageReadException {
+        File localFile = getLocalFile(file);
+
+        final String ext = file.getExtension().toLowerCase();
+        if ("scr".equals(ext) && file.getSize() == ZxSpectrumScrImage.SCR_IMAGE_FILE_SIZE) {
+            return new DecodedImage(ZxSpectrumScrImage.load(file.getInputStream()), 4);
+        } else if ("psd".equals(ext)) {
+            PsdImageParser parser = new PsdImageParser();
+            return new DecodedImage(localFile != null ? parser.getBufferedImage(localFile, null) : parser.getBufferedImage(loadFile(file), null), 0);
+        } else if ("tif".equals(ext) || "tiff".equals(ext)) {
+            // ImageIO can read TIFF images since Java 9, tiled if they are large
+            DecodedImage decodedImage = readImage(file, allowTiled);
+            if (decodedImage != null) {
+                return decodedImage;
+            }
+            TiffImageParser parser = new TiffImageParser();
+            return new DecodedImage(localFile != null ? parser.getBufferedImage(localFile, null) : parser.getBufferedImage(loadFile(file), null), 0);
+        } else if ("ico".equals(ext)) {
+            return new DecodedImage(ICODecoder.read(file.getInputStream()).get(0), 0);
+            //this.image = (BufferedImage) (new IcoImageParser().getAllBufferedImages(loadFile(file)).get(0));
+        } else if ("pnm".equals(ext) || "pbm".equals(ext) || "pgm".equals(ext) || "ppm".equals(ext)) {
+            // TODO pBm raw format reading error
+            PNMImageParser parser = new PNMImageParser();
+            return new DecodedImage((BufferedImage) (localFile != null ? parser.getAllBufferedImages(localFile) : parser.getAllBufferedImages(loadFile(file))).get(0), 0);
+        } else if ("svg".equals(ext)) {
+            return new DecodedImage(transcodeSVGDocument(file, 0, 0), 0);
+        }
+        DecodedImage decodedImage = readImage(file, allowTiled);
+        if (decodedImage == null) {
+            throw new IOException("Unsupported image format: " + file);
+        }
+        return decodedImage;
+    }
+
+    /**
+     * Prefetches the next images in the browsing direction, and the previous one.
+     */
+    private void prefetchNeighbours() {
+        List<AbstractFile> files = new ArrayList<>();
+        for (int i = 1; i <= ImagePrefetcher.NB_PREFETCHED_AHEAD; i++) {
+            addFileInDirectory(files, indexInDirectory + i * browsingDirection);
+        }
+        for (int i = 1; i <= ImagePrefetcher.NB_PREFETCHED_BEHIND; i++) {
+            addFileInDirectory(files, indexInDirectory - i * browsingDirection);
+        }
+        prefetcher.prefetch(files);
+    }
+
+    private void addFileInDirectory(List<AbstractFile> files, int index) {
+        if (index >= 0 && index < filesInDirectory.size()) {
+            files.add(filesInDirectory.get(index));
+        }
+    }
+
+
+    /**
+     * Reads the image with ImageIO. Images that are too large are not decoded at full resolution, but as a
+     * {@link TiledImage}.
+     *
+     * @param file the image file
+     * @param allowTiled <code>false</code> to return {@link DecodedImage#TOO_LARGE} rather than a tiled image
+     * @return the decoded image, <code>null</code> if ImageIO can't read the image
+     * @throws IOException if an error occurred while reading the image
+     */
+    private DecodedImage readImage(AbstractFile file, boolean allowTiled) throws IOException {
+        ImageInputStream stream = TiledImage.openStream(file);
+        if (stream == null) {
+            return null;
+        }
+        ImageReader reader = null;
+        boolean tiled = false;
+        try {
+            reader = TiledImage.getReader(stream);
+            if (reader == null) {
+                return null;
+            }
+            BufferedImage image;
+            TiledImage tiledImage = null;
+            if (!TiledImage.mustBeTiled(reader)) {
+                image = reader.read(0);
+            } else if (allowTiled) {
+                Dimension screen = MuSnapshot.getScreenSize();
+                // The tiled image owns the reader and the stream from now on, and closes them on failure
+                tiled = true;
+                tiledImage = TiledImage.open(stream, reader, screen.width, screen.height, imageViewerImpl::repaint);
+                image = tiledImage.getOverview();
+            } else {
+                return DecodedImage.TOO_LARGE;
+            }
+            return new DecodedImage(image, tiledImage, image.getColorModel().getPixelSize());
+        } finally {
+            if (!tiled) {
+                if (reader != null) {
+                    reader.dispose();
+                }
+                stream.close();
+            }
+        }
+    }
+
+    private void closeTiledImage() {
+        if (tiledImage != null) {
+            tiledImage.close();
+            tiledImage = null;
+        }
+    }
+
+    /**
+     * Returns the local file, for the parsers to read it in place rather than from a copy in memory,
+     * <code>null</code> if the file isn't local.
+     */
+    private static File getLocalFile(AbstractFile file) {
+        Object underlyingFile = file.getUnderlyingFileObject();
+        return underlyingFile instanceof File ? (File)underlyingFile : null;
+    }
 
     private static byte[] loadFile(AbstractFile file) throws IOException {
         InputStream is = file.getInputStream();
@@ -406,6 +533,7 @@ class ImageViewer extends FileViewer implements ActionListener {
         int index = getNextFileIndex();
         if (index >= 0) {
             indexInDirectory = index;
+            browsingDirection = 1;
             gotoFile();
         }
     }
@@ -418,6 +546,7 @@ class ImageViewer extends FileViewer implements ActionListener {
         int index = getPrevFileIndex();
         if (index >= 0) {
             indexInDirectory = index;
+            browsingDirection = -1;
             gotoFile();
         }
     }
@@ -507,14 +636,14 @@ class ImageViewer extends FileViewer implements ActionListener {
         if (image == null) {
             return 0;
         }
-        return vectorImage ? image.getWidth() : (int)(zoomFactor*image.getWidth());
+        return vectorImage ? image.getWidth() : (int)(zoomFactor*sourceWidth);
     }
 
     private int getScaledHeight() {
         if (image == null) {
             return 0;
         }
-        return vectorImage ? image.getHeight() : (int)(zoomFactor*image.getHeight());
+        return vectorImage ? image.getHeight() : (int)(zoomFactor*sourceHeight);
     }
 
 
@@ -586,6 +715,9 @@ class ImageViewer extends FileViewer implements ActionListener {
                     g.drawImage(image, x0, y0, null);
                 } else {
                     g.drawImage(image, x0, y0, x0 + imageWidth, y0 + imageHeight, 0, 0, image.getWidth(), image.getHeight(), null, null);
+                    if (tiledImage != null) {
+                        tiledImage.paint(g, x0, y0, zoomFactor, getVisibleRect());
+                    }
                 }
             }
         }
@@ -653,7 +785,7 @@ class ImageViewer extends FileViewer implements ActionListener {
             }
             pixelX = (int)(pixelX/zoomFactor);
             pixelY = (int)(pixelY/zoomFactor);
-            int color = image.getRGB(pixelX, pixelY);
+            int color = tiledImage != null ? tiledImage.getRGB(pixelX, pixelY) : image.getRGB(pixelX, pixelY);
 //            int r = (color >> 16) & 0xff;
 //            int g = (color >> 8) & 0xff;
 //            int b = (color) & 0xff;
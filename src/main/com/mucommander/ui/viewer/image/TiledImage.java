@@ -0,0 +1,411 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.image;
+
+import com.mucommander.commons.file.AbstractFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An image too large to be decoded at full resolution, decoded by an {@link ImageReader} with source subsampling.
+ * An overview that fits the screen is decoded first, then the tiles of the visible area are decoded in the background,
+ * at the resolution required by the zoom factor, and kept in a cache bounded by their number of pixels.
+ *
+ * <p>The image is read from an {@link ImageInputStream} on the file, so that the file is never loaded in memory as
+ * a whole: local files are read in place, other files are cached by ImageIO as they are read.</p>
+ */
+class TiledImage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TiledImage.class);
+
+    /** Images with more pixels than this are tiled */
+    static final long MAX_FULL_IMAGE_PIXELS = 4096 * 4096;
+
+    /** Width and height of the decoded tiles, in pixels */
+    static final int TILE_SIZE = 512;
+
+    /** Maximum number of pixels of the cached tiles */
+    private static final long MAX_CACHED_PIXELS = 16 * 1024 * 1024;
+
+    private static final ExecutorService DECODER_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Image tile decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ImageInputStream stream;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+
+    /** Called from the decoding thread when a tile has been decoded */
+    private final Runnable tileListener;
+
+    private BufferedImage overview;
+    private int overviewSubsampling;
+
+    /** Decoded tiles, in access order */
+    private final LinkedHashMap<TileKey, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private long nbCachedPixels;
+
+    /** Tiles to decode, the tiles that are not visible anymore are removed before being decoded */
+    private final Set<TileKey> pendingTiles = new LinkedHashSet<>();
+    private boolean decoding;
+    private boolean closed;
+
+
+    private TiledImage(ImageInputStream stream, ImageReader reader, Runnable tileListener) throws IOException {
+        this.stream = stream;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.tileListener = tileListener;
+    }
+
+    /**
+     * Opens a stream on the specified file.
+     *
+     * @param file the image file
+     * @return the stream, <code>null</code> if no stream could be created
+     * @throws IOException if the file couldn't be opened
+     */
+    static ImageInputStream openStream(AbstractFile file) throws IOException {
+        Object underlyingFile = file.getUnderlyingFileObject();
+        if (underlyingFile instanceof File) {
+            return ImageIO.createImageInputStream(underlyingFile);
+        }
+        InputStream in = file.getInputStream();
+        ImageInputStream stream = ImageIO.createImageInputStream(in);
+        if (stream == null) {
+            in.close();
+        }
+        return stream;
+    }
+
+    /**
+     * Returns a reader for the image of the stream, <code>null</code> if there is none.
+     *
+     * @param stream the image stream
+     * @return a reader whose input is the stream, <code>null</code> if the image format isn't supported
+     */
+    static ImageReader getReader(ImageInputStream stream) {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(stream, true, true);
+        return reader;
+    }
+
+    /**
+     * Returns <code>true</code> if the image of the specified reader is too large to be decoded at full resolution.
+     *
+     * @param reader a reader
+     * @return <code>true</code> if the image must be tiled
+     * @throws IOException if the image header couldn't be read
+     */
+    static boolean mustBeTiled(ImageReader reader) throws IOException {
+        return (long)reader.getWidth(0) * reader.getHeight(0) > MAX_FULL_IMAGE_PIXELS;
+    }
+
+    /**
+     * Creates a tiled image and decodes its overview, the reader and its stream are closed by {@link #close()}.
+     *
+     * @param stream the stream the reader reads from
+     * @param reader the reader of the image
+     * @param maxWidth the maximum width of the overview
+     * @param maxHeight the maximum height of the overview
+     * @param tileListener called from a background thread when a tile has been decoded
+     * @return the tiled image
+     * @throws IOException if the overview couldn't be decoded
+     */
+    static TiledImage open(ImageInputStream stream, ImageReader reader, int maxWidth, int maxHeight, Runnable tileListener) throws IOException {
+        TiledImage image = new TiledImage(stream, reader, tileListener);
+        try {
+            image.decodeOverview(maxWidth, maxHeight);
+        } catch (IOException | RuntimeException e) {
+            image.close();
+            throw e;
+        }
+        return image;
+    }
+
+    private void decodeOverview(int maxWidth, int maxHeight) throws IOException {
+        int subsampling = 1;
+        while (width / subsampling > maxWidth || height / subsampling > maxHeight) {
+            subsampling *= 2;
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        synchronized (reader) {
+            overview = reader.read(0, param);
+        }
+        overviewSubsampling = subsampling;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    BufferedImage getOverview() {
+        return overview;
+    }
+
+    /**
+     * Returns the color of a pixel, from the most detailed decoded image that contains it.
+     *
+     * @param x the horizontal coordinate of the pixel in the full resolution image
+     * @param y the vertical coordinate of the pixel in the full resolution image
+     * @return the ARGB color of the pixel
+     */
+    synchronized int getRGB(int x, int y) {
+        for (int level = 1; level < overviewSubsampling; level *= 2) {
+            int size = TILE_SIZE * level;
+            BufferedImage tile = tiles.get(new TileKey(level, x / size, y / size));
+            if (tile != null) {
+                return tile.getRGB(Math.min((x % size) / level, tile.getWidth() - 1), Math.min((y % size) / level, tile.getHeight() - 1));
+            }
+        }
+        return overview.getRGB(Math.min(x / overviewSubsampling, overview.getWidth() - 1), Math.min(y / overviewSubsampling, overview.getHeight() - 1));
+    }
+
+    /**
+     * Paints the decoded tiles of the visible area over the overview, which must have been painted already, and
+     * requests the tiles that haven't been decoded yet.
+     *
+     * @param g the graphics to paint to
+     * @param x0 the horizontal position of the image in the component
+     * @param y0 the vertical position of the image in the component
+     * @param zoomFactor the zoom factor
+     * @param visibleRect the visible area of the component
+     */
+    void paint(Graphics g, int x0, int y0, double zoomFactor, Rectangle visibleRect) {
+        int level = 1;
+        while (level * 2 <= 1 / zoomFactor) {
+            level *= 2;
+        }
+        if (level >= overviewSubsampling) {
+            // The overview is detailed enough
+            requestTiles(new LinkedHashSet<>());
+            return;
+        }
+        int size = TILE_SIZE * level;
+        int firstX = Math.max(0, (int)((visibleRect.x - x0) / zoomFactor) / size);
+        int firstY = Math.max(0, (int)((visibleRect.y - y0) / zoomFactor) / size);
+        int lastX = Math.min((width - 1) / size, (int)((visibleRect.x + visibleRect.width - x0) / zoomFactor) / size);
+        int lastY = Math.min((height - 1) / size, (int)((visibleRect.y + visibleRect.height - y0) / zoomFactor) / size);
+
+        Set<TileKey> missingTiles = new LinkedHashSet<>();
+        for (int ty = firstY; ty <= lastY; ty++) {
+            for (int tx = firstX; tx <= lastX; tx++) {
+                TileKey key = new TileKey(level, tx, ty);
+                BufferedImage tile;
+                synchronized (this) {
+                    tile = tiles.get(key);
+                }
+                if (tile == null) {
+                    missingTiles.add(key);
+                    continue;
+                }
+                Rectangle region = key.getRegion(width, height);
+                int dx1 = x0 + (int)(region.x * zoomFactor);
+                int dy1 = y0 + (int)(region.y * zoomFactor);
+                int dx2 = x0 + (int)((region.x + region.width) * zoomFactor);
+                int dy2 = y0 + (int)((region.y + region.height) * zoomFactor);
+                g.drawImage(tile, dx1, dy1, dx2, dy2, 0, 0, tile.getWidth(), tile.getHeight(), null);
+            }
+        }
+        requestTiles(missingTiles);
+    }
+
+    /**
+     * Replaces the tiles waiting to be decoded, and starts decoding them if needed.
+     */
+    private synchronized void requestTiles(Set<TileKey> keys) {
+        if (closed) {
+            return;
+        }
+        pendingTiles.clear();
+        pendingTiles.addAll(keys);
+        if (!decoding && !pendingTiles.isEmpty()) {
+            decoding = true;
+            DECODER_EXECUTOR.execute(this::decodeTiles);
+        }
+    }
+
+    /**
+     * Decodes the pending tiles until there are none left. The pending tiles of a row are decoded at once, as most
+     * formats decode the rows above a region to read it.
+     */
+    private void decodeTiles() {
+        while (true) {
+            TileKey first = null;
+            int lastX = 0;
+            synchronized (this) {
+                Iterator<TileKey> iterator = pendingTiles.iterator();
+                if (closed || !iterator.hasNext()) {
+                    decoding = false;
+                    return;
+                }
+                first = iterator.next();
+                iterator.remove();
+                // Consecutive tiles of the same row
+                lastX = first.x;
+                while (pendingTiles.remove(new TileKey(first.level, lastX + 1, first.y))) {
+                    lastX++;
+                }
+                int firstX = first.x;
+                while (pendingTiles.remove(new TileKey(first.level, firstX - 1, first.y))) {
+                    firstX--;
+                }
+                first = new TileKey(first.level, firstX, first.y);
+            }
+            BufferedImage row;
+            try {
+                row = decodeRow(first, lastX);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.info("Could not decode tiles " + first + " to " + lastX, e);
+                continue;
+            }
+            if (row != null) {
+                for (int x = first.x; x <= lastX; x++) {
+                    int left = (x - first.x) * TILE_SIZE;
+                    addTile(new TileKey(first.level, x, first.y), row.getSubimage(left, 0, Math.min(TILE_SIZE, row.getWidth() - left), row.getHeight()));
+                }
+                tileListener.run();
+            }
+        }
+    }
+
+    /**
+     * Decodes the tiles of a row, from the specified tile to the tile at the specified horizontal index, as one image.
+     */
+    private BufferedImage decodeRow(TileKey first, int lastX) throws IOException {
+        Rectangle region = first.getRegion(width, height).union(new TileKey(first.level, lastX, first.y).getRegion(width, height));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        param.setSourceSubsampling(first.level, first.level, 0, 0);
+        synchronized (reader) {
+            return closed ? null : reader.read(0, param);
+        }
+    }
+
+    private synchronized void addTile(TileKey key, BufferedImage tile) {
+        if (closed) {
+            return;
+        }
+        tiles.put(key, tile);
+        nbCachedPixels += (long)tile.getWidth() * tile.getHeight();
+        Iterator<BufferedImage> iterator = tiles.values().iterator();
+        while (nbCachedPixels > MAX_CACHED_PIXELS && tiles.size() > 1) {
+            BufferedImage eldest = iterator.next();
+            nbCachedPixels -= (long)eldest.getWidth() * eldest.getHeight();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Releases the tiles, the reader and its stream. Pending tiles are not decoded.
+     */
+    void close() {
+        // Interrupts the tile being decoded, if any
+        reader.abort();
+        synchronized (this) {
+            closed = true;
+            pendingTiles.clear();
+            tiles.clear();
+            nbCachedPixels = 0;
+        }
+        synchronized (reader) {
+            reader.dispose();
+            try {
+                stream.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error while closing image stream", e);
+            }
+        }
+    }
+
+
+    /**
+     * Identifies a tile: the region of the full resolution image it covers, and its subsampling.
+     */
+    private static class TileKey {
+        /** Subsampling of the tile, a power of 2 */
+        private final int level;
+        private final int x;
+        private final int y;
+
+        private TileKey(int level, int x, int y) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+        }
+
+        /**
+         * Returns the region of the full resolution image covered by this tile.
+         */
+        private Rectangle getRegion(int imageWidth, int imageHeight) {
+            int size = TILE_SIZE * level;
+            int left = x * size;
+            int top = y * size;
+            return new Rectangle(left, top, Math.min(size, imageWidth - left), Math.min(size, imageHeight - top));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey key = (TileKey)o;
+            return key.level == level && key.x == x && key.y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return (level * 31 + x) * 31 + y;
+        }
+
+        @Override
+        public String toString() {
+            return level + ":" + x + "," + y;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.text;
+
+import org.fife.ui.rsyntaxtextarea.OccurrenceMarker;
+import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.fife.ui.rsyntaxtextarea.Token;
+import org.fife.ui.rsyntaxtextarea.TokenImpl;
+import org.fife.ui.rsyntaxtextarea.TokenMaker;
+import org.fife.ui.rsyntaxtextarea.TokenMakerBase;
+import org.fife.ui.rsyntaxtextarea.TokenMakerFactory;
+
+import javax.swing.Action;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link TokenMaker} that caches the tokens of the lines it has tokenized, to avoid tokenizing them again when they
+ * are painted or when the document is changed.
+ *
+ * <p>Lines are cached by content and initial token type, with offsets relative to the beginning of the line, so that
+ * a line that is moved by changes above it is still found in the cache. Only the lines that have actually changed,
+ * and the lines whose initial token type has changed, are tokenized again.</p>
+ *
+ * <p>The token makers created by a {@link Factory} for the same syntax style share their cache, which is thread-safe,
+ * so that a document can be tokenized in the background before it is tokenized on the event dispatch thread.</p>
+ */
+class CachingTokenMaker implements TokenMaker {
+
+    /** Maximum number of lines in a cache */
+    static final int MAX_CACHED_LINES = 1 << 16;
+
+    /** Number of ints describing a token in {@link Line#tokens} */
+    private static final int TOKEN_SIZE = 4;
+
+    /** Flag set on the language index of hyperlink tokens */
+    private static final int HYPERLINK_FLAG = 1 << 30;
+
+    private final TokenMaker tokenMaker;
+    private final Cache cache;
+
+    /** True if the token maker computes the last token type of a line by tokenizing it, like TokenMakerBase */
+    private final boolean lastTokenTypeFromTokenList;
+
+
+    CachingTokenMaker(TokenMaker tokenMaker, Cache cache) {
+        this.tokenMaker = tokenMaker;
+        this.cache = cache;
+        boolean fromTokenList;
+        try {
+            fromTokenList = tokenMaker.getClass().getMethod("getLastTokenTypeOnLine", Segment.class, int.class).getDeclaringClass() == TokenMakerBase.class;
+        } catch (NoSuchMethodException e) {
+            fromTokenList = false;
+        }
+        lastTokenTypeFromTokenList = fromTokenList;
+    }
+
+
+    @Override
+    public Token getTokenList(Segment text, int initialTokenType, int startOffset) {
+        Line line = cache.get(new Line(text.array, text.offset, text.count, initialTokenType));
+        if (line != null) {
+            return line.toTokenList(startOffset);
+        }
+        Token tokens = tokenMaker.getTokenList(text, initialTokenType, startOffset);
+        line = Line.create(text, initialTokenType, startOffset, tokens);
+        if (line != null) {
+            cache.put(line);
+        }
+        return tokens;
+    }
+
+
+    @Override
+    public int getLastTokenTypeOnLine(Segment text, int initialTokenType) {
+        if (!lastTokenTypeFromTokenList) {
+            return tokenMaker.getLastTokenTypeOnLine(text, initialTokenType);
+        }
+        Line line = cache.get(new Line(text.array, text.offset, text.count, initialTokenType));
+        if (line != null) {
+            return line.lastTokenType;
+        }
+        // Same as TokenMakerBase, but the tokens are cached
+        Token token = getTokenList(text, initialTokenType, 0);
+        while (token.getNextToken() != null) {
+            token = token.getNextToken();
+        }
+        return token.getType();
+    }
+
+
+    @Override
+    public void addNullToken() {
+        tokenMaker.addNullToken();
+    }
+
+    @Override
+    public void addToken(char[] array, int start, int end, int tokenType, int startOffset) {
+        tokenMaker.addToken(array, start, end, tokenType, startOffset);
+    }
+
+    @Override
+    public int getClosestStandardTokenTypeForInternalType(int type) {
+        return tokenMaker.getClosestStandardTokenTypeForInternalType(type);
+    }
+
+    @Override
+    public boolean getCurlyBracesDenoteCodeBlocks(int languageIndex) {
+        return tokenMaker.getCurlyBracesDenoteCodeBlocks(languageIndex);
+    }
+
+    @Override
+    public String[] getLineCommentStartAndEnd(int languageIndex) {
+        return tokenMaker.getLineCommentStartAndEnd(languageIndex);
+    }
+
+    @Override
+    public Action getInsertBreakAction() {
+        return tokenMaker.getInsertBreakAction();
+    }
+
+    @Override
+    public boolean getMarkOccurrencesOfTokenType(int type) {
+        return tokenMaker.getMarkOccurrencesOfTokenType(type);
+    }
+
+    @Override
+    public OccurrenceMarker getOccurrenceMarker() {
+        return tokenMaker.getOccurrenceMarker();
+    }
+
+    @Override
+    public boolean getShouldIndentNextLineAfter(Token token) {
+        return tokenMaker.getShouldIndentNextLineAfter(token);
+    }
+
+    @Override
+    public boolean isIdentifierChar(int languageIndex, char ch) {
+        return tokenMaker.isIdentifierChar(languageIndex, ch);
+    }
+
+    @Override
+    public boolean isMarkupLanguage() {
+        return tokenMaker.isMarkupLanguage();
+    }
+
+
+    /**
+     * The tokens of a line, also used as the line's key in the cache
+     */
+    private static class Line {
+        private final char[] text;
+        private final int offset;
+        private final int count;
+        private final int initialTokenType;
+        private final int hash;
+
+        /** Start in the line, length, type and language index of each token */
+        private int[] tokens;
+        private int lastTokenType;
+
+        private Line(char[] text, int offset, int count, int initialTokenType) {
+            this.text = text;
+            this.offset = offset;
+            this.count = count;
+            this.initialTokenType = initialTokenType;
+            int hash = initialTokenType;
+            for (int i = offset, end = offset + count; i < end; i++) {
+                hash = 31 * hash + text[i];
+            }
+            this.hash = hash;
+        }
+
+        /**
+         * Returns a copy of the specified tokens that doesn't depend on the line's position, <code>null</code> if the
+         * tokens don't reference the line's text
+         */
+        private static Line create(Segment text, int initialTokenType, int startOffset, Token tokens) {
+            Line line = new Line(Arrays.copyOfRange(text.array, text.offset, text.offset + text.count), 0, text.count, initialTokenType);
+            int nbTokens = 0;
+            for (Token token = tokens; token != null; token = token.getNextToken()) {
+                nbTokens++;
+            }
+            line.tokens = new int[nbTokens * TOKEN_SIZE];
+            int i = 0;
+            for (Token token = tokens; token != null; token = token.getNextToken()) {
+                TokenImpl tokenImpl = (TokenImpl)token;
+                if (tokenImpl.text == null) {
+                    line.tokens[i] = -1;
+                    line.tokens[i + 1] = -1;
+                } else if (tokenImpl.text == text.array && tokenImpl.getOffset() - startOffset == tokenImpl.textOffset - text.offset) {
+                    line.tokens[i] = tokenImpl.textOffset - text.offset;
+                    line.tokens[i + 1] = tokenImpl.textCount;
+                } else {
+                    return null;
+                }
+                line.tokens[i + 2] = token.getType();
+                line.tokens[i + 3] = token.getLanguageIndex() | (token.isHyperlink() ? HYPERLINK_FLAG : 0);
+                line.lastTokenType = token.getType();
+                i += TOKEN_SIZE;
+            }
+            return line;
+        }
+
+        /**
+         * Returns new tokens for this line, starting at the specified document offset
+         */
+        private Token toTokenList(int startOffset) {
+            TokenImpl first = null;
+            TokenImpl previous = null;
+            for (int i = 0; i < tokens.length; i += TOKEN_SIZE) {
+                TokenImpl token;
+                if (tokens[i] < 0) {
+                    token = new TokenImpl();
+                    token.setType(tokens[i + 2]);
+                } else {
+                    token = new TokenImpl(text, tokens[i], tokens[i] + tokens[i + 1] - 1, startOffset + tokens[i], tokens[i + 2], 0);
+                }
+                token.setLanguageIndex(tokens[i + 3] & ~HYPERLINK_FLAG);
+                token.setHyperlink((tokens[i + 3] & HYPERLINK_FLAG) != 0);
+                if (previous == null) {
+                    first = token;
+                } else {
+                    previous.setNextToken(token);
+                }
+                previous = token;
+            }
+            return first;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Line)) {
+                return false;
+            }
+            Line line = (Line)o;
+            if (line.hash != hash || line.count != count || line.initialTokenType != initialTokenType) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (line.text[line.offset + i] != text[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * The tokens of the most recently used lines
+     */
+    static class Cache {
+        private final Map<Line, Line> lines = new LinkedHashMap<Line, Line>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Line, Line> eldest) {
+                return size() > MAX_CACHED_LINES;
+            }
+        };
+
+        private synchronized Line get(Line key) {
+            return lines.get(key);
+        }
+
+        private synchronized void put(Line line) {
+            lines.put(line, line);
+        }
+
+        synchronized int size() {
+            return lines.size();
+        }
+    }
+
+
+    /**
+     * Creates the token makers of the default factory, wrapped into caching token makers. The token makers created for
+     * the same syntax style share their cache, the cache of the previous style is dropped when another style is used.
+     */
+    static class Factory extends TokenMakerFactory {
+        private String cachedStyle;
+        private Cache cache;
+
+        @Override
+        protected synchronized TokenMaker getTokenMakerImpl(String key) {
+            TokenMaker tokenMaker = TokenMakerFactory.getDefaultInstance().getTokenMaker(key);
+            if (key == null || key.equals(SyntaxConstants.SYNTAX_STYLE_NONE)) {
+                return tokenMaker;
+            }
+            if (!key.equals(cachedStyle)) {
+                cachedStyle = key;
+                cache = new Cache();
+            }
+            return new CachingTokenMaker(tokenMaker, cache);
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return TokenMakerFactory.getDefaultInstance().keySet();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.text;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileProtocols;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a file that is being written to, such as a log file, and reports the changes of its size.
+ *
+ * <p>Local files are watched with a {@link WatchService} on their folder, the size of other files is polled. A file
+ * that shrinks, or that is deleted or created again, is reported as replaced, which is what happens when a log file
+ * is truncated or rotated.</p>
+ */
+class FileSizeWatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSizeWatcher.class);
+
+    /** Delay between two checks of the file's size, in milliseconds. Local files are also checked when they change. */
+    static final int POLL_DELAY = 1000;
+
+    /**
+     * Receives the changes of the watched file
+     */
+    interface Listener {
+        /**
+         * Called from the watcher's thread when the file's size has changed, or when the file has been replaced
+         *
+         * @param newSize the file's new size
+         * @param replaced <code>true</code> if the file has been truncated or replaced by another file
+         */
+        void fileChanged(long newSize, boolean replaced);
+    }
+
+    private final AbstractFile file;
+    private final Listener listener;
+    private volatile boolean stopped;
+    private Thread thread;
+
+
+    FileSizeWatcher(AbstractFile file, Listener listener) {
+        this.file = file;
+        this.listener = listener;
+    }
+
+
+    /**
+     * Starts watching the file on a thread of its own
+     */
+    void start() {
+        thread = new Thread(this::watch, "Text viewer file watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Stops watching the file
+     */
+    void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+
+    private void watch() {
+        Path path = getLocalPath();
+        WatchService watchService = null;
+        if (path != null && path.getParent() != null) {
+            try {
+                watchService = path.getFileSystem().newWatchService();
+                path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException | UnsupportedOperationException e) {
+                LOGGER.info("Could not watch " + path + ", polling it instead", e);
+                closeWatchService(watchService);
+                watchService = null;
+            }
+        }
+
+        long size = file.getSize();
+        Object fileKey = getFileKey(path);
+        try {
+            while (!stopped) {
+                boolean replaced = false;
+                if (watchService != null) {
+                    // Times out to check the size anyway, in case an event was lost
+                    WatchKey key = watchService.poll(POLL_DELAY, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY && path.getFileName().equals(event.context())) {
+                                replaced = true;
+                            }
+                        }
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(POLL_DELAY);
+                }
+                long newSize = file.getSize();
+                Object newFileKey = getFileKey(path);
+                if (newSize < size || (fileKey != null && !fileKey.equals(newFileKey))) {
+                    replaced = true;
+                }
+                if ((replaced || newSize != size) && !stopped) {
+                    listener.fileChanged(newSize, replaced);
+                }
+                size = newSize;
+                fileKey = newFileKey;
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } finally {
+            closeWatchService(watchService);
+        }
+    }
+
+
+    /**
+     * Returns the path of the file if it is a local file, <code>null</code> otherwise
+     */
+    private Path getLocalPath() {
+        if (!FileProtocols.FILE.equals(file.getURL().getScheme())) {
+            return null;
+        }
+        Object underlyingFile = file.getUnderlyingFileObject();
+        return underlyingFile instanceof File ? ((File)underlyingFile).toPath() : null;
+    }
+
+
+    /**
+     * Returns an object that identifies the local file, which changes if the file is replaced by another one
+     */
+    private static Object getFileKey(Path path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    private static void closeWatchService(WatchService watchService) {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error while closing the watch service", e);
+            }
+        }
+    }
+}
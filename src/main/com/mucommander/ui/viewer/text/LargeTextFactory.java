@@ -0,0 +1,57 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.text;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.viewer.FileViewer;
+import com.mucommander.ui.viewer.ViewerFactory;
+
+/**
+ * <code>ViewerFactory</code> implementation for creating viewers of text files that are too large to be loaded in
+ * memory, and of log files when the user has turned the {@link LargeTextViewer#isFollowMode() follow mode} on, so
+ * that they are followed while they are written. Other text files are viewed by the viewers of {@link TextFactory}.
+ *
+ * @see LargeTextViewer
+ */
+public class LargeTextFactory implements ViewerFactory {
+
+    /** Extension of the log files, that are viewed whatever their size in follow mode */
+    private static final String LOG_EXTENSION = "log";
+
+    public boolean canViewFile(AbstractFile file) {
+        return accepts(file);
+    }
+
+    /**
+     * Returns <code>true</code> if the file is a text file that is viewed by a {@link LargeTextViewer}
+     */
+    static boolean accepts(AbstractFile file) {
+        return (TextFactory.isLargeFile(file) || (LargeTextViewer.isFollowMode() && LOG_EXTENSION.equalsIgnoreCase(file.getExtension())))
+                && TextFactory.isTextFile(file);
+    }
+
+    public FileViewer createFileViewer() {
+        return new LargeTextViewer();
+    }
+
+    @Override
+    public String getName() {
+        return Translator.get("viewer_type.text");
+    }
+}
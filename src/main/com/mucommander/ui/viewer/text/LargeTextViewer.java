@@ -0,0 +1,707 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.text;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.EncodingDetector;
+import com.mucommander.commons.runtime.OsFamily;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuSnapshot;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.helper.MenuToolkit;
+import com.mucommander.ui.helper.MnemonicHelper;
+import com.mucommander.ui.theme.Theme;
+import com.mucommander.ui.theme.ThemeManager;
+import com.mucommander.ui.viewer.FileViewer;
+import ru.trolsoft.hexeditor.data.AbstractByteBuffer;
+import ru.trolsoft.hexeditor.data.MuCommanderByteBuffer;
+import ru.trolsoft.hexeditor.search.ByteBufferSearchUtils;
+import ru.trolsoft.hexeditor.search.SearchProgressListener;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A read-only text viewer for files that are too large to be loaded in memory.
+ *
+ * <p>The lines of the file are indexed in the background by a {@link LineIndex}, and only the lines that are visible
+ * are read and decoded, so that the memory used by this viewer doesn't depend on the file's size. The file can be
+ * scrolled, searched and browsed by line number while it is being indexed.</p>
+ *
+ * @see LargeTextFactory
+ */
+public class LargeTextViewer extends FileViewer {
+
+    /** Runs the indexing of the viewed files */
+    private static final ExecutorService INDEX_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Text viewer indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Size of the cache of the file's content */
+    private static final int CACHE_SIZE = 1024*1024;
+
+    /** Delay between two updates of the indexing progress, in milliseconds */
+    private static final int PROGRESS_UPDATE_DELAY = 250;
+
+    /** Maximum value of the scroll bar, the scroll bar's unit is a multiple of a line above it */
+    private static final int MAX_SCROLL_VALUE = 1 << 30;
+
+    /** Number of lines shown above a search match */
+    private static final int CONTEXT_LINES = 2;
+
+    /** True if the files are followed as soon as they are shown, as the user left it */
+    private static boolean followMode = MuConfigurations.getSnapshot().getVariable(MuSnapshot.TEXT_FILE_PRESENTER_FOLLOW, MuSnapshot.DEFAULT_FOLLOW);
+
+    private final JTextArea textArea;
+    private final JScrollPane linesPane;
+    private final JScrollBar scrollBar;
+    private final StatusBar statusBar;
+    private final Timer progressTimer;
+
+    private JMenuItem findItem;
+    private JMenuItem findNextItem;
+    private JMenuItem findPreviousItem;
+    private JMenuItem gotoLineItem;
+    private JCheckBoxMenuItem followItem;
+
+    private AbstractByteBuffer data;
+    private LineIndex index;
+    private Charset charset;
+
+    /** The task that indexes the file, or the bytes appended to it */
+    private Future<?> indexTask;
+
+    /** Offset up to which the file was indexed when the visible lines were last read */
+    private long displayedOffset;
+
+    /** Watches the file while it is followed, <code>null</code> otherwise */
+    private FileSizeWatcher watcher;
+
+    /** True if the file has changed since it was indexed, accessed on the event dispatch thread only */
+    private boolean fileChanged;
+
+    /** The first visible line */
+    private long firstLine;
+
+    /** Number of lines per unit of the scroll bar */
+    private long scrollScale = 1;
+
+    /** True while the scroll bar is updated by this viewer rather than by the user */
+    private boolean adjustingScrollBar;
+
+    private String searchString;
+
+    /** Offset of the last match, <code>-1</code> if there is none */
+    private long lastMatchOffset = -1;
+
+    private SearchWorker searchWorker;
+
+
+    LargeTextViewer() {
+        textArea = new JTextArea();
+        textArea.setEditable(false);
+        textArea.setFont(ThemeManager.getCurrentFont(Theme.EDITOR_FONT));
+        textArea.setForeground(ThemeManager.getCurrentColor(Theme.EDITOR_FOREGROUND_COLOR));
+        textArea.setBackground(ThemeManager.getCurrentColor(Theme.EDITOR_BACKGROUND_COLOR));
+        textArea.setSelectedTextColor(ThemeManager.getCurrentColor(Theme.EDITOR_SELECTED_FOREGROUND_COLOR));
+        textArea.setSelectionColor(ThemeManager.getCurrentColor(Theme.EDITOR_SELECTED_BACKGROUND_COLOR));
+
+        // The text area only contains the visible lines, vertical scrolling is done by the scroll bar
+        linesPane = new JScrollPane(textArea, JScrollPane.VERTICAL_SCROLLBAR_NEVER, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        linesPane.setBorder(null);
+        linesPane.setWheelScrollingEnabled(false);
+        scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+        scrollBar.addAdjustmentListener(e -> {
+            if (!adjustingScrollBar) {
+                scrollTo(e.getValue() * scrollScale);
+            }
+        });
+
+        JPanel panel = new ViewportPanel();
+        panel.add(linesPane, BorderLayout.CENTER);
+        panel.add(scrollBar, BorderLayout.EAST);
+        panel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                refresh();
+            }
+        });
+        textArea.addMouseWheelListener(e -> scrollTo(firstLine + e.getUnitsToScroll()));
+        addScrollAction(KeyEvent.VK_UP, 0, "lineUp", () -> scrollTo(firstLine - 1));
+        addScrollAction(KeyEvent.VK_DOWN, 0, "lineDown", () -> scrollTo(firstLine + 1));
+        addScrollAction(KeyEvent.VK_PAGE_UP, 0, "pageUp", () -> scrollTo(firstLine - getVisibleRows()));
+        addScrollAction(KeyEvent.VK_PAGE_DOWN, 0, "pageDown", () -> scrollTo(firstLine + getVisibleRows()));
+        addScrollAction(KeyEvent.VK_HOME, InputEvent.CTRL_MASK, "firstLine", () -> scrollTo(0));
+        addScrollAction(KeyEvent.VK_END, InputEvent.CTRL_MASK, "lastLine", () -> scrollTo(Long.MAX_VALUE));
+
+        setComponentToPresent(panel);
+        setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_NEVER);
+        setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+
+        statusBar = new StatusBar();
+        progressTimer = new Timer(PROGRESS_UPDATE_DELAY, e -> updateIndexProgress());
+    }
+
+
+    private void addScrollAction(int keyCode, int modifiers, String name, Runnable action) {
+        textArea.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(keyCode, modifiers), name);
+        textArea.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
+    }
+
+
+    private int getCtrlOrMetaMask() {
+        if (OsFamily.getCurrent() != OsFamily.MAC_OS_X) {
+            return KeyEvent.CTRL_MASK;
+        } else {
+            return KeyEvent.META_MASK;
+        }
+    }
+
+
+    /**
+     * Returns the number of lines that fit in the visible area
+     */
+    private int getVisibleRows() {
+        int rowHeight = textArea.getFontMetrics(textArea.getFont()).getHeight();
+        int height = linesPane.getViewport().getExtentSize().height;
+        return Math.max(1, height / Math.max(1, rowHeight));
+    }
+
+
+    /**
+     * Makes the specified line the first visible one. The line is adjusted so that the last page is full.
+     */
+    private void scrollTo(long line) {
+        if (index == null) {
+            return;
+        }
+        long maxLine = Math.max(0, index.getNbLines() - getVisibleRows());
+        line = Math.max(0, Math.min(line, maxLine));
+        if (line != firstLine) {
+            firstLine = line;
+            refresh();
+        }
+    }
+
+
+    /**
+     * Reads and shows the visible lines
+     */
+    private void refresh() {
+        if (index == null) {
+            return;
+        }
+        String[] lines = new String[getVisibleRows() + 1];
+        int nbLines = 0;
+        if (firstLine < index.getNbLines()) {
+            try {
+                nbLines = index.readLines(data, index.getLineOffset(data, firstLine), lines);
+            } catch (IOException e) {
+                e.printStackTrace();
+                statusBar.setStatusMessage(Translator.get("read_error"));
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < nbLines; i++) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(lines[i]);
+        }
+        textArea.setText(text.toString());
+        textArea.setCaretPosition(0);
+        statusBar.setPosition((int)Math.min(firstLine + 1, Integer.MAX_VALUE), 1);
+        updateScrollBar();
+    }
+
+
+    private void updateScrollBar() {
+        long nbLines = index.getNbLines();
+        scrollScale = Math.max(1, (nbLines + MAX_SCROLL_VALUE - 1) / MAX_SCROLL_VALUE);
+        int rows = getVisibleRows();
+        int extent = (int)Math.max(1, rows / scrollScale);
+        int max = (int)Math.max(extent, nbLines / scrollScale);
+        adjustingScrollBar = true;
+        try {
+            scrollBar.setValues((int)(firstLine / scrollScale), extent, 0, max);
+            scrollBar.setBlockIncrement(extent);
+        } finally {
+            adjustingScrollBar = false;
+        }
+    }
+
+
+    /**
+     * Shows the indexing progress, and the lines that have been indexed since the last update
+     */
+    private void updateIndexProgress() {
+        if (index == null) {
+            return;
+        }
+        if (index.isComplete() && watcher == null) {
+            progressTimer.stop();
+        }
+        if (fileChanged && indexTask.isDone() && index.isComplete()) {
+            indexAppendedBytes();
+        }
+        if (searchWorker == null) {
+            showIndexStatus();
+        }
+        long indexedOffset = index.getIndexedOffset();
+        if (indexedOffset == displayedOffset) {
+            return;
+        }
+        displayedOffset = indexedOffset;
+        if (watcher != null) {
+            // Shows the lines appended to the followed file
+            firstLine = Math.max(0, index.getNbLines() - getVisibleRows());
+            refresh();
+        } else if (textArea.getLineCount() <= getVisibleRows()) {
+            // Fills the window if the file is still too short to do it
+            refresh();
+        } else {
+            updateScrollBar();
+        }
+    }
+
+
+    /**
+     * Indexes the whole file on a background thread
+     */
+    private void indexFile(final AbstractFile file, final LineIndex index) {
+        indexTask = INDEX_EXECUTOR.submit(() -> {
+            try (InputStream in = file.getInputStream()) {
+                index.build(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+
+    /**
+     * Indexes the bytes that have been appended to the followed file on a background thread
+     */
+    private void indexAppendedBytes() {
+        fileChanged = false;
+        final AbstractFile file = getCurrentFile();
+        final LineIndex index = this.index;
+        indexTask = INDEX_EXECUTOR.submit(() -> {
+            try {
+                long size = data.refreshSize();
+                if (size > index.getSize()) {
+                    try (InputStream in = file.getInputStream(index.getResumeOffset())) {
+                        index.resume(in, size);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+
+    /**
+     * Called when the followed file has changed
+     */
+    private void onFileChanged(long newSize, boolean replaced) {
+        if (watcher == null) {
+            return;
+        }
+        if (!replaced) {
+            // The appended bytes are indexed once the current indexing is done
+            fileChanged = true;
+            return;
+        }
+        // The file has been truncated or rotated, it is indexed again
+        index.cancel();
+        try {
+            data.reset();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        fileChanged = false;
+        lastMatchOffset = -1;
+        firstLine = 0;
+        displayedOffset = 0;
+        index = new LineIndex(charset, newSize);
+        indexFile(getCurrentFile(), index);
+        refresh();
+    }
+
+
+    private void setFollowing(boolean following) {
+        if (following == (watcher != null)) {
+            return;
+        }
+        if (following) {
+            watcher = new FileSizeWatcher(getCurrentFile(), (newSize, replaced) ->
+                    SwingUtilities.invokeLater(() -> onFileChanged(newSize, replaced)));
+            watcher.start();
+            progressTimer.start();
+            scrollTo(Long.MAX_VALUE);
+        } else {
+            watcher.stop();
+            watcher = null;
+        }
+        if (followItem != null) {
+            followItem.setSelected(following);
+        }
+    }
+
+
+    /**
+     * Shows the indexing progress or the number of lines in the status bar
+     */
+    private void showIndexStatus() {
+        if (index.isComplete()) {
+            statusBar.setStatusMessage(Translator.get("text_viewer.lines_count", String.valueOf(index.getNbLines())));
+        } else {
+            statusBar.setStatusMessage(Translator.get("text_viewer.indexing", String.valueOf(index.getIndexedOffset() * 100 / Math.max(1, index.getSize()))));
+        }
+    }
+
+
+    private void gotoLine() {
+        if (index == null) {
+            return;
+        }
+        new GotoLineDialog(getFrame(), (int)Math.min(index.getNbLines(), Integer.MAX_VALUE)) {
+            @Override
+            protected void doGoto(int value) {
+                scrollTo(value - 1);
+                textArea.requestFocus();
+            }
+        }.showDialog();
+    }
+
+
+    private void find() {
+        FindDialog dlgFind = new FindDialog(getFrame()) {
+            @Override
+            protected void doSearch(String text) {
+                if (text != null && !text.isEmpty()) {
+                    searchString = text;
+                    lastMatchOffset = -1;
+                    search(true);
+                }
+                textArea.requestFocus();
+            }
+        };
+        dlgFind.setText(searchString);
+        dlgFind.showDialog();
+    }
+
+
+    /**
+     * Looks for the search string after or before the last match, or from the first visible line if there is none
+     */
+    private void search(boolean forward) {
+        if (searchString == null || searchString.isEmpty() || index == null) {
+            return;
+        }
+        if (searchWorker != null) {
+            searchWorker.cancel(false);
+        }
+        long from;
+        try {
+            if (lastMatchOffset >= 0) {
+                from = forward ? lastMatchOffset + 1 : lastMatchOffset - 1;
+            } else {
+                from = index.getLineOffset(data, firstLine);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (from < 0) {
+            beep();
+            return;
+        }
+        statusBar.setStatusMessage(Translator.get("text_viewer.searching"));
+        searchWorker = new SearchWorker(searchString.getBytes(charset), from, forward);
+        searchWorker.execute();
+    }
+
+
+    private void onSearchDone(SearchWorker worker) {
+        if (worker != searchWorker) {
+            return;
+        }
+        searchWorker = null;
+        long[] match;
+        try {
+            match = worker.get();
+        } catch (CancellationException e) {
+            showIndexStatus();
+            return;
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            showIndexStatus();
+            return;
+        }
+        if (match == null) {
+            statusBar.setStatusMessage(Translator.get("text_editor.text_not_found"));
+            beep();
+            return;
+        }
+        showIndexStatus();
+        long offset = match[0];
+        long line = match[1];
+        lastMatchOffset = offset;
+        try {
+            long lineOffset = index.getLineOffset(data, line);
+            scrollTo(line - CONTEXT_LINES);
+            // Selects the match, whose position in the text area is found by decoding the text before it
+            int row = (int)(line - firstLine);
+            byte[] before = new byte[(int)(offset - lineOffset)];
+            data.getBytes(lineOffset, before);
+            int start = textArea.getLineStartOffset(row) + new String(before, charset).length();
+            textArea.select(start, Math.min(start + searchString.length(), textArea.getLineEndOffset(row)));
+            textArea.getCaret().setSelectionVisible(true);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    private static void beep() {
+        // The beep is played from a separate thread as it may lock until it has been played entirely
+        new Thread(() -> Toolkit.getDefaultToolkit().beep()).start();
+    }
+
+
+    ///////////////////////////////
+    // FileViewer implementation //
+    ///////////////////////////////
+
+    @Override
+    protected void show(AbstractFile file) throws IOException {
+        // The pushback stream is left open for the byte buffer, that closes it
+        PushbackInputStream in = file.getPushBackInputStream(EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE);
+        String encoding = EncodingDetector.detectEncoding(in);
+        // If the detected encoding is invalid (null or not supported), default to "UTF-8"
+        charset = Charset.forName(encoding == null || !Charset.isSupported(encoding) ? "UTF-8" : encoding);
+        statusBar.setEncoding(charset.name());
+
+        data = new MuCommanderByteBuffer(file);
+        data.setCacheSize(CACHE_SIZE);
+        index = new LineIndex(charset, data.getFileSize());
+        indexFile(file, index);
+        SwingUtilities.invokeLater(() -> {
+            refresh();
+            progressTimer.start();
+            if (followMode) {
+                setFollowing(true);
+            }
+        });
+    }
+
+
+    @Override
+    public JMenuBar getMenuBar() {
+        JMenuBar menuBar = super.getMenuBar();
+        MnemonicHelper menuItemMnemonicHelper = new MnemonicHelper();
+
+        JMenu editMenu = new JMenu(Translator.get("text_viewer.edit"));
+        findItem = MenuToolkit.addMenuItem(editMenu, Translator.get("text_viewer.find"), menuItemMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F, getCtrlOrMetaMask()), this);
+        findNextItem = MenuToolkit.addMenuItem(editMenu, Translator.get("text_viewer.find_next"), menuItemMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), this);
+        findPreviousItem = MenuToolkit.addMenuItem(editMenu, Translator.get("text_viewer.find_previous"), menuItemMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F3, KeyEvent.SHIFT_DOWN_MASK), this);
+        editMenu.addSeparator();
+        gotoLineItem = MenuToolkit.addMenuItem(editMenu, Translator.get("text_viewer.goto_line"), menuItemMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_G, getCtrlOrMetaMask()), this);
+        menuBar.add(editMenu);
+
+        JMenu viewMenu = new JMenu(Translator.get("text_viewer.view"));
+        followItem = MenuToolkit.addCheckBoxMenuItem(viewMenu, Translator.get("text_viewer.follow"), new MnemonicHelper(), KeyStroke.getKeyStroke(KeyEvent.VK_T, getCtrlOrMetaMask()), this);
+        followItem.setSelected(watcher != null);
+        menuBar.add(viewMenu);
+
+        setMainKeyListener(textArea, menuBar);
+        return menuBar;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the files are followed as soon as they are shown
+     *
+     * @return the follow mode that the user left the viewer in
+     */
+    public static boolean isFollowMode() {
+        return followMode;
+    }
+
+
+    @Override
+    protected StatusBar getStatusBar() {
+        return statusBar;
+    }
+
+
+    @Override
+    protected void saveStateOnClose() {
+        setFollowing(false);
+        progressTimer.stop();
+        if (searchWorker != null) {
+            searchWorker.cancel(false);
+        }
+        if (index != null) {
+            index.cancel();
+        }
+        if (data != null) {
+            try {
+                data.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    @Override
+    protected void restoreStateOnStartup() {
+    }
+
+
+    @Override
+    public void setSearchedText(String searchedText) {
+        searchString = searchedText;
+    }
+
+
+    ///////////////////////////////////
+    // ActionListener implementation //
+    ///////////////////////////////////
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        Object source = e.getSource();
+        if (source == findItem) {
+            find();
+        } else if (source == findNextItem) {
+            search(true);
+        } else if (source == findPreviousItem) {
+            search(false);
+        } else if (source == gotoLineItem) {
+            gotoLine();
+        } else if (source == followItem) {
+            followMode = followItem.isSelected();
+            setFollowing(followMode);
+        } else {
+            super.actionPerformed(e);
+        }
+    }
+
+
+    /**
+     * The panel shown in the viewport, that always has the viewport's size
+     */
+    private static class ViewportPanel extends JPanel implements Scrollable {
+
+        private ViewportPanel() {
+            super(new BorderLayout());
+        }
+
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return 1;
+        }
+
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return 1;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return true;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return true;
+        }
+    }
+
+
+    /**
+     * Looks for a string in the file's bytes, encoded with the file's encoding. The result is the offset of the match
+     * and the number of its line, or <code>null</code> if the string wasn't found.
+     */
+    private class SearchWorker extends SwingWorker<long[], Void> {
+        private final byte[] pattern;
+        private final long fromOffset;
+        private final boolean forward;
+
+        private SearchWorker(byte[] pattern, long fromOffset, boolean forward) {
+            this.pattern = pattern;
+            this.fromOffset = fromOffset;
+            this.forward = forward;
+        }
+
+        @Override
+        protected long[] doInBackground() throws Exception {
+            SearchProgressListener listener = (processed, total) -> !isCancelled();
+            long offset;
+            if (forward) {
+                offset = ByteBufferSearchUtils.indexOf(data, pattern, fromOffset, listener);
+            } else {
+                offset = ByteBufferSearchUtils.indexOfBackward(data, pattern, fromOffset, listener);
+            }
+            if (offset < 0) {
+                return null;
+            }
+            // The match may be ahead of the indexing
+            index.waitForOffset(offset);
+            return new long[] {offset, index.getLineOfOffset(data, offset)};
+        }
+
+        @Override
+        protected void done() {
+            onSearchDone(this);
+        }
+    }
+}
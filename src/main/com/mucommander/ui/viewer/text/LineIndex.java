@@ -0,0 +1,474 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.text;
+
+import com.mucommander.commons.io.bom.BOM;
+import ru.trolsoft.hexeditor.data.AbstractByteBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A sparse index of the lines of a text file, used to view files that are too large to be loaded in memory.
+ *
+ * <p>The index is built by {@link #build(InputStream)}, usually on a background thread, while it is already used to
+ * read the lines that have been indexed. Only the offset of one line out of {@link #LINES_PER_CHECKPOINT} is kept, the
+ * other lines are found by scanning the data from the closest checkpoint.</p>
+ *
+ * <p>Lines end with the encoded line feed character, which must be aligned on the charset's code units. A carriage
+ * return before it is removed from the line. Lines longer than {@link #MAX_LINE_LENGTH} bytes are split, so that
+ * reading a line never requires more memory than that.</p>
+ */
+class LineIndex {
+
+    /** Number of lines between two indexed offsets */
+    static final int LINES_PER_CHECKPOINT = 256;
+
+    /** Maximum length of a line in bytes, longer lines are split */
+    static final int MAX_LINE_LENGTH = 16*1024;
+
+    /** Number of bytes read at once when building the index */
+    private static final int BLOCK_SIZE = 64*1024;
+
+    private final Charset charset;
+
+    /** The encoded line feed */
+    private final byte[] newline;
+
+    /** The encoded carriage return, removed from the end of lines */
+    private final byte[] carriageReturn;
+
+    /** True if lines must not be split in the middle of a UTF-8 sequence */
+    private final boolean utf8;
+
+    /** Size of the indexed part of the file, guarded by this index's lock */
+    private long size;
+
+    /** Length of the byte-order mark at the beginning of the file */
+    private int bomLength;
+
+    /** Offsets of the lines 0, LINES_PER_CHECKPOINT, 2*LINES_PER_CHECKPOINT..., guarded by this index's lock */
+    private long[] checkpoints = new long[1024];
+    private int nbCheckpoints;
+
+    /** Number of lines indexed so far, guarded by this index's lock */
+    private long nbLines;
+
+    /** Offset up to which the file has been indexed, guarded by this index's lock */
+    private long indexedOffset;
+
+    private boolean complete;
+
+    /** Offset of the last line, that is incomplete if the file doesn't end with a line feed */
+    private long lastLineOffset;
+    private boolean lastLineComplete = true;
+
+    private volatile boolean cancelled;
+
+
+    /**
+     * Creates an empty index of a file that has the specified size and encoding
+     *
+     * @param charset encoding of the file
+     * @param size size of the file in bytes
+     */
+    LineIndex(Charset charset, long size) {
+        this.charset = charset;
+        this.size = size;
+        byte[] one = "\n".getBytes(charset);
+        byte[] two = "\n\n".getBytes(charset);
+        // Leaves out the byte-order mark that some charsets add
+        int unitSize = two.length - one.length;
+        newline = Arrays.copyOfRange(one, one.length - unitSize, one.length);
+        byte[] cr = "\r".getBytes(charset);
+        carriageReturn = Arrays.copyOfRange(cr, cr.length - unitSize, cr.length);
+        utf8 = charset.equals(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Reads the whole file and indexes its lines. Lines are available to the other threads as soon as they have been
+     * indexed.
+     *
+     * @param in the file's content, not closed by this method
+     * @throws IOException if the file could not be read or if the index was {@link #cancel() cancelled}
+     */
+    void build(InputStream in) throws IOException {
+        scan(in, 0, getSize());
+    }
+
+
+    /**
+     * Returns the offset from which the file must be read to {@link #resume(InputStream, long) index} the bytes that
+     * have been appended to it. This is the offset of the last line if it doesn't end with a line feed, as it may be
+     * continued.
+     */
+    synchronized long getResumeOffset() {
+        return lastLineComplete ? size : lastLineOffset;
+    }
+
+
+    /**
+     * Indexes the bytes that have been appended to the file since it was indexed. The index must be complete.
+     *
+     * @param in the file's content, starting at the {@link #getResumeOffset() resume offset}, not closed by this method
+     * @param newSize the new size of the file
+     * @throws IOException if the file could not be read or if the index was {@link #cancel() cancelled}
+     */
+    void resume(InputStream in, long newSize) throws IOException {
+        long offset;
+        synchronized (this) {
+            if (!complete || newSize < size) {
+                throw new IllegalStateException();
+            }
+            offset = getResumeOffset();
+            if (!lastLineComplete) {
+                // The last line is indexed again with the bytes that follow it
+                nbLines--;
+                if (nbLines % LINES_PER_CHECKPOINT == 0) {
+                    nbCheckpoints--;
+                }
+                lastLineComplete = true;
+            }
+            indexedOffset = offset;
+            size = newSize;
+            complete = false;
+        }
+        scan(in, offset, newSize);
+    }
+
+
+    /**
+     * Indexes the lines between the specified offsets
+     *
+     * @param in the file's content, starting at a line boundary
+     * @param offset offset of the first line
+     * @param end offset at which the indexing stops, bytes that follow it are ignored
+     */
+    private void scan(InputStream in, long offset, long end) throws IOException {
+        byte[] buffer = new byte[BLOCK_SIZE + MAX_LINE_LENGTH + 8];
+        long remaining = end - offset;
+        int n = 0;
+        boolean eof = false;
+        int from = 0;
+        if (offset == 0) {
+            // Reads enough bytes to look for a byte-order mark
+            while (n < 4 && !eof) {
+                int read = remaining > 0 ? in.read(buffer, n, (int)Math.min(buffer.length - n, remaining)) : -1;
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    n += read;
+                    remaining -= read;
+                }
+            }
+            bomLength = getBOMLength(buffer, n);
+            from = bomLength;
+        }
+
+        // File offset of the first byte of the buffer
+        long bufferOffset = offset;
+        while (true) {
+            if (cancelled) {
+                throw new InterruptedIOException();
+            }
+            int lineEnd = findLineEnd(buffer, from, n, eof);
+            if (lineEnd >= 0) {
+                // A line that ends with the file may be continued if bytes are appended to it
+                boolean lineComplete = !eof || lineEnd < n || (lineEnd - from >= newline.length && isNewline(buffer, lineEnd - newline.length));
+                addLine(bufferOffset + from, bufferOffset + lineEnd, lineComplete);
+                from = lineEnd;
+                continue;
+            }
+            if (eof) {
+                break;
+            }
+            // Keeps the beginning of the current line and reads the following bytes
+            System.arraycopy(buffer, from, buffer, 0, n - from);
+            bufferOffset += from;
+            n -= from;
+            from = 0;
+            int read = remaining > 0 ? in.read(buffer, n, (int)Math.min(buffer.length - n, remaining)) : -1;
+            if (read < 0) {
+                eof = true;
+            } else {
+                n += read;
+                remaining -= read;
+            }
+        }
+        synchronized (this) {
+            complete = true;
+            indexedOffset = size;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * Stops the building of the index
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+
+    private synchronized void addLine(long offset, long end, boolean lineComplete) {
+        if (nbLines % LINES_PER_CHECKPOINT == 0) {
+            if (nbCheckpoints == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+            }
+            checkpoints[nbCheckpoints++] = offset;
+        }
+        nbLines++;
+        indexedOffset = end;
+        lastLineOffset = offset;
+        lastLineComplete = lineComplete;
+        notifyAll();
+    }
+
+
+    /**
+     * Returns the length of the file's byte-order mark, if it has one that matches the charset
+     */
+    private int getBOMLength(byte[] buffer, int n) {
+        BOM bom = BOM.getInstance(charset.name());
+        if (bom == null) {
+            return 0;
+        }
+        byte[] signature = bom.getSignature();
+        if (n < signature.length) {
+            return 0;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (buffer[i] != signature[i]) {
+                return 0;
+            }
+        }
+        return signature.length;
+    }
+
+
+    /**
+     * Returns the position of the first byte after the line that starts at <code>from</code>, <code>-1</code> if
+     * more bytes are needed to find it or if there is no line left.
+     *
+     * @param buffer data starting at a line boundary
+     * @param from position of the line in the buffer
+     * @param n number of bytes in the buffer
+     * @param eof true if the buffer ends with the end of the file
+     */
+    private int findLineEnd(byte[] buffer, int from, int n, boolean eof) {
+        final int unitSize = newline.length;
+        final int limit = from + MAX_LINE_LENGTH;
+        int p = from;
+        for (; p + unitSize <= n; p += unitSize) {
+            if (isNewline(buffer, p)) {
+                return p + unitSize;
+            }
+            // Splits long lines, but not in the middle of a UTF-8 sequence
+            if (p >= limit && (!utf8 || (buffer[p] & 0xC0) != 0x80 || p >= limit + 3)) {
+                return p;
+            }
+        }
+        if (eof && n > from) {
+            return n;
+        }
+        return -1;
+    }
+
+
+    private boolean isNewline(byte[] buffer, int p) {
+        return endsWith(buffer, p + newline.length, newline);
+    }
+
+
+    private static boolean endsWith(byte[] buffer, int end, byte[] suffix) {
+        for (int i = 0, p = end - suffix.length; i < suffix.length; i++, p++) {
+            if (buffer[p] != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the size of the file, as known by this index
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+
+    /**
+     * Returns the number of lines indexed so far
+     */
+    synchronized long getNbLines() {
+        return nbLines;
+    }
+
+
+    /**
+     * Returns true if the whole file has been indexed
+     */
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+
+    /**
+     * Returns the offset up to which the file has been indexed
+     */
+    synchronized long getIndexedOffset() {
+        return indexedOffset;
+    }
+
+
+    /**
+     * Waits until the line containing the specified offset has been indexed, or until the index is complete.
+     */
+    synchronized void waitForOffset(long offset) throws InterruptedException {
+        while (!complete && !cancelled && indexedOffset <= offset) {
+            wait(100);
+        }
+    }
+
+
+    /**
+     * Returns the offset of the specified line, that must have been indexed.
+     *
+     * @param data the file's content
+     * @param line the line number, starting at 0
+     * @return the line's offset in bytes
+     */
+    long getLineOffset(AbstractByteBuffer data, long line) throws IOException {
+        long offset;
+        synchronized (this) {
+            if (line < 0 || line >= nbLines) {
+                throw new IndexOutOfBoundsException("Line " + line + ", " + nbLines + " lines indexed");
+            }
+            offset = checkpoints[(int)(line / LINES_PER_CHECKPOINT)];
+        }
+        byte[] buffer = new byte[MAX_LINE_LENGTH + 8];
+        for (int i = (int)(line % LINES_PER_CHECKPOINT); i > 0; i--) {
+            offset = getNextLineOffset(data, offset, buffer);
+        }
+        return offset;
+    }
+
+
+    /**
+     * Returns the number of the line that contains the specified offset, which must have been indexed.
+     *
+     * @param data the file's content
+     * @param offset an offset in bytes
+     * @return the line number, starting at 0
+     */
+    long getLineOfOffset(AbstractByteBuffer data, long offset) throws IOException {
+        int checkpoint;
+        long lineOffset;
+        synchronized (this) {
+            checkpoint = Arrays.binarySearch(checkpoints, 0, nbCheckpoints, offset);
+            if (checkpoint < 0) {
+                checkpoint = Math.max(-checkpoint - 2, 0);
+            }
+            lineOffset = nbCheckpoints > 0 ? checkpoints[checkpoint] : bomLength;
+        }
+        long line = (long)checkpoint * LINES_PER_CHECKPOINT;
+        byte[] buffer = new byte[MAX_LINE_LENGTH + 8];
+        while (true) {
+            long next = getNextLineOffset(data, lineOffset, buffer);
+            if (next < 0 || next > offset) {
+                return line;
+            }
+            lineOffset = next;
+            line++;
+        }
+    }
+
+
+    /**
+     * Returns the offset of the line that follows the line starting at the specified offset, <code>-1</code> if it
+     * is the last line.
+     */
+    private long getNextLineOffset(AbstractByteBuffer data, long offset, byte[] buffer) throws IOException {
+        long size = getSize();
+        int end = readLine(data, offset, buffer, size);
+        return end < 0 || offset + end >= size ? -1 : offset + end;
+    }
+
+
+    /**
+     * Reads the line that starts at the specified offset, and returns its length including its line feed
+     *
+     * @param data the file's content
+     * @param offset offset of the line
+     * @param buffer array that the line is read to, whose length is at least <code>MAX_LINE_LENGTH + 4</code>
+     * @param size size of the indexed part of the file, the bytes that follow it are ignored
+     * @return the position of the first byte after the line in the buffer, <code>-1</code> if there is none
+     */
+    private int readLine(AbstractByteBuffer data, long offset, byte[] buffer, long size) throws IOException {
+        int n = data.getBytes(offset, buffer, 0, (int)Math.min(buffer.length, size - offset));
+        return findLineEnd(buffer, 0, n, n < buffer.length);
+    }
+
+
+    /**
+     * Reads consecutive lines.
+     *
+     * @param data the file's content
+     * @param offset offset of the first line, as returned by {@link #getLineOffset(AbstractByteBuffer, long)}
+     * @param lines array filled with the lines, its length is the number of lines to read
+     * @return the number of lines read, less than the array's length if the end of file has been reached
+     */
+    int readLines(AbstractByteBuffer data, long offset, String[] lines) throws IOException {
+        byte[] buffer = new byte[MAX_LINE_LENGTH + 8];
+        long size = getSize();
+        int nbRead = 0;
+        while (nbRead < lines.length && offset >= 0 && offset < size) {
+            int end = readLine(data, offset, buffer, size);
+            if (end < 0) {
+                break;
+            }
+            lines[nbRead++] = decodeLine(buffer, end);
+            offset = offset + end >= size ? -1 : offset + end;
+        }
+        return nbRead;
+    }
+
+
+    private String decodeLine(byte[] buffer, int end) {
+        int length = end;
+        if (length >= newline.length && isNewline(buffer, length - newline.length)) {
+            length -= newline.length;
+            if (length >= carriageReturn.length && endsWith(buffer, length, carriageReturn)) {
+                length -= carriageReturn.length;
+            }
+        }
+        return new String(buffer, 0, length, charset);
+    }
+
+
+    Charset getCharset() {
+        return charset;
+    }
+}
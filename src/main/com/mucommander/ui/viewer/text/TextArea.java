@@ -17,7 +17,14 @@
  */
 package com.mucommander.ui.viewer.text;
 
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+import org.fife.ui.rsyntaxtextarea.RSyntaxDocument;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.fife.ui.rsyntaxtextarea.TokenMaker;
+import org.fife.ui.rsyntaxtextarea.TokenTypes;
 import org.fife.ui.rtextarea.RTextAreaEditorKit;
 
 import javax.swing.SwingUtilities;
@@ -26,8 +33,11 @@ import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.Element;
+import javax.swing.text.Segment;
 import java.awt.Graphics;
 import java.awt.Rectangle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Oleg Trifonov
@@ -37,6 +47,13 @@ public class TextArea extends RSyntaxTextArea implements DocumentListener {
 
     public static final String DIRTY_PROPERTY	= "TextEditorPane.dirty";
 
+    /** Tokenizes documents before their syntax style is changed on the event dispatch thread */
+    private static final ExecutorService TOKENIZER_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Syntax highlighting");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * The #gotoLine(int) method can't be executed successfully if the model is not painted.
      * In this case the operation wll be postponed after calling #paint() method
@@ -48,6 +65,18 @@ public class TextArea extends RSyntaxTextArea implements DocumentListener {
      */
     private boolean dirty;
 
+    /**
+     * Creates the token makers of the documents, caching the tokens of each line.
+     * Not initialized by a field initializer as it is first used by the super constructor.
+     */
+    private CachingTokenMaker.Factory tokenMakerFactory;
+
+    /** The file type, whose syntax style isn't applied to documents too large to be highlighted */
+    private FileType fileType;
+
+    /** Incremented each time the file type is changed, to discard outdated background tokenizations */
+    private int fileTypeVersion;
+
     public TextArea() {
         dirty = false;
         getDocument().addDocumentListener(this);
@@ -90,12 +119,90 @@ public class TextArea extends RSyntaxTextArea implements DocumentListener {
         return map.getElementIndex(dot) + 1;
     }
 
+    /**
+     * Sets the file type and highlights the document accordingly, unless the document is larger than the
+     * {@link MuPreference#SYNTAX_HIGHLIGHTING_MAX_SIZE maximum size}, in which case it is shown as plain text.
+     *
+     * <p>When called from the event dispatch thread, the document is tokenized in the background first, so that the
+     * syntax style is then applied on the event dispatch thread from the token cache.</p>
+     *
+     * @param fileType the file type
+     */
     public void setFileType(FileType fileType) {
-        setSyntaxEditingStyle(fileType.getContentType());
+        this.fileType = fileType;
+        final int version = ++fileTypeVersion;
+        final boolean highlighted = isHighlightingEnabled(getDocument());
+        final String style = highlighted ? fileType.getContentType() : SyntaxConstants.SYNTAX_STYLE_NONE;
+        if (!SwingUtilities.isEventDispatchThread() || style.equals(SyntaxConstants.SYNTAX_STYLE_NONE) || style.equals(getSyntaxEditingStyle())) {
+            applySyntaxStyle(style, highlighted);
+            return;
+        }
+        final Document doc = getDocument();
+        TOKENIZER_EXECUTOR.execute(() -> {
+            tokenize(doc, getTokenMakerFactory().getTokenMaker(style));
+            SwingUtilities.invokeLater(() -> {
+                if (version == fileTypeVersion) {
+                    applySyntaxStyle(style, highlighted);
+                }
+            });
+        });
     }
 
     public FileType getFileType() {
-        return FileType.getByContentType(getSyntaxEditingStyle());
+        return fileType != null ? fileType : FileType.getByContentType(getSyntaxEditingStyle());
+    }
+
+    /**
+     * Returns <code>true</code> if the document is small enough to be highlighted.
+     */
+    private static boolean isHighlightingEnabled(Document doc) {
+        int maxSize = MuConfigurations.getPreferences().getVariable(MuPreference.SYNTAX_HIGHLIGHTING_MAX_SIZE, MuPreferences.DEFAULT_SYNTAX_HIGHLIGHTING_MAX_SIZE);
+        return doc.getLength() <= maxSize;
+    }
+
+    private void applySyntaxStyle(String style, boolean highlighted) {
+        setSyntaxEditingStyle(style);
+        setCodeFoldingEnabled(highlighted);
+    }
+
+    /**
+     * Tokenizes a snapshot of the document, filling the token cache shared by the token makers of the same style.
+     */
+    private static void tokenize(Document doc, TokenMaker tokenMaker) {
+        final Segment text = new Segment();
+        doc.render(() -> {
+            try {
+                doc.getText(0, doc.getLength(), text);
+                // Copy the text so that the document can be changed while it is tokenized
+                text.array = text.toString().toCharArray();
+                text.offset = 0;
+            } catch (BadLocationException e) {
+                text.count = 0;
+            }
+        });
+        char[] chars = text.array;
+        int end = text.count;
+        int lastTokenType = TokenTypes.NULL;
+        int lineStart = 0;
+        Segment line = new Segment();
+        while (lineStart <= end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && chars[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            line.array = chars;
+            line.offset = lineStart;
+            line.count = lineEnd - lineStart;
+            lastTokenType = tokenMaker.getLastTokenTypeOnLine(line, lastTokenType);
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private CachingTokenMaker.Factory getTokenMakerFactory() {
+        if (tokenMakerFactory == null) {
+            tokenMakerFactory = new CachingTokenMaker.Factory();
+        }
+        return tokenMakerFactory;
     }
 
 
@@ -190,7 +297,19 @@ public class TextArea extends RSyntaxTextArea implements DocumentListener {
         if (old != null) {
             old.removeDocumentListener(this);
         }
+        boolean highlighted = fileType != null && isHighlightingEnabled(doc);
+        if (doc instanceof RSyntaxDocument) {
+            RSyntaxDocument syntaxDocument = (RSyntaxDocument)doc;
+            syntaxDocument.setTokenMakerFactory(getTokenMakerFactory());
+            // Keep the file type of the previous document, if the new one isn't too large
+            if (fileType != null) {
+                syntaxDocument.setSyntaxStyle(highlighted ? fileType.getContentType() : SyntaxConstants.SYNTAX_STYLE_NONE);
+            }
+        }
         super.setDocument(doc);
+        if (fileType != null) {
+            setCodeFoldingEnabled(highlighted);
+        }
         doc.addDocumentListener(this);
     }
 
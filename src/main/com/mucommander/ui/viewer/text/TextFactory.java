@@ -37,6 +37,10 @@ public class TextFactory implements ViewerFactory, EditorFactory {
     private static final long FILE_SIZE_WARNING_THRESHOLD = 10*1024*1024;
 
     public boolean canViewFile(AbstractFile file) throws WarnUserException {
+        // Large files, and log files in follow mode, are viewed by LargeTextViewer, which doesn't load the whole file
+        if (LargeTextFactory.accepts(file)) {
+            return false;
+        }
         return doGenericChecks(file);
     }
 
@@ -58,11 +62,34 @@ public class TextFactory implements ViewerFactory, EditorFactory {
     }
 
     private boolean doGenericChecks(AbstractFile file) throws WarnUserException {
+        if (!isTextFile(file)) {
+            return false;
+        }
+
+        // Warn the user if the file is large that a certain size as the whole file is loaded into memory
+        // (in a JTextArea)
+        if (isLargeFile(file)) {
+            throw new WarnUserException(Translator.get("file_viewer.large_file_warning"));
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if the file is too large to be loaded in memory by a text viewer or editor
+     */
+    static boolean isLargeFile(AbstractFile file) {
+        return file.getSize() > FILE_SIZE_WARNING_THRESHOLD;
+    }
+
+    /**
+     * Returns <code>false</code> if the file is a directory or looks like a binary file
+     */
+    static boolean isTextFile(AbstractFile file) {
         // Do not allow directories
         if (file.isDirectory()) {
             return false;
         }
-        // Warn the user if the file looks like a binary file
         try {
             PushbackInputStream is = file.getPushBackInputStream(EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE);
             if (BinaryDetector.guessBinary(is)) {
@@ -76,13 +103,6 @@ public class TextFactory implements ViewerFactory, EditorFactory {
                 e1.printStackTrace();
             }
         }
-
-        // Warn the user if the file is large that a certain size as the whole file is loaded into memory
-        // (in a JTextArea)
-        if (file.getSize() > FILE_SIZE_WARNING_THRESHOLD) {
-            throw new WarnUserException(Translator.get("file_viewer.large_file_warning"));
-        }
-
         return true;
     }
 }
@@ -18,9 +18,19 @@
 package ru.trolsoft.hexeditor.data;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Buffered file reader
+ * Buffered file reader.
+ *
+ * <p>The file is read by pages of a fixed size that are kept in an LRU cache, so that jumping back and forth within
+ * a large file doesn't read the same data again. The amount of memory used by the cache is bounded by
+ * {@link #setCacheSize(long)}. When a new page is accessed, the pages that follow it in the scroll direction are
+ * read ahead on a background thread.</p>
  */
 public abstract class AbstractByteBuffer {
 
@@ -34,42 +44,90 @@ public abstract class AbstractByteBuffer {
     }
 
     /**
-     *
+     * Default size of a page
      */
-    protected static final int DEFAULT_CAPACITY = 1024*256;
+    protected static final int DEFAULT_CAPACITY = 1024*64;
 
+    /**
+     * Default maximum amount of memory used by the cached pages
+     */
+    public static final long DEFAULT_CACHE_SIZE = 1024*1024*16;
 
     /**
-     * Size of buffer
+     * Default number of pages read ahead in the scroll direction
      */
-    protected int capacity;
+    public static final int DEFAULT_PREFETCH_PAGES = 2;
+
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Hex viewer prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
 
     /**
-     * Number of bytes in buffer
+     * Size of a page
      */
-    protected int size;
-    protected long offset;
-    protected byte[] buffer;
+    protected int capacity;
 
     /**
      * Size of file
      */
     protected long streamSize;
 
+    /**
+     * Cached pages by index, in access order. Guarded by this buffer's lock.
+     */
+    private final Map<Long, Page> pages = new LinkedHashMap<Long, Page>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+            return size() > maxPages;
+        }
+    };
+
+    /**
+     * Maximum number of cached pages
+     */
+    private int maxPages;
+
+    /**
+     * The page that was accessed last
+     */
+    private volatile Page currentPage = Page.EMPTY;
+
+    private int prefetchPages = DEFAULT_PREFETCH_PAGES;
+    /** Range of pages that the prefetch task should read, guarded by this buffer's lock */
+    private long prefetchFirst, prefetchLast = -1;
+    /** True while a prefetch task is running for this buffer, guarded by this buffer's lock */
+    private boolean prefetching;
+
+    /**
+     * Serializes the access to the underlying stream, which is shared by the reading and prefetching threads
+     */
+    private final Object streamLock = new Object();
+
+    private volatile boolean closed;
 
     private CacheStrategy cacheStrategy = CacheStrategy.CENTER;
 
     public AbstractByteBuffer(int capacity) {
+        this(capacity, DEFAULT_CACHE_SIZE);
+    }
+
+
+    public AbstractByteBuffer(int capacity, long cacheSize) {
         this.capacity = capacity;
-        buffer = new byte[capacity];
-        this.offset = 0;
-        this.size = 0;
         this.streamSize = -1;
+        setCacheSize(cacheSize);
     }
 
 
+    /**
+     * Returns the file offset of the page that was accessed last
+     * @return
+     */
     public long getOffset() {
-        return offset;
+        return currentPage.offset;
     }
 
 
@@ -81,46 +139,186 @@ public abstract class AbstractByteBuffer {
      * @throws IndexOutOfBoundsException
      */
     public byte getByte(long fileOffset) throws IOException {
-        long index = fileOffset - offset;
-        if (index < 0 || index >= size) {
+        Page page = currentPage;
+        long index = fileOffset - page.offset;
+        if (index < 0 || index >= page.data.length) {
             if (fileOffset < 0 || fileOffset >= getFileSize()) {
                 throw new IndexOutOfBoundsException("Position: " + fileOffset + ", file size = " + getFileSize());
             }
-            offset = calcOffset(fileOffset, supportRandomAccess());
-            // FIXME if offset > size
-            if (offset < 0) {
-                offset = 0;
+            page = getPage(fileOffset / capacity);
+            index = fileOffset - page.offset;
+        }
+        return page.data[(int)index];
+    }
+
+
+    /**
+     * Copies the bytes starting at the specified file offset to the specified array. Fewer bytes than the array's
+     * length are copied if the end of file is reached.
+     *
+     * @param fileOffset offset of the first byte to copy
+     * @param dst array to copy the bytes to
+     * @return the number of bytes copied
+     * @throws IOException
+     * @throws IndexOutOfBoundsException if the offset is negative
+     */
+    public int getBytes(long fileOffset, byte[] dst) throws IOException {
+        return getBytes(fileOffset, dst, 0, dst.length);
+    }
+
+
+    /**
+     * Copies <code>len</code> bytes starting at the specified file offset to the specified array. Fewer bytes are
+     * copied if the end of file is reached.
+     *
+     * @param fileOffset offset of the first byte to copy
+     * @param dst array to copy the bytes to
+     * @param off position in the array of the first byte
+     * @param len number of bytes to copy
+     * @return the number of bytes copied
+     * @throws IOException
+     * @throws IndexOutOfBoundsException if the offset is negative
+     */
+    public int getBytes(long fileOffset, byte[] dst, int off, int len) throws IOException {
+        if (fileOffset < 0) {
+            throw new IndexOutOfBoundsException("Position: " + fileOffset);
+        }
+        len = (int)Math.max(0, Math.min(len, getFileSize() - fileOffset));
+        int copied = 0;
+        while (copied < len) {
+            long position = fileOffset + copied;
+            Page page = currentPage;
+            long index = position - page.offset;
+            if (index < 0 || index >= page.data.length) {
+                page = getPage(position / capacity);
+                index = position - page.offset;
+                if (index >= page.data.length) {
+                    // The file is shorter than it was
+                    break;
+                }
             }
-            loadBuffer();
-            index = fileOffset - offset;
+            int count = Math.min(len - copied, page.data.length - (int)index);
+            System.arraycopy(page.data, (int)index, dst, off + copied, count);
+            copied += count;
         }
-        return buffer[(int)index];
+        return copied;
     }
 
 
-    protected long calcOffset(long fileOffset, boolean randomAccessStream) {
-        if (randomAccessStream) {
-            switch (cacheStrategy) {
-                case FORWARD:
-                    return fileOffset;
-                case BACKWARD:
-                    return fileOffset - buffer.length;
-                case CENTER:
-                    return fileOffset - buffer.length / 2;
+    /**
+     * Returns the specified page, reading it if it isn't cached, and makes it the current one.
+     */
+    private Page getPage(long pageIndex) throws IOException {
+        Page page;
+        synchronized (this) {
+            page = pages.get(pageIndex);
+        }
+        if (page == null) {
+            page = readPage(pageIndex);
+        }
+        long previousIndex = currentPage.offset / capacity;
+        currentPage = page;
+        prefetch(pageIndex, pageIndex >= previousIndex);
+        return page;
+    }
+
+
+    /**
+     * Reads the specified page and caches it, unless another thread did it in the meantime.
+     */
+    private Page readPage(long pageIndex) throws IOException {
+        synchronized (streamLock) {
+            Page page;
+            synchronized (this) {
+                page = pages.get(pageIndex);
+            }
+            if (page != null) {
+                return page;
             }
-        } else {
-            switch (cacheStrategy) {
-                case FORWARD:
-                    return fileOffset;
-                case BACKWARD:
-                    return fileOffset - buffer.length;
-                case CENTER:
-                    return fileOffset;
+            if (closed) {
+                throw new IOException("Buffer closed");
             }
+            long pageOffset = pageIndex * capacity;
+            byte[] data = new byte[(int)Math.min(capacity, Math.max(0, getFileSize() - pageOffset))];
+            int size = 0;
+            while (size < data.length) {
+                int read = loadPage(pageOffset + size, data, size, data.length - size);
+                if (read <= 0) {
+                    break;
+                }
+                size += read;
+            }
+            page = new Page(pageOffset, size < data.length ? Arrays.copyOf(data, size) : data);
+            synchronized (this) {
+                pages.put(pageIndex, page);
+            }
+            return page;
         }
-        return fileOffset;
     }
 
+
+    /**
+     * Requests the pages that follow the specified one in the scroll direction to be read on a background thread.
+     * The pages are read in ascending order in both directions, so that backward prefetching doesn't make streams
+     * without random access reopen for every page.
+     */
+    private void prefetch(long pageIndex, boolean scrollingForward) throws IOException {
+        if (prefetchPages <= 0 || closed) {
+            return;
+        }
+        if (cacheStrategy != CacheStrategy.CENTER) {
+            scrollingForward = cacheStrategy == CacheStrategy.FORWARD;
+        }
+        long lastPageIndex = (getFileSize() - 1) / capacity;
+        synchronized (this) {
+            if (scrollingForward) {
+                prefetchFirst = pageIndex + 1;
+                prefetchLast = Math.min(pageIndex + prefetchPages, lastPageIndex);
+            } else {
+                prefetchFirst = Math.max(pageIndex - prefetchPages, 0);
+                prefetchLast = pageIndex - 1;
+            }
+            if (prefetching || prefetchFirst > prefetchLast) {
+                // A running task picks the new range up
+                return;
+            }
+            prefetching = true;
+        }
+        PREFETCH_EXECUTOR.execute(this::prefetchPages);
+    }
+
+
+    /**
+     * Reads the requested pages that aren't cached yet, until there are none left.
+     */
+    private void prefetchPages() {
+        try {
+            while (true) {
+                long pageIndex = -1;
+                synchronized (this) {
+                    while (prefetchFirst <= prefetchLast) {
+                        if (!pages.containsKey(prefetchFirst)) {
+                            pageIndex = prefetchFirst++;
+                            break;
+                        }
+                        prefetchFirst++;
+                    }
+                    if (pageIndex < 0 || closed) {
+                        prefetching = false;
+                        return;
+                    }
+                }
+                readPage(pageIndex);
+            }
+        } catch (IOException e) {
+            // Ignored, the error will be reported if the page is actually accessed
+            synchronized (this) {
+                prefetching = false;
+            }
+        }
+    }
+
+
     /**
      *
      * @return
@@ -135,18 +333,72 @@ public abstract class AbstractByteBuffer {
 
 
     /**
+     * Discards the cached pages and the file size, for files that have been replaced by another file.
      *
      * @throws IOException
      */
-    public void close() throws IOException {
-        size = 0;
-        buffer = null;
-        closeStream();
+    public void reset() throws IOException {
+        synchronized (streamLock) {
+            closeStream();
+            synchronized (this) {
+                pages.clear();
+                currentPage = Page.EMPTY;
+                streamSize = -1;
+            }
+        }
     }
 
 
     /**
+     * Reads the size of the file again, for files that are being written to. If the file has grown, the page that
+     * held its former end is discarded, if it has shrunk all the pages are.
      *
+     * @return the new file size
+     * @throws IOException
+     */
+    public long refreshSize() throws IOException {
+        long oldSize = getFileSize();
+        // Pages are read while holding the stream lock, a page of the former file can't be cached afterwards
+        synchronized (streamLock) {
+            long newSize = getStreamSize();
+            if (newSize == oldSize) {
+                return newSize;
+            }
+            // The stream may have reached the former end of file
+            closeStream();
+            synchronized (this) {
+                if (newSize < oldSize) {
+                    pages.clear();
+                } else {
+                    long lastPageIndex = oldSize / capacity;
+                    pages.keySet().removeIf(pageIndex -> pageIndex >= lastPageIndex);
+                }
+                currentPage = Page.EMPTY;
+                streamSize = newSize;
+            }
+            return newSize;
+        }
+    }
+
+
+    /**
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        closed = true;
+        synchronized (this) {
+            pages.clear();
+            currentPage = Page.EMPTY;
+        }
+        synchronized (streamLock) {
+            closeStream();
+        }
+    }
+
+
+    /**
+     * Returns the size of a page
      * @return
      */
     public int getCapacity() {
@@ -154,21 +406,67 @@ public abstract class AbstractByteBuffer {
     }
 
 
+    /**
+     * Returns the maximum amount of memory used by the cached pages
+     * @return
+     */
+    public synchronized long getCacheSize() {
+        return (long)maxPages * capacity;
+    }
+
+
+    /**
+     * Sets the maximum amount of memory used by the cached pages. At least two pages are cached whatever the size.
+     *
+     * @param cacheSize the cache size in bytes
+     */
+    public synchronized void setCacheSize(long cacheSize) {
+        maxPages = (int)Math.max(2, Math.min(Integer.MAX_VALUE, cacheSize / capacity));
+        if (pages.size() > maxPages) {
+            Long[] indexes = pages.keySet().toArray(new Long[pages.size()]);
+            for (int i = 0; i < indexes.length - maxPages; i++) {
+                pages.remove(indexes[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of pages read ahead in the scroll direction
+     * @return
+     */
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+
+    /**
+     * Sets the number of pages read ahead in the scroll direction, <code>0</code> to disable prefetching
+     *
+     * @param prefetchPages the number of pages
+     */
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = prefetchPages;
+    }
+
+
     abstract protected void closeStream() throws IOException;
 
     abstract protected long getStreamSize() throws IOException;
 
 
     /**
-     * Load file data from #offset and fills #buffer
+     * Reads up to <code>len</code> bytes of file data from the specified file offset. Calls are serialized, but they
+     * may come from different threads.
      *
+     * @param fileOffset file offset of the first byte to read
+     * @param dst array to read the bytes to
+     * @param off position in the array of the first byte
+     * @param len maximum number of bytes to read
+     * @return the number of bytes read, <code>-1</code> if the end of file has been reached
      * @throws IOException
-     *
-     * @see #offset
-     * @see #buffer
-     * @see #size
      */
-    abstract protected void loadBuffer() throws IOException;
+    abstract protected int loadPage(long fileOffset, byte[] dst, int off, int len) throws IOException;
 
     /**
      *
@@ -185,4 +483,19 @@ public abstract class AbstractByteBuffer {
     }
 
 
+    /**
+     * A cached page of file data
+     */
+    private static class Page {
+        private static final Page EMPTY = new Page(0, new byte[0]);
+
+        private final long offset;
+        private final byte[] data;
+
+        private Page(long offset, byte[] data) {
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
 }
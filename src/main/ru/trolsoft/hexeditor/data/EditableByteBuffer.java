@@ -0,0 +1,379 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/soft/trolcommander
+ * Copyright (C) 2013-2014 Oleg Trifonov
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.hexeditor.data;
+
+import com.mucommander.commons.io.RandomAccessOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An editable view of another buffer, backed by a piece table.
+ *
+ * <p>The data is described by a list of pieces, each of them being a range of either the original buffer or of an
+ * append-only buffer that holds all the inserted and overwritten bytes. The original data is never modified, so that
+ * the memory used by this buffer depends on the number and size of the edits but not on the size of the file.</p>
+ *
+ * <p>The edited data can be written as a whole by {@link #writeTo(OutputStream)}, or patched in the original file by
+ * {@link #patch(RandomAccessOutputStream)} if no byte of the original data has moved.</p>
+ *
+ * <p>Unlike the other buffers, this one is not thread-safe: it is meant to be edited and read by the same thread.</p>
+ */
+public class EditableByteBuffer extends AbstractByteBuffer {
+
+    /**
+     * Number of bytes copied at once when writing the data
+     */
+    private static final int WRITE_BLOCK_SIZE = 1024*64;
+
+    /**
+     * The data being edited
+     */
+    private final AbstractByteBuffer original;
+
+    /**
+     * Append-only buffer holding the bytes that were inserted or overwritten
+     */
+    private byte[] added = new byte[1024];
+    private int addedSize;
+
+    private final List<Piece> pieces = new ArrayList<>();
+
+    /**
+     * Offset of each piece in the edited data, <code>null</code> if the pieces have changed since it was computed
+     */
+    private long[] pieceOffsets;
+
+    private long size;
+
+    private boolean modified;
+
+
+    public EditableByteBuffer(AbstractByteBuffer original) throws IOException {
+        super(original.getCapacity(), 0);
+        this.original = original;
+        size = original.getFileSize();
+        if (size > 0) {
+            pieces.add(new Piece(false, 0, size));
+        }
+        // Data is read through the original buffer's cache
+        setPrefetchPages(0);
+    }
+
+
+    @Override
+    public byte getByte(long fileOffset) throws IOException {
+        if (fileOffset < 0 || fileOffset >= size) {
+            throw new IndexOutOfBoundsException("Position: " + fileOffset + ", file size = " + size);
+        }
+        int index = findPiece(fileOffset);
+        Piece piece = pieces.get(index);
+        long position = piece.start + fileOffset - pieceOffsets[index];
+        return piece.added ? added[(int)position] : original.getByte(position);
+    }
+
+
+    @Override
+    public int getBytes(long fileOffset, byte[] dst, int off, int len) throws IOException {
+        if (fileOffset < 0) {
+            throw new IndexOutOfBoundsException("Position: " + fileOffset);
+        }
+        len = (int)Math.max(0, Math.min(len, size - fileOffset));
+        int copied = 0;
+        int index = len > 0 ? findPiece(fileOffset) : pieces.size();
+        while (copied < len) {
+            Piece piece = pieces.get(index);
+            long pieceOffset = fileOffset + copied - pieceOffsets[index];
+            int count = (int)Math.min(len - copied, piece.length - pieceOffset);
+            long position = piece.start + pieceOffset;
+            if (piece.added) {
+                System.arraycopy(added, (int)position, dst, off + copied, count);
+            } else {
+                int read = original.getBytes(position, dst, off + copied, count);
+                if (read < count) {
+                    // The original file is shorter than it was
+                    return copied + read;
+                }
+            }
+            copied += count;
+            index++;
+        }
+        return copied;
+    }
+
+
+    @Override
+    public long getFileSize() {
+        return size;
+    }
+
+
+    /**
+     * Replaces the byte at the specified offset
+     *
+     * @param fileOffset offset of the byte
+     * @param value the new value
+     */
+    public void setByte(long fileOffset, byte value) {
+        replace(fileOffset, 1, new byte[] {value});
+    }
+
+
+    /**
+     * Inserts the specified bytes before the specified offset. Bytes are appended if the offset is the size of the data.
+     *
+     * @param fileOffset offset of the first inserted byte
+     * @param data the bytes to insert
+     */
+    public void insert(long fileOffset, byte[] data) {
+        replace(fileOffset, 0, data);
+    }
+
+
+    /**
+     * Removes the specified range of bytes
+     *
+     * @param fileOffset offset of the first byte to remove
+     * @param length number of bytes to remove
+     */
+    public void delete(long fileOffset, long length) {
+        replace(fileOffset, length, new byte[0]);
+    }
+
+
+    /**
+     * Replaces a range of bytes by the specified ones, which may not have the same length.
+     *
+     * @param fileOffset offset of the first byte to replace
+     * @param length number of bytes to replace
+     * @param data the new bytes
+     * @throws IndexOutOfBoundsException if the range is not within the data
+     */
+    public void replace(long fileOffset, long length, byte[] data) {
+        if (fileOffset < 0 || length < 0 || fileOffset + length > size) {
+            throw new IndexOutOfBoundsException("Range: " + fileOffset + "+" + length + ", file size = " + size);
+        }
+        if (length == 0 && data.length == 0) {
+            return;
+        }
+        int index = splitAt(fileOffset);
+        int end = splitAt(fileOffset + length);
+        pieces.subList(index, end).clear();
+        if (data.length > 0) {
+            Piece previous = index > 0 ? pieces.get(index - 1) : null;
+            if (previous != null && previous.added && previous.start + previous.length == addedSize) {
+                // Typing a sequence of bytes extends the same piece
+                previous.length += data.length;
+            } else {
+                pieces.add(index, new Piece(true, addedSize, data.length));
+            }
+            append(data);
+        }
+        size += data.length - length;
+        pieceOffsets = null;
+        modified = true;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the data has been edited
+     * @return
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the size of the data differs from the original one
+     * @return
+     */
+    public boolean isLengthChanged() throws IOException {
+        return size != original.getFileSize();
+    }
+
+
+    /**
+     * Returns <code>true</code> if the original file can be patched with {@link #patch(RandomAccessOutputStream)},
+     * that is if the size is unchanged and every byte of the original data is still at its original offset.
+     * @return
+     */
+    public boolean canPatchInPlace() throws IOException {
+        if (isLengthChanged()) {
+            return false;
+        }
+        long offset = 0;
+        for (Piece piece : pieces) {
+            if (!piece.added && piece.start != offset) {
+                return false;
+            }
+            offset += piece.length;
+        }
+        return true;
+    }
+
+
+    /**
+     * Writes the edited bytes at their offsets in the original file, leaving the unchanged bytes untouched.
+     *
+     * @param out a stream on the original file
+     * @throws IOException
+     * @throws IllegalStateException if {@link #canPatchInPlace()} returns <code>false</code>
+     */
+    public void patch(RandomAccessOutputStream out) throws IOException {
+        if (!canPatchInPlace()) {
+            throw new IllegalStateException("Original data has moved");
+        }
+        long offset = 0;
+        for (Piece piece : pieces) {
+            if (piece.added) {
+                out.seek(offset);
+                out.write(added, (int)piece.start, (int)piece.length);
+            }
+            offset += piece.length;
+        }
+    }
+
+
+    /**
+     * Writes the whole edited data to the specified stream, reading the unchanged parts from the original buffer.
+     *
+     * @param out the stream to write to, not closed by this method
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] block = new byte[WRITE_BLOCK_SIZE];
+        for (Piece piece : pieces) {
+            if (piece.added) {
+                out.write(added, (int)piece.start, (int)piece.length);
+                continue;
+            }
+            long position = piece.start;
+            long end = piece.start + piece.length;
+            while (position < end) {
+                int count = (int)Math.min(block.length, end - position);
+                int read = original.getBytes(position, block, 0, count);
+                if (read < count) {
+                    throw new IOException("Unexpected end of file at " + (position + read));
+                }
+                out.write(block, 0, count);
+                position += count;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the index of the piece containing the specified offset
+     */
+    private int findPiece(long fileOffset) {
+        if (pieceOffsets == null) {
+            pieceOffsets = new long[pieces.size()];
+            long offset = 0;
+            for (int i = 0; i < pieceOffsets.length; i++) {
+                pieceOffsets[i] = offset;
+                offset += pieces.get(i).length;
+            }
+        }
+        int index = Arrays.binarySearch(pieceOffsets, fileOffset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+
+    /**
+     * Makes a piece start at the specified offset, splitting the piece containing it if needed.
+     *
+     * @return the index of the piece starting at the offset, the number of pieces if the offset is the end of the data
+     */
+    private int splitAt(long fileOffset) {
+        if (fileOffset == size) {
+            return pieces.size();
+        }
+        int index = findPiece(fileOffset);
+        Piece piece = pieces.get(index);
+        long delta = fileOffset - pieceOffsets[index];
+        if (delta == 0) {
+            return index;
+        }
+        pieces.add(index + 1, new Piece(piece.added, piece.start + delta, piece.length - delta));
+        piece.length = delta;
+        pieceOffsets = null;
+        return index + 1;
+    }
+
+
+    private void append(byte[] data) {
+        if (addedSize + data.length > added.length) {
+            added = Arrays.copyOf(added, Math.max(added.length * 2, addedSize + data.length));
+        }
+        System.arraycopy(data, 0, added, addedSize, data.length);
+        addedSize += data.length;
+    }
+
+
+    /**
+     * Closes the stream the original data is read from, so that its file can be replaced. Unlike {@link #close()},
+     * the buffer remains usable: the stream is reopened if the original data is read again.
+     *
+     * @throws IOException if the stream couldn't be closed
+     */
+    public void releaseOriginal() throws IOException {
+        original.reset();
+    }
+
+    @Override
+    protected void closeStream() throws IOException {
+        original.close();
+    }
+
+    @Override
+    protected long getStreamSize() {
+        return size;
+    }
+
+    @Override
+    protected int loadPage(long fileOffset, byte[] dst, int off, int len) throws IOException {
+        int read = getBytes(fileOffset, dst, off, len);
+        return read > 0 ? read : -1;
+    }
+
+    @Override
+    protected boolean supportRandomAccess() {
+        return original.supportRandomAccess();
+    }
+
+
+    /**
+     * A range of either the original data or of the added bytes
+     */
+    private static class Piece {
+        private final boolean added;
+        private final long start;
+        private long length;
+
+        private Piece(boolean added, long start, long length) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+}
@@ -49,6 +49,7 @@ public class FileByteBuffer extends AbstractByteBuffer {
     protected void closeStream() throws IOException {
         if (file != null) {
             file.close();
+            file = null;
         }
     }
 
@@ -58,9 +59,9 @@ public class FileByteBuffer extends AbstractByteBuffer {
     }
 
     @Override
-    protected void loadBuffer() throws IOException {
-        getFile().seek(offset);
-        size = getFile().read(buffer);
+    protected int loadPage(long fileOffset, byte[] dst, int off, int len) throws IOException {
+        getFile().seek(fileOffset);
+        return getFile().read(dst, off, len);
     }
 
     @Override
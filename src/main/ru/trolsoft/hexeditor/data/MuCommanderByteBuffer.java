@@ -20,6 +20,7 @@ package ru.trolsoft.hexeditor.data;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.FileOperation;
 import com.mucommander.commons.io.RandomAccessInputStream;
+import com.mucommander.commons.io.StreamUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -31,6 +32,9 @@ public class MuCommanderByteBuffer extends AbstractByteBuffer {
     private InputStream is;
     private long lastOffset;
 
+    /** True if the file's pushback stream has been closed and can't be used anymore */
+    private boolean pushbackStreamClosed;
+
 
     public MuCommanderByteBuffer(AbstractFile file) {
         super(DEFAULT_CAPACITY);
@@ -41,6 +45,10 @@ public class MuCommanderByteBuffer extends AbstractByteBuffer {
     protected void closeStream() throws IOException {
         if (is != null) {
             is.close();
+            if (!(is instanceof RandomAccessInputStream)) {
+                pushbackStreamClosed = true;
+            }
+            is = null;
         }
     }
 
@@ -50,39 +58,35 @@ public class MuCommanderByteBuffer extends AbstractByteBuffer {
     }
 
     @Override
-    protected void loadBuffer() throws IOException {
+    protected int loadPage(long fileOffset, byte[] dst, int off, int len) throws IOException {
         getInputStream();
         if (is instanceof RandomAccessInputStream) {
             RandomAccessInputStream rndIs = ((RandomAccessInputStream) is);
             // Seek and reuse the stream
-            rndIs.seek(offset);
-//System.out.println("RANDOM ACCESS " + offset);
+            rndIs.seek(fileOffset);
+//System.out.println("RANDOM ACCESS " + fileOffset);
         } else {
             // TODO: it would be more efficient to use some sort of PushBackInputStream, though we can't use PushBackInputStream because we don't want to keep pushing back for the whole InputStream lifetime
             // Close the InputStream and open a new one
             // Note: we could use mark/reset if the InputStream supports it, but it is almost never implemented by
             // InputStream subclasses and a broken by design anyway.
-            if (lastOffset > offset) {
-//System.out.println("GENERAL ACCESS WITH RECREATE " + offset + "   " + lastOffset + "    " + (lastOffset - offset));
+            if (lastOffset > fileOffset) {
+//System.out.println("GENERAL ACCESS WITH RECREATE " + fileOffset + "   " + lastOffset + "    " + (lastOffset - fileOffset));
                 is.close();
                 is = file.getInputStream();
-                is.skip(offset);
-            } else if (lastOffset != offset) {
-//System.out.println("GENERAL ACCESS WITH SKIP " + offset + "   " + (offset - lastOffset));
-                is.skip(offset - lastOffset);
-            }
-        }
-        int bufPos = 0;
-        size = 0;
-        while (size < capacity) {
-            int read = is.read(buffer, bufPos, capacity-size);
-            if (read < 0) {
-                break;
+                // Makes the next call reopen the stream if skipping fails
+                lastOffset = Long.MAX_VALUE;
+                StreamUtils.skipFully(is, fileOffset);
+            } else if (lastOffset != fileOffset) {
+//System.out.println("GENERAL ACCESS WITH SKIP " + fileOffset + "   " + (fileOffset - lastOffset));
+                long skip = fileOffset - lastOffset;
+                lastOffset = Long.MAX_VALUE;
+                StreamUtils.skipFully(is, skip);
             }
-            bufPos += read;
-            size += read;
         }
-        lastOffset = offset + size;
+        int read = is.read(dst, off, len);
+        lastOffset = fileOffset + Math.max(read, 0);
+        return read;
     }
 
     @Override
@@ -101,7 +105,7 @@ public class MuCommanderByteBuffer extends AbstractByteBuffer {
                 }
             }
             if (is == null) {
-                is = file.getPushBackInputStream(1024);
+                is = pushbackStreamClosed ? file.getInputStream() : file.getPushBackInputStream(1024);
             }
             lastOffset = 0;
         }
@@ -20,12 +20,21 @@ package ru.trolsoft.hexeditor.search;
 import ru.trolsoft.hexeditor.data.AbstractByteBuffer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * Search in AbstractByteBuffer
  */
 public class ByteBufferSearchUtils {
 
+    /**
+     * Number of bytes scanned at once, in addition to the pattern's length
+     */
+    private static final int BLOCK_SIZE = 1024*64;
+
     /**
      * Returns the offset within the ByteBuffer of the first occurrence of the specified data, starting at the specified offset.
      *
@@ -35,93 +44,203 @@ public class ByteBufferSearchUtils {
      * @return the offset of the first occurrence of the specified data, at the specified offset, or -1 if there is no such occurrence
      */
     public static long indexOf(AbstractByteBuffer data, byte[] pattern, long fromOffset) throws IOException {
+        return indexOf(data, pattern, fromOffset, null);
+    }
+
+
+    /**
+     * Returns the offset within the ByteBuffer of the first occurrence of the specified data, starting at the specified
+     * offset. The data is scanned by blocks with the Boyer-Moore-Horspool algorithm.
+     *
+     * @param data buffer for search
+     * @param pattern the data to search for
+     * @param fromOffset the offset from which to start the search
+     * @param listener notified after each block, may be <code>null</code>
+     * @return the offset of the first occurrence of the specified data, at the specified offset, or -1 if there is no such occurrence
+     * @throws CancellationException if the listener cancelled the search
+     */
+    public static long indexOf(AbstractByteBuffer data, byte[] pattern, long fromOffset, SearchProgressListener listener) throws IOException {
+        List<Long> result = findAll(data, pattern, fromOffset, 1, listener);
+        return result.isEmpty() ? -1 : result.get(0);
+    }
+
+
+    /**
+     * Returns the offsets within the ByteBuffer of the occurrences of the specified data, starting at the specified
+     * offset. Overlapping occurrences are all returned.
+     *
+     * @param data buffer for search
+     * @param pattern the data to search for
+     * @param fromOffset the offset from which to start the search
+     * @param maxResults the search stops when this number of occurrences has been found
+     * @param listener notified after each block, may be <code>null</code>
+     * @return the offsets of the occurrences in ascending order, empty if there is no such occurrence
+     * @throws CancellationException if the listener cancelled the search
+     */
+    public static List<Long> findAll(AbstractByteBuffer data, byte[] pattern, long fromOffset, int maxResults, SearchProgressListener listener) throws IOException {
+        List<Long> result = new ArrayList<>();
         long fileSize = data.getFileSize();
-        if (fileSize <= 0 || pattern.length == 0) {
-            return -1;
+        int m = pattern.length;
+        fromOffset = Math.max(fromOffset, 0);
+        if (m == 0 || fileSize - fromOffset < m || maxResults <= 0) {
+            return result;
         }
-        int[] failure = computeFailure(pattern);
-        AbstractByteBuffer.CacheStrategy cacheStrategy = data.getCacheStrategy();
-        data.setCacheStrategy(AbstractByteBuffer.CacheStrategy.FORWARD);
+        int[] shift = computeShift(pattern);
+        byte[] block = new byte[BLOCK_SIZE + m - 1];
+        long total = fileSize - fromOffset;
 
-        int j = 0;
-        for (long i = fromOffset; i < fileSize; i++) {
-            while (j > 0 && pattern[j] != data.getByte(i)) {
-                j = failure[j - 1];
+        long pos = fromOffset;
+        while (pos <= fileSize - m) {
+            int n = data.getBytes(pos, block);
+            if (n < m) {
+                break;
             }
-            if (pattern[j] == data.getByte(i)) {
-                j++;
-            }
-            if (j == pattern.length) {
-                data.setCacheStrategy(cacheStrategy);
-                return i - pattern.length + 1;
+            int i = indexOf(block, n, pattern, shift, 0);
+            while (i >= 0) {
+                result.add(pos + i);
+                if (result.size() >= maxResults) {
+                    return result;
+                }
+                i = indexOf(block, n, pattern, shift, i + 1);
             }
+            // The last m-1 bytes of the block are scanned again with the next one
+            pos += n - m + 1;
+            checkProgress(listener, pos - fromOffset, total);
         }
-        data.setCacheStrategy(cacheStrategy);
-        return -1;
+        return result;
     }
 
-    public static long indexOf(AbstractByteBuffer data, byte[][] patterns, long fromOffset) throws IOException {
-        long fileSize = data.getFileSize();
-        if (fileSize <= 0 || patterns.length == 0) {
+
+    /**
+     * Returns the offset within the ByteBuffer of the last occurrence of the specified data that starts at or before
+     * the specified offset.
+     *
+     * @param data buffer for search
+     * @param pattern the data to search for
+     * @param fromOffset the greatest offset at which the occurrence may start
+     * @return the offset of the last occurrence of the specified data, or -1 if there is no such occurrence
+     */
+    public static long indexOfBackward(AbstractByteBuffer data, byte[] pattern, long fromOffset) throws IOException {
+        return indexOfBackward(data, pattern, fromOffset, null);
+    }
+
+
+    /**
+     * Returns the offset within the ByteBuffer of the last occurrence of the specified data that starts at or before
+     * the specified offset. The data is scanned by blocks, from the end, with the Boyer-Moore-Horspool algorithm.
+     *
+     * @param data buffer for search
+     * @param pattern the data to search for
+     * @param fromOffset the greatest offset at which the occurrence may start
+     * @param listener notified after each block, may be <code>null</code>
+     * @return the offset of the last occurrence of the specified data, or -1 if there is no such occurrence
+     * @throws CancellationException if the listener cancelled the search
+     */
+    public static long indexOfBackward(AbstractByteBuffer data, byte[] pattern, long fromOffset, SearchProgressListener listener) throws IOException {
+        int m = pattern.length;
+        if (m == 0 || fromOffset < 0) {
             return -1;
         }
-        int[][] failures = new int[patterns.length][];
-        for (int i = 0; i < patterns.length; i++) {
-            failures[i] = computeFailure(patterns[i]);
-        }
-        AbstractByteBuffer.CacheStrategy cacheStrategy = data.getCacheStrategy();
-        data.setCacheStrategy(AbstractByteBuffer.CacheStrategy.FORWARD);
+        int[] shift = computeBackwardShift(pattern);
+        byte[] block = new byte[BLOCK_SIZE + m - 1];
+        // Exclusive end of the data left to scan
+        long end = Math.min(fromOffset + m, data.getFileSize());
+        long total = end;
 
-        int[] j = new int[patterns.length];
-        for (int i = 0; i < j.length; i++) {
-            j[i] = 0;
-        }
-/*
-        for (long i = fromOffset; i < fileSize; i++) {
-            while (j > 0 && pattern[j] != data.getByte(i)) {
-                j = failure[j - 1];
+        while (end >= m) {
+            long start = Math.max(0, end - block.length);
+            int n = data.getBytes(start, block, 0, (int)(end - start));
+            int i = indexOfBackward(block, n, pattern, shift);
+            if (i >= 0) {
+                return start + i;
             }
-            if (pattern[j] == data.getByte(i)) {
-                j++;
-            }
-            if (j == pattern.length) {
-                data.setCacheStrategy(cacheStrategy);
-                return i - pattern.length + 1;
+            if (start == 0) {
+                break;
             }
+            // The first m-1 bytes of the block are scanned again with the previous one
+            end = start + m - 1;
+            checkProgress(listener, total - end, total);
         }
-        */
-        data.setCacheStrategy(cacheStrategy);
         return -1;
     }
 
 
-    public static long indexOfBackward(AbstractByteBuffer data, byte[] pattern, long fromOffset) throws IOException {
-        byte[] patternInvert = new byte[pattern.length];
-        for (int i = 0; i < pattern.length; i++) {
-            patternInvert[i] = pattern[pattern.length-i-1];
+    /**
+     * Boyer-Moore-Horspool search of the pattern in the <code>n</code> first bytes of the block, from the specified
+     * position.
+     */
+    private static int indexOf(byte[] block, int n, byte[] pattern, int[] shift, int from) {
+        int m = pattern.length;
+        int last = m - 1;
+        int i = from;
+        while (i <= n - m) {
+            int j = last;
+            while (j >= 0 && block[i + j] == pattern[j]) {
+                j--;
+            }
+            if (j < 0) {
+                return i;
+            }
+            i += shift[block[i + last] & 0xff];
         }
-        int[] failure = computeFailure(patternInvert);
-        AbstractByteBuffer.CacheStrategy cacheStrategy = data.getCacheStrategy();
-        data.setCacheStrategy(AbstractByteBuffer.CacheStrategy.BACKWARD);
+        return -1;
+    }
 
-        int j = 0;
-        for (long i = fromOffset; i >= 0; i--) {
-            while (j > 0 && patternInvert[j] != data.getByte(i)) {
-                j = failure[j - 1];
-            }
-            if (pattern[j] == data.getByte(i)) {
+
+    /**
+     * Boyer-Moore-Horspool search of the last occurrence of the pattern in the <code>n</code> first bytes of the block.
+     */
+    private static int indexOfBackward(byte[] block, int n, byte[] pattern, int[] shift) {
+        int m = pattern.length;
+        int i = n - m;
+        while (i >= 0) {
+            int j = 0;
+            while (j < m && block[i + j] == pattern[j]) {
                 j++;
             }
-            if (j == pattern.length) {
-                data.setCacheStrategy(cacheStrategy);
-                return i - pattern.length + 1;
+            if (j == m) {
+                return i;
             }
+            i -= shift[block[i] & 0xff];
         }
-        data.setCacheStrategy(cacheStrategy);
         return -1;
     }
 
 
+    /**
+     * Computes the distance to the next window for each value of the window's last byte.
+     */
+    private static int[] computeShift(byte[] pattern) {
+        int m = pattern.length;
+        int[] shift = new int[256];
+        Arrays.fill(shift, m);
+        for (int i = 0; i < m - 1; i++) {
+            shift[pattern[i] & 0xff] = m - 1 - i;
+        }
+        return shift;
+    }
+
+
+    /**
+     * Computes the distance to the previous window for each value of the window's first byte.
+     */
+    private static int[] computeBackwardShift(byte[] pattern) {
+        int m = pattern.length;
+        int[] shift = new int[256];
+        Arrays.fill(shift, m);
+        for (int i = m - 1; i > 0; i--) {
+            shift[pattern[i] & 0xff] = i;
+        }
+        return shift;
+    }
+
+
+    private static void checkProgress(SearchProgressListener listener, long processed, long total) {
+        if (listener != null && !listener.onProgress(processed, total)) {
+            throw new CancellationException();
+        }
+    }
+
 
     /**
      * Knuth-Morris-Pratt Algorithm for Pattern Matching
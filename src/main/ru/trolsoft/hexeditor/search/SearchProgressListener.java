@@ -0,0 +1,34 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/soft/trolcommander
+ * Copyright (C) 2013-2014 Oleg Trifonov
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.hexeditor.search;
+
+/**
+ * Listener of the progress of a search in an AbstractByteBuffer.
+ */
+public interface SearchProgressListener {
+
+    /**
+     * Called after each block of data has been scanned.
+     *
+     * @param processed number of bytes scanned so far
+     * @param total number of bytes to scan
+     * @return <code>false</code> to cancel the search
+     */
+    boolean onProgress(long processed, long total);
+
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/soft/trolcommander
+ * Copyright (C) 2013-2014 Oleg Trifonov
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.hexeditor.ui;
+
+import ru.trolsoft.hexeditor.data.EditableByteBuffer;
+
+import java.io.IOException;
+
+/**
+ * The table model used by the <code>JTable</code> in the hex editor. Edits are applied to an
+ * {@link EditableByteBuffer} and notified to the table model listeners.
+ */
+public class EditableHexTableModel extends ViewerHexTableModel {
+
+    private final EditableByteBuffer editableBuffer;
+
+
+    public EditableHexTableModel(EditableByteBuffer byteBuffer) {
+        super(byteBuffer);
+        this.editableBuffer = byteBuffer;
+    }
+
+
+    @Override
+    public boolean isEditable() {
+        return true;
+    }
+
+
+    public EditableByteBuffer getBuffer() {
+        return editableBuffer;
+    }
+
+
+    /**
+     * Returns the byte at the specified offset
+     *
+     * @param offset
+     * @return
+     * @throws IOException
+     */
+    public byte getByte(long offset) throws IOException {
+        return editableBuffer.getByte(offset);
+    }
+
+
+    /**
+     * Replaces the byte at the specified offset
+     *
+     * @param offset
+     * @param value
+     */
+    public void setByte(long offset, byte value) {
+        editableBuffer.setByte(offset, value);
+        int row = (int)(offset / getNumberOfHexColumns());
+        fireTableRowsUpdated(row, row);
+    }
+
+
+    /**
+     * Inserts bytes before the specified offset
+     *
+     * @param offset
+     * @param data
+     */
+    public void insert(long offset, byte[] data) {
+        editableBuffer.insert(offset, data);
+        sizeChanged();
+    }
+
+
+    /**
+     * Removes a range of bytes
+     *
+     * @param offset
+     * @param length
+     */
+    public void delete(long offset, long length) {
+        editableBuffer.delete(offset, length);
+        sizeChanged();
+    }
+
+
+    private void sizeChanged() {
+        fileSize = editableBuffer.getFileSize();
+        fireTableDataChanged();
+    }
+
+}
@@ -10,6 +10,7 @@ import javax.swing.table.TableColumn;
 import javax.swing.table.TableColumnModel;
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -50,6 +51,11 @@ public class HexTable extends JTable {
     private long leadSelectionIndex;
     private long anchorSelectionIndex;
 
+    /**
+     * True if the next hex digit typed in an editable table replaces the low half of the current byte
+     */
+    private boolean lowNibble;
+
     private OnOffsetChangeListener onOffsetChangeListener;
 
     public HexTable(ViewerHexTableModel model) {
@@ -109,6 +115,7 @@ public class HexTable extends JTable {
         final long prevSelectionIndexFrom = anchorSelectionIndex;
         final long prevSelectionIndexTo = leadSelectionIndex;
 
+        lowNibble = false;
         if (extend) {
             leadSelectionIndex = cellToOffset(row, col);
         } else {
@@ -289,7 +296,7 @@ public class HexTable extends JTable {
         if (row < 0 || row >= getRowCount() || col < 1 || col > hexColumns) {
             return -1;
         }
-        int offs = row*hexColumns + col - 1;
+        long offs = (long)row*hexColumns + col - 1;
         return (offs >= 0 && offs < model.getSize()) ? offs : -1;
     }
 
@@ -396,6 +403,7 @@ public class HexTable extends JTable {
 
         anchorSelectionIndex = startOffs;
         leadSelectionIndex = endOffs;
+        lowNibble = false;
 
         // Scroll after changing the selection as blit scrolling is
         // immediate, so that if we cause the repaint after the scroll we
@@ -600,6 +608,10 @@ public class HexTable extends JTable {
         final int hexColumns = model.getNumberOfHexColumns();
         final long lastOffset = model.getSize() - 1;
         final boolean extend = e.isShiftDown();
+        if (model.isEditable() && processEditKeyEvent(e)) {
+            e.consume();
+            return;
+        }
         if (e.getID() == KeyEvent.KEY_PRESSED) {
             switch (e.getKeyCode()) {
                 case KeyEvent.VK_LEFT:
@@ -655,6 +667,61 @@ public class HexTable extends JTable {
         super.processKeyEvent(e);
     }
 
+    /**
+     * Handles the keys that modify the bytes: hex digits overwrite the current byte, <code>Insert</code> inserts a
+     * zero byte before it, <code>Delete</code> removes the selected bytes and <code>Backspace</code> removes the byte
+     * before the current one.
+     *
+     * @return true if the event has been handled
+     */
+    private boolean processEditKeyEvent(KeyEvent e) {
+        final EditableHexTableModel editableModel = (EditableHexTableModel)model;
+        final long size = model.getSize();
+        final long offset = Math.max(anchorSelectionIndex, 0);
+        try {
+            if (e.getID() == KeyEvent.KEY_TYPED) {
+                int digit = Character.digit(e.getKeyChar(), 16);
+                if (digit < 0 || e.isControlDown() || e.isAltDown() || e.isMetaDown() || offset >= size) {
+                    return false;
+                }
+                int value = editableModel.getByte(offset) & 0xff;
+                if (lowNibble) {
+                    editableModel.setByte(offset, (byte)((value & 0xf0) | digit));
+                    changeSelectionByOffset(Math.min(offset + 1, size - 1), false);
+                } else {
+                    editableModel.setByte(offset, (byte)((digit << 4) | (value & 0x0f)));
+                    lowNibble = true;
+                }
+                return true;
+            } else if (e.getID() == KeyEvent.KEY_PRESSED) {
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_INSERT:
+                        editableModel.insert(Math.min(offset, size), new byte[1]);
+                        changeSelectionByOffset(offset, false);
+                        return true;
+                    case KeyEvent.VK_DELETE:
+                        if (size > 0) {
+                            long start = getSmallestSelectionIndex();
+                            long end = Math.min(getLargestSelectionIndex(), size - 1);
+                            editableModel.delete(start, end - start + 1);
+                            changeSelectionByOffset(Math.max(Math.min(start, model.getSize() - 1), 0), false);
+                        }
+                        return true;
+                    case KeyEvent.VK_BACK_SPACE:
+                        if (offset > 0 && offset <= size) {
+                            editableModel.delete(offset - 1, 1);
+                            changeSelectionByOffset(offset - 1, false);
+                        }
+                        return true;
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return true;
+        }
+        return false;
+    }
+
     public OnOffsetChangeListener getOnOffsetChangeListener() {
         return onOffsetChangeListener;
     }
@@ -3,6 +3,7 @@ package ru.trolsoft.hexeditor.ui;
 import ru.trolsoft.hexeditor.data.AbstractByteBuffer;
 import ru.trolsoft.utils.StrUtils;
 
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 import java.io.IOException;
 
@@ -17,6 +18,10 @@ public class ViewerHexTableModel extends AbstractTableModel {
     private int hexDataColumns = 16*2;
     protected final AbstractByteBuffer buffer;
 
+    /** Bytes of the row that was rendered last, read at once rather than byte by byte */
+    private final byte[] rowData = new byte[hexDataColumns];
+    private int rowDataLength;
+    private int rowDataIndex = -1;
 
 
 
@@ -30,12 +35,30 @@ public class ViewerHexTableModel extends AbstractTableModel {
 
     public void load() throws IOException {
         this.fileSize = buffer.getFileSize();
+        rowDataIndex = -1;
         if (fileSize > 0) {
             buffer.getByte(0);
         }
     }
 
 
+    /**
+     * Returns <code>true</code> if the bytes can be modified through this model
+     * @return
+     */
+    public boolean isEditable() {
+        return false;
+    }
+
+
+    @Override
+    public void fireTableChanged(TableModelEvent e) {
+        // The row that was read last may have changed
+        rowDataIndex = -1;
+        super.fireTableChanged(e);
+    }
+
+
     /**
      * Get file size
      * @return
@@ -68,18 +91,18 @@ public class ViewerHexTableModel extends AbstractTableModel {
         } else if (columnIndex == hexDataColumns + 1) {
             // dump
             try {
-                return getAsciiDump(rowIndex * hexDataColumns);
+                return getAsciiDump(rowIndex);
             } catch (IOException e) {
                 e.printStackTrace();
                 return "";
             }
         } else {
-            long fileOffset = rowIndex * hexDataColumns + columnIndex - 1;
-            if (fileOffset >= fileSize) {
-                return "";
-            }
             try {
-                return StrUtils.byteToHexStr(buffer.getByte(fileOffset));
+                int index = columnIndex - 1;
+                if (index >= getRowData(rowIndex)) {
+                    return "";
+                }
+                return StrUtils.byteToHexStr(rowData[index]);
             } catch (IOException e) {
                 e.printStackTrace();
                 return "xx";
@@ -89,17 +112,31 @@ public class ViewerHexTableModel extends AbstractTableModel {
 
 
     protected long getRowOffset(int row) {
-        return row * hexDataColumns;
+        return (long)row * hexDataColumns;
+    }
+
+    /**
+     * Reads the bytes of the specified row, unless it is the one that was read last.
+     *
+     * @return the number of bytes of the row
+     */
+    private int getRowData(int row) throws IOException {
+        if (row != rowDataIndex) {
+            rowDataIndex = -1;
+            rowDataLength = buffer.getBytes(getRowOffset(row), rowData);
+            rowDataIndex = row;
+        }
+        return rowDataLength;
     }
 
-    private String getAsciiDump(long fileOffset) throws IOException {
+    private String getAsciiDump(int row) throws IOException {
         StringBuilder sb = new StringBuilder();
+        int length = getRowData(row);
         for (int i = 0; i <  hexDataColumns; i++) {
-            long offset = fileOffset + i;
-            if (offset >= fileSize) {
+            if (i >= length) {
                 sb.append(' ');
             } else {
-                int b = buffer.getByte(offset) & 0xff;// getData()[i + bufferOffset] & 0xff;
+                int b = rowData[i] & 0xff;
                 char ch = (char)b;
                 if (!VISIBLE_SYMBOLS[b]) {
                     ch = ' ';
@@ -0,0 +1,102 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the throughput of {@link FileFactory#getFile(String)} for deep local paths and paths inside archives,
+ * with one and several threads. Each iteration resolves files that are not pooled yet, so that the whole path
+ * resolution is measured rather than pool lookups only.
+ *
+ * <p>This is not a test case, run it with <code>java com.mucommander.commons.file.FileFactoryBenchmark</code>.</p>
+ */
+public class FileFactoryBenchmark {
+
+    /** Number of files resolved by each thread during a run */
+    private static final int NB_FILES = 200000;
+
+    /** Depth of the resolved paths */
+    private static final int DEPTH = 12;
+
+    public static void main(String args[]) throws Exception {
+        FileFactory.registerProtocolArchives();
+
+        StringBuilder folder = new StringBuilder(FileFactory.getTemporaryFolder().getAbsolutePath(true));
+        for (int i = 0; i < DEPTH; i++) {
+            folder.append("folder").append(i).append('/');
+        }
+        String localFolder = folder.toString();
+        String archiveFolder = localFolder + "archive.zip/entries/";
+
+        // Archive paths are only resolved as such if the archive exists
+        File archive = new File(localFolder, "archive.zip");
+        if (!archive.getParentFile().isDirectory() && !archive.getParentFile().mkdirs()) {
+            throw new IOException("could not create " + archive.getParent());
+        }
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("entries/"));
+            out.closeEntry();
+        }
+        archive.deleteOnExit();
+
+        int nbCpus = Runtime.getRuntime().availableProcessors();
+        for (int run = 0; run < 3; run++) {
+            // The first run warms the JIT up
+            System.out.println("Run " + (run + 1));
+            benchmark("local, 1 thread", localFolder, 1);
+            benchmark("local, " + nbCpus + " threads", localFolder, nbCpus);
+            benchmark("archive, 1 thread", archiveFolder, 1);
+            benchmark("archive, " + nbCpus + " threads", archiveFolder, nbCpus);
+        }
+    }
+
+    private static void benchmark(String name, final String folder, int nbThreads) throws InterruptedException {
+        final String runId = Long.toString(System.nanoTime());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nbThreads; t++) {
+            final String prefix = folder + runId + "-" + t + "-";
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < NB_FILES; i++) {
+                    if (FileFactory.getFile(prefix + i + ".txt") == null) {
+                        throw new IllegalStateException("could not resolve " + prefix + i);
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long duration = System.nanoTime() - start;
+
+        long nbFiles = (long)NB_FILES * nbThreads;
+        System.out.println(String.format("  %-24s %10.0f files/s %8.0f ns/file", name,
+                nbFiles * 1e9 / duration, duration / (double)nbFiles * nbThreads));
+    }
+}
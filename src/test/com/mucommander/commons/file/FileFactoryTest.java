@@ -18,9 +18,14 @@
 
 package com.mucommander.commons.file;
 
+import com.mucommander.commons.file.impl.zip.ZipFormatProvider;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * A test case for {@link FileFactory}.
@@ -79,4 +84,65 @@ public class FileFactoryTest {
         assert temporaryFile1 != null;
         assert !temporaryFile1.exists();
     }
+
+    /**
+     * Asserts that archives are resolved in folders whose files have already been resolved, and that archive formats
+     * registered afterwards are taken into account.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testArchiveResolution() throws IOException {
+        ArchiveFormatProvider zipProvider = FileFactory.getArchiveFormatProvider("file.zip");
+        if (zipProvider != null) {
+            FileFactory.unregisterArchiveFormat(zipProvider);
+        }
+        try {
+            String folderPath = FileFactory.getTemporaryFolder().getAbsolutePath(true) + System.currentTimeMillis() + "/";
+
+            // Resolve a file to have the folder cached, before and after registering the zip format
+            AbstractFile file = FileFactory.getFile(folderPath + "file.txt");
+            assert !(file instanceof AbstractArchiveFile);
+            assert !(FileFactory.getFile(folderPath + "file.zip") instanceof AbstractArchiveFile);
+
+            FileFactory.registerArchiveFormat(zipProvider == null ? new ZipFormatProvider() : zipProvider);
+            assert FileFactory.getFile(folderPath + "archive.zip") instanceof AbstractArchiveFile;
+            assert FileFactory.getFile(folderPath + "other.txt").getAbsolutePath().equals(folderPath + "other.txt");
+            assert FileFactory.getFile(folderPath + "folder/").getAbsolutePath(true).equals(folderPath + "folder/");
+            assert FileFactory.getFile(folderPath + "archive.zip/entry.txt").getParent().getAbsolutePath().equals(folderPath + "archive.zip");
+        } finally {
+            if (zipProvider == null) {
+                FileFactory.unregisterArchiveFormat(FileFactory.getArchiveFormatProvider("file.zip"));
+            }
+        }
+    }
+
+    /**
+     * Asserts that the files of a folder inside an archive are resolved as entries of that archive, also once the
+     * archive has been cached for the folder, and that files that are archives themselves are still recognized.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testArchiveAncestors() throws IOException {
+        FileFactory.registerArchiveFormat(new ZipFormatProvider());
+        File zipFile = File.createTempFile("FileFactoryTest", ".zip");
+        zipFile.deleteOnExit();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            for (String name : new String[] {"folder/", "folder/a.txt", "folder/b.txt", "folder/c.zip"}) {
+                out.putNextEntry(new ZipEntry(name));
+                out.closeEntry();
+            }
+        }
+
+        String folderPath = zipFile.getAbsolutePath() + File.separator + "folder" + File.separator;
+        AbstractFile a = FileFactory.getFile(folderPath + "a.txt");
+        AbstractFile b = FileFactory.getFile(folderPath + "b.txt");
+        assert a instanceof AbstractArchiveEntryFile;
+        assert b instanceof AbstractArchiveEntryFile;
+        assert ((AbstractArchiveEntryFile)a).getArchiveFile() == ((AbstractArchiveEntryFile)b).getArchiveFile();
+        assert b.exists();
+        assert b.getAbsolutePath().equals(folderPath + "b.txt");
+        assert FileFactory.getFile(folderPath + "c.zip") instanceof AbstractArchiveFile;
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the time and the memory allocated by the operations that derive and compare {@link FileURL} instances:
+ * {@link FileURL#getChild(String)}, {@link FileURL#getParent()}, {@link FileURL#clone()} and
+ * {@link FileURL#equals(Object)}, on URLs with and without properties.
+ *
+ * <p>Allocations are measured with <code>com.sun.management.ThreadMXBean</code>, which is available on HotSpot
+ * JVMs.</p>
+ *
+ * <p>This is not a test case, run it with <code>java com.mucommander.commons.file.FileURLBenchmark</code>.</p>
+ */
+public class FileURLBenchmark {
+
+    /** Number of times each operation is performed during a run */
+    private static final int NB_OPERATIONS = 1000000;
+
+    /** Depth of the paths of the URLs */
+    private static final int DEPTH = 12;
+
+    /** Prevents the JIT from discarding the results of the operations */
+    private static int sink;
+
+    public static void main(String args[]) throws Exception {
+        StringBuilder path = new StringBuilder("sftp://user@host/");
+        for (int i = 0; i < DEPTH; i++) {
+            path.append("folder").append(i).append('/');
+        }
+        final FileURL url = FileURL.getFileURL(path.toString());
+        final FileURL urlWithProperties = FileURL.getFileURL(path.toString());
+        urlWithProperties.setProperty("encoding", "UTF-8");
+        urlWithProperties.setProperty("passiveMode", "true");
+
+        for (int run = 0; run < 3; run++) {
+            // The first run warms the JIT up
+            System.out.println("Run " + (run + 1));
+            for (final FileURL base : new FileURL[] {url, urlWithProperties}) {
+                String suffix = base == url ? "" : " with properties";
+                benchmark("getChild" + suffix, () -> sink += base.getChild("file.txt").hashCode());
+                benchmark("getParent" + suffix, () -> sink += base.getParent().hashCode());
+                benchmark("clone" + suffix, () -> sink += base.clone().hashCode());
+                final FileURL other = (FileURL)base.clone();
+                other.setPath(base.getPath());
+                benchmark("equals" + suffix, () -> sink += base.equals(other) ? 1 : 0);
+            }
+        }
+    }
+
+    private static void benchmark(String name, Runnable operation) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < NB_OPERATIONS; i++) {
+            operation.run();
+        }
+        long duration = System.nanoTime() - start;
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+        System.out.println(String.format("  %-28s %8.0f ns/op %8.0f bytes/op", name,
+                duration / (double)NB_OPERATIONS, allocatedBytes / (double)NB_OPERATIONS));
+    }
+}
@@ -24,6 +24,7 @@ import org.testng.annotations.Test;
 import com.mucommander.commons.runtime.OsFamily;
 
 import java.net.MalformedURLException;
+import java.util.Set;
 
 /**
  * A generic test case for {@link com.mucommander.commons.file.FileURL}. This class is abstract and must be extended for
@@ -439,6 +440,40 @@ public abstract class FileURLTestCase {
         assert url.getParent() == null;
     }
 
+    /**
+     * Tests {@link FileURL#getChild(String)} and ensures that the child URL is equal to the URL obtained by setting the
+     * child path, and that its parent is the original URL.
+     *
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testChild() throws MalformedURLException {
+        FileURL url = getURL("login", "password", "host", 10000, "/path/to", null);
+        url.setProperty("key", "value");
+
+        FileURL childURL = url.getChild("file");
+        FileURL expectedURL = getURL("login", "password", "host", 10000, "/path/to/file", null);
+        expectedURL.setProperty("key", "value");
+
+        assertEquals(expectedURL, childURL);
+        assert childURL.hashCode() == expectedURL.hashCode();
+        Assert.assertEquals("file", childURL.getFilename());
+        Assert.assertEquals(url.getHandler(), childURL.getHandler());
+        assertEquals(url, childURL.getParent());
+
+        // The child of a URL with a trailing separator must not have a double separator
+        FileURL trailingURL = getURL("login", "password", "host", 10000, "/path/to/", null);
+        trailingURL.setProperty("key", "value");
+        assertEquals(expectedURL, trailingURL.getChild("file"));
+
+        // Properties are shared but can be modified independently
+        childURL.setProperty("key", "childValue");
+        Assert.assertEquals("value", url.getProperty("key"));
+        url.setProperty("key", "newValue");
+        Assert.assertEquals("childValue", childURL.getProperty("key"));
+        Assert.assertEquals("newValue", url.getParent().getProperty("key"));
+    }
+
 
     /**
      * Parses URLs, some borderline but that we consider nonetheless valid, and ensures that they parse without error
@@ -716,6 +751,41 @@ public abstract class FileURLTestCase {
 
         // Assert that the property has survived the cloning
         Assert.assertEquals("value",clonedURL.getProperty("name"));
+
+        // Assert that properties can be modified without affecting the original instance
+        clonedURL.setProperty("name", "otherValue");
+        Assert.assertEquals("value",url.getProperty("name"));
+        assert !url.equals(clonedURL);
+    }
+
+    /**
+     * Asserts that properties shared between a URL and its children or clones are never modified in place, and that
+     * {@link FileURL#getPropertyNames()} returns a copy.
+     *
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testSharedProperties() throws MalformedURLException {
+        FileURL url = getURL("login", "password", "host", 10000, "/path/to", null);
+        url.setProperty("name", "value");
+
+        FileURL clonedURL = (FileURL)url.clone();
+        FileURL childURL = url.getChild("child");
+
+        // Modifying the original after sharing must not affect the clone or the child
+        url.setProperty("name", "otherValue");
+        url.setProperty("name2", "value2");
+        Assert.assertEquals("value", clonedURL.getProperty("name"));
+        Assert.assertEquals("value", childURL.getProperty("name"));
+        assert clonedURL.getProperty("name2") == null;
+        assert childURL.getProperty("name2") == null;
+
+        // The returned set is a snapshot that can be modified without affecting the URL
+        Set<String> names = clonedURL.getPropertyNames();
+        names.clear();
+        Assert.assertEquals("value", clonedURL.getProperty("name"));
+        clonedURL.setProperty("name3", "value3");
+        assert !names.contains("name3");
     }
 
     /**
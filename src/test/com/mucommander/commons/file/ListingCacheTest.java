@@ -0,0 +1,205 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
+import com.mucommander.commons.file.impl.ProxyFile;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A test case for {@link ListingCache}.
+ */
+public class ListingCacheTest {
+
+    private AbstractFile folder;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        ListingCache.clear();
+        folder = FileFactory.getTemporaryFile(true);
+        folder.mkdir();
+        folder.getDirectChild("a.txt").mkfile();
+        folder.getDirectChild("b.bin").mkfile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+        ListingCache.clear();
+    }
+
+    /**
+     * Asserts that listings are cached and that the returned arrays can be modified by the caller.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCachedListing() throws IOException {
+        AbstractFile children[] = ListingCache.ls(folder);
+        assert children.length == 2;
+        assert ListingCache.size() == 1;
+
+        children[0] = null;
+        AbstractFile cachedChildren[] = ListingCache.ls(folder);
+        assert cachedChildren.length == 2;
+        assert cachedChildren[0] != null;
+        assert cachedChildren[1] == children[1];
+    }
+
+    /**
+     * Asserts that filters are applied to the cached listing.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testFilteredListing() throws IOException {
+        ListingCache.ls(folder);
+        AbstractFile children[] = ListingCache.ls(folder, new ExtensionFilenameFilter(".txt"));
+        assert children.length == 1;
+        assert "a.txt".equals(children[0].getName());
+        assert ListingCache.ls(folder).length == 2;
+    }
+
+    /**
+     * Asserts that invalidated listings are listed again.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testInvalidate() throws IOException {
+        ListingCache.ls(folder);
+        folder.getDirectChild("c.txt").mkfile();
+
+        ListingCache.invalidate(folder);
+        assert ListingCache.size() == 0;
+        assert ListingCache.ls(folder).length == 3;
+
+        folder.getDirectChild("d.txt").mkfile();
+        ListingCache.invalidate(file -> file.equals(folder));
+        assert ListingCache.ls(folder).length == 4;
+    }
+
+    /**
+     * Asserts that folders listed page by page are handed to the listener page by page the first time, and that the
+     * cached listing is handed in a single page.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testPagedListing() throws IOException {
+        AbstractFile pagedFolder = new ProxyFile(folder) {
+            @Override
+            public void lsInPages(ListingListener listener) throws IOException {
+                for (AbstractFile child : ls()) {
+                    listener.childrenListed(new AbstractFile[] {child});
+                }
+            }
+        };
+
+        List<AbstractFile[]> pages = new ArrayList<>();
+        ListingCache.lsInPages(pagedFolder, null, pages::add);
+        assert pages.size() == 2;
+        assert pages.get(0).length == 1 && pages.get(1).length == 1;
+
+        pages.clear();
+        ListingCache.lsInPages(pagedFolder, new ExtensionFilenameFilter(".txt"), pages::add);
+        assert pages.size() == 1;
+        assert pages.get(0).length == 1;
+        assert "a.txt".equals(pages.get(0)[0].getName());
+        assert ListingCache.ls(pagedFolder).length == 2;
+    }
+
+    /**
+     * Asserts that a listing stopped by the listener of the thread performing it doesn't fail the threads waiting for
+     * the same folder.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testListingStoppedByListener() throws Exception {
+        CountDownLatch firstPage = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(1);
+        AbstractFile pagedFolder = new ProxyFile(folder) {
+            @Override
+            public void lsInPages(ListingListener listener) throws IOException {
+                for (AbstractFile child : ls()) {
+                    listener.childrenListed(new AbstractFile[] {child});
+                }
+            }
+        };
+
+        Thread owner = new Thread(() -> {
+            try {
+                ListingCache.lsInPages(pagedFolder, null, page -> {
+                    firstPage.countDown();
+                    try {
+                        stop.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IOException("stopped");
+                });
+            } catch (IOException e) {
+                // Expected
+            }
+        });
+        owner.start();
+        firstPage.await();
+
+        AbstractFile children[][] = new AbstractFile[1][];
+        Thread waiter = new Thread(() -> {
+            try {
+                children[0] = ListingCache.ls(pagedFolder);
+            } catch (IOException e) {
+                // Leaves the children null
+            }
+        });
+        waiter.start();
+        // Let the waiter wait for the owner's listing
+        Thread.sleep(100);
+        stop.countDown();
+
+        owner.join(5000);
+        waiter.join(5000);
+        assert children[0] != null && children[0].length == 2;
+    }
+
+    /**
+     * Asserts that caching can be disabled for a protocol.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDisabledProtocol() throws IOException {
+        long timeToLive = ListingCache.getTimeToLive(FileProtocols.FILE);
+        ListingCache.setTimeToLive(FileProtocols.FILE, 0);
+        try {
+            assert ListingCache.ls(folder).length == 2;
+            assert ListingCache.size() == 0;
+        } finally {
+            ListingCache.setTimeToLive(FileProtocols.FILE, timeToLive);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A test case for {@link ListingPrefetcher}.
+ */
+public class ListingPrefetcherTest {
+
+    private AbstractFile folder;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(true);
+        folder.mkdir();
+        for (int i = 0; i < 4; i++) {
+            AbstractFile child = folder.getDirectChild("folder" + i);
+            child.mkdir();
+            child.getDirectChild("file.txt").mkfile();
+            for (int j = 0; j < 3; j++) {
+                AbstractFile grandChild = child.getDirectChild("folder" + j);
+                grandChild.mkdir();
+                grandChild.getDirectChild("file" + j + ".txt").mkfile();
+            }
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    /**
+     * Asserts that a depth-first traversal returns the same files with and without prefetching.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTraversal() throws IOException {
+        ListingPrefetcher prefetcher = new ListingPrefetcher(2);
+        try {
+            assert walk(folder, prefetcher).equals(walk(folder, new ListingPrefetcher(0)));
+            assert walk(folder, prefetcher).size() == 4 * 8;
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    /**
+     * Asserts that a closed prefetcher still lists folders, and that listing errors are reported.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testClose() throws IOException {
+        ListingPrefetcher prefetcher = new ListingPrefetcher(2);
+        prefetcher.ls(folder);
+        prefetcher.close();
+        assert prefetcher.ls(folder.getDirectChild("folder0")).length == 4;
+
+        boolean failed = false;
+        try {
+            prefetcher.ls(folder.getDirectChild("missing"));
+        } catch (IOException e) {
+            failed = true;
+        }
+        assert failed;
+    }
+
+    /**
+     * Returns the paths of the files under the given folder, in the order in which they are traversed.
+     */
+    private static List<String> walk(AbstractFile folder, ListingPrefetcher prefetcher) throws IOException {
+        List<String> paths = new ArrayList<>();
+        AbstractFile children[] = prefetcher.ls(folder);
+        // Local listings are not sorted
+        List<AbstractFile> sortedChildren = new ArrayList<>();
+        Collections.addAll(sortedChildren, children);
+        sortedChildren.sort((file1, file2) -> file1.getName().compareTo(file2.getName()));
+        for (AbstractFile child : sortedChildren) {
+            paths.add(child.getAbsolutePath());
+            if (child.isDirectory()) {
+                paths.addAll(walk(child, prefetcher));
+            }
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.connection;
+
+import com.mucommander.commons.file.Credentials;
+import com.mucommander.commons.file.FileURL;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test case for {@link ConnectionPool}.
+ */
+public class ConnectionPoolTest {
+
+    private final static String PROTOCOL = "pooltest";
+
+    private final static AtomicInteger hostCounter = new AtomicInteger();
+
+    private final static ConnectionHandlerFactory FACTORY = TestConnectionHandler::new;
+
+    /** A location on a server that is not used by other tests */
+    private FileURL url;
+
+    @BeforeMethod
+    public void setUp() throws MalformedURLException {
+        url = FileURL.getFileURL(PROTOCOL + "://login:password@host" + hostCounter.incrementAndGet() + "/path/to/folder");
+        ConnectionPool.setMaxConnections(PROTOCOL, 2);
+        ConnectionPool.setMinConnections(PROTOCOL, 0);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        ConnectionPool.setMaxConnections(PROTOCOL, ConnectionPool.DEFAULT_MAX_CONNECTIONS);
+        ConnectionPool.setMinConnections(PROTOCOL, ConnectionPool.DEFAULT_MIN_CONNECTIONS);
+        ConnectionPool.setAcquireTimeout(ConnectionPool.DEFAULT_ACQUIRE_TIMEOUT);
+    }
+
+    /**
+     * Asserts that released connections are reused and that busy ones are not handed out twice.
+     *
+     * @throws InterruptedIOException should not happen
+     */
+    @Test
+    public void testReuse() throws InterruptedIOException {
+        ConnectionHandler connHandler1 = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+        ConnectionHandler connHandler2 = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+        assert connHandler1 != connHandler2;
+
+        connHandler1.releaseLock();
+        assert ConnectionPool.getConnectionHandler(FACTORY, url, true) == connHandler1;
+
+        connHandler1.releaseLock();
+        connHandler2.releaseLock();
+
+        ConnectionPool.Statistics statistics = getStatistics();
+        assert statistics.getNbConnections() == 2;
+        assert statistics.getNbBusyConnections() == 0;
+        assert statistics.getNbAcquisitions() == 3;
+        assert statistics.getNbWaits() == 0;
+    }
+
+    /**
+     * Asserts that connections with different credentials are pooled separately.
+     *
+     * @throws InterruptedIOException should not happen
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testCredentials() throws InterruptedIOException, MalformedURLException {
+        ConnectionHandler connHandler = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+        connHandler.releaseLock();
+
+        FileURL otherURL = (FileURL)url.clone();
+        otherURL.setCredentials(new Credentials("login", "otherPassword"));
+        assert ConnectionPool.getConnectionHandler(FACTORY, otherURL, false) != connHandler;
+        assert ConnectionPool.getConnectionHandler(FACTORY, url, false) == connHandler;
+    }
+
+    /**
+     * Asserts that threads waiting for a connection get one in the order in which they requested it.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testFairWaiting() throws Exception {
+        ConnectionHandler connHandler1 = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+        ConnectionHandler connHandler2 = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    ConnectionHandler connHandler = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+                    order.add(index);
+                    connHandler.releaseLock();
+                } catch (InterruptedIOException e) {
+                    order.add(-1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            // Make sure that the threads queue in order
+            waitForWaiters(i + 1);
+        }
+
+        connHandler1.releaseLock();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        connHandler2.releaseLock();
+
+        assert order.equals(Arrays.asList(0, 1, 2));
+        assert getStatistics().getNbWaits() == 3;
+        assert getStatistics().getNbConnections() == 2;
+    }
+
+    /**
+     * Asserts that waiting for a connection times out.
+     *
+     * @throws InterruptedIOException should not happen
+     */
+    @Test
+    public void testTimeout() throws InterruptedIOException {
+        ConnectionPool.setAcquireTimeout(100);
+        ConnectionHandler connHandler1 = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+        ConnectionHandler connHandler2 = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+
+        boolean timedOut = false;
+        try {
+            ConnectionPool.getConnectionHandler(FACTORY, url, true);
+        } catch (InterruptedIOException e) {
+            timedOut = true;
+        }
+        assert timedOut;
+        assert getStatistics().getNbWaiters() == 0;
+
+        connHandler1.releaseLock();
+        connHandler2.releaseLock();
+    }
+
+    /**
+     * Asserts that {@link ConnectionPool#tryGetConnectionHandler(ConnectionHandlerFactory, FileURL)} returns
+     * <code>null</code> rather than waiting when all connections are busy.
+     *
+     * @throws InterruptedIOException should not happen
+     */
+    @Test
+    public void testTryGet() throws InterruptedIOException {
+        ConnectionHandler connHandler1 = ConnectionPool.tryGetConnectionHandler(FACTORY, url);
+        assert connHandler1 != null;
+        assert connHandler1.isLocked();
+        ConnectionHandler connHandler2 = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+
+        assert ConnectionPool.tryGetConnectionHandler(FACTORY, url) == null;
+        assert getStatistics().getNbWaits() == 0;
+
+        connHandler2.releaseLock();
+        assert ConnectionPool.tryGetConnectionHandler(FACTORY, url) == connHandler2;
+
+        connHandler1.releaseLock();
+        connHandler2.releaseLock();
+    }
+
+    /**
+     * Asserts that pre-warming establishes the minimum number of connections.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testPrewarm() throws Exception {
+        ConnectionPool.setMinConnections(PROTOCOL, 2);
+        ConnectionPool.prewarm(FACTORY, url);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getNbConnectedHandlers() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assert getNbConnectedHandlers() == 2;
+
+        // Pre-warming an already warm pool has no effect
+        ConnectionPool.prewarm(FACTORY, url);
+        Thread.sleep(100);
+        assert getStatistics().getNbConnections() == 2;
+    }
+
+    /**
+     * Asserts that pre-warming creates new connections rather than reusing the idle ones.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testPrewarmWithIdleConnection() throws Exception {
+        ConnectionPool.getConnectionHandler(FACTORY, url, true).releaseLock();
+
+        ConnectionPool.setMinConnections(PROTOCOL, 2);
+        ConnectionPool.prewarm(FACTORY, url);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getNbConnectedHandlers() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assert getNbConnectedHandlers() == 2;
+        assert getStatistics().getNbConnections() == 2;
+    }
+
+    /**
+     * Asserts that the pool of a realm is removed once it has no more connections, and that a new one is created
+     * when the realm is used again.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testEmptyPoolRemoved() throws Exception {
+        ConnectionHandler connHandler = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+        connHandler.releaseLock();
+        connHandler.closeConnection();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hasStatistics() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assert !hasStatistics();
+
+        ConnectionHandler newConnHandler = ConnectionPool.getConnectionHandler(FACTORY, url, true);
+        assert newConnHandler != connHandler;
+        assert getStatistics().getNbConnections() == 1;
+        newConnHandler.releaseLock();
+    }
+
+
+    private ConnectionPool.Statistics getStatistics() {
+        FileURL realm = url.getRealm();
+        realm.setCredentials(url.getCredentials());
+        for (ConnectionPool.Statistics statistics : ConnectionPool.getStatistics()) {
+            if (statistics.getRealm().equals(realm)) {
+                return statistics;
+            }
+        }
+        throw new AssertionError("no statistics for " + realm);
+    }
+
+    private boolean hasStatistics() {
+        try {
+            getStatistics();
+            return true;
+        } catch (AssertionError e) {
+            return false;
+        }
+    }
+
+    private int getNbConnectedHandlers() {
+        int nbConnected = 0;
+        for (ConnectionHandler connHandler : ConnectionPool.getConnectionHandlersSnapshot()) {
+            if (connHandler.getRealm().equals(url.getRealm(), false, true) && connHandler.isConnected() && !connHandler.isLocked()) {
+                nbConnected++;
+            }
+        }
+        return nbConnected;
+    }
+
+    private void waitForWaiters(int nbWaiters) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getStatistics().getNbWaiters() < nbWaiters && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+
+    /**
+     * A ConnectionHandler that doesn't connect to anything. It is connected from the start, so that the pool doesn't
+     * remove it while a test is running.
+     */
+    private static class TestConnectionHandler extends ConnectionHandler {
+        private volatile boolean connected = true;
+
+        private TestConnectionHandler(FileURL serverURL) {
+            super(serverURL);
+        }
+
+        @Override
+        public void startConnection() {
+            connected = true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void closeConnection() {
+            connected = false;
+        }
+
+        @Override
+        public void keepAlive() {
+        }
+    }
+}
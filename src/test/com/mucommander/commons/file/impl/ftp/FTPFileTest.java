@@ -70,6 +70,7 @@ public class FTPFileTest extends AbstractFileTest {
             FileOperation.CREATE_DIRECTORY,
             FileOperation.LIST_CHILDREN,
             FileOperation.DELETE,
+            FileOperation.COPY_REMOTELY,
             FileOperation.RENAME,
             FileOperation.CHANGE_DATE,
             FileOperation.CHANGE_PERMISSION
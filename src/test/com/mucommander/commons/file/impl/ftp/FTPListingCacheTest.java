@@ -0,0 +1,105 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.ftp;
+
+import com.mucommander.commons.file.FileURL;
+import org.apache.commons.net.ftp.FTPFile;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.MalformedURLException;
+
+/**
+ * A test case for {@link FTPListingCache}.
+ */
+public class FTPListingCacheTest {
+
+    private final static FTPFile FILES[] = new FTPFile[] {new FTPFile()};
+
+    @BeforeMethod
+    public void setUp() {
+        FTPListingCache.clear();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FTPListingCache.setTimeToLive(FTPListingCache.DEFAULT_TIME_TO_LIVE);
+        FTPListingCache.clear();
+    }
+
+    /**
+     * Asserts that listings are returned until they expire.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testExpiration() throws Exception {
+        FTPListingCache.setTimeToLive(200);
+        FTPListingCache.put(getURL("john", "/folder/"), FILES);
+        assert FTPListingCache.get(getURL("john", "/folder")) == FILES;
+
+        Thread.sleep(300);
+        assert FTPListingCache.get(getURL("john", "/folder")) == null;
+
+        FTPListingCache.setTimeToLive(0);
+        FTPListingCache.put(getURL("john", "/folder"), FILES);
+        assert FTPListingCache.get(getURL("john", "/folder")) == null;
+    }
+
+    /**
+     * Asserts that listings of different accounts on the same server are kept apart.
+     *
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testLogins() throws MalformedURLException {
+        FTPListingCache.put(getURL("john", "/folder"), FILES);
+        assert FTPListingCache.get(getURL("jane", "/folder")) == null;
+        assert FTPListingCache.get(getURL("john", "/folder")) == FILES;
+    }
+
+    /**
+     * Asserts that modifying a file removes the listings of its parent and of its descendants, but not the others.
+     *
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testInvalidation() throws MalformedURLException {
+        for (String path : new String[] {"/", "/a", "/a/b", "/a/b/c", "/a/bc", "/d"}) {
+            FTPListingCache.put(getURL("john", path), FILES);
+        }
+
+        FTPListingCache.invalidate(getURL("john", "/a/b"));
+        assert FTPListingCache.get(getURL("john", "/a")) == null;
+        assert FTPListingCache.get(getURL("john", "/a/b")) == null;
+        assert FTPListingCache.get(getURL("john", "/a/b/c")) == null;
+        assert FTPListingCache.get(getURL("john", "/")) == FILES;
+        assert FTPListingCache.get(getURL("john", "/a/bc")) == FILES;
+        assert FTPListingCache.get(getURL("john", "/d")) == FILES;
+
+        FTPListingCache.invalidate(getURL("john", "/d"));
+        assert FTPListingCache.get(getURL("john", "/")) == null;
+        assert FTPListingCache.get(getURL("john", "/a/bc")) == FILES;
+    }
+
+
+    private static FileURL getURL(String login, String path) throws MalformedURLException {
+        return FileURL.getFileURL("ftp://" + login + ":password@host" + path);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.http;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.ByteCounter;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.StreamUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests {@link HTTPSegmentedDownload} against a local server that serves byte ranges of a file.
+ */
+public class HTTPSegmentedDownloadTest {
+
+    private final static int SEGMENT_SIZE = 1000;
+
+    private HttpServer server;
+
+    /** Contents of the served file */
+    private byte data[];
+
+    /** Number of range requests received, by first byte of the range */
+    private final Map<Long, AtomicInteger> rangeRequests = new ConcurrentHashMap<>();
+
+    /** Total size of the requested ranges */
+    private final AtomicLong requestedBytes = new AtomicLong();
+
+    /** A byte of the ranges whose responses are cut short, -1 for none */
+    private volatile long failingRange = -1;
+
+    /** Number of responses to cut short, Integer.MAX_VALUE to always fail */
+    private volatile int nbFailures;
+
+    private long segmentedThreshold;
+    private int segmentSize;
+    private int segmentStreams;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        data = new byte[10 * SEGMENT_SIZE + 123];
+        new Random().nextBytes(data);
+        rangeRequests.clear();
+        requestedBytes.set(0);
+        failingRange = -1;
+        nbFailures = 0;
+
+        segmentedThreshold = HTTPFile.getSegmentedThreshold();
+        segmentSize = HTTPFile.getSegmentSize();
+        segmentStreams = HTTPFile.getSegmentStreams();
+        HTTPFile.setSegmentedDownloads(2 * SEGMENT_SIZE, SEGMENT_SIZE, 3);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        HTTPFile.setSegmentedDownloads(segmentedThreshold, segmentSize, segmentStreams);
+    }
+
+    /**
+     * Downloads a file in segments and asserts that the destination has the same contents.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDownload() throws IOException {
+        HTTPFile source = getSource();
+        assert source.isSegmentedDownload();
+
+        AbstractFile destination = getDestination();
+        ByteCounter byteCounter = new ByteCounter();
+        new HTTPSegmentedDownload(source, destination).download(byteCounter, new ByteCounter());
+
+        assert byteCounter.getByteCount() == data.length;
+        assert Arrays.equals(read(destination), data);
+        assert rangeRequests.size() == 11;
+    }
+
+    /**
+     * Asserts that a segment whose response is cut short is requested again from the point where it stopped.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRetry() throws IOException {
+        failingRange = 4 * SEGMENT_SIZE - 1;
+        nbFailures = HTTPSegmentedDownload.MAX_SEGMENT_ATTEMPTS - 1;
+
+        AbstractFile destination = getDestination();
+        new HTTPSegmentedDownload(getSource(), destination).download(new ByteCounter(), new ByteCounter());
+
+        assert Arrays.equals(read(destination), data);
+        assert rangeRequests.get(3L * SEGMENT_SIZE).get() == 1;
+        // The failed responses returned half of what was left of the segment
+        assert rangeRequests.get(3L * SEGMENT_SIZE + SEGMENT_SIZE / 2).get() == 1;
+        assert rangeRequests.get(3L * SEGMENT_SIZE + 3 * SEGMENT_SIZE / 4).get() == 1;
+    }
+
+    /**
+     * Asserts that a download that failed is resumed by requesting the missing segments only.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testResume() throws IOException {
+        failingRange = 6 * SEGMENT_SIZE - 1;
+        nbFailures = Integer.MAX_VALUE;
+
+        AbstractFile destination = getDestination();
+        boolean failed = false;
+        try {
+            new HTTPSegmentedDownload(getSource(), destination).download(new ByteCounter(), new ByteCounter());
+        } catch (FileTransferException e) {
+            failed = true;
+            assert e.getReason() == FileTransferException.READING_SOURCE;
+        }
+        assert failed;
+
+        failingRange = -1;
+        rangeRequests.clear();
+        requestedBytes.set(0);
+        ByteCounter byteCounter = new ByteCounter();
+        ByteCounter skippedByteCounter = new ByteCounter();
+        new HTTPSegmentedDownload(getSource(), destination).download(byteCounter, skippedByteCounter);
+
+        assert Arrays.equals(read(destination), data);
+        assert byteCounter.getByteCount() == data.length;
+        assert skippedByteCounter.getByteCount() > 0;
+        assert rangeRequests.containsKey(5L * SEGMENT_SIZE);
+        // Segments completed by the first download were not requested again
+        assert requestedBytes.get() == data.length - skippedByteCounter.getByteCount();
+    }
+
+    /**
+     * Asserts that files below the threshold are not downloaded in segments.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testThreshold() throws IOException {
+        HTTPFile.setSegmentedDownloads(data.length + 1, SEGMENT_SIZE, 3);
+        assert !getSource().isSegmentedDownload();
+    }
+
+
+    private HTTPFile getSource() throws IOException {
+        return new HTTPFile(FileURL.getFileURL("http://localhost:" + server.getAddress().getPort() + "/file.bin"));
+    }
+
+    private AbstractFile getDestination() throws IOException {
+        return FileFactory.getTemporaryFile(getClass().getName(), true);
+    }
+
+    private static byte[] read(AbstractFile file) throws IOException {
+        byte contents[] = new byte[(int)file.getSize()];
+        try (InputStream in = file.getInputStream()) {
+            StreamUtils.readFully(in, contents);
+        }
+        return contents;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Last-Modified", "Mon, 19 Oct 2026 10:00:00 GMT");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(data.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range == null) {
+                exchange.sendResponseHeaders(200, data.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(data);
+                }
+                return;
+            }
+
+            String bounds[] = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Integer.parseInt(bounds[1]);
+            int length = end - start + 1;
+            rangeRequests.computeIfAbsent((long)start, key -> new AtomicInteger()).incrementAndGet();
+            requestedBytes.addAndGet(length);
+
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            exchange.sendResponseHeaders(206, length);
+            OutputStream out = exchange.getResponseBody();
+            if (failingRange >= start && failingRange <= end && nbFailures > 0) {
+                if (nbFailures != Integer.MAX_VALUE) {
+                    nbFailures--;
+                }
+                // Send half of the range, then drop the connection
+                out.write(data, start, length / 2);
+                out.flush();
+                return;
+            }
+            out.write(data, start, length);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+}
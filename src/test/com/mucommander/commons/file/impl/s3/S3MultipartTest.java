@@ -0,0 +1,595 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.s3;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.StreamUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jets3t.service.Constants;
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ObjectsChunk;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.acl.AccessControlList;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3BucketLoggingStatus;
+import org.jets3t.service.model.S3Owner;
+import org.jets3t.service.security.AWSCredentials;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the multipart uploads, multipart copies and parallel downloads of {@link S3Object} against a local server
+ * that implements the subset of the S3 API they use.
+ */
+public class S3MultipartTest {
+
+    private final static String BUCKET = "bucket";
+    private final static String KEY = "folder/file.bin";
+    private final static String COPY_KEY = "folder/copy of file.bin";
+
+    private HttpServer server;
+    private String previousHostname;
+
+    /** Objects stored by the server, by bucket and key */
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+    /** Parts of the pending uploads, by upload ID and part number */
+    private final Map<String, SortedMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+
+    private final AtomicInteger uploadCounter = new AtomicInteger();
+    private final AtomicInteger nbUploadedParts = new AtomicInteger();
+
+    /** Number of the part whose uploads fail, -1 for none */
+    private volatile int failingPart = -1;
+
+    /** Authorization header of the last request that didn't have a valid one, null if there is none */
+    private volatile String invalidAuthorization;
+
+    private S3Service service;
+
+    private long multipartThreshold;
+    private int multipartPartSize;
+    private int multipartStreams;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        previousHostname = Constants.S3_HOSTNAME;
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+        Constants.S3_HOSTNAME = previousHostname;
+    }
+
+    @BeforeMethod
+    public void setUp() throws S3ServiceException {
+        objects.clear();
+        uploads.clear();
+        nbUploadedParts.set(0);
+        failingPart = -1;
+        invalidAuthorization = null;
+
+        Jets3tProperties properties = new Jets3tProperties();
+        properties.setProperty("s3service.s3-endpoint", "localhost");
+        properties.setProperty("s3service.s3-endpoint-http-port", Integer.toString(server.getAddress().getPort()));
+        properties.setProperty("s3service.https-only", "false");
+        properties.setProperty("s3service.disable-dns-buckets", "true");
+        service = new InMemoryS3Service(properties);
+
+        multipartThreshold = S3Object.getMultipartThreshold();
+        multipartPartSize = S3Object.getMultipartPartSize();
+        multipartStreams = S3Object.getMultipartStreams();
+        S3Object.setMultipartTransfers(1000, 300, 3);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        S3Object.setMultipartTransfers(multipartThreshold, multipartPartSize, multipartStreams);
+    }
+
+    /**
+     * Uploads an object in several parts and asserts that it is assembled correctly.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testMultipartUpload() throws IOException {
+        byte data[] = getRandomData(2500);
+        S3Object file = getFile();
+        file.copyStream(new ByteArrayInputStream(data), false, data.length);
+
+        assert Arrays.equals(data, objects.get(BUCKET + "/" + KEY));
+        assert nbUploadedParts.get() == 9;
+        assert uploads.isEmpty();
+        assert invalidAuthorization == null : invalidAuthorization;
+        assert file.exists();
+        assert file.getSize() == data.length;
+    }
+
+    /**
+     * Asserts that an upload that failed is resumed after the parts that have been completed.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testResumeUpload() throws IOException {
+        byte data[] = getRandomData(2500);
+        AbstractFile sourceFile = getSourceFile(data);
+        S3Object file = getFile();
+
+        failingPart = 5;
+        assert !upload(file, data, sourceFile);
+        assert !objects.containsKey(BUCKET + "/" + KEY);
+        assert uploads.size() == 1;
+
+        failingPart = -1;
+        nbUploadedParts.set(0);
+        assert upload(file, data, sourceFile);
+
+        assert Arrays.equals(data, objects.get(BUCKET + "/" + KEY));
+        // Part 1 at least was completed by the first attempt
+        assert nbUploadedParts.get() < 9;
+        assert uploads.isEmpty();
+    }
+
+    /**
+     * Asserts that the parts uploaded by a failed attempt are not reused when the source file has changed, even though
+     * it has kept the same length and date.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testResumeChangedSource() throws IOException {
+        byte data[] = getRandomData(2500);
+        AbstractFile sourceFile = getSourceFile(data);
+        S3Object file = getFile();
+
+        failingPart = 5;
+        assert !upload(file, data, sourceFile);
+        assert uploads.size() == 1;
+
+        byte changedData[] = data.clone();
+        changedData[0]++;
+        changedData[2499]++;
+        long date = sourceFile.getDate();
+        try (OutputStream out = sourceFile.getOutputStream()) {
+            out.write(changedData);
+        }
+        sourceFile.changeDate(date);
+
+        failingPart = -1;
+        nbUploadedParts.set(0);
+        assert upload(file, changedData, sourceFile);
+
+        assert Arrays.equals(changedData, objects.get(BUCKET + "/" + KEY));
+        // The first and last parts are uploaded again
+        assert nbUploadedParts.get() >= 2 && nbUploadedParts.get() < 9;
+        assert uploads.isEmpty();
+    }
+
+    /**
+     * Asserts that an upload that failed and whose source is unknown is aborted rather than left pending on the server.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testFailedUpload() throws IOException {
+        byte data[] = getRandomData(2500);
+
+        failingPart = 5;
+        assert !upload(getFile(), data, null);
+        assert !objects.containsKey(BUCKET + "/" + KEY);
+        assert uploads.isEmpty();
+    }
+
+    /**
+     * Reads an object with several ranged requests and asserts that the parts are returned in order.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testParallelDownload() throws IOException {
+        byte data[] = getRandomData(2500);
+        objects.put(BUCKET + "/" + KEY, data);
+
+        InputStream in = getFile().getParallelInputStream();
+        try {
+            assert in instanceof S3ParallelInputStream;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamUtils.copyStream(in, out, 128);
+            assert Arrays.equals(data, out.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Copies an object in several parts copied by the server and asserts that the copy is assembled correctly.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testMultipartCopy() throws IOException {
+        byte data[] = getRandomData(2500);
+        objects.put(BUCKET + "/" + KEY, data);
+
+        S3Object copy = getFile(COPY_KEY);
+        getFile().copyRemotelyTo(copy);
+
+        assert Arrays.equals(data, objects.get(BUCKET + "/" + COPY_KEY));
+        assert nbUploadedParts.get() == 9;
+        assert uploads.isEmpty();
+        assert invalidAuthorization == null : invalidAuthorization;
+        assert copy.exists();
+        assert copy.getSize() == data.length;
+    }
+
+    /**
+     * Asserts that a multipart copy that failed is aborted rather than left pending on the server.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testFailedCopy() throws IOException {
+        objects.put(BUCKET + "/" + KEY, getRandomData(2500));
+
+        failingPart = 5;
+        boolean failed = false;
+        try {
+            getFile().copyRemotelyTo(getFile(COPY_KEY));
+        } catch (IOException e) {
+            failed = true;
+        }
+        assert failed;
+        assert !objects.containsKey(BUCKET + "/" + COPY_KEY);
+        assert uploads.isEmpty();
+    }
+
+
+    private S3Object getFile() throws IOException {
+        return getFile(KEY);
+    }
+
+    private S3Object getFile(String key) throws IOException {
+        FileURL url = FileURL.getFileURL("s3://login:password@localhost/" + BUCKET + "/" + key);
+        return new S3Object(url, service, BUCKET);
+    }
+
+    private static boolean upload(S3Object file, byte data[], AbstractFile sourceFile) throws IOException {
+        try {
+            file.copyStream(new ByteArrayInputStream(data), false, data.length, sourceFile);
+            return true;
+        } catch (FileTransferException e) {
+            return false;
+        }
+    }
+
+    private static AbstractFile getSourceFile(byte data[]) throws IOException {
+        File file = File.createTempFile("S3MultipartTest", ".bin");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return FileFactory.getFile(file.getAbsolutePath());
+    }
+
+    private static byte[] getRandomData(int length) {
+        byte data[] = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+
+    ////////////////////////
+    // Stand-in S3 server //
+    ////////////////////////
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("AWS login:") || exchange.getRequestHeaders().getFirst("Date") == null) {
+                invalidAuthorization = String.valueOf(authorization);
+            }
+
+            String objectKey = exchange.getRequestURI().getPath().substring(1);
+            Map<String, String> parameters = new HashMap<>();
+            String query = exchange.getRequestURI().getQuery();
+            for (String parameter : query == null ? new String[0] : query.split("&")) {
+                int equalsPos = parameter.indexOf('=');
+                parameters.put(equalsPos == -1 ? parameter : parameter.substring(0, equalsPos), equalsPos == -1 ? "" : parameter.substring(equalsPos + 1));
+            }
+            String method = exchange.getRequestMethod();
+            String uploadId = parameters.get("uploadId");
+
+            if (method.equals("POST") && parameters.containsKey("uploads")) {
+                uploadId = "upload" + uploadCounter.incrementAndGet();
+                uploads.put(uploadId, new ConcurrentSkipListMap<>());
+                respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+            } else if (uploadId == null || !uploads.containsKey(uploadId)) {
+                respond(exchange, 404, "<Error><Code>NoSuchUpload</Code><Message>No such upload</Message></Error>");
+            } else if (method.equals("PUT")) {
+                int partNumber = Integer.parseInt(parameters.get("partNumber"));
+                byte data[] = readBody(exchange);
+                if (partNumber == failingPart) {
+                    respond(exchange, 500, "<Error><Code>InternalError</Code><Message>Part failed</Message></Error>");
+                    return;
+                }
+                String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+                if (copySource != null) {
+                    byte source[] = objects.get(URLDecoder.decode(copySource.substring(1), "UTF-8"));
+                    String range[] = exchange.getRequestHeaders().getFirst("x-amz-copy-source-range").substring("bytes=".length()).split("-");
+                    data = Arrays.copyOfRange(source, Integer.parseInt(range[0]), Integer.parseInt(range[1]) + 1);
+                }
+                uploads.get(uploadId).put(partNumber, data);
+                nbUploadedParts.incrementAndGet();
+                if (copySource != null) {
+                    respond(exchange, 200, "<CopyPartResult><ETag>" + getETag(partNumber, data).replace("\"", "&quot;") + "</ETag></CopyPartResult>");
+                    return;
+                }
+                exchange.getResponseHeaders().set("ETag", getETag(partNumber, data));
+                exchange.sendResponseHeaders(200, -1);
+            } else if (method.equals("DELETE")) {
+                uploads.remove(uploadId);
+                exchange.sendResponseHeaders(204, -1);
+            } else if (method.equals("GET")) {
+                // Lists two parts per page, so that the client has to follow the markers
+                int marker = parameters.containsKey("part-number-marker") ? Integer.parseInt(parameters.get("part-number-marker")) : 0;
+                StringBuilder result = new StringBuilder("<ListPartsResult>");
+                int nbParts = 0;
+                boolean truncated = false;
+                for (Map.Entry<Integer, byte[]> part : uploads.get(uploadId).tailMap(marker + 1).entrySet()) {
+                    if (nbParts == 2) {
+                        truncated = true;
+                        break;
+                    }
+                    result.append("<Part><PartNumber>").append(part.getKey()).append("</PartNumber><ETag>")
+                            .append(getETag(part.getKey(), part.getValue()).replace("\"", "&quot;"))
+                            .append("</ETag><Size>").append(part.getValue().length).append("</Size></Part>");
+                    marker = part.getKey();
+                    nbParts++;
+                }
+                result.append("<IsTruncated>").append(truncated).append("</IsTruncated>")
+                        .append("<NextPartNumberMarker>").append(marker).append("</NextPartNumberMarker></ListPartsResult>");
+                respond(exchange, 200, result.toString());
+            } else if (method.equals("POST")) {
+                SortedMap<Integer, byte[]> parts = uploads.get(uploadId);
+                NodeList partElements = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                        .parse(new ByteArrayInputStream(readBody(exchange))).getElementsByTagName("Part");
+                ByteArrayOutputStream object = new ByteArrayOutputStream();
+                for (int i = 0; i < partElements.getLength(); i++) {
+                    Element part = (Element)partElements.item(i);
+                    int partNumber = Integer.parseInt(part.getElementsByTagName("PartNumber").item(0).getTextContent());
+                    byte data[] = parts.get(partNumber);
+                    if (data == null || !getETag(partNumber, data).equals(part.getElementsByTagName("ETag").item(0).getTextContent())) {
+                        respond(exchange, 400, "<Error><Code>InvalidPart</Code><Message>Invalid part " + partNumber + "</Message></Error>");
+                        return;
+                    }
+                    object.write(data);
+                }
+                objects.put(objectKey, object.toByteArray());
+                uploads.remove(uploadId);
+                respond(exchange, 200, "<CompleteMultipartUploadResult><Key>" + objectKey + "</Key></CompleteMultipartUploadResult>");
+            } else {
+                respond(exchange, 405, "<Error><Code>MethodNotAllowed</Code><Message>" + method + "</Message></Error>");
+            }
+        } catch (Exception e) {
+            respond(exchange, 500, "<Error><Code>InternalError</Code><Message>" + e + "</Message></Error>");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String getETag(int partNumber, byte data[]) throws NoSuchAlgorithmException {
+        // Like S3, the ETag of a part is the quoted hexadecimal MD5 of its bytes
+        return "\"" + String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(data))) + "\"";
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        StreamUtils.copyStream(exchange.getRequestBody(), body, 1024);
+        return body.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte bytes[] = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+
+    /**
+     * An S3Service that serves the objects stored by the stand-in server. Only the requests made by
+     * <code>S3Object</code> to read objects are supported.
+     */
+    private class InMemoryS3Service extends S3Service {
+
+        private InMemoryS3Service(Jets3tProperties properties) throws S3ServiceException {
+            super(new AWSCredentials("login", "password"), "S3MultipartTest", properties);
+        }
+
+        @Override
+        protected org.jets3t.service.model.S3Object getObjectDetailsImpl(String bucketName, String objectKey, Calendar ifModifiedSince, Calendar ifUnmodifiedSince, String[] ifMatchTags, String[] ifNoneMatchTags) throws S3ServiceException {
+            byte data[] = objects.get(bucketName + "/" + objectKey);
+            if (data == null) {
+                S3ServiceException e = new S3ServiceException("Not found: " + objectKey);
+                e.setResponseCode(404);
+                throw e;
+            }
+            org.jets3t.service.model.S3Object object = new org.jets3t.service.model.S3Object(objectKey);
+            object.setContentLength(data.length);
+            object.setLastModifiedDate(new Date());
+            return object;
+        }
+
+        @Override
+        protected org.jets3t.service.model.S3Object getObjectImpl(String bucketName, String objectKey, Calendar ifModifiedSince, Calendar ifUnmodifiedSince, String[] ifMatchTags, String[] ifNoneMatchTags, Long byteRangeStart, Long byteRangeEnd) throws S3ServiceException {
+            org.jets3t.service.model.S3Object object = getObjectDetailsImpl(bucketName, objectKey, null, null, null, null);
+            byte data[] = objects.get(bucketName + "/" + objectKey);
+            int start = byteRangeStart == null ? 0 : byteRangeStart.intValue();
+            int end = byteRangeEnd == null ? data.length - 1 : Math.min(byteRangeEnd.intValue(), data.length - 1);
+            object.setDataInputStream(new ByteArrayInputStream(data, start, end - start + 1));
+            object.setContentLength(end - start + 1);
+            return object;
+        }
+
+        @Override
+        public boolean isBucketAccessible(String bucketName) {
+            return BUCKET.equals(bucketName);
+        }
+
+        @Override
+        public int checkBucketStatus(String bucketName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected String getBucketLocationImpl(String bucketName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected S3BucketLoggingStatus getBucketLoggingStatusImpl(String bucketName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void setBucketLoggingStatusImpl(String bucketName, S3BucketLoggingStatus status) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void setRequesterPaysBucketImpl(String bucketName, boolean requesterPays) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected boolean isRequesterPaysBucketImpl(String bucketName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected S3Bucket[] listAllBucketsImpl() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected S3Owner getAccountOwnerImpl() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected org.jets3t.service.model.S3Object[] listObjectsImpl(String bucketName, String prefix, String delimiter, long maxListingLength) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected S3ObjectsChunk listObjectsChunkedImpl(String bucketName, String prefix, String delimiter, long maxListingLength, String priorLastKey, boolean completeListing) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected S3Bucket createBucketImpl(String bucketName, String location, AccessControlList acl) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void deleteBucketImpl(String bucketName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected org.jets3t.service.model.S3Object putObjectImpl(String bucketName, org.jets3t.service.model.S3Object object) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected Map copyObjectImpl(String sourceBucketName, String sourceObjectKey, String destinationBucketName, String destinationObjectKey, AccessControlList acl, Map destinationMetadata, Calendar ifModifiedSince, Calendar ifUnmodifiedSince, String[] ifMatchTags, String[] ifNoneMatchTags) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void deleteObjectImpl(String bucketName, String objectKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void putBucketAclImpl(String bucketName, AccessControlList acl) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void putObjectAclImpl(String bucketName, String objectKey, AccessControlList acl) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected AccessControlList getObjectAclImpl(String bucketName, String objectKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected AccessControlList getBucketAclImpl(String bucketName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void shutdownImpl() {
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.mucommander.commons.file.FileOperation;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 
 /**
@@ -69,6 +70,7 @@ public class SFTPFileTest extends AbstractFileTest {
             FileOperation.CREATE_DIRECTORY,
             FileOperation.LIST_CHILDREN,
             FileOperation.DELETE,
+            FileOperation.COPY_REMOTELY,
             FileOperation.RENAME,
             FileOperation.CHANGE_DATE,
             FileOperation.CHANGE_PERMISSION,
@@ -81,6 +83,37 @@ public class SFTPFileTest extends AbstractFileTest {
     }
 
 
+    ///////////
+    // Tests //
+    ///////////
+
+    /**
+     * Writes and reads files over several connections at once, with a part size that doesn't divide the file sizes.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testParallelTransfers() throws IOException, NoSuchAlgorithmException {
+        long threshold = SFTPFile.getParallelTransferThreshold();
+        int partSize = SFTPFile.getParallelTransferPartSize();
+        int nbStreams = SFTPFile.getParallelTransferStreams();
+        SFTPFile.setParallelTransfers(100000, 30000, 3);
+        try {
+            for (long length : new long[] {150000, 300000, 999999}) {
+                String md5 = createFile(tempFile, length);
+                SFTPFile sftpFile = tempFile.getAncestor(SFTPFile.class);
+                try (InputStream in = sftpFile.getParallelInputStream()) {
+                    assert md5.equals(calculateMd5(in));
+                }
+                assert md5.equals(calculateMd5(tempFile));
+            }
+        } finally {
+            SFTPFile.setParallelTransfers(threshold, partSize, nbStreams);
+        }
+    }
+
+
     ////////////////////////
     // Overridden methods //
     ////////////////////////
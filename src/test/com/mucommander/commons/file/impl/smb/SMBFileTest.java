@@ -22,9 +22,15 @@ import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.AbstractFileTest;
 import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.io.StreamUtils;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * An {@link AbstractFileTest} implementation for {@link com.mucommander.commons.file.impl.smb.SMBFile}.
@@ -83,4 +89,46 @@ public class SMBFileTest extends AbstractFileTest {
             FileOperation.GET_FREE_SPACE,
         };
     }
+
+
+    ////////////////////////
+    // SMB-specific tests //
+    ////////////////////////
+
+    /**
+     * Asserts that files written and read in chunks, several at a time, are transferred intact, whether they are
+     * overwritten or appended to.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testParallelTransfers() throws IOException {
+        long threshold = SMBFile.getParallelThreshold();
+        int chunkSize = SMBFile.getParallelChunkSize();
+        int nbRequests = SMBFile.getParallelRequests();
+        // Chunks that are not a multiple of the read and write sizes
+        SMBFile.setParallelTransfers(1, 100003, 4);
+        try {
+            byte data[] = new byte[1000000];
+            new Random(0).nextBytes(data);
+            SMBFile file = deleteWhenFinished(getTemporaryFile()).getAncestor(SMBFile.class);
+
+            file.copyStream(new ByteArrayInputStream(data, 0, 600000), false, 600000);
+            file.copyStream(new ByteArrayInputStream(data, 600000, 400000), true, 400000);
+            assert file.getSize() == data.length;
+
+            byte read[];
+            try (InputStream in = file.getParallelInputStream()) {
+                read = StreamUtils.readFully(in, new byte[data.length]);
+                assert in.read() == -1;
+            }
+            assert Arrays.equals(data, read);
+
+            // Overwriting truncates the file
+            file.copyStream(new ByteArrayInputStream(data, 0, 500000), false, 500000);
+            assert file.getSize() == 500000;
+        } finally {
+            SMBFile.setParallelTransfers(threshold, chunkSize, nbRequests);
+        }
+    }
 }
@@ -197,4 +197,33 @@ public class FileComparatorTest {
         assert A.equals(files[3]);
     }
     
+
+    /**
+     * Asserts that the directory attribute is not queried when it doesn't affect the comparison, and that the value
+     * returned by {@link FileComparator#isDirectory(AbstractFile)} is used when it does.
+     */
+    @Test
+    public void testIsDirectoryOverride() {
+        final int nbCalls[] = new int[1];
+        Arrays.sort(files, new FileComparator(FileComparator.NAME_CRITERION, true, false) {
+            @Override
+            protected boolean isDirectory(AbstractFile file) {
+                nbCalls[0]++;
+                return file.isDirectory();
+            }
+        });
+        assert nbCalls[0] == 0;
+
+        // Directories compared as regular files
+        Arrays.sort(files, new FileComparator(FileComparator.NAME_CRITERION, true, true) {
+            @Override
+            protected boolean isDirectory(AbstractFile file) {
+                return false;
+            }
+        });
+        assert A.equals(files[0]);
+        assert B.equals(files[1]);
+        assert C.equals(files[2]);
+        assert D.equals(files[3]);
+    }
 }
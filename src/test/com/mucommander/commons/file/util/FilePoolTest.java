@@ -0,0 +1,119 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileURL;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A test case for {@link FilePool}.
+ */
+public class FilePoolTest {
+
+    /**
+     * Tests the basic operations of the pool.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testPutGet() throws IOException {
+        FilePool pool = new FilePool();
+        AbstractFile file1 = FileFactory.getTemporaryFile("FilePoolTest1", false);
+        AbstractFile file2 = FileFactory.getTemporaryFile("FilePoolTest2", false);
+        FileURL url = file1.getURL();
+
+        assert pool.put(url, file1) == null;
+        assert pool.get(url) == file1;
+        assert pool.containsKey(url);
+        assert pool.containsValue(file1);
+        assert !pool.containsValue(file2);
+        assert pool.size() == 1;
+
+        assert pool.put(url, file2) == file1;
+        assert pool.get(url) == file2;
+        assert pool.size() == 1;
+
+        pool.clear();
+        assert pool.get(url) == null;
+        assert !pool.containsKey(url);
+        assert pool.size() == 0;
+    }
+
+    /**
+     * Asserts that files that are no longer referenced are removed from the pool.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testGarbageCollectedFiles() throws Exception {
+        FilePool pool = new FilePool();
+        // Distinct instances that are not referenced by anything else
+        for (int i = 0; i < 100; i++) {
+            pool.put(i, FileFactory.getTemporaryFile("FilePoolTest" + i, false));
+        }
+        // Garbage collection is not guaranteed to happen, give it chances until the deadline
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.size() == 100 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assert pool.size() < 100;
+    }
+
+    /**
+     * Asserts that files put concurrently by several threads can all be retrieved.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final FilePool pool = new FilePool();
+        final AbstractFile file = FileFactory.getTemporaryFile(false);
+        List<Thread> threads = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int threadIndex = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        String key = threadIndex + ":" + i;
+                        pool.put(key, file);
+                        assert pool.get(key) == file;
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert errors.isEmpty();
+        assert pool.size() == 8000;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the time taken by {@link EncodingDetector#detectEncoding(byte[], int, int)} over a corpus of samples,
+ * compared with the ICU recognizers alone, which the detector used to run for every sample.
+ *
+ * <p>The corpus is made of the first bytes of the files of the folder given as argument, or of generated samples in
+ * various encodings if there is none.</p>
+ *
+ * <p>This is not a test case, run it with <code>java com.mucommander.commons.io.EncodingDetectorBenchmark [folder]</code>.</p>
+ */
+public class EncodingDetectorBenchmark {
+
+    /** Number of times the corpus is processed during a run */
+    private static final int NB_ITERATIONS = 200;
+
+    public static void main(String args[]) throws IOException {
+        Map<String, byte[]> samples = args.length > 0 ? readSamples(new File(args[0])) : generateSamples();
+
+        for (Map.Entry<String, byte[]> sample : samples.entrySet()) {
+            byte bytes[] = sample.getValue();
+            System.out.println(String.format("  %-40s %-14s %-14s", sample.getKey(),
+                    EncodingDetector.detectEncoding(bytes, 0, bytes.length),
+                    EncodingDetector.detectEncodingWithRecognizers(bytes, 0, bytes.length)));
+        }
+
+        for (int run = 0; run < 3; run++) {
+            // The first run warms the JIT up
+            System.out.println("Run " + (run + 1));
+            benchmark("detector", samples.values(), false);
+            benchmark("ICU recognizers only", samples.values(), true);
+        }
+    }
+
+    private static void benchmark(String name, Iterable<byte[]> samples, boolean recognizersOnly) {
+        int nbSamples = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < NB_ITERATIONS; i++) {
+            for (byte bytes[] : samples) {
+                if (recognizersOnly) {
+                    EncodingDetector.detectEncodingWithRecognizers(bytes, 0, bytes.length);
+                } else {
+                    EncodingDetector.detectEncoding(bytes, 0, bytes.length);
+                }
+                nbSamples++;
+            }
+        }
+        long duration = System.nanoTime() - start;
+        System.out.println(String.format("  %-24s %10.0f samples/s %10.0f ns/sample", name,
+                nbSamples * 1e9 / duration, duration / (double)nbSamples));
+    }
+
+    private static Map<String, byte[]> readSamples(File folder) throws IOException {
+        Map<String, byte[]> samples = new LinkedHashMap<>();
+        List<File> files = new ArrayList<>();
+        File children[] = folder.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isFile()) {
+                    files.add(child);
+                }
+            }
+        }
+        for (File file : files) {
+            byte buffer[] = new byte[EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE];
+            int length;
+            try (InputStream in = new FileInputStream(file)) {
+                length = StreamUtils.readUpTo(in, buffer);
+            }
+            // Same limit as the detector
+            if (length >= 4) {
+                byte bytes[] = new byte[length];
+                System.arraycopy(buffer, 0, bytes, 0, length);
+                samples.put(file.getName(), bytes);
+            }
+        }
+        return samples;
+    }
+
+    private static Map<String, byte[]> generateSamples() {
+        String english = "public static void main(String args[]) {\n    System.out.println(\"Hello, world\");\n}\n";
+        String russian = "Съешь же ещё этих мягких французских булок, да выпей чаю.\n";
+        String french = "Le cœur déçu mais l'âme plutôt naïve, Louÿs rêva de crapaüter en canoë au delà des îles.\n";
+        String japanese = "日本語のテキストです。これはテストの文章で、文字コードの検出を確認します。\n";
+        String chinese = "这是一个中文文本，用于测试字符编码检测。\n";
+
+        Map<String, byte[]> samples = new LinkedHashMap<>();
+        addSample(samples, english, "US-ASCII");
+        addSample(samples, english + russian, "UTF-8");
+        addSample(samples, japanese, "UTF-8");
+        addSample(samples, '\uFEFF' + english, "UTF-16LE");
+        addSample(samples, russian, "windows-1251");
+        addSample(samples, russian, "KOI8-R");
+        addSample(samples, french, "ISO-8859-1");
+        addSample(samples, japanese, "Shift_JIS");
+        addSample(samples, japanese, "EUC-JP");
+        addSample(samples, chinese, "GB18030");
+        return samples;
+    }
+
+    private static void addSample(Map<String, byte[]> samples, String text, String encoding) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE) {
+            sb.append(text);
+        }
+        byte bytes[] = sb.toString().getBytes(Charset.forName(encoding));
+        int length = Math.min(bytes.length, EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE);
+        byte sample[] = new byte[length];
+        System.arraycopy(bytes, 0, sample, 0, length);
+        samples.put(encoding + " (" + text.length() + " chars repeated)", sample);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A test case for {@link EncodingDetector} and {@link BinaryDetector}.
+ */
+public class EncodingDetectorTest {
+
+    private final static String ENGLISH = "The quick brown fox jumps over the lazy dog.\n";
+    private final static String RUSSIAN = "Съешь же ещё этих мягких французских булок, да выпей чаю.\n";
+    private final static String JAPANESE = "日本語のテキストです。これはテストの文章です。\n";
+
+    /**
+     * Asserts that byte-order marks, ASCII and UTF-8 are recognized without the ICU recognizers.
+     */
+    @Test
+    public void testFastPath() {
+        assert "ISO-8859-1".equals(detect(repeat(ENGLISH), "US-ASCII"));
+        assert "UTF-8".equals(detect(repeat(RUSSIAN), "UTF-8"));
+        assert "UTF-8".equals(detect(repeat(JAPANESE), "UTF-8"));
+        assert "UTF-8".equals(detect('\uFEFF' + repeat(ENGLISH), "UTF-8"));
+        assert "UTF-16LE".equals(detect('\uFEFF' + repeat(RUSSIAN), "UTF-16LE"));
+        assert "UTF-16BE".equals(detect('\uFEFF' + repeat(RUSSIAN), "UTF-16BE"));
+        assert "UTF-32LE".equals(detect('\uFEFF' + repeat(ENGLISH), "UTF-32LE"));
+    }
+
+    /**
+     * Asserts that pure ASCII is only reported as UTF-8 when enabled, as later bytes may not be valid UTF-8.
+     */
+    @Test
+    public void testASCIIAsUTF8() {
+        assert !EncodingDetector.isASCIIAsUTF8();
+        EncodingDetector.setASCIIAsUTF8(true);
+        try {
+            assert "UTF-8".equals(detect(repeat(ENGLISH), "US-ASCII"));
+        } finally {
+            EncodingDetector.setASCIIAsUTF8(false);
+        }
+        assert "ISO-8859-1".equals(detect(repeat(ENGLISH), "US-ASCII"));
+    }
+
+    /**
+     * Asserts that data that is neither ASCII nor UTF-8 is handed to the ICU recognizers.
+     */
+    @Test
+    public void testRecognizers() {
+        assert "windows-1251".equals(detect(repeat(RUSSIAN), "windows-1251"));
+        assert "Shift_JIS".equals(detect(repeat(JAPANESE), "Shift_JIS"));
+        // 7-bit, but not ASCII
+        assert "ISO-2022-JP".equals(detect(repeat(JAPANESE), "ISO-2022-JP"));
+    }
+
+    /**
+     * Asserts that a UTF-8 sequence cut by the end of the data is accepted, but not an invalid one.
+     */
+    @Test
+    public void testStatistics() {
+        byte utf8[] = RUSSIAN.getBytes(Charset.forName("UTF-8"));
+        ByteStatistics statistics = new ByteStatistics();
+        statistics.update(utf8, 0, 3);
+        assert statistics.isUTF8();
+        statistics.update(utf8, 3, utf8.length - 3);
+        assert statistics.isUTF8();
+        assert statistics.getNbLineFeeds() == 1;
+        assert !statistics.isASCII();
+
+        statistics.update(new byte[] {(byte)0xD0, 'a'}, 0, 2);
+        assert !statistics.isUTF8();
+    }
+
+    /**
+     * Asserts that the stream methods read the stream in chunks, push the bytes back, and stop after a byte-order mark.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testStreams() throws IOException {
+        byte bytes[] = repeat(RUSSIAN).getBytes(Charset.forName("UTF-8"));
+        PushbackInputStream in = new PushbackInputStream(new ChunkedInputStream(bytes), EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE);
+        assert "UTF-8".equals(EncodingDetector.detectEncoding(in));
+        byte read[] = new byte[bytes.length];
+        assert StreamUtils.readUpTo(in, read) == bytes.length;
+        assert Arrays.equals(bytes, read);
+
+        bytes = ('\uFEFF' + repeat(ENGLISH)).getBytes(Charset.forName("UTF-16BE"));
+        InputStream bomIn = new ByteArrayInputStream(bytes);
+        assert "UTF-16BE".equals(EncodingDetector.detectEncoding(bomIn));
+        assert bomIn.available() > bytes.length - EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE;
+    }
+
+    /**
+     * Asserts that NUL bytes denote binary data, unless the data starts with a UTF-16 or UTF-32 byte-order mark.
+     */
+    @Test
+    public void testBinary() {
+        byte text[] = repeat(ENGLISH).getBytes(Charset.forName("US-ASCII"));
+        assert !BinaryDetector.guessBinary(text);
+        text[text.length - 1] = 0;
+        assert BinaryDetector.guessBinary(text);
+        assert !BinaryDetector.guessBinary(('\uFEFF' + ENGLISH).getBytes(Charset.forName("UTF-16LE")));
+    }
+
+
+    private static String repeat(String s) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static String detect(String text, String encoding) {
+        return EncodingDetector.detectEncoding(text.getBytes(Charset.forName(encoding)));
+    }
+
+    /**
+     * Returns at most 1000 bytes per read, to cut multi-byte sequences.
+     */
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private ChunkedInputStream(byte bytes[]) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte b[], int off, int len) {
+            return super.read(b, off, Math.min(len, 1000));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test case for {@link ParallelInputStream}.
+ */
+public class ParallelInputStreamTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Asserts that the parts read concurrently are returned in order, whatever the order in which they are read.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testOrder() throws Exception {
+        byte data[] = new byte[100000];
+        new Random().nextBytes(data);
+
+        for (int partSize : new int[] {1000, 4096, 100000, 200000}) {
+            TestInputStream in = new TestInputStream(data, data.length, partSize, 4, 0);
+            assert Arrays.equals(data, readAll(in));
+
+            // The workers close their reader once they are done
+            long deadline = System.currentTimeMillis() + 5000;
+            while (in.nbClosedReaders.get() < in.nbOpenedReaders.get() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assert in.nbClosedReaders.get() == in.nbOpenedReaders.get();
+        }
+    }
+
+    /**
+     * Asserts that a file shorter than expected makes the stream throw an <code>EOFException</code>.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTruncatedFile() throws IOException {
+        byte data[] = new byte[10000];
+        try (InputStream in = new TestInputStream(data, 15000, 1000, 4, 0)) {
+            readAll(in);
+            assert false;
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Asserts that the stream does without the workers that could not open the file, and fails if none of them could.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testOpenFailures() throws IOException {
+        byte data[] = new byte[10000];
+        new Random().nextBytes(data);
+        assert Arrays.equals(data, readAll(new TestInputStream(data, data.length, 1000, 4, 3)));
+
+        try {
+            readAll(new TestInputStream(data, data.length, 1000, 4, 4));
+            assert false;
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte buffer[] = new byte[3000];
+        int nbRead;
+        while ((nbRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, nbRead);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Reads a byte array, returning few bytes at a time after random delays.
+     */
+    private class TestInputStream extends ParallelInputStream {
+        private final byte data[];
+        private final AtomicInteger nbFailures;
+        private final AtomicInteger nbOpenedReaders = new AtomicInteger();
+        private final AtomicInteger nbClosedReaders = new AtomicInteger();
+
+        private TestInputStream(byte data[], long length, int partSize, int nbStreams, int nbFailures) {
+            super("test", length, partSize, nbStreams);
+            this.data = data;
+            this.nbFailures = new AtomicInteger(nbFailures);
+            start(executor);
+        }
+
+        @Override
+        protected PartReader openPartReader() throws IOException {
+            if (nbFailures.getAndDecrement() > 0) {
+                throw new IOException();
+            }
+            nbOpenedReaders.incrementAndGet();
+            Random random = new Random();
+            return new PartReader() {
+                @Override
+                public int read(long offset, byte b[], int off, int len) throws IOException {
+                    if (offset >= data.length) {
+                        return -1;
+                    }
+                    try {
+                        Thread.sleep(random.nextInt(3));
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    int nbBytes = Math.min(Math.min(len, 1 + random.nextInt(2000)), data.length - (int)offset);
+                    System.arraycopy(data, (int)offset, b, off, nbBytes);
+                    return nbBytes;
+                }
+
+                @Override
+                public void close() {
+                    nbClosedReaders.incrementAndGet();
+                }
+            };
+        }
+    }
+}
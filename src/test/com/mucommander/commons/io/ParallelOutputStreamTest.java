@@ -0,0 +1,120 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A test case for {@link ParallelOutputStream}.
+ */
+public class ParallelOutputStreamTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Asserts that the parts written concurrently end up at their offset, starting at the stream's offset.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testOffsets() throws IOException {
+        byte data[] = new byte[100000];
+        new Random().nextBytes(data);
+
+        for (int offset : new int[] {0, 1234}) {
+            TestOutputStream out = new TestOutputStream(offset + data.length, offset, 1000, 4, -1);
+            Random random = new Random();
+            int position = 0;
+            while (position < data.length) {
+                int len = Math.min(random.nextInt(3000), data.length - position);
+                out.write(data, position, len);
+                position += len;
+            }
+            out.close();
+            assert Arrays.equals(data, Arrays.copyOfRange(out.file, offset, out.file.length));
+        }
+    }
+
+    /**
+     * Asserts that a part that could not be written makes the stream fail.
+     */
+    @Test
+    public void testWriteFailure() {
+        TestOutputStream out = new TestOutputStream(100000, 0, 1000, 4, 5000);
+        try {
+            out.write(new byte[100000]);
+            out.close();
+            assert false;
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Writes a byte array after random delays, failing at a given offset.
+     */
+    private class TestOutputStream extends ParallelOutputStream {
+        private final byte file[];
+        private final long failureOffset;
+
+        private TestOutputStream(int length, long offset, int partSize, int nbStreams, long failureOffset) {
+            super("test", offset, partSize, nbStreams);
+            this.file = new byte[length];
+            this.failureOffset = failureOffset;
+            start(executor);
+        }
+
+        @Override
+        protected PartWriter openPartWriter() {
+            Random random = new Random();
+            return new PartWriter() {
+                @Override
+                public void write(long offset, byte b[], int off, int len) throws IOException {
+                    if (offset <= failureOffset && failureOffset < offset + len) {
+                        throw new IOException();
+                    }
+                    try {
+                        Thread.sleep(random.nextInt(3));
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    synchronized (file) {
+                        System.arraycopy(b, off, file, (int)offset, len);
+                    }
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
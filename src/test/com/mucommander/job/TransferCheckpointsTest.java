@@ -0,0 +1,167 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.job;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+/**
+ * A test case for {@link TransferCheckpoints}.
+ */
+public class TransferCheckpointsTest {
+
+    private AbstractFile checkpointsFile;
+    private AbstractFile source;
+    private AbstractFile destination;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        checkpointsFile = FileFactory.getTemporaryFile(getClass().getName() + ".txt", true);
+        source = FileFactory.getTemporaryFile(getClass().getName() + ".source", true);
+        destination = FileFactory.getTemporaryFile(getClass().getName() + ".destination", true);
+        write(source, TransferCheckpoints.MIN_FILE_SIZE);
+        write(destination, 1000);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        for (AbstractFile file : new AbstractFile[] {checkpointsFile, source, destination}) {
+            if (file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Asserts that checkpoints are saved and loaded again.
+     */
+    @Test
+    public void testPersistence() {
+        TransferCheckpoints checkpoints = new TransferCheckpoints(checkpointsFile);
+        checkpoints.update(source, destination, 1000, 1234);
+        checkpoints.save(true);
+
+        TransferCheckpoints.Checkpoint checkpoint = new TransferCheckpoints(checkpointsFile).get(source, destination);
+        assert checkpoint != null;
+        assert checkpoint.getBytesDone() == 1000;
+        assert checkpoint.getChecksum() == 1234;
+        assert !checkpoint.isCompleted();
+
+        checkpoints.remove(source, destination);
+        checkpoints.save(true);
+        assert new TransferCheckpoints(checkpointsFile).get(source, destination) == null;
+    }
+
+    /**
+     * Asserts that completed transfers are only recorded in memory, and that transfers to local destinations are not
+     * checkpointed.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCompletedNotSaved() throws IOException {
+        TransferCheckpoints checkpoints = new TransferCheckpoints(checkpointsFile);
+        checkpoints.update(source, destination, 1000, 1234);
+        checkpoints.save(true);
+        assert new TransferCheckpoints(checkpointsFile).get(source, destination) != null;
+
+        write(destination, source.getSize());
+        checkpoints.completed(source, destination);
+        checkpoints.save(true);
+        assert checkpoints.get(source, destination).isCompleted();
+        assert new TransferCheckpoints(checkpointsFile).get(source, destination) == null;
+
+        assert !TransferCheckpoints.isCheckpointed(source, destination);
+    }
+
+    /**
+     * Asserts that checkpoints are discarded when the source has changed or when the destination is shorter than
+     * what was written.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testValidation() throws IOException {
+        TransferCheckpoints checkpoints = new TransferCheckpoints(checkpointsFile);
+        checkpoints.update(source, destination, 2000, 1234);
+        assert checkpoints.get(source, destination) == null;
+
+        checkpoints.update(source, destination, 1000, 1234);
+        source.changeDate(source.getDate() - 10000);
+        assert checkpoints.get(source, destination) == null;
+
+        checkpoints.completed(source, destination);
+        assert checkpoints.get(source, destination) == null;
+
+        write(destination, source.getSize());
+        checkpoints.completed(source, destination);
+        assert checkpoints.get(source, destination).isCompleted();
+
+        // A destination modified after the transfer completed is not skipped
+        destination.changeDate(destination.getDate() - 10000);
+        assert checkpoints.get(source, destination) == null;
+    }
+
+    /**
+     * Asserts that the checkpoints recorded while a file is read lag one interval behind, with the checksum of the
+     * bytes before them.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCheckpointingStream() throws IOException {
+        byte data[] = new byte[(int)(2 * TransferCheckpoints.CHECKPOINT_INTERVAL + 1000)];
+        new Random().nextBytes(data);
+        write(destination, data.length);
+
+        TransferCheckpoints checkpoints = new TransferCheckpoints(checkpointsFile);
+        byte buffer[] = new byte[65536];
+        try (InputStream in = checkpoints.getCheckpointingInputStream(new ByteArrayInputStream(data), source, destination, 0, new Adler32())) {
+            // No checkpoint until the second interval has been read
+            while (in.read(buffer) != -1 && checkpointsFile.getSize() <= 0) {
+                assert checkpoints.get(source, destination) == null;
+            }
+        }
+
+        TransferCheckpoints.Checkpoint checkpoint = new TransferCheckpoints(checkpointsFile).get(source, destination);
+        assert checkpoint != null;
+        assert checkpoint.getBytesDone() >= TransferCheckpoints.CHECKPOINT_INTERVAL;
+        assert checkpoint.getBytesDone() < 2 * TransferCheckpoints.CHECKPOINT_INTERVAL;
+
+        Adler32 checksum = new Adler32();
+        checksum.update(data, 0, (int)checkpoint.getBytesDone());
+        assert checkpoint.getChecksum() == checksum.getValue();
+    }
+
+
+    private static void write(AbstractFile file, long size) throws IOException {
+        try (OutputStream out = file.getOutputStream()) {
+            out.write(new byte[(int)size]);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.main.table.views;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.impl.TestFile;
+import org.testng.annotations.Test;
+
+import java.net.MalformedURLException;
+
+/**
+ * A test case for {@link AttributesPrefetcher}.
+ */
+public class AttributesPrefetcherTest {
+
+    /**
+     * Asserts that the attributes of all files are fetched, and that the thread pool of the realm is shut down once
+     * there is nothing left to fetch.
+     *
+     * @throws InterruptedException should not happen
+     * @throws MalformedURLException should not happen
+     */
+    @Test
+    public void testPoolShutdown() throws InterruptedException, MalformedURLException {
+        AbstractFile files[] = new AbstractFile[20];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new TestFile(FileFactory.getTemporaryFolder() + "file" + i, i % 2 == 0, i, i, null);
+        }
+        AttributesPrefetcher prefetcher = new AttributesPrefetcher(files, null);
+        prefetcher.start();
+
+        long timeout = System.currentTimeMillis() + 10000;
+        while ((prefetcher.hasPendingFiles() || AttributesPrefetcher.getExecutorCount() > 0) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assert !prefetcher.hasPendingFiles();
+        assert AttributesPrefetcher.getExecutorCount() == 0;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.main.table.views.thumbnails;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A test case for {@link ThumbnailCache}.
+ */
+public class ThumbnailCacheTest {
+
+    private File root;
+    private File folder;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("thumbnails").toFile();
+        folder = Files.createTempDirectory("files").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        delete(root);
+        delete(folder);
+    }
+
+    /**
+     * Asserts that thumbnails are named as in the example of the freedesktop.org thumbnail specification.
+     */
+    @Test
+    public void testThumbnailName() {
+        if (File.separatorChar != '/') {
+            return;
+        }
+        File file = new File("/home/jens/photos/me.png");
+        assert "file:///home/jens/photos/me.png".equals(ThumbnailCache.getURI(file));
+        assert "c6ee772d9e49320e97ec29a7eb5b1697.png".equals(ThumbnailCache.getThumbnailName(file));
+        assert "file:///home/jens/my%20photos/me.png".equals(ThumbnailCache.getURI(new File("/home/jens/my photos/me.png")));
+    }
+
+    /**
+     * Asserts that a thumbnail is returned until its file is modified.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testPutGet() throws IOException {
+        ThumbnailCache cache = new ThumbnailCache(root, Long.MAX_VALUE);
+        File file = createFile("image.png", 100);
+        assert cache.get(file) == null;
+
+        cache.put(file, new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB));
+        assert new File(new File(root, "normal"), ThumbnailCache.getThumbnailName(file)).isFile();
+        BufferedImage thumbnail = cache.get(file);
+        assert thumbnail != null;
+        assert thumbnail.getWidth() == 64 && thumbnail.getHeight() == 32;
+
+        boolean modified = file.setLastModified(file.lastModified() + 10000);
+        assert modified;
+        assert cache.get(file) == null;
+    }
+
+    /**
+     * Asserts that a file that couldn't be thumbnailed is not tried again until it is modified.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testFailure() throws IOException {
+        ThumbnailCache cache = new ThumbnailCache(root, Long.MAX_VALUE);
+        File file = createFile("broken.png", 10);
+        assert !cache.hasFailed(file);
+
+        cache.putFailure(file);
+        assert cache.hasFailed(file);
+        assert cache.get(file) == null;
+
+        createFile("broken.png", 20);
+        assert !cache.hasFailed(file);
+    }
+
+    /**
+     * Asserts that the least recently written thumbnails are deleted once the cache is full.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testEviction() throws IOException {
+        File[] files = new File[3];
+        File[] thumbnails = new File[files.length];
+        ThumbnailCache cache = new ThumbnailCache(root, Long.MAX_VALUE);
+        for (int i = 0; i < files.length; i++) {
+            files[i] = createFile("image" + i + ".png", 100);
+            cache.put(files[i], new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+            thumbnails[i] = new File(new File(root, "normal"), ThumbnailCache.getThumbnailName(files[i]));
+            boolean modified = thumbnails[i].setLastModified(1000000000000L + i * 10000);
+            assert modified;
+        }
+
+        new ThumbnailCache(root, thumbnails[1].length() + thumbnails[2].length()).evict();
+        assert !thumbnails[0].exists();
+        assert thumbnails[1].exists();
+        assert thumbnails[2].exists();
+    }
+
+    /**
+     * Asserts that the thumbnails written by other applications in the shared folder are never evicted, nor counted
+     * in the size of the cache.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testEvictionKeepsOtherThumbnails() throws IOException {
+        File normalFolder = new File(root, "normal");
+        boolean created = normalFolder.mkdirs();
+        assert created;
+        File otherThumbnail = new File(normalFolder, "0123456789abcdef0123456789abcdef.png");
+        ImageIO.write(new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB), "png", otherThumbnail);
+        boolean modified = otherThumbnail.setLastModified(1000000000000L);
+        assert modified;
+
+        ThumbnailCache cache = new ThumbnailCache(root, Long.MAX_VALUE);
+        File file = createFile("image.png", 100);
+        cache.put(file, new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+        File thumbnail = new File(normalFolder, ThumbnailCache.getThumbnailName(file));
+
+        new ThumbnailCache(root, thumbnail.length()).evict();
+        assert otherThumbnail.exists();
+        assert thumbnail.exists();
+
+        new ThumbnailCache(root, 0).evict();
+        assert otherThumbnail.exists();
+        assert !thumbnail.exists();
+    }
+
+
+    private File createFile(String name, int size) throws IOException {
+        File file = new File(folder, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[size]);
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
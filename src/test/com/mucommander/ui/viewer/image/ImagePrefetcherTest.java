@@ -0,0 +1,115 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.image;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.annotations.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test case for {@link ImagePrefetcher}.
+ */
+public class ImagePrefetcherTest {
+
+    /**
+     * Asserts that prefetched images are decoded once and returned from the cache.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testPrefetch() throws Exception {
+        final AtomicInteger nbDecoded = new AtomicInteger();
+        ImagePrefetcher prefetcher = new ImagePrefetcher(file -> {
+            nbDecoded.incrementAndGet();
+            return new DecodedImage(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), 24);
+        });
+        AbstractFile file1 = getFile("1");
+        AbstractFile file2 = getFile("2");
+        assert prefetcher.get(file1) == null;
+
+        prefetcher.prefetch(Arrays.asList(file1, file2));
+        DecodedImage image1 = prefetcher.get(file1);
+        assert image1 != null;
+        assert prefetcher.get(file2) != null;
+        assert prefetcher.get(file1) == image1;
+
+        prefetcher.prefetch(Arrays.asList(file2, file1));
+        assert nbDecoded.get() == 2;
+
+        prefetcher.close();
+        assert prefetcher.get(file1) == null;
+    }
+
+    /**
+     * Asserts that prefetches that haven't started are cancelled when other images are wanted instead.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testCancel() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger nbDecoded = new AtomicInteger();
+        ImagePrefetcher prefetcher = new ImagePrefetcher(file -> {
+            nbDecoded.incrementAndGet();
+            started.countDown();
+            release.await();
+            return new DecodedImage(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), 24);
+        });
+        try {
+            // Keeps both prefetching threads busy
+            prefetcher.prefetch(Arrays.asList(getFile("busy1"), getFile("busy2")));
+            assert started.await(5, TimeUnit.SECONDS);
+
+            AbstractFile stale = getFile("stale");
+            prefetcher.prefetch(Arrays.asList(getFile("busy1"), getFile("busy2"), stale));
+            prefetcher.prefetch(Arrays.asList(getFile("busy1"), getFile("busy2")));
+            assert prefetcher.get(stale) == null;
+        } finally {
+            release.countDown();
+        }
+        assert prefetcher.get(getFile("busy1")) != null;
+        assert prefetcher.get(getFile("busy2")) != null;
+        assert nbDecoded.get() == 2;
+        prefetcher.close();
+    }
+
+    /**
+     * Asserts that tiled images are not cached, as they hold a reader open.
+     */
+    @Test
+    public void testTooLarge() {
+        ImagePrefetcher prefetcher = new ImagePrefetcher(file -> DecodedImage.TOO_LARGE);
+        AbstractFile file = getFile("large");
+        prefetcher.prefetch(Collections.singletonList(file));
+        assert prefetcher.get(file) == null;
+        prefetcher.close();
+    }
+
+
+    private static AbstractFile getFile(String name) {
+        return FileFactory.getFile(System.getProperty("java.io.tmpdir") + "/prefetch-test-" + name + ".png");
+    }
+}
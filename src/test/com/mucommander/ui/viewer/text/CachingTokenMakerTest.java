@@ -0,0 +1,91 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.text;
+
+import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.fife.ui.rsyntaxtextarea.Token;
+import org.fife.ui.rsyntaxtextarea.TokenMaker;
+import org.fife.ui.rsyntaxtextarea.TokenMakerFactory;
+import org.fife.ui.rsyntaxtextarea.TokenTypes;
+import org.testng.annotations.Test;
+
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A test case for {@link CachingTokenMaker}.
+ */
+public class CachingTokenMakerTest {
+
+    private final static String[] LINES = {
+            "package test;",
+            "/* A comment",
+            "   spanning lines */ public class Test {",
+            "    private String s = \"http://www.trolsoft.ru\"; // comment",
+            "",
+            "}"
+    };
+
+    /**
+     * Asserts that cached tokens are the same as the tokens of the wrapped token maker, with offsets relative to the
+     * requested start offset.
+     */
+    @Test
+    public void testTokens() {
+        TokenMaker tokenMaker = TokenMakerFactory.getDefaultInstance().getTokenMaker(SyntaxConstants.SYNTAX_STYLE_JAVA);
+        TokenMaker cachingTokenMaker = new CachingTokenMaker.Factory().getTokenMaker(SyntaxConstants.SYNTAX_STYLE_JAVA);
+        assert cachingTokenMaker instanceof CachingTokenMaker;
+
+        for (int startOffset : new int[] {0, 1000, 7}) {
+            int type = TokenTypes.NULL;
+            int cachingType = TokenTypes.NULL;
+            for (String line : LINES) {
+                // The line is copied in a larger array to make sure that the segment's offset is handled
+                List<String> expected = describe(tokenMaker.getTokenList(segment(line), type, startOffset));
+                assert expected.equals(describe(cachingTokenMaker.getTokenList(segment(line), type, startOffset))) : line;
+                type = tokenMaker.getLastTokenTypeOnLine(segment(line), type);
+                cachingType = cachingTokenMaker.getLastTokenTypeOnLine(segment(line), cachingType);
+                assert type == cachingType : line;
+            }
+        }
+    }
+
+    /**
+     * Asserts that the syntax style without highlighting isn't cached.
+     */
+    @Test
+    public void testPlainText() {
+        assert !(new CachingTokenMaker.Factory().getTokenMaker(SyntaxConstants.SYNTAX_STYLE_NONE) instanceof CachingTokenMaker);
+    }
+
+
+    private static Segment segment(String line) {
+        String text = "xx" + line + "\nyy";
+        return new Segment(text.toCharArray(), 2, line.length());
+    }
+
+    private static List<String> describe(Token token) {
+        List<String> tokens = new ArrayList<>();
+        for (; token != null; token = token.getNextToken()) {
+            tokens.add(token.getOffset() + ":" + token.getType() + ":" + token.getLanguageIndex() + ":" + token.isHyperlink()
+                    + ":" + (token.isPaintable() ? token.getLexeme() : null));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.ui.viewer.text;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import ru.trolsoft.hexeditor.data.AbstractByteBuffer;
+import ru.trolsoft.hexeditor.data.FileByteBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A test case for {@link LineIndex}.
+ */
+public class LineIndexTest {
+
+    private File tempFile;
+    private AbstractByteBuffer data;
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+        if (tempFile != null) {
+            tempFile.delete();
+            tempFile = null;
+        }
+    }
+
+    /**
+     * Asserts that the lines of a file with more lines than there are between two checkpoints are read back.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testManyLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            String line = "line " + i + " éè";
+            lines.add(line);
+            text.append(line).append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        LineIndex index = buildIndex(text.toString().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        assert index.isComplete();
+        assert index.getNbLines() == lines.size();
+        assertLines(index, lines);
+    }
+
+    /**
+     * Asserts that a line longer than {@link LineIndex#MAX_LINE_LENGTH} is split without breaking UTF-8 sequences.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testLongLine() throws IOException {
+        StringBuilder longLine = new StringBuilder();
+        while (longLine.length() < 3 * LineIndex.MAX_LINE_LENGTH) {
+            longLine.append("a€");
+        }
+        String text = "first\n" + longLine + "\nlast";
+        LineIndex index = buildIndex(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        assert index.getNbLines() > 3;
+
+        String[] lines = new String[(int)index.getNbLines()];
+        assert index.readLines(data, index.getLineOffset(data, 0), lines) == lines.length;
+        assert lines[0].equals("first");
+        assert lines[lines.length - 1].equals("last");
+        StringBuilder joined = new StringBuilder();
+        for (int i = 1; i < lines.length - 1; i++) {
+            assert !lines[i].contains("�");
+            joined.append(lines[i]);
+        }
+        assert joined.toString().equals(longLine.toString());
+    }
+
+    /**
+     * Asserts that the byte-order mark and the line endings of a UTF-16 file are recognized.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testUTF16() throws IOException {
+        List<String> lines = Arrays.asList("файл", "", "上下", "end");
+        byte[] bytes = String.join("\r\n", lines).getBytes(StandardCharsets.UTF_16);
+        LineIndex index = buildIndex(bytes, StandardCharsets.UTF_16);
+        assert index.getNbLines() == lines.size();
+        assertLines(index, lines);
+    }
+
+    /**
+     * Asserts that offsets are mapped to the lines that contain them.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testLineOfOffset() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append(i).append('\n');
+        }
+        LineIndex index = buildIndex(text.toString().getBytes(StandardCharsets.US_ASCII), StandardCharsets.US_ASCII);
+        for (int line = 0; line < 1000; line += 37) {
+            long offset = index.getLineOffset(data, line);
+            assert offset == text.indexOf(line + "\n", line == 0 ? 0 : text.indexOf("\n" + line + "\n") + 1);
+            assert index.getLineOfOffset(data, offset) == line;
+            assert index.getLineOfOffset(data, offset + String.valueOf(line).length()) == line;
+        }
+    }
+
+    /**
+     * Asserts that bytes appended to an indexed file are indexed, and that they may continue its last line.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testResume() throws IOException {
+        List<String> lines = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LineIndex.LINES_PER_CHECKPOINT; i++) {
+            lines.add("line " + i);
+            text.append("line ").append(i).append('\n');
+        }
+        // The last line is the first line of a checkpoint, and isn't terminated yet
+        text.append("partial");
+        LineIndex index = buildIndex(text.toString().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        assert index.getNbLines() == lines.size() + 1;
+
+        append(index, "ly written\nlast\n", StandardCharsets.UTF_8);
+        lines.add("partially written");
+        lines.add("last");
+        assert index.isComplete();
+        assert index.getNbLines() == lines.size();
+        assertLines(index, lines);
+
+        append(index, "more", StandardCharsets.UTF_8);
+        lines.add("more");
+        assertLines(index, lines);
+        assert index.getLineOfOffset(data, index.getSize() - 1) == lines.size() - 1;
+    }
+
+
+    private void append(LineIndex index, String text, Charset charset) throws IOException {
+        Files.write(tempFile.toPath(), text.getBytes(charset), StandardOpenOption.APPEND);
+        long newSize = data.refreshSize();
+        assert newSize == tempFile.length();
+        byte[] bytes = Files.readAllBytes(tempFile.toPath());
+        int resumeOffset = (int)index.getResumeOffset();
+        index.resume(new ByteArrayInputStream(bytes, resumeOffset, bytes.length - resumeOffset), newSize);
+    }
+
+    private LineIndex buildIndex(byte[] bytes, Charset charset) throws IOException {
+        tempFile = File.createTempFile("lineindex", ".txt");
+        Files.write(tempFile.toPath(), bytes);
+        data = new FileByteBuffer(tempFile.getAbsolutePath(), "r");
+        LineIndex index = new LineIndex(charset, bytes.length);
+        index.build(new ByteArrayInputStream(bytes));
+        return index;
+    }
+
+    private void assertLines(LineIndex index, List<String> expected) throws IOException {
+        String[] lines = new String[expected.size()];
+        assert index.readLines(data, index.getLineOffset(data, 0), lines) == lines.length;
+        assert Arrays.asList(lines).equals(expected);
+        // Reads a window in the middle of the file
+        int first = expected.size() / 2;
+        String[] window = new String[3];
+        int nbRead = index.readLines(data, index.getLineOffset(data, first), window);
+        assert nbRead == Math.min(3, expected.size() - first);
+        for (int i = 0; i < nbRead; i++) {
+            assert window[i].equals(expected.get(first + i));
+        }
+    }
+}
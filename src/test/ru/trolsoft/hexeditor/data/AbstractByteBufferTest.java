@@ -0,0 +1,234 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.hexeditor.data;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A test case for the page cache of {@link AbstractByteBuffer}, using {@link MemoryByteBuffer}.
+ */
+public class AbstractByteBufferTest {
+
+    private final static int PAGE_SIZE = 100;
+
+    /** Maximum time to wait for prefetched pages, in milliseconds */
+    private final static long PREFETCH_TIMEOUT = 10000;
+
+    private static byte[] randomData(int length) {
+        byte[] data = new byte[length];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Asserts that bytes spanning several pages are copied correctly, and that reads stop at the end of file.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testGetBytesAcrossPages() throws IOException {
+        byte[] data = randomData(10 * PAGE_SIZE + 37);
+        MemoryByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+
+        byte[] dst = new byte[3 * PAGE_SIZE + 10];
+        assert buffer.getBytes(PAGE_SIZE - 5, dst) == dst.length;
+        assert Arrays.equals(dst, Arrays.copyOfRange(data, PAGE_SIZE - 5, PAGE_SIZE - 5 + dst.length));
+
+        // Backward across a page boundary, at an offset in the array
+        dst = new byte[PAGE_SIZE];
+        assert buffer.getBytes(2 * PAGE_SIZE - 20, dst, 10, 40) == 40;
+        assert Arrays.equals(Arrays.copyOfRange(dst, 10, 50), Arrays.copyOfRange(data, 2 * PAGE_SIZE - 20, 2 * PAGE_SIZE + 20));
+
+        // The last page is partial
+        dst = new byte[2 * PAGE_SIZE];
+        assert buffer.getBytes(data.length - 50, dst) == 50;
+        assert Arrays.equals(Arrays.copyOf(dst, 50), Arrays.copyOfRange(data, data.length - 50, data.length));
+        assert buffer.getBytes(data.length, dst) == 0;
+
+        for (int i = 0; i < data.length; i += 7) {
+            assert buffer.getByte(i) == data[i];
+        }
+        assert buffer.getByte(data.length - 1) == data[data.length - 1];
+        try {
+            buffer.getByte(data.length);
+            assert false;
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        buffer.close();
+    }
+
+    /**
+     * Asserts that the least recently used pages are evicted once the cache is full, and when it is shrunk.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testEviction() throws IOException {
+        byte[] data = randomData(10 * PAGE_SIZE);
+        MemoryByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE, 3 * PAGE_SIZE);
+        buffer.setPrefetchPages(0);
+        assert buffer.getCacheSize() == 3 * PAGE_SIZE;
+
+        for (int page = 0; page < 5; page++) {
+            assert buffer.getByte(page * PAGE_SIZE) == data[page * PAGE_SIZE];
+        }
+        assert buffer.getLoadedOffsets().size() == 5;
+
+        // Pages 2, 3 and 4 are cached
+        buffer.clearLoadedOffsets();
+        readPages(buffer, data, 3, 2, 4);
+        assert buffer.getLoadedOffsets().isEmpty();
+
+        // Page 3 is the least recently used one
+        readPages(buffer, data, 0);
+        assert buffer.getLoadedOffsets().equals(Arrays.asList(0L));
+        buffer.clearLoadedOffsets();
+        readPages(buffer, data, 2, 4);
+        assert buffer.getLoadedOffsets().isEmpty();
+        readPages(buffer, data, 3);
+        assert buffer.getLoadedOffsets().equals(Arrays.asList(3L * PAGE_SIZE));
+
+        // Shrinking the cache keeps the most recently used pages: 4 and 3
+        buffer.setCacheSize(2 * PAGE_SIZE);
+        assert buffer.getCacheSize() == 2 * PAGE_SIZE;
+        buffer.clearLoadedOffsets();
+        readPages(buffer, data, 4, 3);
+        assert buffer.getLoadedOffsets().isEmpty();
+        readPages(buffer, data, 2);
+        assert buffer.getLoadedOffsets().equals(Arrays.asList(2L * PAGE_SIZE));
+
+        // At least two pages are cached
+        buffer.setCacheSize(0);
+        assert buffer.getCacheSize() == 2 * PAGE_SIZE;
+        buffer.close();
+    }
+
+    /**
+     * Asserts that pages are read ahead in the direction given by the cache strategy, or by the scroll direction
+     * with {@link AbstractByteBuffer.CacheStrategy#CENTER}.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testPrefetchDirection() throws Exception {
+        byte[] data = randomData(20 * PAGE_SIZE);
+
+        MemoryByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        buffer.setCacheStrategy(AbstractByteBuffer.CacheStrategy.FORWARD);
+        readPages(buffer, data, 10);
+        waitForPages(buffer, 10, 11, 12);
+        buffer.close();
+
+        buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        buffer.setCacheStrategy(AbstractByteBuffer.CacheStrategy.BACKWARD);
+        readPages(buffer, data, 10);
+        waitForPages(buffer, 10, 8, 9);
+        buffer.close();
+
+        // No page past the end of file
+        buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        buffer.setCacheStrategy(AbstractByteBuffer.CacheStrategy.FORWARD);
+        readPages(buffer, data, 19);
+        buffer.setCacheStrategy(AbstractByteBuffer.CacheStrategy.BACKWARD);
+        readPages(buffer, data, 0);
+        waitForPages(buffer, 19, 0);
+        buffer.close();
+
+        buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        buffer.setPrefetchPages(3);
+        readPages(buffer, data, 10);
+        waitForPages(buffer, 10, 11, 12, 13);
+        buffer.clearLoadedOffsets();
+        readPages(buffer, data, 9);
+        waitForPages(buffer, 9, 6, 7, 8);
+        buffer.close();
+    }
+
+    /**
+     * Asserts that the data that follows the former end of file is read once the file has grown, and that the data
+     * is read again once it has shrunk.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRefreshSize() throws IOException {
+        byte[] data = randomData(5 * PAGE_SIZE + 50);
+        MemoryByteBuffer buffer = new MemoryByteBuffer(Arrays.copyOf(data, 3 * PAGE_SIZE + 30), PAGE_SIZE);
+        buffer.setPrefetchPages(0);
+        byte[] dst = new byte[data.length];
+        assert buffer.getBytes(0, dst) == 3 * PAGE_SIZE + 30;
+
+        // Unchanged
+        assert buffer.refreshSize() == 3 * PAGE_SIZE + 30;
+
+        buffer.setData(data);
+        assert buffer.getFileSize() == 3 * PAGE_SIZE + 30;
+        buffer.clearLoadedOffsets();
+        assert buffer.refreshSize() == data.length;
+        assert buffer.getFileSize() == data.length;
+        assert buffer.getBytes(0, dst) == data.length;
+        assert Arrays.equals(dst, data);
+        // Only the page that held the former end of file is read again
+        assert buffer.getLoadedOffsets().equals(Arrays.asList(3L * PAGE_SIZE, 4L * PAGE_SIZE, 5L * PAGE_SIZE));
+
+        byte[] shrunk = randomData(2 * PAGE_SIZE);
+        shrunk[0]++;
+        buffer.setData(shrunk);
+        assert buffer.refreshSize() == shrunk.length;
+        Arrays.fill(dst, (byte)0);
+        assert buffer.getBytes(0, dst) == shrunk.length;
+        assert Arrays.equals(Arrays.copyOf(dst, shrunk.length), shrunk);
+        buffer.close();
+    }
+
+
+    private static void readPages(AbstractByteBuffer buffer, byte[] data, int... pages) throws IOException {
+        for (int page : pages) {
+            int offset = page * PAGE_SIZE;
+            assert buffer.getByte(offset) == data[offset];
+        }
+    }
+
+    /**
+     * Waits for the loaded pages to be exactly the given ones.
+     */
+    private static void waitForPages(MemoryByteBuffer buffer, int... pages) throws InterruptedException {
+        Set<Long> expected = new HashSet<>();
+        for (int page : pages) {
+            expected.add((long)page * PAGE_SIZE);
+        }
+        long deadline = System.currentTimeMillis() + PREFETCH_TIMEOUT;
+        List<Long> loaded;
+        while (!(loaded = buffer.getLoadedOffsets()).containsAll(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Leave time for unexpected pages to be read
+        Thread.sleep(50);
+        loaded = buffer.getLoadedOffsets();
+        assert new HashSet<>(loaded).equals(expected) : loaded;
+        assert loaded.size() == expected.size() : loaded;
+    }
+}
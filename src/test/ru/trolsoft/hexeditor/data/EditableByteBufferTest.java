@@ -0,0 +1,183 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.hexeditor.data;
+
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.io.RandomAccessOutputStream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A test case for {@link EditableByteBuffer}.
+ */
+public class EditableByteBufferTest {
+
+    private final static int FILE_SIZE = 100000;
+
+    private File file;
+
+    private byte[] data;
+
+    private EditableByteBuffer buffer;
+
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = File.createTempFile("editable", ".bin");
+        data = new byte[FILE_SIZE];
+        new Random(0).nextBytes(data);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        buffer = new EditableByteBuffer(new FileByteBuffer(file.getPath(), "rw", 4096));
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        buffer.close();
+        file.delete();
+    }
+
+    /**
+     * Asserts that random insertions, deletions and replacements give the same data as the same edits on an array.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRandomEdits() throws IOException {
+        Random random = new Random(1);
+        byte[] expected = data;
+        for (int i = 0; i < 500; i++) {
+            int offset = random.nextInt(expected.length + 1);
+            int length = Math.min(random.nextInt(300), expected.length - offset);
+            byte[] bytes = new byte[random.nextInt(3) == 0 ? 0 : random.nextInt(50)];
+            random.nextBytes(bytes);
+            buffer.replace(offset, length, bytes);
+            expected = replace(expected, offset, length, bytes);
+
+            assert buffer.getFileSize() == expected.length;
+            if (expected.length > 0) {
+                int position = random.nextInt(expected.length);
+                assert buffer.getByte(position) == expected[position];
+            }
+        }
+        assert Arrays.equals(getAll(), expected);
+        assert Arrays.equals(write(), expected);
+        assert buffer.isModified();
+    }
+
+    /**
+     * Asserts that overwriting bytes allows to patch the file in place, and that inserting bytes doesn't.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testPatchInPlace() throws IOException {
+        assert buffer.canPatchInPlace();
+        buffer.setByte(10, (byte)1);
+        buffer.replace(5000, 3, new byte[] {2, 3, 4});
+        buffer.setByte(FILE_SIZE - 1, (byte)5);
+        assert !buffer.isLengthChanged();
+        assert buffer.canPatchInPlace();
+
+        byte[] expected = getAll();
+        try (RandomAccessOutputStream out = FileFactory.getFile(file.getAbsolutePath()).getRandomAccessOutputStream()) {
+            buffer.patch(out);
+        }
+        assert Arrays.equals(Files.readAllBytes(file.toPath()), expected);
+
+        // Same length, but the original bytes have moved
+        buffer.insert(100, new byte[] {6});
+        buffer.delete(200, 1);
+        assert !buffer.isLengthChanged();
+        assert !buffer.canPatchInPlace();
+    }
+
+    /**
+     * Asserts that typing consecutive bytes doesn't create a piece per byte and that edits can start on empty data.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testAppend() throws IOException {
+        buffer.delete(0, FILE_SIZE);
+        assert buffer.getFileSize() == 0;
+        assert buffer.getBytes(0, new byte[10]) == 0;
+
+        for (int i = 0; i < 1000; i++) {
+            buffer.insert(i, new byte[] {(byte)i});
+        }
+        assert buffer.getFileSize() == 1000;
+        for (int i = 0; i < 1000; i++) {
+            assert buffer.getByte(i) == (byte)i;
+        }
+    }
+
+    /**
+     * Asserts that the buffer can still be read and written after the stream of the original data has been released,
+     * as when saving fails to replace the file.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testReleaseOriginal() throws IOException {
+        EditableByteBuffer fileBuffer = new EditableByteBuffer(new MuCommanderByteBuffer(FileFactory.getFile(file.getAbsolutePath())));
+        try {
+            fileBuffer.insert(1000, new byte[] {1, 2, 3});
+            assert fileBuffer.getByte(FILE_SIZE) == data[FILE_SIZE - 3];
+            fileBuffer.releaseOriginal();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            fileBuffer.writeTo(out);
+            assert Arrays.equals(out.toByteArray(), replace(data, 1000, 0, new byte[] {1, 2, 3}));
+        } finally {
+            fileBuffer.close();
+        }
+    }
+
+
+    private byte[] getAll() throws IOException {
+        byte[] all = new byte[(int)buffer.getFileSize()];
+        assert buffer.getBytes(0, all) == all.length;
+        return all;
+    }
+
+    private byte[] write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] replace(byte[] array, int offset, int length, byte[] bytes) {
+        byte[] result = new byte[array.length - length + bytes.length];
+        System.arraycopy(array, 0, result, 0, offset);
+        System.arraycopy(bytes, 0, result, offset, bytes.length);
+        System.arraycopy(array, offset + length, result, offset + bytes.length, array.length - offset - length);
+        return result;
+    }
+
+}
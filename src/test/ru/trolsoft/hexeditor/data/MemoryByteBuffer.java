@@ -0,0 +1,89 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.hexeditor.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link AbstractByteBuffer} that reads an array, for tests. The array can be replaced to simulate a file that
+ * grows or shrinks, and the pages that are loaded are recorded.
+ */
+public class MemoryByteBuffer extends AbstractByteBuffer {
+
+    private volatile byte[] data;
+
+    /** Offsets of the loadPage calls, in call order */
+    private final List<Long> loadedOffsets = new ArrayList<>();
+
+    public MemoryByteBuffer(byte[] data, int capacity) {
+        super(capacity);
+        this.data = data;
+    }
+
+    public MemoryByteBuffer(byte[] data, int capacity, long cacheSize) {
+        super(capacity, cacheSize);
+        this.data = data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Returns the offsets of the loadPage calls so far, in call order.
+     *
+     * @return a copy of the offsets
+     */
+    public synchronized List<Long> getLoadedOffsets() {
+        return new ArrayList<>(loadedOffsets);
+    }
+
+    public synchronized void clearLoadedOffsets() {
+        loadedOffsets.clear();
+    }
+
+    @Override
+    protected void closeStream() {
+    }
+
+    @Override
+    protected long getStreamSize() {
+        return data.length;
+    }
+
+    @Override
+    protected int loadPage(long fileOffset, byte[] dst, int off, int len) throws IOException {
+        synchronized (this) {
+            loadedOffsets.add(fileOffset);
+        }
+        byte[] data = this.data;
+        if (fileOffset >= data.length) {
+            return -1;
+        }
+        int count = (int)Math.min(len, data.length - fileOffset);
+        System.arraycopy(data, (int)fileOffset, dst, off, count);
+        return count;
+    }
+
+    @Override
+    protected boolean supportRandomAccess() {
+        return true;
+    }
+}
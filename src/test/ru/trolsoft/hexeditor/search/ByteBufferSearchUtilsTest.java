@@ -0,0 +1,242 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/trolcommander
+ * Copyright (C) 2014-2015 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.hexeditor.search;
+
+import org.testng.annotations.Test;
+import ru.trolsoft.hexeditor.data.AbstractByteBuffer;
+import ru.trolsoft.hexeditor.data.MemoryByteBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A test case for {@link ByteBufferSearchUtils}. The results are compared to a brute force search, on data that is
+ * larger than the blocks the search reads at once.
+ */
+public class ByteBufferSearchUtilsTest {
+
+    /** Size of the blocks read by the search, see ByteBufferSearchUtils */
+    private final static int BLOCK_SIZE = 1024*64;
+
+    private final static int PAGE_SIZE = 4096;
+
+    /**
+     * Asserts that forward search finds the same occurrences as a brute force search, from various offsets, with
+     * patterns that occur at random positions of random data.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRandomData() throws IOException {
+        Random random = new Random(0);
+        // A small alphabet gives partial matches and overlapping occurrences
+        byte[] data = randomData(random, 3 * BLOCK_SIZE + 123, 4);
+        AbstractByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        for (int length = 1; length <= 9; length++) {
+            int start = random.nextInt(data.length - length);
+            byte[] pattern = Arrays.copyOfRange(data, start, start + length);
+            assertFindAll(buffer, data, pattern, 0);
+            assertFindAll(buffer, data, pattern, start);
+            assertFindAll(buffer, data, pattern, start + 1);
+            long fromOffset = random.nextInt(data.length);
+            assert ByteBufferSearchUtils.indexOf(buffer, pattern, fromOffset) == bruteForceIndexOf(data, pattern, fromOffset);
+        }
+    }
+
+    /**
+     * Asserts that occurrences that span the boundary between two blocks, or two pages, are found in both
+     * directions.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testBlockBoundaries() throws IOException {
+        byte[] pattern = "boundary".getBytes();
+        int[] offsets = {BLOCK_SIZE - 1, BLOCK_SIZE - pattern.length + 1, 2 * BLOCK_SIZE - 4, PAGE_SIZE - 3, 2 * BLOCK_SIZE + pattern.length - 2};
+        for (int offset : offsets) {
+            byte[] data = new byte[3 * BLOCK_SIZE];
+            System.arraycopy(pattern, 0, data, offset, pattern.length);
+            AbstractByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+
+            assert ByteBufferSearchUtils.indexOf(buffer, pattern, 0) == offset;
+            assert ByteBufferSearchUtils.indexOf(buffer, pattern, offset) == offset;
+            assert ByteBufferSearchUtils.indexOf(buffer, pattern, offset + 1) == -1;
+            assert ByteBufferSearchUtils.indexOfBackward(buffer, pattern, data.length) == offset;
+            assert ByteBufferSearchUtils.indexOfBackward(buffer, pattern, offset) == offset;
+            assert ByteBufferSearchUtils.indexOfBackward(buffer, pattern, offset - 1) == -1;
+        }
+    }
+
+    /**
+     * Asserts that overlapping occurrences are all returned, including across block boundaries.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testOverlappingMatches() throws IOException {
+        byte[] data = new byte[2 * BLOCK_SIZE + 10];
+        Arrays.fill(data, (byte)'a');
+        byte[] pattern = "aaa".getBytes();
+        AbstractByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+
+        List<Long> result = ByteBufferSearchUtils.findAll(buffer, pattern, 0, Integer.MAX_VALUE, null);
+        assert result.size() == data.length - pattern.length + 1;
+        for (int i = 0; i < result.size(); i++) {
+            assert result.get(i) == i;
+        }
+
+        data = "abababa".getBytes();
+        buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        assert ByteBufferSearchUtils.findAll(buffer, "aba".getBytes(), 0, 10, null).equals(Arrays.asList(0L, 2L, 4L));
+        assert ByteBufferSearchUtils.findAll(buffer, "aba".getBytes(), 1, 10, null).equals(Arrays.asList(2L, 4L));
+        assert ByteBufferSearchUtils.findAll(buffer, "aba".getBytes(), 0, 2, null).equals(Arrays.asList(0L, 2L));
+        assert ByteBufferSearchUtils.indexOfBackward(buffer, "aba".getBytes(), 3) == 2;
+    }
+
+    /**
+     * Asserts that searches that start near, at or past the end of file don't read past it.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testFromOffsetNearEOF() throws IOException {
+        byte[] data = new byte[BLOCK_SIZE + 100];
+        Arrays.fill(data, (byte)'x');
+        byte[] pattern = "end".getBytes();
+        System.arraycopy(pattern, 0, data, data.length - pattern.length, pattern.length);
+        AbstractByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        long last = data.length - pattern.length;
+
+        assert ByteBufferSearchUtils.indexOf(buffer, pattern, last - 1) == last;
+        assert ByteBufferSearchUtils.indexOf(buffer, pattern, last) == last;
+        assert ByteBufferSearchUtils.indexOf(buffer, pattern, last + 1) == -1;
+        assert ByteBufferSearchUtils.indexOf(buffer, pattern, data.length) == -1;
+        assert ByteBufferSearchUtils.indexOf(buffer, pattern, data.length + 100) == -1;
+        assert ByteBufferSearchUtils.indexOf(buffer, pattern, -5) == last;
+        assert ByteBufferSearchUtils.indexOf(buffer, new byte[data.length + 1], 0) == -1;
+        assert ByteBufferSearchUtils.indexOf(buffer, new byte[0], 0) == -1;
+
+        assert ByteBufferSearchUtils.indexOfBackward(buffer, pattern, data.length + 100) == last;
+        assert ByteBufferSearchUtils.indexOfBackward(buffer, pattern, last) == last;
+        assert ByteBufferSearchUtils.indexOfBackward(buffer, pattern, last - 1) == -1;
+    }
+
+    /**
+     * Asserts that backward search finds the same occurrence as a brute force search, from various offsets.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testBackward() throws IOException {
+        Random random = new Random(1);
+        byte[] data = randomData(random, 3 * BLOCK_SIZE + 77, 4);
+        AbstractByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        for (int length = 1; length <= 9; length++) {
+            int start = random.nextInt(data.length - length);
+            byte[] pattern = Arrays.copyOfRange(data, start, start + length);
+            long[] offsets = {data.length, start, start - 1, 0, random.nextInt(data.length), BLOCK_SIZE, 2 * BLOCK_SIZE - 1};
+            for (long fromOffset : offsets) {
+                assert ByteBufferSearchUtils.indexOfBackward(buffer, pattern, fromOffset) == bruteForceIndexOfBackward(data, pattern, fromOffset);
+            }
+        }
+        // Occurrence at the very beginning
+        assert ByteBufferSearchUtils.indexOfBackward(buffer, Arrays.copyOf(data, 5), data.length) >= 0;
+        assert ByteBufferSearchUtils.indexOfBackward(buffer, Arrays.copyOf(data, 5), 0) == 0;
+        assert ByteBufferSearchUtils.indexOfBackward(buffer, data, -1) == -1;
+    }
+
+    /**
+     * Asserts that the listener is notified and can cancel the search.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCancel() throws IOException {
+        byte[] data = new byte[4 * BLOCK_SIZE];
+        AbstractByteBuffer buffer = new MemoryByteBuffer(data, PAGE_SIZE);
+        byte[] pattern = "absent".getBytes();
+        List<Long> progress = new ArrayList<>();
+        ByteBufferSearchUtils.findAll(buffer, pattern, 0, 1, (processed, total) -> {
+            progress.add(processed);
+            return true;
+        });
+        assert !progress.isEmpty();
+
+        try {
+            ByteBufferSearchUtils.indexOf(buffer, pattern, 0, (processed, total) -> false);
+            assert false;
+        } catch (CancellationException e) {
+            // Expected
+        }
+        try {
+            ByteBufferSearchUtils.indexOfBackward(buffer, pattern, data.length, (processed, total) -> false);
+            assert false;
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+
+    private static void assertFindAll(AbstractByteBuffer buffer, byte[] data, byte[] pattern, long fromOffset) throws IOException {
+        List<Long> expected = new ArrayList<>();
+        long offset = fromOffset;
+        while ((offset = bruteForceIndexOf(data, pattern, offset)) >= 0) {
+            expected.add(offset++);
+        }
+        assert ByteBufferSearchUtils.findAll(buffer, pattern, fromOffset, Integer.MAX_VALUE, null).equals(expected);
+    }
+
+    private static long bruteForceIndexOf(byte[] data, byte[] pattern, long fromOffset) {
+        for (long i = Math.max(0, fromOffset); i <= data.length - pattern.length; i++) {
+            if (matches(data, pattern, (int)i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long bruteForceIndexOfBackward(byte[] data, byte[] pattern, long fromOffset) {
+        for (long i = Math.min(fromOffset, data.length - pattern.length); i >= 0; i--) {
+            if (matches(data, pattern, (int)i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] data, byte[] pattern, int offset) {
+        for (int j = 0; j < pattern.length; j++) {
+            if (data[offset + j] != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] randomData(Random random, int length, int alphabetSize) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte)('a' + random.nextInt(alphabetSize));
+        }
+        return data;
+    }
+}